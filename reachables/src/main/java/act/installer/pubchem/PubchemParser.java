@@ -23,6 +23,7 @@
 
 package act.installer.pubchem;
 
+import act.server.MongoBulkWriter;
 import act.server.MongoDB;
 import act.shared.Chemical;
 import org.apache.commons.cli.CommandLine;
@@ -76,6 +77,8 @@ public class PubchemParser {
   private static final int GZIP_BUFFER_SIZE = 1 << 27; // ~128MB of buffer space to help GZip really move.
 
   private static final boolean ENABLE_XML_STREAM_TEXT_COALESCING = true;
+  // Pubchem has tens of millions of compounds, so we send them to the DB in large unordered batches.
+  private static final int WRITE_BATCH_SIZE = 5000;
 
   public static final HelpFormatter HELP_FORMATTER = new HelpFormatter();
   static {
@@ -187,6 +190,8 @@ public class PubchemParser {
   private final Map<PC_XPATHS, DOMXPath> xpaths = new HashMap<>(PC_XPATHS.values().length);
 
   private MongoDB db;
+  // Only set while run() is installing the dump.
+  private MongoBulkWriter bulkWriter = null;
   private DocumentBuilder documentBuilder;
   private XMLInputFactory xmlInputFactory;
 
@@ -226,6 +231,10 @@ public class PubchemParser {
    * @param chemical Chemical to be written to the DB.
    */
   private void writeChemicalToDB(Chemical chemical) {
+    if (bulkWriter != null) {
+      bulkWriter.submitChemical(chemical);
+      return;
+    }
     Long id = db.getNextAvailableChemicalDBid();
     db.submitToActChemicalDB(chemical, id);
   }
@@ -408,11 +417,16 @@ public class PubchemParser {
    */
   private void run(List<File> filesToProcess) throws XMLStreamException, JaxenException, IOException {
     int counter = 1;
-    for (File file : filesToProcess) {
-      LOGGER.info("Processing file %d of %d", counter, filesToProcess.size());
-      LOGGER.info("File name is %s", file.getPath());
-      openCompressedXMLFileAndWriteChemicals(file);
-      counter++;
+    try (MongoBulkWriter writer = new MongoBulkWriter(db, WRITE_BATCH_SIZE)) {
+      bulkWriter = writer;
+      for (File file : filesToProcess) {
+        LOGGER.info("Processing file %d of %d", counter, filesToProcess.size());
+        LOGGER.info("File name is %s", file.getPath());
+        openCompressedXMLFileAndWriteChemicals(file);
+        counter++;
+      }
+    } finally {
+      bulkWriter = null;
     }
   }
 
@@ -92,6 +92,7 @@ public class Loader {
   private static final String OPTION_TARGET_REACHABLES_COLLECTION = "c";
   private static final String OPTION_TARGET_SEQUENCES_COLLECTION = "s";
   private static final String OPTION_RENDERING_CACHE = "e";
+  private static final String OPTION_CHEMICAL_INDEX = "x";
 
   private static final String DEFAULT_ASSETS_LOCATION = "data/reachables-explorer-rendering-cache";
 
@@ -204,6 +205,13 @@ public class Loader {
         .hasArg()
         .longOpt("cache-dir")
     );
+    add(Option.builder(OPTION_CHEMICAL_INDEX)
+        .argName("path to index")
+        .desc("A chemical lookup index of the source DB (see act.server.ChemicalLookupIndex) from which to read " +
+            "chemicals instead of querying the source DB for each one")
+        .hasArg()
+        .longOpt("chemical-index")
+    );
   }};
 
 
@@ -238,6 +246,11 @@ public class Loader {
         cl.getOptionValue(OPTION_TARGET_SEQUENCES_COLLECTION),
         cl.getOptionValue(OPTION_RENDERING_CACHE, DEFAULT_ASSETS_LOCATION)
     );
+    if (cl.hasOption(OPTION_CHEMICAL_INDEX)) {
+      loader.getChemicalSourceDB().useChemicalLookupIndex(new File(cl.getOptionValue(OPTION_CHEMICAL_INDEX)));
+    }
+
+    long startTime = System.currentTimeMillis();
     loader.updateFromReachableDir(reachablesDir);
 
     if (cl.hasOption(OPTION_PROJECTIONS_SOURCE_DATA)) {
@@ -257,6 +270,11 @@ public class Loader {
       }
       loader.updateFromProjectedInchiFile(projectedInchisFile);
     }
+
+    LOGGER.info("Loading took %d ms", System.currentTimeMillis() - startTime);
+    if (loader.getChemicalSourceDB().getChemicalLookupIndex() != null) {
+      loader.getChemicalSourceDB().getChemicalLookupIndex().logStats();
+    }
   }
 
 
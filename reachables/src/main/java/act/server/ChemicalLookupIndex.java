@@ -0,0 +1,346 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package act.server;
+
+import com.act.utils.CLIUtil;
+import com.act.utils.rocksdb.ColumnFamilyEnumeration;
+import com.act.utils.rocksdb.DBUtil;
+import com.act.utils.rocksdb.RocksDBAndHandles;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bson.BasicBSONEncoder;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A read-optimized local snapshot of a DB's chemicals collection, so that code that looks up chemicals one at a time
+ * by InChI or id can do so without a round trip to Mongo for each.  The index is a RocksDB (off-heap, read through
+ * mmap) with an InChI -> id table and an id -> chemical document table; documents are stored as BSON, exactly as Mongo
+ * returns them.
+ *
+ * An index is built once per DB snapshot and is only valid as long as nobody writes to that DB's chemicals.  MongoDB
+ * checks that the chemical count and largest id still match the snapshot when an index is attached, and stops using it
+ * as soon as it writes to its own chemicals collection.
+ */
+public class ChemicalLookupIndex implements AutoCloseable {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(ChemicalLookupIndex.class);
+
+  private static final int WRITE_BATCH_SIZE = 10000;
+  private static final byte[] METADATA_CHEMICAL_COUNT = "chemical_count".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] METADATA_MAX_ID = "max_id".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] METADATA_SOURCE = "source".getBytes(StandardCharsets.UTF_8);
+
+  public enum COLUMN_FAMILIES implements ColumnFamilyEnumeration<COLUMN_FAMILIES> {
+    INCHI_TO_ID("inchi_to_id"),
+    ID_TO_CHEMICAL("id_to_chemical"),
+    METADATA("metadata"),
+    ;
+
+    private static final Map<String, COLUMN_FAMILIES> reverseNameMap =
+        new HashMap<String, COLUMN_FAMILIES>() {{
+          for (COLUMN_FAMILIES cf : COLUMN_FAMILIES.values()) {
+            put(cf.getName(), cf);
+          }
+        }};
+
+    private String name;
+
+    COLUMN_FAMILIES(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public COLUMN_FAMILIES getFamilyByName(String name) {
+      return reverseNameMap.get(name);
+    }
+  }
+
+  private static final String OPTION_DB_HOST = "H";
+  private static final String OPTION_DB_PORT = "p";
+  private static final String OPTION_DB_NAME = "d";
+  private static final String OPTION_INDEX_PATH = "o";
+
+  private static final String DEFAULT_HOST = "localhost";
+  private static final String DEFAULT_PORT = "27017";
+
+  public static final String HELP_MESSAGE = StringUtils.join(new String[]{
+      "This class builds a local index of a DB's chemicals for fast lookups by InChI and id.  Point MongoDB at the ",
+      "index (see MongoDB.useChemicalLookupIndex, or the --chemical-index option of tools that support it) to serve ",
+      "chemical lookups from disk rather than from Mongo.  Rebuild the index whenever the DB's chemicals change."
+  }, "");
+
+  public static final List<Option.Builder> OPTION_BUILDERS = new ArrayList<Option.Builder>() {{
+    add(Option.builder(OPTION_DB_HOST)
+        .argName("DB host")
+        .desc(String.format("The database host to which to connect (default: %s)", DEFAULT_HOST))
+        .hasArg()
+        .longOpt("db-host")
+    );
+    add(Option.builder(OPTION_DB_PORT)
+        .argName("DB port")
+        .desc(String.format("The port on which to connect to the database (default: %s)", DEFAULT_PORT))
+        .hasArg()
+        .longOpt("db-port")
+    );
+    add(Option.builder(OPTION_DB_NAME)
+        .argName("DB name")
+        .desc("The name of the database whose chemicals to index")
+        .hasArg().required()
+        .longOpt("db-name")
+    );
+    add(Option.builder(OPTION_INDEX_PATH)
+        .argName("index path")
+        .desc("A directory in which to create the index; must not already exist")
+        .hasArg().required()
+        .longOpt("index")
+    );
+  }};
+
+  private final RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles;
+  private final long chemicalCount;
+  private final long maxId;
+
+  private final AtomicLong idHits = new AtomicLong();
+  private final AtomicLong idMisses = new AtomicLong();
+  private final AtomicLong chemicalHits = new AtomicLong();
+  private final AtomicLong chemicalMisses = new AtomicLong();
+
+  public static void main(String[] args) throws Exception {
+    CLIUtil cliUtil = new CLIUtil(ChemicalLookupIndex.class, HELP_MESSAGE, OPTION_BUILDERS);
+    CommandLine cl = cliUtil.parseCommandLine(args);
+
+    File indexDir = new File(cl.getOptionValue(OPTION_INDEX_PATH));
+    if (indexDir.exists()) {
+      cliUtil.failWithMessage("Index directory at %s already exists", indexDir.getAbsolutePath());
+    }
+
+    MongoDB db = new MongoDB(cl.getOptionValue(OPTION_DB_HOST, DEFAULT_HOST),
+        Integer.parseInt(cl.getOptionValue(OPTION_DB_PORT, DEFAULT_PORT)), cl.getOptionValue(OPTION_DB_NAME));
+    build(db, indexDir);
+  }
+
+  /**
+   * Builds an index of all of a DB's chemicals.
+   * @param db The DB whose chemicals to index.
+   * @param indexDir A directory in which to create the index; must not already exist.
+   * @throws IOException
+   */
+  public static void build(MongoDB db, File indexDir) throws IOException {
+    RocksDB.loadLibrary();
+    RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles;
+    try {
+      LOGGER.info("Creating chemical lookup index at %s", indexDir.getAbsolutePath());
+      dbAndHandles = DBUtil.createNewRocksDB(indexDir, COLUMN_FAMILIES.values());
+    } catch (RocksDBException e) {
+      throw new IOException(String.format("Unable to create chemical lookup index at %s: %s",
+          indexDir.getAbsolutePath(), e.getMessage()), e);
+    }
+
+    long startTime = System.currentTimeMillis();
+    DBIterator chemicals = db.getIteratorOverChemicals();
+    try {
+      long count = writeChemicals(dbAndHandles, chemicals, db.toString());
+      LOGGER.info("Indexed %d chemicals in %d ms", count, System.currentTimeMillis() - startTime);
+      dbAndHandles.flush(true);
+    } catch (RocksDBException e) {
+      throw new IOException("Unable to write to chemical lookup index", e);
+    } finally {
+      chemicals.close();
+      dbAndHandles.close();
+    }
+  }
+
+  /**
+   * Writes chemical documents and the snapshot's metadata to an empty index.
+   * @return The number of chemicals written.
+   */
+  static long writeChemicals(RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles, Iterator<DBObject> chemicals,
+                             String source) throws RocksDBException {
+    BasicBSONEncoder encoder = new BasicBSONEncoder();
+    long count = 0;
+    long maxId = -1;
+    RocksDBAndHandles.RocksDBWriteBatch<COLUMN_FAMILIES> batch = dbAndHandles.makeWriteBatch();
+    while (chemicals.hasNext()) {
+      DBObject o = chemicals.next();
+      long id = ((Number) o.get("_id")).longValue();
+      byte[] idKey = idToBytes(id);
+      String inchi = (String) o.get("InChI");
+      if (inchi != null) {
+        batch.put(COLUMN_FAMILIES.INCHI_TO_ID, inchi.getBytes(StandardCharsets.UTF_8), idKey);
+      }
+      batch.put(COLUMN_FAMILIES.ID_TO_CHEMICAL, idKey, encoder.encode(o));
+      maxId = Math.max(maxId, id);
+      count++;
+      if (count % WRITE_BATCH_SIZE == 0) {
+        batch.write();
+        batch = dbAndHandles.makeWriteBatch();
+        LOGGER.info("Indexed %d chemicals", count);
+      }
+    }
+    batch.put(COLUMN_FAMILIES.METADATA, METADATA_CHEMICAL_COUNT, idToBytes(count));
+    batch.put(COLUMN_FAMILIES.METADATA, METADATA_MAX_ID, idToBytes(maxId));
+    batch.put(COLUMN_FAMILIES.METADATA, METADATA_SOURCE, source.getBytes(StandardCharsets.UTF_8));
+    batch.write();
+    return count;
+  }
+
+  /**
+   * Opens an existing index read-only, so any number of processes can share it.
+   * @param indexDir The index's directory.
+   * @return An open index.
+   * @throws IOException
+   */
+  public static ChemicalLookupIndex open(File indexDir) throws IOException {
+    if (!indexDir.exists()) {
+      throw new IOException(String.format("No chemical lookup index exists at %s", indexDir.getAbsolutePath()));
+    }
+    RocksDB.loadLibrary();
+    try {
+      return new ChemicalLookupIndex(DBUtil.openExistingRocksDB(indexDir, COLUMN_FAMILIES.values(), true));
+    } catch (RocksDBException e) {
+      throw new IOException(String.format("Unable to open chemical lookup index at %s: %s",
+          indexDir.getAbsolutePath(), e.getMessage()), e);
+    }
+  }
+
+  ChemicalLookupIndex(RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles) throws RocksDBException {
+    this.dbAndHandles = dbAndHandles;
+    byte[] count = dbAndHandles.get(COLUMN_FAMILIES.METADATA, METADATA_CHEMICAL_COUNT);
+    byte[] max = dbAndHandles.get(COLUMN_FAMILIES.METADATA, METADATA_MAX_ID);
+    if (count == null || max == null) {
+      // The metadata is written last, so an index without it was never finished.
+      throw new RocksDBException("Chemical lookup index is incomplete");
+    }
+    this.chemicalCount = bytesToId(count);
+    this.maxId = bytesToId(max);
+    byte[] source = dbAndHandles.get(COLUMN_FAMILIES.METADATA, METADATA_SOURCE);
+    LOGGER.info("Opened chemical lookup index of %d chemicals from %s", chemicalCount,
+        source == null ? "(unknown)" : new String(source, StandardCharsets.UTF_8));
+  }
+
+  private static byte[] idToBytes(long id) {
+    return ByteBuffer.allocate(Long.BYTES).putLong(id).array();
+  }
+
+  private static long bytesToId(byte[] bytes) {
+    return ByteBuffer.wrap(bytes).getLong();
+  }
+
+  public long getChemicalCount() {
+    return chemicalCount;
+  }
+
+  public long getMaxId() {
+    return maxId;
+  }
+
+  /**
+   * Looks up the id of the chemical with some InChI.
+   * @param inchi The InChI to look up.
+   * @return The chemical's id, or null if no chemical in the snapshot has that InChI.
+   * @throws IOException
+   */
+  public Long getIdForInChI(String inchi) throws IOException {
+    byte[] value;
+    try {
+      value = dbAndHandles.get(COLUMN_FAMILIES.INCHI_TO_ID, inchi.getBytes(StandardCharsets.UTF_8));
+    } catch (RocksDBException e) {
+      throw new IOException("Unable to read from chemical lookup index", e);
+    }
+    if (value == null) {
+      idMisses.incrementAndGet();
+      return null;
+    }
+    idHits.incrementAndGet();
+    return bytesToId(value);
+  }
+
+  /**
+   * Looks up a chemical's document.
+   * @param id The chemical's id.
+   * @return The document as Mongo would return it, or null if no chemical in the snapshot has that id.
+   * @throws IOException
+   */
+  public DBObject getChemicalDocument(long id) throws IOException {
+    byte[] value;
+    try {
+      value = dbAndHandles.get(COLUMN_FAMILIES.ID_TO_CHEMICAL, idToBytes(id));
+    } catch (RocksDBException e) {
+      throw new IOException("Unable to read from chemical lookup index", e);
+    }
+    if (value == null) {
+      chemicalMisses.incrementAndGet();
+      return null;
+    }
+    chemicalHits.incrementAndGet();
+    // The decoder builds BasicDBObjects and BasicDBLists all the way down, like a DBCursor does.
+    return new DefaultDBDecoder().decode(value, null);
+  }
+
+  public long getIdHits() {
+    return idHits.get();
+  }
+
+  public long getIdMisses() {
+    return idMisses.get();
+  }
+
+  public long getChemicalHits() {
+    return chemicalHits.get();
+  }
+
+  public long getChemicalMisses() {
+    return chemicalMisses.get();
+  }
+
+  public void logStats() {
+    LOGGER.info("Chemical lookup index: InChI -> id %d hits / %d misses, id -> chemical %d hits / %d misses",
+        idHits.get(), idMisses.get(), chemicalHits.get(), chemicalMisses.get());
+  }
+
+  @Override
+  public void close() {
+    dbAndHandles.close();
+  }
+}
@@ -0,0 +1,181 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package act.server;
+
+import act.shared.Chemical;
+import act.shared.Reaction;
+import com.mongodb.BasicDBObject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Buffers chemical and reaction inserts and sends them to Mongo in unordered bulk writes, instead of the two or three
+ * round trips per document that MongoDB.submitToActChemicalDB and submitToActReactionDB make.
+ *
+ * Ids are handed out from ranges read once when the writer is created, and duplicate chemicals are detected with an
+ * in-memory InChI -> id map rather than a findOne per chemical.  Both are only correct if this writer is the only
+ * thing inserting chemicals/reactions into the DB while it's in use, which is the case for the installers and the
+ * biointerpretation steps (which write to freshly dropped DBs).
+ *
+ * Inserted documents are not visible to reads until they've been flushed: call flush() (or close()) before reading
+ * back anything written through this writer.
+ */
+public class MongoBulkWriter implements AutoCloseable {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(MongoBulkWriter.class);
+
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+
+  private final MongoDB db;
+  private final int batchSize;
+
+  private final Map<String, Long> chemicalIdsByInChI;
+  private long nextChemicalId;
+  private int nextReactionId;
+
+  // Keyed by id so that updates to not-yet-flushed documents can replace them in place.
+  private final Map<Long, BasicDBObject> pendingChemicals = new LinkedHashMap<>();
+  private final Map<Integer, BasicDBObject> pendingReactions = new LinkedHashMap<>();
+
+  private long chemicalsInserted = 0L;
+  private long chemicalsMerged = 0L;
+  private long reactionsInserted = 0L;
+  private long bulkWrites = 0L;
+
+  public MongoBulkWriter(MongoDB db) {
+    this(db, DEFAULT_BATCH_SIZE);
+  }
+
+  public MongoBulkWriter(MongoDB db, int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException(String.format("Invalid bulk write batch size: %d", batchSize));
+    }
+    this.db = db;
+    this.batchSize = batchSize;
+    this.chemicalIdsByInChI = db.getChemicalIdsByInChI();
+    this.nextChemicalId = db.getNextAvailableChemicalDBid();
+    this.nextReactionId = db.getNextAvailableReactionDBid();
+    LOGGER.info("Bulk writer starting with %d known chemicals, next chemical id %d, next reaction id %d",
+        chemicalIdsByInChI.size(), nextChemicalId, nextReactionId);
+  }
+
+  /**
+   * Queues a chemical for insertion, or merges it into the existing chemical with the same InChI.  Has the same
+   * semantics as MongoDB.submitToActChemicalDB, except that the id is chosen by the writer.
+   * @param c The chemical to write.
+   * @return The id of the chemical document that represents c.
+   */
+  public long submitChemical(Chemical c) {
+    String inchi = c.getInChI();
+    Long existingId = inchi == null ? null : chemicalIdsByInChI.get(inchi);
+    if (existingId != null) {
+      // Merging reads the existing document back, so it has to have been written first.
+      if (pendingChemicals.containsKey(existingId)) {
+        flushChemicals();
+      }
+      db.submitToActChemicalDB(c, existingId);
+      chemicalsMerged++;
+      return existingId;
+    }
+
+    long id = nextChemicalId++;
+    pendingChemicals.put(id, MongoDB.createChemicalDoc(c, id));
+    if (inchi != null) {
+      chemicalIdsByInChI.put(inchi, id);
+    }
+    if (pendingChemicals.size() >= batchSize) {
+      flushChemicals();
+    }
+    return id;
+  }
+
+  /**
+   * Queues a new reaction for insertion.  Like MongoDB.submitToActReactionDB, the reaction must not have an id yet.
+   * @param r The reaction to write.
+   * @return The id assigned to the reaction.
+   */
+  public int submitReaction(Reaction r) {
+    if (r.getUUID() != -1) {
+      String msg = String.format("Reaction to be inserted already has an id (%d); use updateReaction instead",
+          r.getUUID());
+      LOGGER.error(msg);
+      throw new RuntimeException(msg);
+    }
+
+    int id = nextReactionId++;
+    pendingReactions.put(id, MongoDB.createReactionDoc(r, id));
+    if (pendingReactions.size() >= batchSize) {
+      flushReactions();
+    }
+    return id;
+  }
+
+  /**
+   * Overwrites a reaction document, whether or not it has been flushed yet.  Equivalent to
+   * MongoDB.updateActReaction for reactions that are already in the DB.
+   * @param r The new contents of the reaction.
+   * @param id The id of the reaction to overwrite.
+   */
+  public void updateReaction(Reaction r, int id) {
+    if (pendingReactions.containsKey(id)) {
+      pendingReactions.put(id, MongoDB.createReactionDoc(r, id));
+    } else {
+      db.updateActReaction(r, id);
+    }
+  }
+
+  public void flush() {
+    flushChemicals();
+    flushReactions();
+  }
+
+  private void flushChemicals() {
+    if (pendingChemicals.isEmpty()) {
+      return;
+    }
+    db.bulkInsertChemicalDocs(pendingChemicals.values());
+    chemicalsInserted += pendingChemicals.size();
+    bulkWrites++;
+    pendingChemicals.clear();
+  }
+
+  private void flushReactions() {
+    if (pendingReactions.isEmpty()) {
+      return;
+    }
+    db.bulkInsertReactionDocs(pendingReactions.values());
+    reactionsInserted += pendingReactions.size();
+    bulkWrites++;
+    pendingReactions.clear();
+  }
+
+  @Override
+  public void close() {
+    flush();
+    LOGGER.info("Bulk writer inserted %d chemicals and %d reactions in %d bulk writes, merged %d chemicals",
+        chemicalsInserted, reactionsInserted, bulkWrites, chemicalsMerged);
+  }
+}
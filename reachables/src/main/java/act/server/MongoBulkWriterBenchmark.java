@@ -0,0 +1,170 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package act.server;
+
+import act.shared.Chemical;
+import act.shared.Reaction;
+import com.act.utils.CLIUtil;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.biopax.paxtools.model.level3.ConversionDirectionType;
+import org.biopax.paxtools.model.level3.StepDirection;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares chemical/reaction insert throughput of the one-document-at-a-time MongoDB.submitToAct*DB methods against
+ * MongoBulkWriter, by writing the same synthetic documents both ways into a scratch DB on a local mongod.  Like the
+ * other benchmarks in this repo this is a plain CLI: run it against a throwaway mongod, never a DB you care about, as
+ * the target DB is dropped before and after each run.
+ */
+public class MongoBulkWriterBenchmark {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(MongoBulkWriterBenchmark.class);
+
+  public static final String OPTION_DB = "d";
+  public static final String OPTION_HOST = "H";
+  public static final String OPTION_PORT = "p";
+  public static final String OPTION_DOCUMENTS = "n";
+  public static final String OPTION_BATCH_SIZE = "b";
+
+  public static final String DEFAULT_HOST = "localhost";
+  public static final Integer DEFAULT_PORT = 27017;
+  public static final Integer DEFAULT_DOCUMENTS = 100000;
+
+  public static final String HELP_MESSAGE = StringUtils.join(new String[]{
+      "Benchmarks one-at-a-time vs. bulk chemical and reaction inserts against a Mongo instance.  ",
+      "WARNING: the specified DB is dropped without confirmation before and after each run."
+  }, "");
+
+  public static final List<Option.Builder> OPTION_BUILDERS = new ArrayList<Option.Builder>() {{
+    add(Option.builder(OPTION_DB)
+        .argName("db name")
+        .desc("The name of a scratch DB to write to (will be dropped!)")
+        .hasArg().required()
+        .longOpt("db")
+    );
+    add(Option.builder(OPTION_HOST)
+        .argName("host")
+        .desc(String.format("The host on which mongod is running (default %s)", DEFAULT_HOST))
+        .hasArg()
+        .longOpt("host")
+    );
+    add(Option.builder(OPTION_PORT)
+        .argName("port")
+        .desc(String.format("The port on which mongod is listening (default %d)", DEFAULT_PORT))
+        .hasArg()
+        .longOpt("port")
+    );
+    add(Option.builder(OPTION_DOCUMENTS)
+        .argName("count")
+        .desc(String.format("The number of chemicals and of reactions to write per run (default %d)",
+            DEFAULT_DOCUMENTS))
+        .hasArg()
+        .longOpt("documents")
+    );
+    add(Option.builder(OPTION_BATCH_SIZE)
+        .argName("batch size")
+        .desc(String.format("The bulk writer's batch size (default %d)", MongoBulkWriter.DEFAULT_BATCH_SIZE))
+        .hasArg()
+        .longOpt("batch-size")
+    );
+  }};
+
+  public static void main(String[] args) throws Exception {
+    CLIUtil cliUtil = new CLIUtil(MongoBulkWriterBenchmark.class, HELP_MESSAGE, OPTION_BUILDERS);
+    CommandLine cl = cliUtil.parseCommandLine(args);
+
+    String host = cl.getOptionValue(OPTION_HOST, DEFAULT_HOST);
+    int port = Integer.parseInt(cl.getOptionValue(OPTION_PORT, DEFAULT_PORT.toString()));
+    String dbName = cl.getOptionValue(OPTION_DB);
+    int documents = Integer.parseInt(cl.getOptionValue(OPTION_DOCUMENTS, DEFAULT_DOCUMENTS.toString()));
+    int batchSize = Integer.parseInt(
+        cl.getOptionValue(OPTION_BATCH_SIZE, Integer.toString(MongoBulkWriter.DEFAULT_BATCH_SIZE)));
+    if (documents < 1 || batchSize < 1) {
+      cliUtil.failWithMessage("Document count and batch size must be positive");
+    }
+
+    // One-at-a-time, as the installers and NoSQLAPI do without a bulk writer.
+    MongoDB.dropDB(host, port, dbName, true);
+    MongoDB db = new MongoDB(host, port, dbName);
+    long start = System.nanoTime();
+    for (int i = 0; i < documents; i++) {
+      db.submitToActChemicalDB(makeChemical(i), db.getNextAvailableChemicalDBid());
+    }
+    long singleChemicalNanos = System.nanoTime() - start;
+    start = System.nanoTime();
+    for (int i = 0; i < documents; i++) {
+      db.submitToActReactionDB(makeReaction(i));
+    }
+    long singleReactionNanos = System.nanoTime() - start;
+
+    MongoDB.dropDB(host, port, dbName, true);
+    db = new MongoDB(host, port, dbName);
+    long bulkChemicalNanos, bulkReactionNanos;
+    try (MongoBulkWriter writer = new MongoBulkWriter(db, batchSize)) {
+      start = System.nanoTime();
+      for (int i = 0; i < documents; i++) {
+        writer.submitChemical(makeChemical(i));
+      }
+      writer.flush();
+      bulkChemicalNanos = System.nanoTime() - start;
+      start = System.nanoTime();
+      for (int i = 0; i < documents; i++) {
+        writer.submitReaction(makeReaction(i));
+      }
+      writer.flush();
+      bulkReactionNanos = System.nanoTime() - start;
+    }
+    MongoDB.dropDB(host, port, dbName, true);
+
+    LOGGER.info("mode\tcollection\tdocuments\tseconds\tdocs/s");
+    report("single", "chemicals", documents, singleChemicalNanos);
+    report("single", "reactions", documents, singleReactionNanos);
+    report(String.format("bulk(%d)", batchSize), "chemicals", documents, bulkChemicalNanos);
+    report(String.format("bulk(%d)", batchSize), "reactions", documents, bulkReactionNanos);
+  }
+
+  private static void report(String mode, String collection, int documents, long nanos) {
+    double seconds = nanos / 1e9;
+    LOGGER.info("%s\t%s\t%d\t%.3f\t%.1f", mode, collection, documents, seconds, documents / seconds);
+  }
+
+  private static Chemical makeChemical(int i) {
+    // Use the fake InChI prefix so that Chemical doesn't try (and fail) to compute InChIKeys for these.
+    Chemical c = new Chemical((long) -1);
+    c.setInchi(String.format("InChI=/FAKE/BRENDA/benchmark/%d", i));
+    c.addSynonym(String.format("benchmark chemical %d", i));
+    return c;
+  }
+
+  private static Reaction makeReaction(int i) {
+    return new Reaction(-1L, new Long[]{(long) i}, new Long[]{(long) i + 1}, new Long[0], new Long[0], new Long[0],
+        "1.1.1.1", ConversionDirectionType.LEFT_TO_RIGHT, StepDirection.LEFT_TO_RIGHT,
+        String.format("benchmark reaction %d", i), Reaction.RxnDetailType.CONCRETE);
+  }
+}
@@ -45,6 +45,7 @@ import com.ggasoftware.indigo.IndigoObject;
 import com.mongodb.AggregationOutput;
 import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
 import com.mongodb.Bytes;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
@@ -62,10 +63,12 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -98,6 +101,10 @@ public class MongoDB {
   private DB mongoDB;
   private Mongo mongo;
 
+  // An optional local snapshot of dbChemicals for fast lookups; see useChemicalLookupIndex.
+  private volatile ChemicalLookupIndex chemicalLookupIndex;
+  private ChemicalLookupIndex openedChemicalLookupIndex;
+
   public MongoDB(String mongoActHost, int port, String dbs) {
     this.hostname = mongoActHost;
     this.port = port;
@@ -162,6 +169,50 @@ public class MongoDB {
 
   public void close() {
     this.mongo.close();
+    if (this.openedChemicalLookupIndex != null) {
+      this.openedChemicalLookupIndex.logStats();
+      this.openedChemicalLookupIndex.close();
+      this.openedChemicalLookupIndex = null;
+    }
+  }
+
+  /**
+   * Serves getChemicalFromInChI, getExistingDBIdForInChI and getChemicalFromChemicalUUID from a local index of this
+   * DB's chemicals (see ChemicalLookupIndex) rather than from Mongo.  The index must have been built from this DB in
+   * its current state; it is dropped as soon as this object writes to the chemicals collection.
+   * @param indexDir The directory of an index built with ChemicalLookupIndex.
+   * @throws IOException If the index can't be opened or doesn't match this DB's chemicals.
+   */
+  public void useChemicalLookupIndex(File indexDir) throws IOException {
+    ChemicalLookupIndex index = ChemicalLookupIndex.open(indexDir);
+    long chemicalCount = this.dbChemicals.count();
+    DBObject maxIdDoc = this.dbChemicals.findOne(
+        new BasicDBObject("$query", new BasicDBObject()).append("$orderby", new BasicDBObject("_id", -1)),
+        new BasicDBObject("_id", true));
+    long maxId = maxIdDoc == null ? -1 : ((Number) maxIdDoc.get("_id")).longValue();
+    if (chemicalCount != index.getChemicalCount() || maxId != index.getMaxId()) {
+      index.close();
+      throw new IOException(String.format(
+          "Chemical lookup index at %s is out of date: it has %d chemicals up to id %d, the DB has %d up to id %d",
+          indexDir.getAbsolutePath(), index.getChemicalCount(), index.getMaxId(), chemicalCount, maxId));
+    }
+    if (this.openedChemicalLookupIndex != null) {
+      this.openedChemicalLookupIndex.close();
+    }
+    this.openedChemicalLookupIndex = index;
+    this.chemicalLookupIndex = index;
+  }
+
+  public ChemicalLookupIndex getChemicalLookupIndex() {
+    return this.chemicalLookupIndex;
+  }
+
+  // Called before every write to dbChemicals: the index is a snapshot, so it can't answer lookups after one.
+  private void chemicalsChanged() {
+    if (this.chemicalLookupIndex != null) {
+      System.err.println("MongoDB: chemicals are being modified, no longer using the chemical lookup index");
+      this.chemicalLookupIndex = null;
+    }
   }
 
   private void initDB() {
@@ -512,11 +563,66 @@ public class MongoDB {
     BasicDBObject doc = createChemicalDoc(c, ID);
 
     // insert a new doc to the collection
+    chemicalsChanged();
     this.dbChemicals.insert(doc);
 
     return ID;
   }
 
+  /**
+   * Inserts a batch of chemical documents (as built by createChemicalDoc) in one unordered bulk write.  Unlike
+   * submitToActChemicalDB, this does no duplicate checking: the caller must have assigned fresh ids and ensured no
+   * document's InChI is already in the DB.  See MongoBulkWriter.
+   * @param docs The chemical documents to insert.
+   */
+  void bulkInsertChemicalDocs(Collection<? extends DBObject> docs) {
+    chemicalsChanged();
+    bulkInsert(this.dbChemicals, docs);
+  }
+
+  /**
+   * Inserts a batch of reaction documents (as built by createReactionDoc) in one unordered bulk write.  The caller must
+   * have assigned fresh ids.  See MongoBulkWriter.
+   * @param docs The reaction documents to insert.
+   */
+  void bulkInsertReactionDocs(Collection<? extends DBObject> docs) {
+    bulkInsert(this.dbReactions, docs);
+  }
+
+  private static void bulkInsert(DBCollection collection, Collection<? extends DBObject> docs) {
+    if (docs.isEmpty()) {
+      return;
+    }
+    // Unordered, so the server is free to apply the inserts in parallel; we never depend on their relative order.
+    BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+    for (DBObject doc : docs) {
+      bulk.insert(doc);
+    }
+    bulk.execute();
+  }
+
+  /**
+   * Reads the id of every chemical in the DB, keyed by InChI.  Chemicals without an InChI are skipped.
+   * @return A map from InChI to chemical id.
+   */
+  Map<String, Long> getChemicalIdsByInChI() {
+    Map<String, Long> ids = new HashMap<>();
+    BasicDBObject fields = new BasicDBObject("InChI", true);
+    DBCursor cursor = this.dbChemicals.find(new BasicDBObject(), fields);
+    try {
+      while (cursor.hasNext()) {
+        DBObject o = cursor.next();
+        String inchi = (String) o.get("InChI");
+        if (inchi != null) {
+          ids.put(inchi, (Long) o.get("_id"));
+        }
+      }
+    } finally {
+      cursor.close();
+    }
+    return ids;
+  }
+
   public void updateActChemical(Chemical c, Long id) {
     // See comment in updateActReaction about
     // db.collection.update, and $set
@@ -524,6 +630,7 @@ public class MongoDB {
     BasicDBObject doc = createChemicalDoc(c, id);
     DBObject query = new BasicDBObject();
     query.put("_id", id);
+    chemicalsChanged();
     this.dbChemicals.update(query, doc);
   }
 
@@ -564,6 +671,7 @@ public class MongoDB {
       update.put("$push", new BasicDBObject(metaPath, new BasicDBObject("$each", metaObjects)));
     }
     // Run exactly one query to update, which should save a lot of time over the course of the installation.
+    chemicalsChanged();
     this.dbChemicals.update(query, update);
   }
 
@@ -653,6 +761,7 @@ public class MongoDB {
 
     BasicDBObject withID = new BasicDBObject();
     withID.put("_id", id);
+    chemicalsChanged();
     this.dbChemicals.remove(withID, WriteConcern.SAFE); // remove the old entry oldc from the collection
     submitToActChemicalDB(mergedc, id); // now that the old entry is removed, we can simply add
   }
@@ -660,6 +769,7 @@ public class MongoDB {
   public void updateChemicalWithRoBinningInformation(long id, List<Integer> matchedROs) {
     BasicDBObject query = new BasicDBObject("_id", id);
     BasicDBObject createDerivedDataContainer = new BasicDBObject("$set", new BasicDBObject("derived_data", new BasicDBObject()));
+    chemicalsChanged();
     this.dbChemicals.update(query, createDerivedDataContainer);
 
     BasicDBList listOfRos = new BasicDBList();
@@ -667,6 +777,7 @@ public class MongoDB {
 
     BasicDBObject updateDerivedDataContainerWithMatchedRos =
         new BasicDBObject("$set", new BasicDBObject("derived_data.matched_ros", listOfRos));
+    chemicalsChanged();
     this.dbChemicals.update(query, updateDerivedDataContainerWithMatchedRos);
   }
 
@@ -681,6 +792,7 @@ public class MongoDB {
     query.put("_id", id);
     BasicDBObject update = new BasicDBObject();
     update.put("$push", new BasicDBObject("names.brenda",brendaName.toLowerCase()));
+    chemicalsChanged();
     this.dbChemicals.update(query, update);
 
   }
@@ -697,6 +809,7 @@ public class MongoDB {
     query.put("_id", id);
     BasicDBObject update = new BasicDBObject();
     update.put("$set", new BasicDBObject("isNative", true));
+    chemicalsChanged();
     this.dbChemicals.update(query, update);
   }
 
@@ -739,6 +852,7 @@ public class MongoDB {
     set.put("patents", patents);
     set.put("num_patents", num_patents);
     update.put("$set", set);
+    chemicalsChanged();
     this.dbChemicals.update(query, update);
   }
 
@@ -759,6 +873,7 @@ public class MongoDB {
     set.put("csid", csid);
     set.put("num_vendors", num_vendors);
     update.put("$set", set);
+    chemicalsChanged();
     this.dbChemicals.update(query, update);
   }
 
@@ -778,6 +893,7 @@ public class MongoDB {
       } else {
         c.addSynonym(synonym);
         BasicDBObject update = createChemicalDoc(c, id);
+        chemicalsChanged();
         this.dbChemicals.save(update);
         if (!jeff_cleanup_quiet) System.err.println("[Jeff cleanup] MOVED to id=" + id);
       }
@@ -848,6 +964,7 @@ public class MongoDB {
     }
     BasicDBObject update = createChemicalDoc(c, id);
 
+    chemicalsChanged();
     this.dbChemicals.save(update);
     return id;
   }
@@ -911,6 +1028,7 @@ public class MongoDB {
     BasicDBObject query = new BasicDBObject().append("_id", chemical.getUuid());
     DBObject obj = this.dbChemicals.findOne(query);
     obj.put("estimateEnergy", chemical.getEstimatedEnergy());
+    chemicalsChanged();
     this.dbChemicals.update(query, obj);
   }
 
@@ -977,7 +1095,7 @@ public class MongoDB {
       throw new RuntimeException(msg);
     }
 
-    int id = new Long(this.dbReactions.count()).intValue(); // O(1)
+    int id = getNextAvailableReactionDBid();
     BasicDBObject doc = createReactionDoc(r, id);
 
     // writing to MongoDB collection act
@@ -986,6 +1104,10 @@ public class MongoDB {
     return id;
   }
 
+  int getNextAvailableReactionDBid() {
+    return new Long(this.dbReactions.count()).intValue(); // O(1)
+  }
+
   public void updateActReaction(Reaction r, int id) {
     // db.collection.update(query, update, options)
     // updates document(s) that match query with the update doc
@@ -1192,6 +1314,15 @@ public class MongoDB {
     if (this.dbChemicals == null)
       return null; // TODO: should this throw an exception instead?
 
+    ChemicalLookupIndex index = this.chemicalLookupIndex;
+    if (index != null) {
+      try {
+        return index.getIdForInChI(inchi);
+      } catch (IOException e) {
+        System.err.format("MongoDB: chemical lookup index failed, querying the DB instead: %s\n", e.getMessage());
+      }
+    }
+
     BasicDBObject query = new BasicDBObject("InChI", inchi);
     BasicDBObject fields = new BasicDBObject("_id", true);
     DBObject o = this.dbChemicals.findOne(query, fields);
@@ -1587,6 +1718,15 @@ public class MongoDB {
   }
 
   public Chemical getChemicalFromInChI(String inchi) {
+    ChemicalLookupIndex index = this.chemicalLookupIndex;
+    if (index != null && inchi != null) {
+      try {
+        Long id = index.getIdForInChI(inchi);
+        return id == null ? null : convertIndexedDocumentToChemical(index.getChemicalDocument(id));
+      } catch (IOException e) {
+        System.err.format("MongoDB: chemical lookup index failed, querying the DB instead: %s\n", e.getMessage());
+      }
+    }
     return convertDBObjectToChemicalFromActData("InChI", inchi);
   }
 
@@ -1595,9 +1735,21 @@ public class MongoDB {
   }
 
   public Chemical getChemicalFromChemicalUUID(Long cuuid) {
+    ChemicalLookupIndex index = this.chemicalLookupIndex;
+    if (index != null && cuuid != null) {
+      try {
+        return convertIndexedDocumentToChemical(index.getChemicalDocument(cuuid));
+      } catch (IOException e) {
+        System.err.format("MongoDB: chemical lookup index failed, querying the DB instead: %s\n", e.getMessage());
+      }
+    }
     return convertDBObjectToChemicalFromActData("_id", cuuid);
   }
 
+  private Chemical convertIndexedDocumentToChemical(DBObject o) {
+    return o == null ? null : convertDBObjectToChemical(o);
+  }
+
   public Chemical getChemicalFromCanonName(String chemName) {
     return convertDBObjectToChemicalFromActData("canonical", chemName);
   }
@@ -3108,6 +3260,7 @@ public class MongoDB {
       set.put("xref.BING.dbid", bestName);
       BasicDBObject query = new BasicDBObject("_id", id);
       BasicDBObject update = new BasicDBObject("$set", set);
+      chemicalsChanged();
       this.dbChemicals.update(query, update);
     }
   }
@@ -3289,6 +3442,7 @@ public class MongoDB {
       BasicDBObject update = new BasicDBObject("$set",
           new BasicDBObject("xref.CHEBI.metadata.applications",
               applicationSet.toBasicDBObject()));
+      chemicalsChanged();
       this.dbChemicals.update(query, update);
     }
   }
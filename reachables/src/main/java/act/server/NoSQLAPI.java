@@ -44,6 +44,8 @@ public class NoSQLAPI {
 
   MongoDB readDB;
   MongoDB writeDB;
+  // When non-null, chemical and reaction writes are batched through this writer; see enableBulkWrites.
+  MongoBulkWriter bulkWriter = null;
 
   public NoSQLAPI(String sourceDB, String destDB) {
     // This API is expected to interact and interface between two
@@ -181,6 +183,26 @@ public class NoSQLAPI {
     return this.readDB.getChemicalFromInChI(inchi);
   }
 
+  /**
+   * Batches subsequent chemical and reaction writes to the write DB.  Written documents only become visible to reads
+   * through getWriteDB() after flushWrites() is called, and reactions must then be updated through
+   * updateReactionInOutKnowledgeGraph rather than directly on the write DB.
+   * @param batchSize The number of documents to buffer per collection before sending them to the DB.
+   */
+  public void enableBulkWrites(int batchSize) {
+    flushWrites();
+    this.bulkWriter = new MongoBulkWriter(this.writeDB, batchSize);
+  }
+
+  /**
+   * Sends any buffered writes to the write DB.  Does nothing if bulk writes are not enabled.
+   */
+  public void flushWrites() {
+    if (this.bulkWriter != null) {
+      this.bulkWriter.flush();
+    }
+  }
+
   public int writeToOutKnowlegeGraph(Reaction r) {
     // set the UUID of the reaction to `-1` otherwise
     // the write will fail. The mongo interface expects
@@ -189,12 +211,27 @@ public class NoSQLAPI {
 
     r.clearUUID();
 
+    if (this.bulkWriter != null) {
+      return this.bulkWriter.submitReaction(r);
+    }
+
     int writtenid = this.writeDB.submitToActReactionDB(r);
 
     return writtenid;
   }
 
+  public void updateReactionInOutKnowledgeGraph(Reaction r, int id) {
+    if (this.bulkWriter != null) {
+      this.bulkWriter.updateReaction(r, id);
+    } else {
+      this.writeDB.updateActReaction(r, id);
+    }
+  }
+
   public long writeToOutKnowlegeGraph(Chemical c) {
+    if (this.bulkWriter != null) {
+      return this.bulkWriter.submitChemical(c);
+    }
     long installid = this.writeDB.getNextAvailableChemicalDBid();
     return this.writeDB.submitToActChemicalDB(c, installid);
   }
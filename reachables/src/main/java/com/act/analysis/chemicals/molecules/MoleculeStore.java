@@ -0,0 +1,237 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.analysis.chemicals.molecules;
+
+import chemaxon.formats.MolExporter;
+import chemaxon.formats.MolFormatException;
+import chemaxon.formats.MolImporter;
+import chemaxon.struc.Molecule;
+import com.act.utils.rocksdb.ColumnFamilyEnumeration;
+import com.act.utils.rocksdb.DBUtil;
+import com.act.utils.rocksdb.RocksDBAndHandles;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A disk-backed store of molecules that have already been imported and cleaned, so that a molecule string only has
+ * to be parsed once no matter how often the in-memory caches in MoleculeImporter are cleared or how many JVMs ask for
+ * it.  The store is a RocksDB, whose files are read through mmap (see DBUtil).  Molecules are kept as MRV, which
+ * round-trips everything import and cleaning produce and is far cheaper to parse than an InChI.
+ *
+ * Entries are keyed on the import format (including its cleaning options) and the molecule string.  One process at a
+ * time can open a store for writing; any number of others can open it read-only alongside.  Lookups and writes are
+ * safe to make from several threads at once.
+ */
+public class MoleculeStore implements AutoCloseable {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(MoleculeStore.class);
+
+  private static final String SERIALIZATION_FORMAT = "mrv";
+  // Format names never contain newlines, so this can't collide with key contents.
+  private static final String KEY_SEPARATOR = "\n";
+
+  public enum COLUMN_FAMILIES implements ColumnFamilyEnumeration<COLUMN_FAMILIES> {
+    MOLECULES("molecules"),
+    ;
+
+    private static final Map<String, COLUMN_FAMILIES> reverseNameMap =
+        new HashMap<String, COLUMN_FAMILIES>() {{
+          for (COLUMN_FAMILIES cf : COLUMN_FAMILIES.values()) {
+            put(cf.getName(), cf);
+          }
+        }};
+
+    private String name;
+
+    COLUMN_FAMILIES(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public COLUMN_FAMILIES getFamilyByName(String name) {
+      return reverseNameMap.get(name);
+    }
+  }
+
+  private final RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles;
+  private final boolean readOnly;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong writes = new AtomicLong();
+
+  /**
+   * Opens the store at a path on disk.  A writable store is created if it doesn't already exist.
+   * @param storeDir The directory in which the store's RocksDB lives.
+   * @param readOnly Open the store without taking its write lock; puts will be ignored.
+   * @return An open store.
+   * @throws IOException
+   */
+  public static MoleculeStore open(File storeDir, boolean readOnly) throws IOException {
+    RocksDB.loadLibrary();
+    try {
+      RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles;
+      if (storeDir.exists()) {
+        LOGGER.info("Opening existing molecule store at %s%s", storeDir.getAbsolutePath(),
+            readOnly ? " (read-only)" : "");
+        dbAndHandles = DBUtil.openExistingRocksDB(storeDir, COLUMN_FAMILIES.values(), readOnly);
+      } else if (readOnly) {
+        throw new IOException(String.format("No molecule store exists at %s", storeDir.getAbsolutePath()));
+      } else {
+        LOGGER.info("Creating new molecule store at %s", storeDir.getAbsolutePath());
+        dbAndHandles = DBUtil.createNewRocksDB(storeDir, COLUMN_FAMILIES.values());
+      }
+      return new MoleculeStore(dbAndHandles, readOnly);
+    } catch (RocksDBException e) {
+      throw new IOException(String.format("Unable to open molecule store at %s: %s",
+          storeDir.getAbsolutePath(), e.getMessage()), e);
+    }
+  }
+
+  /**
+   * Opens the store for writing if no other process holds it, and read-only otherwise.  This lets a set of workers
+   * (Spark executors, say) all point at the same store: the first one to start fills it in and the rest read it.
+   * @param storeDir The directory in which the store's RocksDB lives.
+   * @return An open store.
+   * @throws IOException
+   */
+  public static MoleculeStore openShared(File storeDir) throws IOException {
+    try {
+      return open(storeDir, false);
+    } catch (IOException e) {
+      if (!storeDir.exists()) {
+        throw e;
+      }
+      LOGGER.warn("Unable to open molecule store at %s for writing, falling back to read-only: %s",
+          storeDir.getAbsolutePath(), e.getMessage());
+      return open(storeDir, true);
+    }
+  }
+
+  MoleculeStore(RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles, boolean readOnly) {
+    this.dbAndHandles = dbAndHandles;
+    this.readOnly = readOnly;
+  }
+
+  static byte[] makeKey(String formatName, String molecule) {
+    return (formatName + KEY_SEPARATOR + molecule).getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Looks up a previously imported molecule.  Each call returns a new Molecule object.
+   * @param formatName The name of the format (with cleaning options) the molecule string was imported as.
+   * @param molecule The molecule string.
+   * @return The imported molecule, or null if it isn't in the store.
+   * @throws IOException
+   */
+  public Molecule get(String formatName, String molecule) throws IOException {
+    byte[] value;
+    try {
+      value = dbAndHandles.get(COLUMN_FAMILIES.MOLECULES, makeKey(formatName, molecule));
+    } catch (RocksDBException e) {
+      throw new IOException("Unable to read from molecule store", e);
+    }
+    if (value == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    try {
+      Molecule result = MolImporter.importMol(new String(value, StandardCharsets.UTF_8), SERIALIZATION_FORMAT);
+      hits.incrementAndGet();
+      return result;
+    } catch (MolFormatException e) {
+      // Treat an unreadable entry like a missing one; the caller will re-import it and overwrite it.
+      LOGGER.warn("Unable to read stored molecule for %s (%s): %s", molecule, formatName, e.getMessage());
+      misses.incrementAndGet();
+      return null;
+    }
+  }
+
+  /**
+   * Stores an imported molecule.  Does nothing if the store was opened read-only.
+   * @param formatName The name of the format (with cleaning options) the molecule string was imported as.
+   * @param molecule The molecule string.
+   * @param imported The imported (and cleaned) molecule.
+   * @throws IOException
+   */
+  public void put(String formatName, String molecule, Molecule imported) throws IOException {
+    if (readOnly) {
+      return;
+    }
+    byte[] value = MolExporter.exportToFormat(imported, SERIALIZATION_FORMAT).getBytes(StandardCharsets.UTF_8);
+    try {
+      dbAndHandles.put(COLUMN_FAMILIES.MOLECULES, makeKey(formatName, molecule), value);
+    } catch (RocksDBException e) {
+      throw new IOException("Unable to write to molecule store", e);
+    }
+    writes.incrementAndGet();
+  }
+
+  public boolean isReadOnly() {
+    return readOnly;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getWrites() {
+    return writes.get();
+  }
+
+  public void logStats() {
+    long lookups = hits.get() + misses.get();
+    LOGGER.info("Molecule store: %d hits / %d lookups (%.1f%% hit rate), %d new entries written",
+        hits.get(), lookups, lookups == 0 ? 0.0 : 100.0 * hits.get() / lookups, writes.get());
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      if (!readOnly) {
+        dbAndHandles.flush(true);
+      }
+    } catch (RocksDBException e) {
+      throw new IOException("Unable to flush molecule store", e);
+    } finally {
+      dbAndHandles.close();
+    }
+  }
+}
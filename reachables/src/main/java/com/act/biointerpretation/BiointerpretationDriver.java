@@ -23,6 +23,7 @@
 
 package com.act.biointerpretation;
 
+import act.server.MongoBulkWriter;
 import act.server.NoSQLAPI;
 import chemaxon.license.LicenseProcessingException;
 import chemaxon.reaction.ReactionException;
@@ -63,6 +64,10 @@ public class BiointerpretationDriver {
   public static final String OPTION_SINGLE_OPERATION = "o";
   public static final String OPTION_SINGLE_READ_DB = "r";
   public static final String OPTION_SINGLE_WRITE_DB = "w";
+  public static final String OPTION_REACTION_THREADS = "t";
+  public static final String OPTION_WRITE_BATCH_SIZE = "b";
+  public static final String OPTION_ERO_CACHE = "e";
+  public static final String OPTION_SUBSTRUCTURE_PREFILTER = "s";
 
   private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
@@ -105,6 +110,30 @@ public class BiointerpretationDriver {
         .hasArg()
         .longOpt("write")
     );
+    add(Option.builder(OPTION_REACTION_THREADS)
+        .argName("threads")
+        .desc("Number of threads on which to process reactions for operations that support it (default: 1)")
+        .hasArg()
+        .longOpt("threads")
+    );
+    add(Option.builder(OPTION_WRITE_BATCH_SIZE)
+        .argName("batch size")
+        .desc(String.format("Number of chemicals/reactions to send to the write DB per bulk insert, or 0 to write " +
+            "one at a time (default: %d)", MongoBulkWriter.DEFAULT_BATCH_SIZE))
+        .hasArg()
+        .longOpt("batch-size")
+    );
+    add(Option.builder(OPTION_ERO_CACHE)
+        .argName("cache dir")
+        .desc("Directory of a persistent ERO projection cache for VALIDATE steps to reuse across runs; will be " +
+            "created if it doesn't exist")
+        .hasArg()
+        .longOpt("ero-cache")
+    );
+    add(Option.builder(OPTION_SUBSTRUCTURE_PREFILTER)
+        .desc("Skip ERO projections in VALIDATE steps that a substructure fingerprint screen shows can't succeed")
+        .longOpt("substructure-prefilter")
+    );
     add(Option.builder("h")
         .argName("help")
         .desc("Prints this help message")
@@ -138,6 +167,27 @@ public class BiointerpretationDriver {
       return;
     }
 
+    int reactionThreads = 1;
+    if (cl.hasOption(OPTION_REACTION_THREADS)) {
+      reactionThreads = Integer.parseInt(cl.getOptionValue(OPTION_REACTION_THREADS));
+      if (reactionThreads < 1) {
+        String msg = String.format("Number of reaction threads must be at least 1, got %d", reactionThreads);
+        LOGGER.error(msg);
+        throw new RuntimeException(msg);
+      }
+    }
+
+    int writeBatchSize = Integer.parseInt(cl.getOptionValue(
+        OPTION_WRITE_BATCH_SIZE, Integer.toString(MongoBulkWriter.DEFAULT_BATCH_SIZE)));
+    if (writeBatchSize < 0) {
+      String msg = String.format("Write batch size must not be negative, got %d", writeBatchSize);
+      LOGGER.error(msg);
+      throw new RuntimeException(msg);
+    }
+
+    File eroCacheDir = cl.hasOption(OPTION_ERO_CACHE) ? new File(cl.getOptionValue(OPTION_ERO_CACHE)) : null;
+    boolean substructurePrefilter = cl.hasOption(OPTION_SUBSTRUCTURE_PREFILTER);
+
     if (cl.hasOption(OPTION_CONFIGURATION_FILE)) {
       List<BiointerpretationStep> steps;
       File configFile = new File(cl.getOptionValue(OPTION_CONFIGURATION_FILE));
@@ -171,7 +221,7 @@ public class BiointerpretationDriver {
       if ("y".equalsIgnoreCase(readLine) || "yes".equalsIgnoreCase(readLine)) {
         LOGGER.info("Biointerpretation plan confirmed, commencing");
         for (BiointerpretationStep step : steps) {
-          performOperation(step, true);
+          performOperation(step, true, reactionThreads, writeBatchSize, eroCacheDir, substructurePrefilter);
         }
         LOGGER.info("Biointerpretation plan completed");
       } else {
@@ -194,7 +244,8 @@ public class BiointerpretationDriver {
       String readDB = crashIfInvalidDBName(cl.getOptionValue(OPTION_SINGLE_READ_DB));
       String writeDB = crashIfInvalidDBName(cl.getOptionValue(OPTION_SINGLE_WRITE_DB));
 
-      performOperation(new BiointerpretationStep(operation, readDB, writeDB), false);
+      performOperation(new BiointerpretationStep(operation, readDB, writeDB), false,
+          reactionThreads, writeBatchSize, eroCacheDir, substructurePrefilter);
     } else {
       String msg = "Must specify either a config file or a single operation to perform.";
       LOGGER.error(msg);
@@ -214,48 +265,68 @@ public class BiointerpretationDriver {
 
   public static void performOperation(BiointerpretationStep step, boolean forceDrop)
       throws IOException, LicenseProcessingException, ReactionException {
+    performOperation(step, forceDrop, 1, 0, null, false);
+  }
+
+  public static void performOperation(BiointerpretationStep step, boolean forceDrop, int reactionThreads,
+                                      int writeBatchSize, File eroCacheDir, boolean substructurePrefilter)
+      throws IOException, LicenseProcessingException, ReactionException {
     // Drop the write DB and create a NoSQLAPI object that can be used by any step.
     NoSQLAPI.dropDB(step.writeDBName, forceDrop);
     // Note that this constructor call initializes the write DB collections and indices, so it must happen after dropDB.
     NoSQLAPI noSQLAPI = new NoSQLAPI(step.getReadDBName(), step.getWriteDBName());
+    if (writeBatchSize > 0) {
+      noSQLAPI.enableBulkWrites(writeBatchSize);
+    }
 
-    switch (step.getOperation()) {
-      case MERGE_REACTIONS:
-        LOGGER.info("Reaction merger starting (%s -> %s)", step.getReadDBName(), step.getWriteDBName());
-        ReactionMerger reactionMerger = new ReactionMerger(noSQLAPI);
-        reactionMerger.init();
-        reactionMerger.run();
-        LOGGER.info("Reaction merger complete (%s -> %s)", step.getReadDBName(), step.getWriteDBName());
-        break;
-      case DESALT:
-        LOGGER.info("Desalter starting (%s -> %s)", step.getReadDBName(), step.getWriteDBName());
-        ReactionDesalter reactionDesalter = new ReactionDesalter(noSQLAPI);
-        reactionDesalter.init();
-        reactionDesalter.run();
-        LOGGER.info("Reaction merger complete (%s -> %s)", step.getReadDBName(), step.getWriteDBName());
-        break;
-      case REMOVE_COFACTORS:
-        LOGGER.info("Cofactor remover starting (%s -> %s)", step.getReadDBName(), step.getWriteDBName());
-        CofactorRemover cofactorRemover = new CofactorRemover(noSQLAPI);
-        cofactorRemover.init();
-        cofactorRemover.run();
-        LOGGER.info("Cofactor remover complete (%s -> %s)", step.getReadDBName(), step.getWriteDBName());
-        break;
-      case VALIDATE:
-        LOGGER.info("Mechanistic validator starting (%s -> %s)", step.getReadDBName(), step.getWriteDBName());
-        MechanisticValidator validator = new MechanisticValidator(noSQLAPI);
-        validator.init();
-        validator.run();
-        LOGGER.info("Mechanistic validator complete (%s -> %s)", step.getReadDBName(), step.getWriteDBName());
-        break;
-      case MERGE_DUPLICATE_SEQUENCES:
-        LOGGER.info("Sequence merger starting (%s -> %s)", step.getReadDBName(), step.getWriteDBName());
-        SequenceMerger sequenceMerger = new SequenceMerger(noSQLAPI);
-        sequenceMerger.init();
-        sequenceMerger.run();
-        LOGGER.info("Sequence merger complete (%s -> %s)", step.getReadDBName(), step.getWriteDBName());
-        break;
-      // No default is necessary since deserialization will ensure there is a corresponding operation in the enum.
+    try {
+      switch (step.getOperation()) {
+        case MERGE_REACTIONS:
+          LOGGER.info("Reaction merger starting (%s -> %s)", step.getReadDBName(), step.getWriteDBName());
+          ReactionMerger reactionMerger = new ReactionMerger(noSQLAPI);
+          reactionMerger.init();
+          reactionMerger.run();
+          LOGGER.info("Reaction merger complete (%s -> %s)", step.getReadDBName(), step.getWriteDBName());
+          break;
+        case DESALT:
+          LOGGER.info("Desalter starting (%s -> %s)", step.getReadDBName(), step.getWriteDBName());
+          ReactionDesalter reactionDesalter = new ReactionDesalter(noSQLAPI);
+          reactionDesalter.init();
+          reactionDesalter.run();
+          LOGGER.info("Reaction merger complete (%s -> %s)", step.getReadDBName(), step.getWriteDBName());
+          break;
+        case REMOVE_COFACTORS:
+          LOGGER.info("Cofactor remover starting (%s -> %s)", step.getReadDBName(), step.getWriteDBName());
+          CofactorRemover cofactorRemover = new CofactorRemover(noSQLAPI);
+          cofactorRemover.init();
+          cofactorRemover.setReactionProcessingThreads(reactionThreads);
+          cofactorRemover.run();
+          LOGGER.info("Cofactor remover complete (%s -> %s)", step.getReadDBName(), step.getWriteDBName());
+          break;
+        case VALIDATE:
+          LOGGER.info("Mechanistic validator starting (%s -> %s)", step.getReadDBName(), step.getWriteDBName());
+          MechanisticValidator validator = new MechanisticValidator(noSQLAPI);
+          if (eroCacheDir != null) {
+            validator.setProjectionCacheDir(eroCacheDir);
+          }
+          validator.setUseSubstructurePrefilter(substructurePrefilter);
+          validator.init();
+          validator.setReactionProcessingThreads(reactionThreads);
+          validator.run();
+          LOGGER.info("Mechanistic validator complete (%s -> %s)", step.getReadDBName(), step.getWriteDBName());
+          break;
+        case MERGE_DUPLICATE_SEQUENCES:
+          LOGGER.info("Sequence merger starting (%s -> %s)", step.getReadDBName(), step.getWriteDBName());
+          SequenceMerger sequenceMerger = new SequenceMerger(noSQLAPI);
+          sequenceMerger.init();
+          sequenceMerger.run();
+          LOGGER.info("Sequence merger complete (%s -> %s)", step.getReadDBName(), step.getWriteDBName());
+          break;
+        // No default is necessary since deserialization will ensure there is a corresponding operation in the enum.
+      }
+    } finally {
+      // Processors flush as they go, but a step that fails or bypasses those flushes must not drop its last batch.
+      noSQLAPI.flushWrites();
     }
     // TODO: returning timing data and other stats for a final step-by-step report.
   }
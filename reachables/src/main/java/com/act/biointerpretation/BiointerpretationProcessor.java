@@ -38,29 +38,43 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 public abstract class BiointerpretationProcessor {
   private static final Logger LOGGER = LogManager.getFormatterLogger(BiointerpretationProcessor.class);
 
+  // How many reactions per worker thread may be in flight at once when processing reactions in parallel.
+  private static final int REACTIONS_IN_FLIGHT_PER_THREAD = 64;
+  private static final int PIPELINE_REPORT_INTERVAL = 10000;
+
   private NoSQLAPI api;
   private Map<Long, Long> oldChemIdToNewChemId = new HashMap<>();
   private Map<Long, String> newChemIdToInchi = new HashMap<>();
   private HashMap<Long, Long> organismMigrationMap = new HashMap<>();
   private HashMap<Long, Long> sequenceMigrationMap = new HashMap<>();
-  private HashMap<Long, Long> reactionMigrationMap = new HashMap<>();
+  // Subclass hooks may read this from worker threads while reactions are being migrated, so it must be synchronized.
+  private Map<Long, Long> reactionMigrationMap = Collections.synchronizedMap(new HashMap<>());
 
   boolean initCalled = false;
+  private int reactionProcessingThreads = 1;
 
   /**
    * Returns the name of this biointerpretation step.
@@ -89,6 +103,31 @@ public abstract class BiointerpretationProcessor {
     initCalled = true;
   }
 
+  /**
+   * Subclasses whose preProcessReaction and runSpecializedReactionProcessing hooks are safe to call on several
+   * reactions at once should override this to return true, which allows processReactions to run in parallel when
+   * setReactionProcessingThreads is given more than one thread.
+   *
+   * The hooks may read the chemical id/InChI maps and the reaction migration map, but must not write to them or to the
+   * DB: all DB writes and id migration still happen on one thread in the order the reactions were read.
+   * @return True if the reaction hooks are thread-safe.
+   */
+  protected boolean isReactionProcessingThreadSafe() {
+    return false;
+  }
+
+  /**
+   * Sets the number of threads on which to run the reaction hooks.  Has no effect unless the subclass declares its
+   * hooks thread-safe (see isReactionProcessingThreadSafe) or overrides processReactions.
+   * @param threads The number of worker threads; 1 (the default) processes reactions one at a time.
+   */
+  public void setReactionProcessingThreads(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException(String.format("Invalid number of reaction processing threads: %d", threads));
+    }
+    this.reactionProcessingThreads = threads;
+  }
+
   protected void failIfNotInitialized() {
     if (!initCalled) {
       String msg = String.format("run() called without initialization for biointerpretation processor '%s'", getName());
@@ -110,12 +149,15 @@ public abstract class BiointerpretationProcessor {
 
     LOGGER.info("Processing chemicals");
     processChemicals();
+    // Make sure any batched writes are visible to the hooks and later steps, which may read from the write DB.
+    api.flushWrites();
     LOGGER.info("Done processing chemicals");
     afterProcessChemicals();
     LOGGER.info("Processing sequences");
     processSequences();
     LOGGER.info("Processing reactions");
     processReactions();
+    api.flushWrites();
     LOGGER.info("Done processing reactions");
     afterProcessReactions();
 
@@ -226,6 +268,14 @@ public abstract class BiointerpretationProcessor {
    * @throws Exception
    */
   protected void processReactions() throws IOException, ReactionException {
+    if (reactionProcessingThreads > 1) {
+      if (isReactionProcessingThreadSafe()) {
+        processReactionsInParallel();
+        return;
+      }
+      LOGGER.warn("%s does not support parallel reaction processing, processing reactions on one thread", getName());
+    }
+
     //Scan through all Reactions and process each
     Iterator<Reaction> iterator = api.readRxnsFromInKnowledgeGraph();
 
@@ -242,25 +292,7 @@ public abstract class BiointerpretationProcessor {
         continue;
       }
 
-      Reaction newRxn = new Reaction(
-          -1, // Assume the id will be set when the reaction is written to the DB.
-          new Long[0],
-          new Long[0],
-          new Long[0],
-          new Long[0],
-          new Long[0],
-          oldRxn.getECNum(),
-          oldRxn.getConversionDirection(),
-          oldRxn.getPathwayStepDirection(),
-          oldRxn.getReactionName(),
-          oldRxn.getRxnDetailType()
-      );
-
-      // Add the data source and references from the source to the destination
-      newRxn.setDataSource(oldRxn.getDataSource());
-      for (P<Reaction.RefDataSource, String> ref : oldRxn.getReferences()) {
-        newRxn.addReference(ref.fst(), ref.snd());
-      }
+      Reaction newRxn = makeEmptyMigratedReaction(oldRxn);
 
       int newId = api.writeToOutKnowlegeGraph(newRxn);
       Long newIdL = Long.valueOf(newId);
@@ -274,7 +306,212 @@ public abstract class BiointerpretationProcessor {
       reactionMigrationMap.put(oldId, newIdL);
 
       // Update the reaction in the DB with the newly migrated protein data.
-      api.getWriteDB().updateActReaction(newRxn, newId);
+      api.updateReactionInOutKnowledgeGraph(newRxn, newId);
+    }
+  }
+
+  private Reaction makeEmptyMigratedReaction(Reaction oldRxn) {
+    Reaction newRxn = new Reaction(
+        -1, // Assume the id will be set when the reaction is written to the DB.
+        new Long[0],
+        new Long[0],
+        new Long[0],
+        new Long[0],
+        new Long[0],
+        oldRxn.getECNum(),
+        oldRxn.getConversionDirection(),
+        oldRxn.getPathwayStepDirection(),
+        oldRxn.getReactionName(),
+        oldRxn.getRxnDetailType()
+    );
+
+    // Add the data source and references from the source to the destination
+    newRxn.setDataSource(oldRxn.getDataSource());
+    for (P<Reaction.RefDataSource, String> ref : oldRxn.getReferences()) {
+      newRxn.addReference(ref.fst(), ref.snd());
+    }
+    return newRxn;
+  }
+
+  /**
+   * Processes reactions as a pipeline: this thread reads reactions and does every DB write in read order, while the
+   * (thread-safe) preProcessReaction and runSpecializedReactionProcessing hooks run on a pool of worker threads.
+   *
+   *   read -> preProcessReaction (workers) -> write + migrate chemicals/proteins (in order)
+   *        -> runSpecializedReactionProcessing (workers) -> update reaction (in order)
+   *
+   * Because the writes happen in the same order as in processReactions, the new reaction, sequence and organism ids
+   * and the migration maps come out exactly as they would on one thread.
+   */
+  private void processReactionsInParallel() throws IOException, ReactionException {
+    int maxInFlight = reactionProcessingThreads * REACTIONS_IN_FLIGHT_PER_THREAD;
+    LOGGER.info("Processing reactions on %d threads (up to %d reactions in flight)",
+        reactionProcessingThreads, maxInFlight);
+
+    ExecutorService workers = Executors.newFixedThreadPool(reactionProcessingThreads);
+    PipelineStats stats = new PipelineStats();
+    Deque<InFlightReaction> preProcessing = new ArrayDeque<>();
+    Deque<InFlightReaction> specializedProcessing = new ArrayDeque<>();
+
+    try {
+      Iterator<Reaction> iterator = api.readRxnsFromInKnowledgeGraph();
+      while (true) {
+        long readStart = System.nanoTime();
+        if (!iterator.hasNext()) {
+          break;
+        }
+        Reaction oldRxn = iterator.next();
+        stats.read.record(readStart);
+
+        InFlightReaction inFlight = new InFlightReaction(Long.valueOf(oldRxn.getUUID()));
+        inFlight.preProcessed = workers.submit(stats.preProcess.timed(() -> preProcessReaction(oldRxn)));
+        preProcessing.addLast(inFlight);
+
+        if (preProcessing.size() >= maxInFlight) {
+          migrateNextReaction(preProcessing, specializedProcessing, workers, stats);
+        }
+        if (specializedProcessing.size() >= maxInFlight) {
+          updateNextReaction(specializedProcessing, stats);
+        }
+        if (stats.read.count.get() % PIPELINE_REPORT_INTERVAL == 0) {
+          stats.report();
+        }
+      }
+
+      while (!preProcessing.isEmpty()) {
+        migrateNextReaction(preProcessing, specializedProcessing, workers, stats);
+      }
+      while (!specializedProcessing.isEmpty()) {
+        updateNextReaction(specializedProcessing, stats);
+      }
+    } finally {
+      workers.shutdownNow();
+    }
+    stats.report();
+  }
+
+  private void migrateNextReaction(Deque<InFlightReaction> preProcessing,
+                                   Deque<InFlightReaction> specializedProcessing,
+                                   ExecutorService workers, PipelineStats stats)
+      throws IOException, ReactionException {
+    InFlightReaction inFlight = preProcessing.removeFirst();
+    Reaction oldRxn = waitFor(inFlight.preProcessed);
+
+    // preProcessReaction can return null to indicate that this reaction shouldn't be written to the new DB.
+    if (oldRxn == null) {
+      LOGGER.debug("preProcessReaction returned null for reaction %d, not saving to write DB", inFlight.oldId);
+      return;
+    }
+
+    long start = System.nanoTime();
+    Reaction newRxn = makeEmptyMigratedReaction(oldRxn);
+    int newId = api.writeToOutKnowlegeGraph(newRxn);
+    inFlight.newId = newId;
+
+    migrateReactionChemicals(newRxn, oldRxn);
+    migrateAllProteins(newRxn, oldRxn, inFlight.oldId);
+    stats.migrate.record(start);
+
+    Long newIdL = Long.valueOf(newId);
+    inFlight.specialized =
+        workers.submit(stats.specialize.timed(() -> runSpecializedReactionProcessing(newRxn, newIdL)));
+    specializedProcessing.addLast(inFlight);
+  }
+
+  private void updateNextReaction(Deque<InFlightReaction> specializedProcessing, PipelineStats stats)
+      throws IOException, ReactionException {
+    InFlightReaction inFlight = specializedProcessing.removeFirst();
+    Reaction newRxn = waitFor(inFlight.specialized);
+
+    long start = System.nanoTime();
+    reactionMigrationMap.put(inFlight.oldId, Long.valueOf(inFlight.newId));
+
+    // Update the reaction in the DB with the newly migrated protein data.
+    api.updateReactionInOutKnowledgeGraph(newRxn, inFlight.newId);
+    stats.update.record(start);
+  }
+
+  private static <T> T waitFor(Future<T> future) throws IOException, ReactionException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for reaction processing", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof ReactionException) {
+        throw (ReactionException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new RuntimeException("Reaction processing failed", cause);
+    }
+  }
+
+  private static class InFlightReaction {
+    final Long oldId;
+    Future<Reaction> preProcessed;
+    Future<Reaction> specialized;
+    int newId;
+
+    InFlightReaction(Long oldId) {
+      this.oldId = oldId;
+    }
+  }
+
+  /**
+   * Per-stage counts and busy time for the reaction pipeline.  Worker stages accumulate time across all threads, so
+   * their rates are per thread.
+   */
+  private class PipelineStats {
+    final long startTime = System.nanoTime();
+    final StageStats read = new StageStats("read");
+    final StageStats preProcess = new StageStats("preprocess");
+    final StageStats migrate = new StageStats("write/migrate");
+    final StageStats specialize = new StageStats("specialized processing");
+    final StageStats update = new StageStats("update");
+
+    void report() {
+      double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+      LOGGER.info("%s: %d reactions read in %.1fs (%.1f/s overall); per-stage rates: %s, %s, %s, %s, %s",
+          getName(), read.count.get(), elapsedSeconds, read.count.get() / Math.max(elapsedSeconds, 1e-9),
+          read, preProcess, migrate, specialize, update);
+    }
+  }
+
+  private static class StageStats {
+    final String name;
+    final AtomicLong count = new AtomicLong();
+    final AtomicLong busyNanos = new AtomicLong();
+
+    StageStats(String name) {
+      this.name = name;
+    }
+
+    void record(long startNanos) {
+      busyNanos.addAndGet(System.nanoTime() - startNanos);
+      count.incrementAndGet();
+    }
+
+    <T> Callable<T> timed(Callable<T> callable) {
+      return () -> {
+        long start = System.nanoTime();
+        try {
+          return callable.call();
+        } finally {
+          record(start);
+        }
+      };
+    }
+
+    @Override
+    public String toString() {
+      double busySeconds = busyNanos.get() / 1e9;
+      return String.format("%s %.1f/s", name, busySeconds == 0 ? 0.0 : count.get() / busySeconds);
     }
   }
 
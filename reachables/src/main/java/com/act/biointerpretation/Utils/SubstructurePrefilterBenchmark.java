@@ -0,0 +1,177 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.biointerpretation.Utils;
+
+import chemaxon.calculations.clean.Cleaner;
+import chemaxon.reaction.ReactionException;
+import chemaxon.reaction.Reactor;
+import chemaxon.struc.Molecule;
+import chemaxon.struc.MoleculeGraph;
+import com.act.biointerpretation.l2expansion.L2InchiCorpus;
+import com.act.biointerpretation.mechanisminspection.Ero;
+import com.act.biointerpretation.mechanisminspection.ErosCorpus;
+import com.act.utils.CLIUtil;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how many (ERO, molecule) projections the SubstructurePrefilterIndex screen rules out, and how much time
+ * that saves, by applying every single-substrate ERO to every molecule in an InChI list both with and without the
+ * screen.  Also counts screened-out pairs that did in fact react: this should always be zero, and anything else means
+ * the fingerprints are unsound for some query feature in the corpus.
+ */
+public class SubstructurePrefilterBenchmark {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(SubstructurePrefilterBenchmark.class);
+
+  public static final String OPTION_INCHIS = "i";
+  public static final String OPTION_RO_CORPUS = "c";
+  public static final String OPTION_INDEX = "x";
+
+  private static final int CLEAN_DIMENSION = 2;
+
+  public static final String HELP_MESSAGE = StringUtils.join(new String[]{
+      "Benchmarks the substructure prefilter's pruning rate and speedup for single-substrate ERO projection over a ",
+      "list of InChIs."
+  }, "");
+
+  public static final List<Option.Builder> OPTION_BUILDERS = new ArrayList<Option.Builder>() {{
+    add(Option.builder(OPTION_INCHIS)
+        .argName("inchi file")
+        .desc("A file of molecules to project onto, one InChI per line")
+        .hasArg().required()
+        .longOpt("inchis")
+    );
+    add(Option.builder(OPTION_RO_CORPUS)
+        .argName("ro corpus")
+        .desc("A file containing the ERO corpus to use, if not the validation corpus")
+        .hasArg()
+        .longOpt("ro-corpus")
+    );
+    add(Option.builder(OPTION_INDEX)
+        .argName("index file")
+        .desc("A prefilter index to read fingerprints from; it will be written if it doesn't exist")
+        .hasArg()
+        .longOpt("index")
+    );
+  }};
+
+  public static void main(String[] args) throws Exception {
+    CLIUtil cliUtil = new CLIUtil(SubstructurePrefilterBenchmark.class, HELP_MESSAGE, OPTION_BUILDERS);
+    CommandLine cl = cliUtil.parseCommandLine(args);
+
+    L2InchiCorpus inchis = new L2InchiCorpus();
+    inchis.loadCorpus(new File(cl.getOptionValue(OPTION_INCHIS)));
+
+    ErosCorpus eros = new ErosCorpus();
+    if (cl.hasOption(OPTION_RO_CORPUS)) {
+      try (FileInputStream in = new FileInputStream(new File(cl.getOptionValue(OPTION_RO_CORPUS)))) {
+        eros.loadCorpus(in);
+      }
+    } else {
+      eros.loadValidationCorpus();
+    }
+    eros.filterCorpusBySubstrateCount(1);
+
+    File indexFile = cl.hasOption(OPTION_INDEX) ? new File(cl.getOptionValue(OPTION_INDEX)) : null;
+    SubstructurePrefilterIndex index = indexFile != null && indexFile.exists() ?
+        SubstructurePrefilterIndex.readFromFile(indexFile) : new SubstructurePrefilterIndex();
+
+    long start = System.nanoTime();
+    List<String> moleculeInchis = new ArrayList<>();
+    List<Molecule> molecules = inchis.getMolecules((inchi, molecule) -> {
+      if (!index.contains(inchi)) {
+        index.add(inchi, molecule);
+      }
+      moleculeInchis.add(inchi);
+    });
+    long fingerprintNanos = System.nanoTime() - start;
+    if (indexFile != null && !indexFile.exists()) {
+      index.writeToFile(indexFile);
+    }
+
+    // Prepare molecules the same way AllPredictionsGenerator does before projecting.
+    for (Molecule molecule : molecules) {
+      molecule.aromatize(MoleculeGraph.AROM_BASIC);
+      Cleaner.clean(molecule, CLEAN_DIMENSION);
+    }
+
+    long pairs = 0, rejected = 0, reacted = 0, falseNegatives = 0;
+    long baselineNanos = 0, prefilteredNanos = 0;
+    for (Ero ero : eros.getRos()) {
+      Reactor reactor;
+      try {
+        reactor = ero.getReactor();
+      } catch (ReactionException e) {
+        LOGGER.warn("Skipping ERO %d, couldn't build reactor: %s", ero.getId(), e.getMessage());
+        continue;
+      }
+      long[] query = SubstructurePrefilterIndex.fingerprintReactants(reactor)[0];
+
+      for (int i = 0; i < molecules.size(); i++) {
+        pairs++;
+
+        start = System.nanoTime();
+        boolean didReact = react(reactor, molecules.get(i));
+        baselineNanos += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        boolean passed = index.mayContain(moleculeInchis.get(i), query);
+        if (passed) {
+          react(reactor, molecules.get(i));
+        }
+        prefilteredNanos += System.nanoTime() - start;
+
+        if (didReact) {
+          reacted++;
+        }
+        if (!passed) {
+          rejected++;
+          if (didReact) {
+            falseNegatives++;
+            LOGGER.error("Prefilter rejected ERO %d on %s, but it reacts", ero.getId(), moleculeInchis.get(i));
+          }
+        }
+      }
+    }
+
+    LOGGER.info("Fingerprinted %d molecules in %.3fs", molecules.size(), fingerprintNanos / 1e9);
+    LOGGER.info("%d ERO/molecule pairs, %d reacted, %d (%.1f%%) rejected by the prefilter, %d false negatives",
+        pairs, reacted, rejected, 100.0 * rejected / Math.max(pairs, 1), falseNegatives);
+    LOGGER.info("Projection without prefilter: %.3fs; with prefilter: %.3fs; speedup %.2fx",
+        baselineNanos / 1e9, prefilteredNanos / 1e9, (double) baselineNanos / Math.max(prefilteredNanos, 1));
+  }
+
+  private static boolean react(Reactor reactor, Molecule molecule) throws ReactionException {
+    reactor.setReactants(new Molecule[]{molecule});
+    return reactor.react() != null;
+  }
+}
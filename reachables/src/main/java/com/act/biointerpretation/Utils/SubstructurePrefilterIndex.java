@@ -0,0 +1,362 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.biointerpretation.Utils;
+
+import chemaxon.reaction.Reactor;
+import chemaxon.struc.MolAtom;
+import chemaxon.struc.MolBond;
+import chemaxon.struc.Molecule;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A screen that cheaply rules out molecules that cannot contain an RO's substrate structures, so that we can skip the
+ * MolSearch/Reactor calls that would confirm as much.
+ *
+ * Every molecule gets a fixed-width bit set (a "fingerprint") in which each bit records the presence of some hashed
+ * path of up to MAX_PATH_ATOMS heavy atoms.  Paths are labeled only by element, ignoring bond orders, charges,
+ * aromaticity, and hydrogens, because the substructure searches we screen for are run with vague bond matching,
+ * tautomer search, and implicit H matching: none of those can change which heavy atoms are bonded to which.  Any
+ * substructure match maps each path in the query onto a path with the same elements in the target, so if a query's
+ * fingerprint has a bit that a molecule's fingerprint lacks, the query cannot match that molecule.  The reverse does
+ * not hold; molecules that pass the screen still need to be searched.
+ *
+ * Query atoms that don't pin down a single element (lists, negations, wildcards, R-groups) are left out of query
+ * paths, which only makes query fingerprints sparser and the screen more permissive.
+ *
+ * Fingerprints for a set of molecules are stored in a single packed long[] and can be persisted, so that a metabolome's
+ * fingerprints can be computed once and reused by every expansion run over it.
+ */
+public class SubstructurePrefilterIndex {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(SubstructurePrefilterIndex.class);
+
+  public static final int FINGERPRINT_WORDS = 16; // 1024 bits.
+  public static final int MAX_PATH_ATOMS = 5;
+
+  private static final int FINGERPRINT_BITS = FINGERPRINT_WORDS * Long.SIZE;
+  private static final int MAX_ELEMENT_ATNO = 118;
+  // Bump this whenever the fingerprint definition or file layout changes so that stale indexes are rebuilt.
+  private static final int FILE_FORMAT_VERSION = 1;
+
+  private final List<String> keys = new ArrayList<>();
+  private final Map<String, Integer> keyToPosition = new HashMap<>();
+  private long[] fingerprints = new long[FINGERPRINT_WORDS * 1024];
+
+  public SubstructurePrefilterIndex() {
+  }
+
+  public int size() {
+    return keys.size();
+  }
+
+  public boolean contains(String key) {
+    return keyToPosition.containsKey(key);
+  }
+
+  /**
+   * Fingerprint a molecule and add it to the index under the specified key (usually its InChI), replacing any
+   * fingerprint already stored for that key.
+   */
+  public void add(String key, Molecule molecule) {
+    add(key, fingerprintMolecule(molecule));
+  }
+
+  private void add(String key, long[] fingerprint) {
+    Integer position = keyToPosition.get(key);
+    if (position == null) {
+      position = keys.size();
+      keys.add(key);
+      keyToPosition.put(key, position);
+      if ((position + 1) * FINGERPRINT_WORDS > fingerprints.length) {
+        fingerprints = Arrays.copyOf(fingerprints, fingerprints.length * 2);
+      }
+    }
+    System.arraycopy(fingerprint, 0, fingerprints, position * FINGERPRINT_WORDS, FINGERPRINT_WORDS);
+  }
+
+  /**
+   * Get a copy of the fingerprint stored for a key.
+   *
+   * @param key The key to look up.
+   * @return The key's fingerprint, or null if the key is not in the index.
+   */
+  public long[] getFingerprint(String key) {
+    Integer position = keyToPosition.get(key);
+    if (position == null) {
+      return null;
+    }
+    int offset = position * FINGERPRINT_WORDS;
+    return Arrays.copyOfRange(fingerprints, offset, offset + FINGERPRINT_WORDS);
+  }
+
+  /**
+   * Tests whether the molecule stored under a key could contain a query structure.  Keys that aren't in the index
+   * can't be ruled out, so this returns true for them.
+   *
+   * @param key The molecule's key.
+   * @param queryFingerprint The query's fingerprint, from fingerprintQuery.
+   * @return False only if the molecule certainly does not contain the query.
+   */
+  public boolean mayContain(String key, long[] queryFingerprint) {
+    Integer position = keyToPosition.get(key);
+    return position == null || mayContain(fingerprints, position * FINGERPRINT_WORDS, queryFingerprint);
+  }
+
+  /**
+   * Tests whether a molecule could contain a query structure based on their fingerprints.
+   *
+   * @return False only if the molecule certainly does not contain the query.
+   */
+  public static boolean mayContain(long[] moleculeFingerprint, long[] queryFingerprint) {
+    return mayContain(moleculeFingerprint, 0, queryFingerprint);
+  }
+
+  private static boolean mayContain(long[] moleculeFingerprints, int offset, long[] queryFingerprint) {
+    for (int i = 0; i < FINGERPRINT_WORDS; i++) {
+      if ((queryFingerprint[i] & ~moleculeFingerprints[offset + i]) != 0L) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Tests whether some assignment of molecules to a reactor's substrates could pass the screen, i.e. whether every one
+   * of the reactor's substrate structures may be contained in at least one of the molecules.
+   *
+   * @param moleculeFingerprints Fingerprints of the candidate substrates.
+   * @param reactantFingerprints Fingerprints of the reactor's substrate structures, from fingerprintReactants.
+   * @return False only if the reactor certainly can't be applied to the molecules.
+   */
+  public static boolean mayReact(List<long[]> moleculeFingerprints, long[][] reactantFingerprints) {
+    for (long[] reactantFingerprint : reactantFingerprints) {
+      boolean found = false;
+      for (long[] moleculeFingerprint : moleculeFingerprints) {
+        if (mayContain(moleculeFingerprint, reactantFingerprint)) {
+          found = true;
+          break;
+        }
+      }
+      if (!found) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Compute the fingerprint of a molecule that will be searched, recording every heavy atom path in it.
+   */
+  public static long[] fingerprintMolecule(Molecule molecule) {
+    return fingerprint(molecule, false);
+  }
+
+  /**
+   * Compute the fingerprint of a query structure, recording only the paths that any match must reproduce.
+   */
+  public static long[] fingerprintQuery(Molecule query) {
+    return fingerprint(query, true);
+  }
+
+  /**
+   * Compute query fingerprints for each of a reactor's substrate structures, in reactant order.
+   */
+  public static long[][] fingerprintReactants(Reactor reactor) {
+    Molecule[] reactants = reactor.getReaction().getReactants();
+    long[][] result = new long[reactants.length][];
+    for (int i = 0; i < reactants.length; i++) {
+      result[i] = fingerprintQuery(reactants[i]);
+    }
+    return result;
+  }
+
+  private static long[] fingerprint(Molecule molecule, boolean isQuery) {
+    int atomCount = molecule.getAtomCount();
+    int[] labels = new int[atomCount];
+    for (int i = 0; i < atomCount; i++) {
+      labels[i] = pathLabel(molecule.getAtom(i), isQuery);
+    }
+
+    // Adjacency lists restricted to atoms that can appear in paths.
+    List<List<Integer>> neighbors = new ArrayList<>(atomCount);
+    for (int i = 0; i < atomCount; i++) {
+      neighbors.add(new ArrayList<>(4));
+    }
+    for (int i = 0; i < molecule.getBondCount(); i++) {
+      MolBond bond = molecule.getBond(i);
+      int a = molecule.indexOf(bond.getAtom1());
+      int b = molecule.indexOf(bond.getAtom2());
+      if (a != b && labels[a] != 0 && labels[b] != 0) {
+        neighbors.get(a).add(b);
+        neighbors.get(b).add(a);
+      }
+    }
+
+    long[] fingerprint = new long[FINGERPRINT_WORDS];
+    int[] path = new int[MAX_PATH_ATOMS];
+    boolean[] onPath = new boolean[atomCount];
+    for (int i = 0; i < atomCount; i++) {
+      if (labels[i] != 0) {
+        addPaths(i, 0, labels, neighbors, path, onPath, fingerprint);
+      }
+    }
+    return fingerprint;
+  }
+
+  private static void addPaths(int atom, int depth, int[] labels, List<List<Integer>> neighbors,
+                               int[] path, boolean[] onPath, long[] fingerprint) {
+    path[depth] = labels[atom];
+    setPathBit(path, depth + 1, fingerprint);
+    if (depth + 1 == MAX_PATH_ATOMS) {
+      return;
+    }
+
+    onPath[atom] = true;
+    for (Integer next : neighbors.get(atom)) {
+      if (!onPath[next]) {
+        addPaths(next, depth + 1, labels, neighbors, path, onPath, fingerprint);
+      }
+    }
+    onPath[atom] = false;
+  }
+
+  /**
+   * Returns the element number that labels an atom in paths, or 0 if the atom should be left out of paths.  Hydrogens
+   * are always left out, as H matching in our searches is implicit; query atoms are left out unless they must be one
+   * particular element.
+   */
+  private static int pathLabel(MolAtom atom, boolean isQuery) {
+    int atno = atom.getAtno();
+    if (atno <= 1 || atno > MAX_ELEMENT_ATNO) {
+      return 0;
+    }
+    if (isQuery) {
+      String queryString = atom.getQueryString();
+      if (queryString != null && (queryString.contains(",") || queryString.contains("!"))) {
+        return 0;
+      }
+    }
+    return atno;
+  }
+
+  /**
+   * Hash a path to a bit.  A path and its reverse are the same path, so hash whichever reads lower.
+   */
+  private static void setPathBit(int[] path, int length, long[] fingerprint) {
+    boolean reverse = false;
+    for (int i = 0, j = length - 1; i < j; i++, j--) {
+      if (path[i] != path[j]) {
+        reverse = path[j] < path[i];
+        break;
+      }
+    }
+
+    // 64-bit FNV-1a over the path's labels.
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < length; i++) {
+      hash ^= reverse ? path[length - 1 - i] : path[i];
+      hash *= 0x100000001b3L;
+    }
+    hash ^= length;
+    hash *= 0x100000001b3L;
+
+    int bit = (int) ((hash >>> 1) % FINGERPRINT_BITS);
+    fingerprint[bit / Long.SIZE] |= 1L << (bit % Long.SIZE);
+  }
+
+  /**
+   * Write this index to a file, which can be read back with readFromFile.
+   *
+   * @param file The file to write.
+   * @throws IOException
+   */
+  public void writeToFile(File file) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(FILE_FORMAT_VERSION);
+      out.writeInt(FINGERPRINT_WORDS);
+      out.writeInt(MAX_PATH_ATOMS);
+      out.writeInt(keys.size());
+      for (int i = 0; i < keys.size(); i++) {
+        // writeUTF is limited to 64k bytes, which very large InChIs can exceed.
+        byte[] keyBytes = keys.get(i).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(keyBytes.length);
+        out.write(keyBytes);
+        for (int j = i * FINGERPRINT_WORDS; j < (i + 1) * FINGERPRINT_WORDS; j++) {
+          out.writeLong(fingerprints[j]);
+        }
+      }
+    }
+    LOGGER.info("Wrote %d fingerprints to %s", keys.size(), file.getAbsolutePath());
+  }
+
+  /**
+   * Read an index written by writeToFile.
+   *
+   * @param file The file to read.
+   * @return The index.
+   * @throws IOException If the file can't be read or was written with a different fingerprint definition.
+   */
+  public static SubstructurePrefilterIndex readFromFile(File file) throws IOException {
+    SubstructurePrefilterIndex index = new SubstructurePrefilterIndex();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      int version = in.readInt();
+      int words = in.readInt();
+      int maxPathAtoms = in.readInt();
+      if (version != FILE_FORMAT_VERSION || words != FINGERPRINT_WORDS || maxPathAtoms != MAX_PATH_ATOMS) {
+        throw new IOException(String.format(
+            "Prefilter index at %s has format %d/%d words/%d path atoms, but expected %d/%d/%d",
+            file.getAbsolutePath(), version, words, maxPathAtoms,
+            FILE_FORMAT_VERSION, FINGERPRINT_WORDS, MAX_PATH_ATOMS));
+      }
+
+      int count = in.readInt();
+      long[] fingerprint = new long[FINGERPRINT_WORDS];
+      for (int i = 0; i < count; i++) {
+        byte[] keyBytes = new byte[in.readInt()];
+        in.readFully(keyBytes);
+        for (int j = 0; j < FINGERPRINT_WORDS; j++) {
+          fingerprint[j] = in.readLong();
+        }
+        index.add(new String(keyBytes, StandardCharsets.UTF_8), fingerprint);
+      }
+    }
+    LOGGER.info("Read %d fingerprints from %s", index.size(), file.getAbsolutePath());
+    return index;
+  }
+}
@@ -151,6 +151,12 @@ public class CofactorRemover extends BiointerpretationProcessor {
     knownCofactorReadDBIds = null;
   }
 
+  @Override
+  protected boolean isReactionProcessingThreadSafe() {
+    // Both hooks only rewrite the reaction they're given and read the (by then fixed) cofactor id set.
+    return true;
+  }
+
   @Override
   protected Reaction preProcessReaction(Reaction rxn) {
     findAndIsolateCoenzymesFromReaction(rxn);
@@ -96,7 +96,10 @@ public class ReactionDesalter extends BiointerpretationProcessor {
     long startTime = new Date().getTime();
 
     desaltAllChemicals();
+    // Like BiointerpretationProcessor.run, make sure batched writes don't outlive their phase.
+    getNoSQLAPI().flushWrites();
     desaltAllReactions();
+    getNoSQLAPI().flushWrites();
 
     long endTime = new Date().getTime();
     LOGGER.debug(String.format("Time in seconds: %d", (endTime - startTime) / 1000));
@@ -146,7 +149,7 @@ public class ReactionDesalter extends BiointerpretationProcessor {
       migrateAllProteins(desaltedReaction, oldRxn, Long.valueOf(oldRxn.getUUID()));
 
       // Update the reaction in the DB with the newly migrated protein data.
-      getNoSQLAPI().getWriteDB().updateActReaction(desaltedReaction, newId);
+      getNoSQLAPI().updateReactionInOutKnowledgeGraph(desaltedReaction, newId);
     }
 
   }
@@ -24,38 +24,104 @@
 package com.act.biointerpretation.l2expansion;
 
 import chemaxon.reaction.ReactionException;
+import chemaxon.reaction.Reactor;
+import chemaxon.struc.Molecule;
+import com.act.biointerpretation.Utils.SubstructurePrefilterIndex;
 import com.act.biointerpretation.sars.NoSar;
 import com.act.biointerpretation.sars.Sar;
+import com.act.biointerpretation.sars.SerializableReactor;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 public abstract class L2Expander implements Serializable {
   private static final long serialVersionUID = 5846728290095735668L;
 
   private static final Logger LOGGER = LogManager.getFormatterLogger(L2Expander.class);
 
+  // How many seeds each worker may have queued up before we stop pulling new seeds and wait for results.
+  private static final int IN_FLIGHT_SEEDS_PER_THREAD = 4;
+
   // This SAR accepts every substrate.
   @JsonIgnore
   protected static final List<Sar> NO_SAR = Collections.unmodifiableList(Collections.singletonList(new NoSar()));
 
   private PredictionGenerator generator;
 
+  // Optional fingerprint screen for seeds that can't react; see setSubstructurePrefilter.
+  private transient Map<Molecule, long[]> substrateFingerprints = null;
+  private transient Map<SerializableReactor, long[][]> reactantFingerprints = null;
+  private transient long prefilterRejections = 0;
+
   public abstract Iterable<PredictionSeed> getPredictionSeeds();
 
   public L2Expander(PredictionGenerator generator) {
     this.generator = generator;
   }
 
+  /**
+   * Skip seeds whose substrates the SubstructurePrefilterIndex fingerprints show can't match the seed's reactor,
+   * without projecting them.  Seeds with any substrate missing from the map are always projected.
+   *
+   * @param substrateFingerprints Fingerprints of the substrate Molecules this expander's seeds use, keyed by identity.
+   */
+  public void setSubstructurePrefilter(Map<Molecule, long[]> substrateFingerprints) {
+    this.substrateFingerprints = substrateFingerprints;
+    this.reactantFingerprints = new IdentityHashMap<>();
+  }
+
+  private boolean passesPrefilter(PredictionSeed seed) {
+    if (substrateFingerprints == null) {
+      return true;
+    }
+
+    List<long[]> fingerprints = new ArrayList<>(seed.getSubstrates().size());
+    for (Molecule substrate : seed.getSubstrates()) {
+      long[] fingerprint = substrateFingerprints.get(substrate);
+      if (fingerprint == null) {
+        return true;
+      }
+      fingerprints.add(fingerprint);
+    }
+
+    long[][] queries = reactantFingerprints.computeIfAbsent(seed.getRo(),
+        ro -> SubstructurePrefilterIndex.fingerprintReactants(ro.getReactor()));
+    if (SubstructurePrefilterIndex.mayReact(fingerprints, queries)) {
+      return true;
+    }
+    prefilterRejections++;
+    return false;
+  }
+
+  private void logPrefilterStats(int seedCount) {
+    if (substrateFingerprints != null) {
+      LOGGER.info("Substructure prefilter skipped %d of %d seeds", prefilterRejections, seedCount);
+    }
+  }
+
   /**
    * Get predictions for this expander without logging progress.
    *
@@ -85,6 +151,10 @@ public abstract class L2Expander implements Serializable {
       }
       counter++;
 
+      if (!passesPrefilter(seed)) {
+        continue;
+      }
+
       // Apply reactor to substrate if possible
       try {
         List<L2Prediction> results = generator.getPredictions(seed);
@@ -110,7 +180,116 @@ public abstract class L2Expander implements Serializable {
         LOGGER.error("IOException during prediction generation. %s", e.getMessage());
       }
     }
+    logPrefilterStats(counter);
 
     return result;
   }
+
+  /**
+   * Get predictions for this expander on a pool of worker threads, writing each prediction to a file as one json
+   * object per line rather than accumulating them in memory.  Seeds are pulled lazily from getPredictionSeeds(), and
+   * at most IN_FLIGHT_SEEDS_PER_THREAD seeds per thread are outstanding at once, so memory use is bounded by the size
+   * of the pool rather than the size of the expansion.  Predictions are written in seed order and numbered from 0, so
+   * the file's contents do not depend on the number of threads.
+   *
+   * Chemaxon Reactors and Molecules are not thread safe, so each worker uses its own generator from generatorFactory,
+   * its own copy of each seed's reactor, and a fresh copy of each seed's substrates.
+   *
+   * @param outputFile The file to which to write predictions; read it back with L2PredictionCorpus's jsonl readers.
+   * @param threads The number of worker threads to use.
+   * @param generatorFactory Builds one PredictionGenerator per worker thread.
+   * @return The number of predictions written.
+   * @throws IOException
+   */
+  public int writePredictionsAsJsonl(File outputFile, int threads, Supplier<PredictionGenerator> generatorFactory)
+      throws IOException {
+    ThreadLocal<PredictionGenerator> generators = ThreadLocal.withInitial(generatorFactory);
+    ThreadLocal<Map<SerializableReactor, SerializableReactor>> reactors = ThreadLocal.withInitial(IdentityHashMap::new);
+
+    int maxInFlight = threads * IN_FLIGHT_SEEDS_PER_THREAD;
+    Deque<Future<List<L2Prediction>>> inFlight = new ArrayDeque<>(maxInFlight);
+    ExecutorService workers = Executors.newFixedThreadPool(threads);
+
+    ObjectMapper objectMapper = new ObjectMapper();
+    int seedCount = 0;
+    int predictionCount = 0;
+    try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile))) {
+      for (PredictionSeed seed : getPredictionSeeds()) {
+        if (seedCount % 1000 == 0) {
+          LOGGER.info("Processed %d seeds, wrote %d predictions", seedCount, predictionCount);
+        }
+        seedCount++;
+
+        if (!passesPrefilter(seed)) {
+          continue;
+        }
+
+        if (inFlight.size() >= maxInFlight) {
+          List<L2Prediction> results = waitFor(inFlight.removeFirst());
+          predictionCount = writeJsonlPredictions(results, predictionCount, writer, objectMapper);
+        }
+        inFlight.addLast(workers.submit(() -> projectSeed(seed, generators.get(), reactors.get())));
+      }
+
+      while (!inFlight.isEmpty()) {
+        predictionCount = writeJsonlPredictions(waitFor(inFlight.removeFirst()), predictionCount, writer, objectMapper);
+      }
+    } finally {
+      workers.shutdownNow();
+    }
+    logPrefilterStats(seedCount);
+
+    LOGGER.info("Processed %d seeds, wrote %d predictions to %s", seedCount, predictionCount,
+        outputFile.getAbsolutePath());
+    return predictionCount;
+  }
+
+  /**
+   * Apply a seed using only objects owned by the calling thread.  Errors are logged and yield no predictions, as in
+   * getPredictions.
+   */
+  private static List<L2Prediction> projectSeed(PredictionSeed seed, PredictionGenerator generator,
+                                                Map<SerializableReactor, SerializableReactor> threadReactors) {
+    try {
+      SerializableReactor reactor = threadReactors.get(seed.getRo());
+      if (reactor == null) {
+        Reactor reactorCopy = new Reactor();
+        reactorCopy.setReactionString(seed.getRo().getReactorSmarts());
+        reactor = new SerializableReactor(reactorCopy, seed.getRo().getRoId());
+        threadReactors.put(seed.getRo(), reactor);
+      }
+
+      List<Molecule> substrates =
+          seed.getSubstrates().stream().map(Molecule::cloneMolecule).collect(Collectors.toList());
+      return generator.getPredictions(new PredictionSeed(seed.getProjectorName(), substrates, reactor, seed.getSars()));
+    } catch (ReactionException e) {
+      LOGGER.error("ReactionException on getPredictions. %s", e.getMessage());
+    } catch (IOException e) {
+      LOGGER.error("IOException during prediction generation. %s", e.getMessage());
+    }
+    return Collections.emptyList();
+  }
+
+  private static int writeJsonlPredictions(List<L2Prediction> predictions, int nextId,
+                                           BufferedWriter writer, ObjectMapper objectMapper) throws IOException {
+    for (L2Prediction prediction : predictions) {
+      // Each worker's generator numbers its predictions independently, so assign corpus-wide ids here instead.
+      prediction.setId(nextId);
+      nextId++;
+      writer.write(objectMapper.writeValueAsString(prediction));
+      writer.newLine();
+    }
+    return nextId;
+  }
+
+  private static <T> T waitFor(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for predictions", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Unexpected error while generating predictions", e.getCause());
+    }
+  }
 }
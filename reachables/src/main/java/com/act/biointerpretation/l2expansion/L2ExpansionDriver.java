@@ -27,10 +27,12 @@ import act.server.MongoDB;
 import act.shared.Chemical;
 import chemaxon.struc.Molecule;
 import com.act.biointerpretation.Utils.ReactionProjector;
+import com.act.biointerpretation.Utils.SubstructurePrefilterIndex;
 import com.act.biointerpretation.mechanisminspection.ErosCorpus;
 import com.act.biointerpretation.sars.SarCorpus;
 import com.act.jobs.FileChecker;
 import com.act.jobs.JavaRunnable;
+import com.fasterxml.jackson.databind.MappingIterator;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -47,8 +49,12 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * Runs L2 Expansion
@@ -69,6 +75,9 @@ public class L2ExpansionDriver {
   private static final String OPTION_DB = "db";
   private static final String OPTION_EXPANSION_TYPE = "t";
   private static final String OPTION_ADDITIONAL_CHEMICALS = "p";
+  private static final String OPTION_JSONL_OUTPUT = "l";
+  private static final String OPTION_THREADS = "n";
+  private static final String OPTION_PREFILTER_INDEX = "x";
   private static final String OPTION_HELP = "h";
 
   public static final String HELP_MESSAGE =
@@ -154,6 +163,26 @@ public class L2ExpansionDriver {
         .hasArg()
         .longOpt("additional-chemicals-file")
     );
+    add(Option.builder(OPTION_JSONL_OUTPUT)
+        .desc("Stream predictions to the output file as they are produced, one json prediction per line, instead " +
+            "of building the whole corpus in memory.  The progress file is not written in this mode.")
+        .longOpt("jsonl")
+    );
+    add(Option.builder(OPTION_THREADS)
+        .argName("num threads")
+        .desc("The number of threads on which to run projections when writing jsonl output (default 1).")
+        .hasArg()
+        .longOpt("threads")
+        .type(Integer.class)
+    );
+    add(Option.builder(OPTION_PREFILTER_INDEX)
+        .argName("prefilter index path")
+        .desc("Skip RO/substrate combinations that a substructure fingerprint screen rules out, reading substrate " +
+            "fingerprints from this file.  The file is created if it doesn't exist, and updated with any substrates " +
+            "it's missing.  Ignored for TWO_SUB expansions.")
+        .hasArg()
+        .longOpt("prefilter-index")
+    );
     add(Option.builder(OPTION_HELP)
         .argName("help")
         .desc("Prints this help message.")
@@ -241,7 +270,46 @@ public class L2ExpansionDriver {
 
     PredictionGenerator generator = new AllPredictionsGenerator(new ReactionProjector());
 
-    L2Expander expander = buildExpander(cl, inchiCorpus, generator);
+    Map<Molecule, long[]> substrateFingerprints = null;
+    List<Molecule> substrateMolecules;
+    if (cl.hasOption(OPTION_PREFILTER_INDEX)) {
+      substrateFingerprints = new IdentityHashMap<>();
+      substrateMolecules = fingerprintSubstrates(
+          new File(cl.getOptionValue(OPTION_PREFILTER_INDEX)), inchiCorpus, substrateFingerprints);
+    } else {
+      substrateMolecules = inchiCorpus.getMolecules();
+    }
+
+    L2Expander expander = buildExpander(cl, inchiCorpus, substrateMolecules, generator);
+    if (substrateFingerprints != null) {
+      expander.setSubstructurePrefilter(substrateFingerprints);
+    }
+
+    if (cl.hasOption(OPTION_JSONL_OUTPUT)) {
+      int threads = Integer.parseInt(cl.getOptionValue(OPTION_THREADS, "1"));
+      if (threads < 1) {
+        LOGGER.error("Number of threads must be at least 1, but was %d.", threads);
+        System.exit(1);
+      }
+      if (maybeProgressStream.isPresent()) {
+        LOGGER.warn("Ignoring progress file: jsonl output is already written incrementally.");
+        maybeProgressStream.get().close();
+      }
+
+      LOGGER.info("Streaming predictions to %s on %d threads.", outputFile.getAbsolutePath(), threads);
+      int predictionCount = expander.writePredictionsAsJsonl(outputFile, threads,
+          () -> new AllPredictionsGenerator(new ReactionProjector()));
+      LOGGER.info("Done with L2 expansion. Produced %d predictions.", predictionCount);
+
+      Set<String> productInchis = new HashSet<>();
+      try (MappingIterator<L2Prediction> predictions = L2PredictionCorpus.streamPredictionsFromJsonlFile(outputFile)) {
+        predictions.forEachRemaining(prediction -> productInchis.addAll(prediction.getProductInchis()));
+      }
+      new L2InchiCorpus(productInchis).writeToFile(inchiOutputFile);
+      LOGGER.info("L2ExpansionDriver complete!");
+      return;
+    }
+
     L2PredictionCorpus predictionCorpus = expander.getPredictions(maybeProgressStream);
 
     LOGGER.info("Done with L2 expansion. Produced %d predictions.", predictionCorpus.getCorpus().size());
@@ -253,8 +321,39 @@ public class L2ExpansionDriver {
     LOGGER.info("L2ExpansionDriver complete!");
   }
 
+  /**
+   * Imports the substrates and looks up each one's fingerprint in the prefilter index stored at indexFile.  Substrates
+   * missing from the index are fingerprinted and saved back to it, so later runs over the same metabolites skip that.
+   *
+   * @param indexFile The prefilter index file, which is created if it doesn't exist.
+   * @param inchiCorpus The substrates.
+   * @param fingerprints A map to fill with the fingerprint of each returned Molecule.
+   * @return The substrate molecules, exactly as L2InchiCorpus.getMolecules would return them.
+   * @throws IOException
+   */
+  private static List<Molecule> fingerprintSubstrates(File indexFile, L2InchiCorpus inchiCorpus,
+                                                      Map<Molecule, long[]> fingerprints) throws IOException {
+    SubstructurePrefilterIndex index = indexFile.exists() ?
+        SubstructurePrefilterIndex.readFromFile(indexFile) : new SubstructurePrefilterIndex();
+    int initialIndexSize = index.size();
+
+    List<Molecule> molecules = inchiCorpus.getMolecules((inchi, molecule) -> {
+      if (!index.contains(inchi)) {
+        index.add(inchi, molecule);
+      }
+      fingerprints.put(molecule, index.getFingerprint(inchi));
+    });
+
+    if (index.size() > initialIndexSize) {
+      LOGGER.info("Fingerprinted %d new substrates for the prefilter index.", index.size() - initialIndexSize);
+      index.writeToFile(indexFile);
+    }
+    return molecules;
+  }
+
   private static L2Expander buildExpander(CommandLine cl,
                                           L2InchiCorpus inchiCorpus,
+                                          List<Molecule> substrateMolecules,
                                           PredictionGenerator generator) throws IOException {
 
     ExpansionType expansionType = ExpansionType.valueOf(cl.getOptionValue(OPTION_EXPANSION_TYPE));
@@ -262,7 +361,7 @@ public class L2ExpansionDriver {
     switch (expansionType) {
       case ONE_SUB:
         LOGGER.info("Running one substrate expansion");
-        return new SingleSubstrateRoExpander(getRoCorpus(cl), inchiCorpus.getMolecules(), generator);
+        return new SingleSubstrateRoExpander(getRoCorpus(cl), substrateMolecules, generator);
 
       case TWO_SUB:
         LOGGER.info("Running two substrate expansion.");
@@ -287,7 +386,7 @@ public class L2ExpansionDriver {
           System.exit(1);
         }
         SarCorpus sarCorpus = SarCorpus.readCorpusFromJsonFile(sarCorpusFile);
-        return new SingleSubstrateSarExpander(sarCorpus, inchiCorpus.getMolecules(), generator);
+        return new SingleSubstrateSarExpander(sarCorpus, substrateMolecules, generator);
 
       default:
         throw new IllegalArgumentException("Invalid expansion type.");
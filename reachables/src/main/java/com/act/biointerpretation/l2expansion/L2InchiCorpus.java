@@ -45,6 +45,7 @@ import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.BiConsumer;
 
 /**
  * Represents a set of inchis.
@@ -83,12 +84,27 @@ public class L2InchiCorpus {
   }
 
   public List<Molecule> getMolecules() {
+    return getMolecules((inchi, molecule) -> { });
+  }
+
+  /**
+   * Like getMolecules(), but also passes each inchi and the molecule imported from it to a callback, for callers that
+   * need to associate the two.
+   *
+   * @param onImport Called once for each molecule that is successfully imported.
+   */
+  public List<Molecule> getMolecules(BiConsumer<String, Molecule> onImport) {
     List<MoleculeFormat.MoleculeFormatType> wrappedInchi = new ArrayList<>();
     wrappedInchi.add(MoleculeFormat.stdInchi$.MODULE$);
-    return getMolecules(wrappedInchi);
+    return getMolecules(wrappedInchi, onImport);
   }
 
   public List<Molecule> getMolecules(List<MoleculeFormat.MoleculeFormatType> formats) {
+    return getMolecules(formats, (inchi, molecule) -> { });
+  }
+
+  private List<Molecule> getMolecules(List<MoleculeFormat.MoleculeFormatType> formats,
+                                      BiConsumer<String, Molecule> onImport) {
     // We take in a string list here because java won't load in the scala enumeration type...
     List<MoleculeFormatType> formatList = new ArrayList<>();
     formatList.addAll(formats);
@@ -96,7 +112,9 @@ public class L2InchiCorpus {
     List<Molecule> results = new ArrayList<>(getInchiList().size());
     for (String inchi : getInchiList()) {
       try {
-        results.add(MoleculeImporter.importMolecule(inchi, formatList));
+        Molecule molecule = MoleculeImporter.importMolecule(inchi, formatList);
+        results.add(molecule);
+        onImport.accept(inchi, molecule);
       } catch (MolFormatException e) {
         LOGGER.error("MolFormatException on metabolite %s. %s", inchi, e.getMessage());
       }
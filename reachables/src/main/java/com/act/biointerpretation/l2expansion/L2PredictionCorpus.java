@@ -25,6 +25,7 @@ package com.act.biointerpretation.l2expansion;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 
@@ -87,6 +88,34 @@ public class L2PredictionCorpus implements Serializable {
     return L2PredictionCorpus.OBJECT_MAPPER.readValue(corpusFile, L2PredictionCorpus.class).populateIdToPredictionMap();
   }
 
+  /**
+   * Read a prediction corpus from a file containing one prediction per line, as written by
+   * L2Expander.writePredictionsAsJsonl, and populate its prediction map.
+   *
+   * @param jsonlFile The file to read.
+   * @return The L2PredictionCorpus.
+   * @throws IOException
+   */
+  public static L2PredictionCorpus readPredictionsFromJsonlFile(File jsonlFile) throws IOException {
+    L2PredictionCorpus corpus = new L2PredictionCorpus();
+    try (MappingIterator<L2Prediction> predictions = streamPredictionsFromJsonlFile(jsonlFile)) {
+      predictions.forEachRemaining(corpus::addPrediction);
+    }
+    return corpus.populateIdToPredictionMap();
+  }
+
+  /**
+   * Open a file containing one prediction per line for reading without loading the whole corpus into memory.  Each
+   * prediction is parsed as the iterator advances; the caller is responsible for closing the iterator.
+   *
+   * @param jsonlFile The file to read.
+   * @return An iterator over the file's predictions.
+   * @throws IOException
+   */
+  public static MappingIterator<L2Prediction> streamPredictionsFromJsonlFile(File jsonlFile) throws IOException {
+    return OBJECT_MAPPER.readerFor(L2Prediction.class).readValues(jsonlFile);
+  }
+
   /**
    * Gets the prediction with the given ID from the prediction corpus.
    *
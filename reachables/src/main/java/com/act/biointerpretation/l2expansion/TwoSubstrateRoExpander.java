@@ -34,13 +34,15 @@ import com.act.biointerpretation.sars.SerializableReactor;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 // TODO: write tests for this class.
@@ -69,9 +71,7 @@ public class TwoSubstrateRoExpander extends L2Expander {
    * This is why this class requires chemicals rather than just inchis - we can't run the optimizations if the chemicals
    * aren't in our DB.
    *
-   * @return The L2PredictionCorpus of all products generated.
-   * @throws IOException
-   * @throws ReactionException
+   * @return A lazily populated Iterable of seeds, one per (ro, molecule pair) combination.
    */
   @Override
   public Iterable<PredictionSeed> getPredictionSeeds() {
@@ -84,37 +84,8 @@ public class TwoSubstrateRoExpander extends L2Expander {
     Map<Integer, Set<Molecule>> roIdToMoleculesB = constructRoToMolecules(chemicalsB);
 
     LOGGER.info("Perform L2 expansion for each ro in the list");
-    List<PredictionSeed> result = new ArrayList<>();
-
-    int roProcessedCounter = 0;
-    for (Ero ro : roCorpus.getRos()) {
-
-      SerializableReactor reactor;
-      try {
-        reactor = new SerializableReactor(ro.getReactor(), ro.getId());
-      } catch (ReactionException e) {
-        LOGGER.info("Skipping ro %d, couldn't get Reactor.", ro.getId());
-        continue;
-      }
-
-      roProcessedCounter++;
-      LOGGER.info("Processing the %d indexed ro out of %s ros", roProcessedCounter, roCorpus.getRos().size());
-
-      Set<Molecule> roMoleculesA = roIdToMoleculesB.get(ro.getId());
-      Set<Molecule> roMoleculesB = roIdToMoleculesA.get(ro.getId());
-
-      if (roMoleculesA == null || roMoleculesB == null) {
-        continue;
-      }
-
-      for (Molecule moleculeA : roMoleculesA) {
-        for (Molecule moleculeB : roMoleculesB) {
-          List<Molecule> substrates = Arrays.asList(moleculeA, moleculeB);
-          result.add(new PredictionSeed(ro.getId().toString(), substrates, reactor, NO_SAR));
-        }
-      }
-    }
-    return result;
+    // The cross product of molecule pairs can be far too large to hold in memory, so generate seeds on demand.
+    return () -> new PairwiseSeedIterator(roCorpus.getRos(), roIdToMoleculesB, roIdToMoleculesA);
   }
 
   /**
@@ -144,4 +115,87 @@ public class TwoSubstrateRoExpander extends L2Expander {
     return result;
   }
 
+  /**
+   * Walks the ros in order, yielding one seed for each pair of molecules that match the ro's substructures.  Only the
+   * current ro's molecule lists are materialized at any one time.
+   */
+  private static class PairwiseSeedIterator implements Iterator<PredictionSeed> {
+    private final List<Ero> ros;
+    private final Iterator<Ero> roIterator;
+    private final Map<Integer, Set<Molecule>> roIdToFirstMolecules;
+    private final Map<Integer, Set<Molecule>> roIdToSecondMolecules;
+
+    private int roProcessedCounter = 0;
+    private Ero currentRo;
+    private SerializableReactor currentReactor;
+    private List<Molecule> firstMolecules = Collections.emptyList();
+    private List<Molecule> secondMolecules = Collections.emptyList();
+    private int firstIndex = 0;
+    private int secondIndex = 0;
+
+    PairwiseSeedIterator(List<Ero> ros,
+                         Map<Integer, Set<Molecule>> roIdToFirstMolecules,
+                         Map<Integer, Set<Molecule>> roIdToSecondMolecules) {
+      this.ros = ros;
+      this.roIterator = ros.iterator();
+      this.roIdToFirstMolecules = roIdToFirstMolecules;
+      this.roIdToSecondMolecules = roIdToSecondMolecules;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (firstIndex >= firstMolecules.size()) {
+        if (!roIterator.hasNext()) {
+          return false;
+        }
+        advanceRo(roIterator.next());
+      }
+      return true;
+    }
+
+    @Override
+    public PredictionSeed next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      List<Molecule> substrates = Arrays.asList(firstMolecules.get(firstIndex), secondMolecules.get(secondIndex));
+      PredictionSeed seed = new PredictionSeed(currentRo.getId().toString(), substrates, currentReactor, NO_SAR);
+
+      secondIndex++;
+      if (secondIndex >= secondMolecules.size()) {
+        secondIndex = 0;
+        firstIndex++;
+      }
+      return seed;
+    }
+
+    private void advanceRo(Ero ro) {
+      firstMolecules = Collections.emptyList();
+      secondMolecules = Collections.emptyList();
+      firstIndex = 0;
+      secondIndex = 0;
+
+      try {
+        currentReactor = new SerializableReactor(ro.getReactor(), ro.getId());
+      } catch (ReactionException e) {
+        LOGGER.info("Skipping ro %d, couldn't get Reactor.", ro.getId());
+        return;
+      }
+      currentRo = ro;
+
+      roProcessedCounter++;
+      LOGGER.info("Processing the %d indexed ro out of %s ros", roProcessedCounter, ros.size());
+
+      Set<Molecule> roMoleculesA = roIdToFirstMolecules.get(ro.getId());
+      Set<Molecule> roMoleculesB = roIdToSecondMolecules.get(ro.getId());
+
+      if (roMoleculesA == null || roMoleculesB == null || roMoleculesB.isEmpty()) {
+        return;
+      }
+
+      firstMolecules = new ArrayList<>(roMoleculesA);
+      secondMolecules = new ArrayList<>(roMoleculesB);
+    }
+  }
 }
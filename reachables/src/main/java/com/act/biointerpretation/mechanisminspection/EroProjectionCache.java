@@ -0,0 +1,218 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.biointerpretation.mechanisminspection;
+
+import com.act.utils.rocksdb.ColumnFamilyEnumeration;
+import com.act.utils.rocksdb.DBUtil;
+import com.act.utils.rocksdb.RocksDBAndHandles;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A disk-backed cache of ERO scoring results, so that re-validating the same substrates/products (in a later run over
+ * a new DB, say) doesn't re-run every ERO projection.  Results are keyed on the reaction's substrate InChIs (repeated
+ * according to their coefficients), its product InChIs, and a version string that identifies the ERO corpus (and
+ * anything else that affects scoring).  Changing the corpus version makes every old entry unreachable.
+ *
+ * Values are maps of ERO id to score for the EROs that matched; an empty map means none did.  Lookups and writes are
+ * safe to make from several threads at once.
+ */
+public class EroProjectionCache implements AutoCloseable {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(EroProjectionCache.class);
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final TypeReference<Map<Integer, Integer>> SCORE_MAP_TYPE =
+      new TypeReference<Map<Integer, Integer>>() {};
+
+  // InChIs never contain whitespace, so these can't collide with key contents.
+  private static final String KEY_SECTION_SEPARATOR = "\n";
+  private static final String KEY_INCHI_SEPARATOR = " ";
+
+  public enum COLUMN_FAMILIES implements ColumnFamilyEnumeration<COLUMN_FAMILIES> {
+    ERO_SCORES("ero_scores"),
+    ;
+
+    private static final Map<String, COLUMN_FAMILIES> reverseNameMap =
+        new HashMap<String, COLUMN_FAMILIES>() {{
+          for (COLUMN_FAMILIES cf : COLUMN_FAMILIES.values()) {
+            put(cf.getName(), cf);
+          }
+        }};
+
+    private String name;
+
+    COLUMN_FAMILIES(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public COLUMN_FAMILIES getFamilyByName(String name) {
+      return reverseNameMap.get(name);
+    }
+  }
+
+  private final RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles;
+  private final String corpusVersion;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong writes = new AtomicLong();
+
+  /**
+   * Opens the cache at a path on disk, creating it if it doesn't already exist.
+   * @param cacheDir The directory in which the cache's RocksDB lives.
+   * @param corpusVersion A string that identifies the EROs (and other scoring inputs) whose results will be cached.
+   * @return An open cache.
+   * @throws IOException
+   */
+  public static EroProjectionCache open(File cacheDir, String corpusVersion) throws IOException {
+    RocksDB.loadLibrary();
+    try {
+      RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles;
+      if (cacheDir.exists()) {
+        LOGGER.info("Opening existing ERO projection cache at %s", cacheDir.getAbsolutePath());
+        dbAndHandles = DBUtil.openExistingRocksDB(cacheDir, COLUMN_FAMILIES.values());
+      } else {
+        LOGGER.info("Creating new ERO projection cache at %s", cacheDir.getAbsolutePath());
+        dbAndHandles = DBUtil.createNewRocksDB(cacheDir, COLUMN_FAMILIES.values());
+      }
+      return new EroProjectionCache(dbAndHandles, corpusVersion);
+    } catch (RocksDBException e) {
+      throw new IOException(String.format("Unable to open ERO projection cache at %s: %s",
+          cacheDir.getAbsolutePath(), e.getMessage()), e);
+    }
+  }
+
+  EroProjectionCache(RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles, String corpusVersion) {
+    this.dbAndHandles = dbAndHandles;
+    this.corpusVersion = corpusVersion;
+  }
+
+  /**
+   * Builds the cache key for a reaction.  Substrates are sorted but not de-duplicated, since the coefficients matter to
+   * projection; products are compared as a set, so they're sorted and de-duplicated.
+   */
+  static byte[] makeKey(String corpusVersion, Collection<String> substrateInchis, Collection<String> productInchis) {
+    List<String> substrates = new ArrayList<>(substrateInchis);
+    Collections.sort(substrates);
+    String key = StringUtils.join(new String[] {
+        corpusVersion,
+        StringUtils.join(substrates, KEY_INCHI_SEPARATOR),
+        StringUtils.join(new TreeSet<>(productInchis), KEY_INCHI_SEPARATOR),
+    }, KEY_SECTION_SEPARATOR);
+    return key.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Looks up the ERO scores for a reaction.
+   * @param substrateInchis The reaction's substrate InChIs, each repeated according to its coefficient.
+   * @param productInchis The reaction's product InChIs.
+   * @return A map of ERO id to score for the EROs that matched, or null if the reaction isn't in the cache.
+   * @throws IOException
+   */
+  public Map<Integer, Integer> get(Collection<String> substrateInchis, Collection<String> productInchis)
+      throws IOException {
+    byte[] value;
+    try {
+      value = dbAndHandles.get(COLUMN_FAMILIES.ERO_SCORES, makeKey(corpusVersion, substrateInchis, productInchis));
+    } catch (RocksDBException e) {
+      throw new IOException("Unable to read from ERO projection cache", e);
+    }
+    if (value == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    return OBJECT_MAPPER.readValue(value, SCORE_MAP_TYPE);
+  }
+
+  /**
+   * Stores the ERO scores for a reaction.
+   * @param substrateInchis The reaction's substrate InChIs, each repeated according to its coefficient.
+   * @param productInchis The reaction's product InChIs.
+   * @param eroScores A map of ERO id to score for the EROs that matched; may be empty.
+   * @throws IOException
+   */
+  public void put(Collection<String> substrateInchis, Collection<String> productInchis,
+                  Map<Integer, Integer> eroScores) throws IOException {
+    // Sort so that identical results always serialize identically.
+    byte[] value = OBJECT_MAPPER.writeValueAsBytes(new TreeMap<>(eroScores));
+    try {
+      dbAndHandles.put(COLUMN_FAMILIES.ERO_SCORES, makeKey(corpusVersion, substrateInchis, productInchis), value);
+    } catch (RocksDBException e) {
+      throw new IOException("Unable to write to ERO projection cache", e);
+    }
+    writes.incrementAndGet();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getWrites() {
+    return writes.get();
+  }
+
+  public void logStats() {
+    long lookups = hits.get() + misses.get();
+    LOGGER.info("ERO projection cache: %d hits / %d lookups (%.1f%% hit rate), %d new entries written",
+        hits.get(), lookups, lookups == 0 ? 0.0 : 100.0 * hits.get() / lookups, writes.get());
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      dbAndHandles.flush(true);
+    } catch (RocksDBException e) {
+      throw new IOException("Unable to flush ERO projection cache", e);
+    } finally {
+      dbAndHandles.close();
+    }
+  }
+}
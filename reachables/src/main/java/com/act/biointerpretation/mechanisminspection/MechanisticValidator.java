@@ -38,6 +38,10 @@ import chemaxon.struc.Molecule;
 import chemaxon.struc.MoleculeGraph;
 import com.act.biointerpretation.BiointerpretationProcessor;
 import com.act.biointerpretation.Utils.ReactionProjector;
+import com.act.biointerpretation.Utils.SubstructurePrefilterIndex;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -50,10 +54,14 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The mechanistic validator is used for evaluating whether a particular set of substrates and products represent a
@@ -65,18 +73,35 @@ import java.util.TreeMap;
 public class MechanisticValidator extends BiointerpretationProcessor {
   private static final Logger LOGGER = LogManager.getFormatterLogger(MechanisticValidator.class);
   private static final String PROCESSOR_NAME = "Mechanistic Validator";
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  // Bump this if scoring changes in a way that the ERO corpus and blacklist don't capture, to invalidate old caches.
+  private static final String PROJECTION_CACHE_SCORING_VERSION = "1";
 
   private static final String DB_PERFECT_CLASSIFICATION = "perfect";
   private static final int TWO_DIMENSION = 2;
   private ErosCorpus erosCorpus;
-  private Map<Ero, Reactor> reactors;
+  private Map<Integer, Ero> erosById;
   private BlacklistedInchisCorpus blacklistedInchisCorpus;
-  private ReactionProjector projector;
-  private int eroHitCounter = 0;
-  private int cacheHitCounter = 0;
+  /* ChemAxon Reactors can't be shared across threads, and the projector caches InChIs as it goes, so every thread that
+   * scores reactions gets its own of each.  usableRos holds the EROs whose reactors could be built at all. */
+  private List<Ero> usableRos;
+  private final ThreadLocal<Map<Ero, Reactor>> reactors = ThreadLocal.withInitial(this::buildReactors);
+  private final ThreadLocal<ReactionProjector> projector = ThreadLocal.withInitial(() -> new ReactionProjector(true));
+  // Fingerprints of each usable ERO's substrate structures, used to skip projections that can't succeed.
+  private Map<Ero, long[][]> eroReactantFingerprints;
+  private boolean useSubstructurePrefilter = false;
+  private final AtomicLong prefilterChecks = new AtomicLong(0);
+  private final AtomicLong prefilterRejections = new AtomicLong(0);
+  private final AtomicInteger eroHitCounter = new AtomicInteger(0);
+  private final AtomicInteger cacheHitCounter = new AtomicInteger(0);
+  private final AtomicLong reactionsScored = new AtomicLong(0);
 
   private Map<Pair<Map<Long, Integer>, Map<Long, Integer>>, Pair<Long, TreeMap<Integer, List<Ero>>>> cachedEroResults =
-      new HashMap<>();
+      new ConcurrentHashMap<>();
+
+  // Optional disk-backed cache of results that outlives this run; see setProjectionCacheDir.
+  private File projectionCacheDir = null;
+  private EroProjectionCache projectionCache = null;
 
   private enum ROScore {
     PERFECT_SCORE(4),
@@ -121,36 +146,144 @@ public class MechanisticValidator extends BiointerpretationProcessor {
     blacklistedInchisCorpus = new BlacklistedInchisCorpus();
     blacklistedInchisCorpus.loadCorpus();
 
-    projector = new ReactionProjector(true);
-
     initReactors();
 
+    if (projectionCacheDir != null) {
+      projectionCache = EroProjectionCache.open(projectionCacheDir, computeProjectionCacheVersion());
+    }
+
     markInitialized();
   }
 
+  /**
+   * Reuse ERO scoring results from (and save new results to) a persistent cache at the specified location, which will
+   * be created if it doesn't exist.  Must be called before init().
+   * @param cacheDir The directory containing the cache.
+   */
+  public void setProjectionCacheDir(File cacheDir) {
+    this.projectionCacheDir = cacheDir;
+  }
+
+  /**
+   * Screen each ERO against a reaction's substrates with SubstructurePrefilterIndex fingerprints before projecting it,
+   * skipping EROs whose substrate structures can't be present.  This doesn't change any scores, just avoids running
+   * reactors that would produce nothing.
+   * @param useSubstructurePrefilter True if the prefilter should be used.
+   */
+  public void setUseSubstructurePrefilter(boolean useSubstructurePrefilter) {
+    this.useSubstructurePrefilter = useSubstructurePrefilter;
+  }
+
+  /**
+   * Computes a version string for the persistent projection cache that changes whenever the EROs or blacklisted InChIs
+   * this validator scores with do.
+   */
+  private String computeProjectionCacheVersion() throws IOException {
+    List<Ero> sortedRos = new ArrayList<>(erosCorpus.getRos());
+    sortedRos.sort((a, b) -> a.getId().compareTo(b.getId()));
+    List<List<Object>> scoringFields = new ArrayList<>(sortedRos.size());
+    for (Ero ro : sortedRos) {
+      scoringFields.add(Arrays.asList(ro.getId(), ro.getRo(), ro.getCategory(), ro.getManual_validation()));
+    }
+    String version = DigestUtils.sha1Hex(StringUtils.join(new String[] {
+        PROJECTION_CACHE_SCORING_VERSION,
+        MOL_EXPORTER_INCHI_OPTIONS_FOR_INCHI_COMPARISON,
+        OBJECT_MAPPER.writeValueAsString(scoringFields),
+        OBJECT_MAPPER.writeValueAsString(blacklistedInchisCorpus.getInchis()),
+    }, "\n"));
+    LOGGER.info("Using ERO projection cache version %s", version);
+    return version;
+  }
+
   private void initReactors(File licenseFile) throws IOException, LicenseProcessingException, ReactionException {
     if (licenseFile != null) {
       LicenseManager.setLicenseFile(licenseFile.getAbsolutePath());
     }
 
-    reactors = new HashMap<>(erosCorpus.getRos().size());
+    // ErosCorpus.getEro fills in its id map lazily, which isn't safe from worker threads, so keep our own.
+    erosById = new HashMap<>(erosCorpus.getRos().size());
+    Map<Ero, Reactor> initThreadReactors = new LinkedHashMap<>(erosCorpus.getRos().size());
     for (Ero ro : erosCorpus.getRos()) {
+      erosById.put(ro.getId(), ro);
       try {
         Reactor reactor = new Reactor();
         reactor.setReactionString(ro.getRo());
-        reactors.put(ro, reactor);
+        initThreadReactors.put(ro, reactor);
       } catch (java.lang.NoSuchFieldError e) {
         // TODO: Investigate why so many ROs are failing at this point.
         LOGGER.error("Ros is throwing a no such field error: %s", ro.getRo());
       }
     }
+    usableRos = new ArrayList<>(initThreadReactors.keySet());
+    reactors.set(initThreadReactors);
+
+    eroReactantFingerprints = new HashMap<>(initThreadReactors.size());
+    for (Map.Entry<Ero, Reactor> entry : initThreadReactors.entrySet()) {
+      eroReactantFingerprints.put(entry.getKey(), SubstructurePrefilterIndex.fingerprintReactants(entry.getValue()));
+    }
+  }
+
+  /**
+   * Builds a set of reactors for a worker thread, skipping any EROs that failed to load in initReactors.
+   */
+  private Map<Ero, Reactor> buildReactors() {
+    Map<Ero, Reactor> threadReactors = new LinkedHashMap<>(usableRos.size());
+    for (Ero ro : usableRos) {
+      try {
+        Reactor reactor = new Reactor();
+        reactor.setReactionString(ro.getRo());
+        threadReactors.put(ro, reactor);
+      } catch (ReactionException e) {
+        // This already worked once on the init thread, so something is very wrong.
+        String msg = String.format("Unable to build reactor for ERO %d on thread %s: %s",
+            ro.getId(), Thread.currentThread().getName(), e.getMessage());
+        LOGGER.error(msg);
+        throw new RuntimeException(msg, e);
+      }
+    }
+    return threadReactors;
+  }
+
+  @Override
+  protected boolean isReactionProcessingThreadSafe() {
+    // Scoring only uses per-thread reactors/projectors, concurrent caches, and atomic counters.
+    return true;
+  }
+
+  @Override
+  protected void processReactions() throws IOException, ReactionException {
+    long startTime = System.nanoTime();
+    super.processReactions();
+    double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+    LOGGER.info("Scored %d reactions in %.1fs (%.1f reactions/sec)", reactionsScored.get(), elapsedSeconds,
+        reactionsScored.get() / Math.max(elapsedSeconds, 1e-9));
   }
 
   @Override
   protected void afterProcessReactions() throws IOException, ReactionException {
     super.afterProcessReactions();
-    LOGGER.info("Found %d reactions that matched at least one ERO", eroHitCounter);
-    LOGGER.info("Observed %d ERO projection cache hits based on substrates/products", cacheHitCounter);
+    LOGGER.info("Found %d reactions that matched at least one ERO", eroHitCounter.get());
+    LOGGER.info("Observed %d ERO projection cache hits based on substrates/products", cacheHitCounter.get());
+    if (useSubstructurePrefilter) {
+      LOGGER.info("Substructure prefilter skipped %d of %d ERO projections", prefilterRejections.get(),
+          prefilterChecks.get());
+    }
+    if (projectionCache != null) {
+      projectionCache.logStats();
+    }
+  }
+
+  @Override
+  public void run() throws IOException, LicenseProcessingException, ReactionException {
+    try {
+      super.run();
+    } finally {
+      // Close the cache even if processing fails part way, so the RocksDB lock is released and pending writes land.
+      if (projectionCache != null) {
+        projectionCache.close();
+        projectionCache = null;
+      }
+    }
   }
 
   @Override
@@ -159,7 +292,6 @@ public class MechanisticValidator extends BiointerpretationProcessor {
   }
 
   private Reaction runEROsOnReaction(Reaction rxn, Long newId) throws IOException {
-    projector.clearInchiCache(); // Mew reaction probably doesn't have repeat chemicals, and we don't want a huge cache
     // Apply the EROs and save the results in the reaction object.
     TreeMap<Integer, List<Ero>> scoreToListOfRos;
     try {
@@ -180,8 +312,9 @@ public class MechanisticValidator extends BiointerpretationProcessor {
         }
       }
       rxn.setMechanisticValidatorResult(matchingEros);
-      eroHitCounter++;
+      eroHitCounter.incrementAndGet();
     }
+    reactionsScored.incrementAndGet();
 
     return rxn;
   }
@@ -206,19 +339,53 @@ public class MechanisticValidator extends BiointerpretationProcessor {
           cachedEroResults.get(Pair.of(substrateToCoefficientMap, productToCoefficientMap));
       if (cachedResults != null) {
         LOGGER.debug("Got hit on cached ERO results: %d == %d", newRxnId, cachedResults.getLeft());
-        cacheHitCounter++;
+        cacheHitCounter.incrementAndGet();
         return cachedResults.getRight();
       }
     }
 
+    /* Then try the persistent cache, which is keyed on InChIs rather than ids so that it holds across DBs.  The key
+     * lists are built just like the inputs to projection below: FAKE InChIs are skipped, and substrates are repeated
+     * according to their coefficients. */
+    List<String> substrateInchisForCache = null;
+    List<String> productInchisForCache = null;
+    if (projectionCache != null) {
+      substrateInchisForCache = new ArrayList<>();
+      for (Long id : rxn.getSubstrates()) {
+        String inchi = getInchiOrCrash(id);
+        if (!inchi.contains("FAKE")) {
+          Integer coefficient = rxn.getSubstrateCoefficient(id);
+          int copies = coefficient == null ? 1 : Math.max(coefficient, 0);
+          substrateInchisForCache.addAll(Collections.nCopies(copies, inchi));
+        }
+      }
+      productInchisForCache = new ArrayList<>();
+      for (Long id : rxn.getProducts()) {
+        String inchi = getInchiOrCrash(id);
+        if (!inchi.contains("FAKE")) {
+          productInchisForCache.add(inchi);
+        }
+      }
+
+      Map<Integer, Integer> persistedScores = projectionCache.get(substrateInchisForCache, productInchisForCache);
+      if (persistedScores != null) {
+        TreeMap<Integer, List<Ero>> scoreToListOfRos = new TreeMap<>(Collections.reverseOrder());
+        for (Map.Entry<Integer, Integer> entry : new TreeMap<>(persistedScores).entrySet()) {
+          scoreToListOfRos.computeIfAbsent(entry.getValue(), k -> new ArrayList<>())
+              .add(erosById.get(entry.getKey()));
+        }
+        cachedEroResults.put(Pair.of(substrateToCoefficientMap, productToCoefficientMap),
+            Pair.of(newRxnId, scoreToListOfRos));
+        return scoreToListOfRos;
+      }
+    }
+
+    // New reaction probably doesn't have repeat chemicals, and we don't want a huge cache.
+    projector.get().clearInchiCache();
+
     List<Molecule> substrateMolecules = new ArrayList<>();
     for (Long id : rxn.getSubstrates()) {
-      String inchi = mapNewChemIdToInChI(id);
-      if (inchi == null) {
-        String msg = String.format("Missing inchi for new chem id %d in cache", id);
-        LOGGER.error(msg);
-        throw new RuntimeException(msg);
-      }
+      String inchi = getInchiOrCrash(id);
 
       if (inchi.contains("FAKE")) {
         LOGGER.debug("The inchi is a FAKE, so just ignore the chemical.");
@@ -258,12 +425,7 @@ public class MechanisticValidator extends BiointerpretationProcessor {
     Set<String> expectedProducts = new HashSet<>();
 
     for (Long id : rxn.getProducts()) {
-      String inchi = mapNewChemIdToInChI(id);
-      if (inchi == null) {
-        String msg = String.format("Missing inchi for new chem id %d in cache", id);
-        LOGGER.error(msg);
-        throw new RuntimeException(msg);
-      }
+      String inchi = getInchiOrCrash(id);
 
       if (inchi.contains("FAKE")) {
         LOGGER.debug("The inchi is a FAKE, so just ignore the chemical.");
@@ -277,8 +439,24 @@ public class MechanisticValidator extends BiointerpretationProcessor {
       expectedProducts.add(transformedInchi);
     }
 
+    List<long[]> substrateFingerprints = null;
+    if (useSubstructurePrefilter) {
+      substrateFingerprints = new ArrayList<>(substrateMolecules.size());
+      for (Molecule mol : substrateMolecules) {
+        substrateFingerprints.add(SubstructurePrefilterIndex.fingerprintMolecule(mol));
+      }
+    }
+
     TreeMap<Integer, List<Ero>> scoreToListOfRos = new TreeMap<>(Collections.reverseOrder());
-    for (Map.Entry<Ero, Reactor> entry : reactors.entrySet()) {
+    for (Map.Entry<Ero, Reactor> entry : reactors.get().entrySet()) {
+      if (substrateFingerprints != null) {
+        prefilterChecks.incrementAndGet();
+        if (!SubstructurePrefilterIndex.mayReact(substrateFingerprints, eroReactantFingerprints.get(entry.getKey()))) {
+          prefilterRejections.incrementAndGet();
+          continue;
+        }
+      }
+
       Integer score =
           scoreReactionBasedOnRO(entry.getValue(), substrateMolecules, expectedProducts, entry.getKey(), newRxnId);
       if (score > ROScore.DEFAULT_UNMATCH_SCORE.getScore()) {
@@ -294,10 +472,29 @@ public class MechanisticValidator extends BiointerpretationProcessor {
     // Cache results for any future similar reactions.
     cachedEroResults.put(Pair.of(substrateToCoefficientMap, productToCoefficientMap),
         Pair.of(newRxnId, scoreToListOfRos));
+    if (projectionCache != null) {
+      Map<Integer, Integer> eroScores = new HashMap<>();
+      for (Map.Entry<Integer, List<Ero>> entry : scoreToListOfRos.entrySet()) {
+        for (Ero e : entry.getValue()) {
+          eroScores.put(e.getId(), entry.getKey());
+        }
+      }
+      projectionCache.put(substrateInchisForCache, productInchisForCache, eroScores);
+    }
 
     return scoreToListOfRos;
   }
 
+  private String getInchiOrCrash(Long newChemId) {
+    String inchi = mapNewChemIdToInChI(newChemId);
+    if (inchi == null) {
+      String msg = String.format("Missing inchi for new chem id %d in cache", newChemId);
+      LOGGER.error(msg);
+      throw new RuntimeException(msg);
+    }
+    return inchi;
+  }
+
   private String removeChiralityFromChemical(String inchi) throws IOException {
     try {
       Molecule importedMol = MolImporter.importMol(blacklistedInchisCorpus.renameInchiIfFoundInBlacklist(inchi));
@@ -335,7 +532,7 @@ public class MechanisticValidator extends BiointerpretationProcessor {
     List<Molecule[]> productSets;
 
     try {
-      productSets = projector.getAllProjectedProductSets(substrateArray, reactor, 10);
+      productSets = projector.get().getAllProjectedProductSets(substrateArray, reactor, 10);
     } catch (IOException e) {
       LOGGER.error("Encountered IOException when projecting reactor for ERO %d onto substrates of %d: %s",
           ero.getId(), newRxnId, e.getMessage());
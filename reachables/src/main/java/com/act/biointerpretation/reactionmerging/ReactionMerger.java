@@ -215,7 +215,7 @@ public class ReactionMerger extends BiointerpretationProcessor {
     migrateReactionChemicals(mergedReaction, fr);
 
     // Update the reaction in the DB with the newly migrated protein data.
-    getNoSQLAPI().getWriteDB().updateActReaction(mergedReaction, newId);
+    getNoSQLAPI().updateReactionInOutKnowledgeGraph(mergedReaction, newId);
 
     return mergedReaction;
   }
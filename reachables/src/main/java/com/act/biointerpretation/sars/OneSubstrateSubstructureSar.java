@@ -89,15 +89,18 @@ public class OneSubstrateSubstructureSar implements Sar {
       return false;
     }
 
-    // Return true if the searcher finds a match
-    searcher.setTarget(substrates.get(0));
-
-    try {
-      return searcher.findFirst() != null;
-    } catch (SearchException e) {
-      // Log error but don't propagate upward. Have never seen this before.
-      LOGGER.error("Error on testing substrates with SAR %s", getSubstructureInchi());
-      return false;
+    // Return true if the searcher finds a match.  The searcher holds the target between calls, so SARs shared by
+    // parallel L2 expansion workers must not interleave these two steps.
+    synchronized (searcher) {
+      searcher.setTarget(substrates.get(0));
+
+      try {
+        return searcher.findFirst() != null;
+      } catch (SearchException e) {
+        // Log error but don't propagate upward. Have never seen this before.
+        LOGGER.error("Error on testing substrates with SAR %s", getSubstructureInchi());
+        return false;
+      }
     }
   }
 
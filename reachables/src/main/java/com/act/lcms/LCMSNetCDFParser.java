@@ -23,9 +23,9 @@
 
 package com.act.lcms;
 
-import org.apache.commons.lang3.tuple.Pair;
 import ucar.ma2.Array;
 import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
 import ucar.nc2.Attribute;
 import ucar.nc2.NetcdfFile;
 import ucar.nc2.Variable;
@@ -36,6 +36,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * Parses NetCDF files produced by an LCMS apparatus, converting the time points contained therein into
@@ -59,9 +60,9 @@ import java.util.List;
  *   </li>
  * </ul>
  *
- * The NetCDF API exposed in the ucar.ma2 package makes it easy to read and access these point arrays.  Note, however,
- * that the time/space performance characteristics of this library have not been thoroughly tested at 20n, so beware of
- * excessive GC overhead or heap consumption.
+ * The NetCDF API exposed in the ucar.ma2 package makes it easy to read and access these point arrays.  We read the
+ * point arrays in sections (see {@link #getPrimitiveIterator(String)}) rather than all at once, as scan files can be
+ * several gigabytes in size and reading them whole incurs excessive GC overhead and heap consumption.
  */
 public class LCMSNetCDFParser implements LCMSParser {
   public static final String MASS_VALUES = "mass_values";
@@ -71,23 +72,73 @@ public class LCMSNetCDFParser implements LCMSParser {
   public static final String SCAN_POINTS_COUNT = "point_count";
   public static final String TOTAL_INTENSITY = "total_intensity";
 
+  /* The number of {m/z, intensity} points to read from disk at a time when streaming spectra.  At four bytes per float
+   * this is 4MB per variable, which is small enough to keep the heap happy but large enough that we don't spend all our
+   * time making tiny reads.  Spectra larger than this are read in one (larger) chunk. */
+  public static final int DEFAULT_CHUNK_POINTS = 1 << 20;
+
+  private int chunkPoints;
+
+  public LCMSNetCDFParser() {
+    this(DEFAULT_CHUNK_POINTS);
+  }
+
+  public LCMSNetCDFParser(int chunkPoints) {
+    if (chunkPoints <= 0) {
+      throw new IllegalArgumentException(String.format("Chunk size must be positive, but got %d", chunkPoints));
+    }
+    this.chunkPoints = chunkPoints;
+  }
+
+  /**
+   * Returns an iterator over boxed LCMSSpectrum objects.  This is an adapter over
+   * {@link #getPrimitiveIterator(String)}, so the underlying file is still read in chunks; consumers that are
+   * sensitive to allocation rates should use the primitive iterator directly.
+   */
   @Override
   public Iterator<LCMSSpectrum> getIterator(String inputFile)
       throws ParserConfigurationException, IOException, XMLStreamException {
+    final Iterator<PrimitiveLCMSSpectrum> primitiveIterator = getPrimitiveIterator(inputFile);
+    return new Iterator<LCMSSpectrum>() {
+      @Override
+      public boolean hasNext() {
+        return primitiveIterator.hasNext();
+      }
+
+      @Override
+      public LCMSSpectrum next() {
+        return primitiveIterator.next().toLCMSSpectrum();
+      }
+    };
+  }
 
+  /**
+   * Returns an iterator over the time points in a NetCDF file that does not box any {m/z, intensity} readings.
+   *
+   * Rather than reading the entire mass_values and intensity_values arrays into memory up front, this iterator reads
+   * sections of those arrays of roughly {@link #DEFAULT_CHUNK_POINTS} points at a time, and copies each scan's points
+   * into a single PrimitiveLCMSSpectrum that is <b>reused</b> across calls to next().  Call
+   * {@link PrimitiveLCMSSpectrum#copy()} on any spectrum that needs to outlive the next call to next().
+   *
+   * @param inputFile The NetCDF file to read.
+   * @return An iterator over (reused) primitive spectra.
+   * @throws IOException
+   */
+  public Iterator<PrimitiveLCMSSpectrum> getPrimitiveIterator(String inputFile) throws IOException {
     final NetcdfFile netcdfFile = NetcdfFile.open(inputFile);
 
     // Assumption: all referenced Variables will always exist in the NetcdfFfile.
 
-    // Assumption: these arrays will have the same length.
-    final Array mzValues = netcdfFile.findVariable(MASS_VALUES).read();
-    final Array intensityValues = netcdfFile.findVariable(INTENSITY_VALUES).read();
-    assert(mzValues.getSize() == intensityValues.getSize());
+    // Assumption: these variables will have the same length.  We only read them in sections as needed.
+    final Variable mzVariable = netcdfFile.findVariable(MASS_VALUES);
+    final Variable intensityVariable = netcdfFile.findVariable(INTENSITY_VALUES);
+    assert(mzVariable.getSize() == intensityVariable.getSize());
     // Assumption: the mz/intensity values are always floats.
-    assert(mzValues.getDataType() == DataType.FLOAT &&
-        intensityValues.getDataType() == DataType.FLOAT);
+    assert(mzVariable.getDataType() == DataType.FLOAT &&
+        intensityVariable.getDataType() == DataType.FLOAT);
+    final long totalPoints = mzVariable.getSize();
 
-    // Assumption: all of these variables' arrays will have the same lengths.
+    // Assumption: all of these variables' arrays will have the same lengths.  These are small, so read them eagerly.
     final Array scanTimeArray = netcdfFile.findVariable(SCAN_TIME).read();
     final Array scanPointsStartArray = netcdfFile.findVariable(SCAN_POINTS_START).read();
     final Array scanPointsCountArray = netcdfFile.findVariable(SCAN_POINTS_COUNT).read();
@@ -102,29 +153,44 @@ public class LCMSNetCDFParser implements LCMSParser {
         totalIntensityArray.getDataType() == DataType.DOUBLE);
 
     final long size = scanTimeArray.getSize();
+    if (size == 0) {
+      netcdfFile.close();
+    }
 
-    return new Iterator<LCMSSpectrum>() {
+    return new Iterator<PrimitiveLCMSSpectrum>() {
       private int i = 0;
+      private final PrimitiveLCMSSpectrum spectrum = new PrimitiveLCMSSpectrum();
+
+      // The current chunk of points covers the exclusive range [chunkStart, chunkStart + chunkMZs.length).
+      private int chunkStart = 0;
+      private float[] chunkMZs = new float[0];
+      private float[] chunkIntensities = new float[0];
+
       @Override
       public boolean hasNext() {
         return this.i < size;
       }
 
       @Override
-      public LCMSSpectrum next() {
-        int pointCount = scanPointsCountArray.getInt(i);
-        List<Pair<Double, Double>> mzIntPairs = new ArrayList<>(pointCount);
+      public PrimitiveLCMSSpectrum next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
 
+        int pointCount = scanPointsCountArray.getInt(i);
         int pointsStart = scanPointsStartArray.getInt(i);
-        int pointsEnd = pointsStart + pointCount;
-        for (int p = pointsStart; p < pointsEnd; p++) {
-          Double mz = Float.valueOf(mzValues.getFloat(p)).doubleValue();
-          Double intensity = Float.valueOf(intensityValues.getFloat(p)).doubleValue();
-          mzIntPairs.add(Pair.of(mz, intensity));
+        if (pointCount > 0 &&
+            (pointsStart < chunkStart || pointsStart + pointCount > chunkStart + chunkMZs.length)) {
+          loadChunk(pointsStart, pointCount);
         }
 
-        LCMSSpectrum s = new LCMSSpectrum(i, scanTimeArray.getDouble(i), "s", mzIntPairs,
-            null, null, null, i, totalIntensityArray.getDouble(i));
+        spectrum.reset(i, scanTimeArray.getDouble(i), "s", totalIntensityArray.getDouble(i), pointCount);
+        // Empty scans may point anywhere (even outside the current chunk), so there is nothing to copy for them.
+        if (pointCount > 0) {
+          int offset = pointsStart - chunkStart;
+          System.arraycopy(chunkMZs, offset, spectrum.getMZBuffer(), 0, pointCount);
+          System.arraycopy(chunkIntensities, offset, spectrum.getIntensityBuffer(), 0, pointCount);
+        }
 
         // Don't forget to advance the counter!
         this.i++;
@@ -138,7 +204,23 @@ public class LCMSNetCDFParser implements LCMSParser {
           }
         }
 
-        return s;
+        return spectrum;
+      }
+
+      private void loadChunk(int pointsStart, int pointCount) {
+        // Always read at least the whole scan, even if it's larger than our usual chunk size.
+        int chunkLength = (int) Math.min(Math.max(chunkPoints, pointCount), totalPoints - pointsStart);
+        int[] origin = new int[] { pointsStart };
+        int[] shape = new int[] { chunkLength };
+        try {
+          /* Freshly read arrays are contiguous and zero-offset, so their storage is exactly the section we asked for.
+           * This avoids per-point getFloat() calls when copying into the spectrum buffers. */
+          chunkMZs = (float[]) mzVariable.read(origin, shape).getStorage();
+          chunkIntensities = (float[]) intensityVariable.read(origin, shape).getStorage();
+        } catch (IOException | InvalidRangeException e) {
+          throw new RuntimeException(e);
+        }
+        chunkStart = pointsStart;
       }
     };
   }
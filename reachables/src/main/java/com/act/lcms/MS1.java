@@ -181,10 +181,54 @@ public class MS1 {
 
   public MS1ScanForWellAndMassCharge getMS1(Map<String, Double> metlinMasses, String ms1File)
       throws Exception {
-    return getMS1(metlinMasses, new LCMSNetCDFParser().getIterator(ms1File));
+    return getMS1FromPrimitiveSpectra(metlinMasses, new LCMSNetCDFParser().getPrimitiveIterator(ms1File));
   }
 
-  private MS1ScanForWellAndMassCharge getMS1(
+  /**
+   * Extracts the MS1 traces for a set of ions using a single m/z-sorted sweep over each spectrum (see
+   * {@link SortedSweepIonExtractor}).  Produces results identical to {@link #getMS1(Map, Iterator)}, which is kept
+   * around as the vetted baseline against which this implementation is checked.
+   */
+  MS1ScanForWellAndMassCharge getMS1FromPrimitiveSpectra(
+      Map<String, Double> metlinMasses, Iterator<PrimitiveLCMSSpectrum> ms1File) {
+
+    // create the map with placeholder empty lists for each ion
+    // we will populate this later when we go through each timepoint
+    MS1ScanForWellAndMassCharge scanResults = new MS1ScanForWellAndMassCharge();
+    SortedSweepIonExtractor extractor =
+        new SortedSweepIonExtractor(metlinMasses, this.mzTolerance, this.maxDetectionsInWindow);
+    for (String ionDesc : metlinMasses.keySet()) {
+      List<XZ> ms1 = new ArrayList<>();
+      scanResults.getIonsToSpectra().put(ionDesc, ms1);
+    }
+    // Hold onto the destination lists in sweep order so we don't have to hash the ion names at every time point.
+    List<List<XZ>> ionSpectra = new ArrayList<>(extractor.size());
+    for (String ionDesc : extractor.getIonDescs()) {
+      ionSpectra.add(scanResults.getIonsToSpectra().get(ionDesc));
+    }
+
+    double[] intensitiesForMzs = null; // Reused across time points.
+    while (ms1File.hasNext()) {
+      PrimitiveLCMSSpectrum timepoint = ms1File.next();
+      intensitiesForMzs = extractor.extract(timepoint, intensitiesForMzs);
+      Double time = timepoint.getTimeVal();
+      for (int i = 0; i < extractor.size(); i++) {
+        ionSpectra.get(i).add(new XZ(time, intensitiesForMzs[i]));
+      }
+    }
+
+    if (extractor.getUnsortedSpectraCount() > 0) {
+      LOGGER.warn("Found %d spectra not sorted by m/z; fell back to linear extraction for those",
+          extractor.getUnsortedSpectraCount());
+    }
+
+    computePeakProfilesAndYAxes(metlinMasses, scanResults);
+    return scanResults;
+  }
+
+  /* This is the original, one-ion-at-a-time extraction, which has been thoroughly manually vetted.  It remains as the
+   * baseline for comparison with getMS1FromPrimitiveSpectra. */
+  MS1ScanForWellAndMassCharge getMS1(
       Map<String, Double> metlinMasses, Iterator<LCMSSpectrum> ms1File) {
 
     // create the map with placeholder empty lists for each ion
@@ -216,6 +260,11 @@ public class MS1 {
       }
     }
 
+    computePeakProfilesAndYAxes(metlinMasses, scanResults);
+    return scanResults;
+  }
+
+  private void computePeakProfilesAndYAxes(Map<String, Double> metlinMasses, MS1ScanForWellAndMassCharge scanResults) {
     // populate statistics about the curve for each ion curve
     for (String ionDesc : metlinMasses.keySet()) {
       computeAndStorePeakProfile(scanResults, ionDesc);
@@ -239,8 +288,6 @@ public class MS1 {
     }
     scanResults.setMaxYAxis(globalYAxis);
     scanResults.setIndividualMaxIntensities(individualYMax);
-
-    return scanResults;
   }
 
   /* DO NOT change this function while `getMS1` depends on it.  This approach has been thorougly manually vetted; any
@@ -0,0 +1,158 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.lcms;
+
+import com.act.utils.CLIUtil;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Compares the throughput and allocation rate of the boxed and primitive NetCDF spectrum iterators over a real scan
+ * file.  We don't pull in a microbenchmarking harness for this, as a single pass over a multi-GB scan file is long
+ * enough that JIT warm-up is noise; instead we run each iterator a few times and report the best/worst runs.
+ *
+ * Allocation is measured using the HotSpot-specific per-thread allocation counter, and will be reported as -1 if the
+ * running JVM does not support it.
+ */
+public class NetCDFParserBenchmark {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(NetCDFParserBenchmark.class);
+
+  public static final String OPTION_SCAN_FILE = "i";
+  public static final String OPTION_ITERATIONS = "n";
+  public static final String OPTION_CHUNK_POINTS = "c";
+
+  public static final Integer DEFAULT_ITERATIONS = 3;
+
+  public static final String HELP_MESSAGE = StringUtils.join(new String[]{
+      "Benchmarks the boxed LCMSSpectrum and primitive NetCDF spectrum iterators over a scan file, ",
+      "reporting points/sec and bytes allocated per point for each."
+  }, "");
+
+  public static final List<Option.Builder> OPTION_BUILDERS = new ArrayList<Option.Builder>() {{
+    add(Option.builder(OPTION_SCAN_FILE)
+        .argName("scan file")
+        .desc("A path to the LCMS NetCDF scan file to read")
+        .hasArg().required()
+        .longOpt("input")
+    );
+    add(Option.builder(OPTION_ITERATIONS)
+        .argName("iterations")
+        .desc(String.format("The number of times to read the file with each iterator (default %d)",
+            DEFAULT_ITERATIONS))
+        .hasArg()
+        .longOpt("iterations")
+    );
+    add(Option.builder(OPTION_CHUNK_POINTS)
+        .argName("chunk points")
+        .desc(String.format("The number of points to read per chunk in the primitive iterator (default %d)",
+            LCMSNetCDFParser.DEFAULT_CHUNK_POINTS))
+        .hasArg()
+        .longOpt("chunk-points")
+    );
+  }};
+
+  public static void main(String[] args) throws Exception {
+    CLIUtil cliUtil = new CLIUtil(NetCDFParserBenchmark.class, HELP_MESSAGE, OPTION_BUILDERS);
+    CommandLine cl = cliUtil.parseCommandLine(args);
+
+    File inputFile = new File(cl.getOptionValue(OPTION_SCAN_FILE));
+    if (!inputFile.exists()) {
+      cliUtil.failWithMessage("Cannot find input scan file at %s", inputFile.getAbsolutePath());
+    }
+
+    int iterations = Integer.parseInt(cl.getOptionValue(OPTION_ITERATIONS, DEFAULT_ITERATIONS.toString()));
+    int chunkPoints = cl.hasOption(OPTION_CHUNK_POINTS) ?
+        Integer.parseInt(cl.getOptionValue(OPTION_CHUNK_POINTS)) : LCMSNetCDFParser.DEFAULT_CHUNK_POINTS;
+    LCMSNetCDFParser parser = new LCMSNetCDFParser(chunkPoints);
+
+    for (int i = 0; i < iterations; i++) {
+      runBoxed(parser, inputFile.getAbsolutePath());
+      runPrimitive(parser, inputFile.getAbsolutePath());
+    }
+  }
+
+  private static void runBoxed(LCMSNetCDFParser parser, String file) throws Exception {
+    long startBytes = allocatedBytes();
+    long start = System.nanoTime();
+    long points = 0;
+    double checksum = 0.0; // Consume the values so the JIT can't elide the work.
+    Iterator<LCMSSpectrum> iter = parser.getIterator(file);
+    while (iter.hasNext()) {
+      LCMSSpectrum spectrum = iter.next();
+      for (Pair<Double, Double> mzIntensity : spectrum.getIntensities()) {
+        checksum += mzIntensity.getLeft() + mzIntensity.getRight();
+        points++;
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    long allocated = startBytes < 0 ? -1L : allocatedBytes() - startBytes;
+    report("boxed", points, elapsed, allocated, checksum);
+  }
+
+  private static void runPrimitive(LCMSNetCDFParser parser, String file) throws Exception {
+    long startBytes = allocatedBytes();
+    long start = System.nanoTime();
+    long points = 0;
+    double checksum = 0.0;
+    Iterator<PrimitiveLCMSSpectrum> iter = parser.getPrimitiveIterator(file);
+    while (iter.hasNext()) {
+      PrimitiveLCMSSpectrum spectrum = iter.next();
+      for (int i = 0; i < spectrum.size(); i++) {
+        checksum += spectrum.getMZ(i) + spectrum.getIntensity(i);
+      }
+      points += spectrum.size();
+    }
+    long elapsed = System.nanoTime() - start;
+    long allocated = startBytes < 0 ? -1L : allocatedBytes() - startBytes;
+    report("primitive", points, elapsed, allocated, checksum);
+  }
+
+  private static void report(String name, long points, long elapsedNanos, long allocated, double checksum) {
+    double seconds = elapsedNanos / 1e9;
+    LOGGER.info("%-10s %d points in %.3fs: %.0f points/sec, %d bytes allocated (%.2f bytes/point), checksum %.3f",
+        name, points, seconds, points / seconds, allocated,
+        points == 0 || allocated < 0 ? 0.0 : allocated / (double) points, checksum);
+  }
+
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+      if (sunBean.isThreadAllocatedMemorySupported()) {
+        return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return -1L;
+  }
+}
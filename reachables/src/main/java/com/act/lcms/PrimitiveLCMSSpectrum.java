@@ -0,0 +1,217 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.lcms;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A primitive, reusable representation of a single LCMS time point.  Mass/charge and intensity readings are stored as
+ * two parallel float arrays rather than as a list of boxed {mass/charge, intensity} pairs.
+ *
+ * Instances returned by {@link LCMSNetCDFParser#getPrimitiveIterator(String)} are <b>reused</b> across calls to
+ * next(): the iterator overwrites the same object (and its backing arrays) with each new time point.  Consumers that
+ * need to hold onto a spectrum after advancing the iterator must call {@link #copy()} or {@link #toLCMSSpectrum()}.
+ *
+ * Note that the backing arrays returned by {@link #getMZBuffer()} and {@link #getIntensityBuffer()} may be longer than
+ * the number of points in this spectrum; only the first {@link #size()} entries are valid.
+ */
+public class PrimitiveLCMSSpectrum {
+  private static final int DEFAULT_INITIAL_CAPACITY = 4096;
+
+  private int index;
+  private double timeVal;
+  private String timeUnit;
+  private double totalIntensity;
+  private int size = 0;
+  private float[] mzs;
+  private float[] intensities;
+
+  public PrimitiveLCMSSpectrum() {
+    this(DEFAULT_INITIAL_CAPACITY);
+  }
+
+  public PrimitiveLCMSSpectrum(int initialCapacity) {
+    this.mzs = new float[initialCapacity];
+    this.intensities = new float[initialCapacity];
+  }
+
+  /**
+   * Builds a primitive spectrum from an existing LCMSSpectrum.  This is mostly useful for tests and for consumers that
+   * need to feed boxed spectra (say, from an mzML file) into code that operates on primitive spectra.
+   * @param spectrum The spectrum to convert.
+   * @return A new primitive spectrum containing the same readings (demoted to floats).
+   */
+  public static PrimitiveLCMSSpectrum fromLCMSSpectrum(LCMSSpectrum spectrum) {
+    List<Pair<Double, Double>> mzIntensities = spectrum.getIntensities();
+    PrimitiveLCMSSpectrum s = new PrimitiveLCMSSpectrum(Math.max(mzIntensities.size(), 1));
+    s.reset(spectrum.getIndex(), spectrum.getTimeVal(), spectrum.getTimeUnit(),
+        spectrum.getTotalIntensity() == null ? 0.0 : spectrum.getTotalIntensity(), mzIntensities.size());
+    int i = 0;
+    for (Pair<Double, Double> mzIntensity : mzIntensities) {
+      s.mzs[i] = mzIntensity.getLeft().floatValue();
+      s.intensities[i] = mzIntensity.getRight().floatValue();
+      i++;
+    }
+    return s;
+  }
+
+  /**
+   * Prepares this spectrum to hold the data for a new time point, growing the backing arrays if necessary.  The
+   * contents of the backing arrays are undefined after this call, and must be filled in by the caller.
+   */
+  void reset(int index, double timeVal, String timeUnit, double totalIntensity, int size) {
+    this.index = index;
+    this.timeVal = timeVal;
+    this.timeUnit = timeUnit;
+    this.totalIntensity = totalIntensity;
+    ensureCapacity(size);
+    this.size = size;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (mzs.length >= capacity) {
+      return;
+    }
+    // Grow geometrically so that a handful of unusually dense spectra don't cause repeated reallocation.
+    int newCapacity = Math.max(capacity, mzs.length << 1);
+    // No need to copy: reset() callers overwrite the contents anyway.
+    mzs = new float[newCapacity];
+    intensities = new float[newCapacity];
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  public double getTimeVal() {
+    return timeVal;
+  }
+
+  public String getTimeUnit() {
+    return timeUnit;
+  }
+
+  public double getTotalIntensity() {
+    return totalIntensity;
+  }
+
+  /**
+   * @return The number of valid {mass/charge, intensity} readings in this spectrum.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gets the mass/charge of the ith reading, promoted to a double in exactly the way {@link LCMSSpectrum} consumers
+   * would see it.
+   * @param i The index of the reading, which must be less than {@link #size()}.
+   * @return The mass/charge of the ith reading.
+   */
+  public double getMZ(int i) {
+    return mzs[i];
+  }
+
+  /**
+   * Gets the intensity of the ith reading, promoted to a double.
+   * @param i The index of the reading, which must be less than {@link #size()}.
+   * @return The intensity of the ith reading.
+   */
+  public double getIntensity(int i) {
+    return intensities[i];
+  }
+
+  /**
+   * Exposes the array backing the mass/charge values.  Only the first {@link #size()} values are valid, and the array
+   * will be overwritten when the owning iterator advances.  Do not modify.
+   * @return The mass/charge array backing this spectrum.
+   */
+  public float[] getMZBuffer() {
+    return mzs;
+  }
+
+  /**
+   * Exposes the array backing the intensity values.  See {@link #getMZBuffer()} for caveats.
+   * @return The intensity array backing this spectrum.
+   */
+  public float[] getIntensityBuffer() {
+    return intensities;
+  }
+
+  /**
+   * Copies the mass/charge values into a double array, reusing dest if it is large enough.
+   * @param dest An array to fill, or null to allocate a new one.
+   * @return dest or a newly allocated array containing at least {@link #size()} promoted m/z values.
+   */
+  public double[] copyMZs(double[] dest) {
+    return copyPromoted(mzs, dest);
+  }
+
+  /**
+   * Copies the intensity values into a double array, reusing dest if it is large enough.
+   * @param dest An array to fill, or null to allocate a new one.
+   * @return dest or a newly allocated array containing at least {@link #size()} promoted intensity values.
+   */
+  public double[] copyIntensities(double[] dest) {
+    return copyPromoted(intensities, dest);
+  }
+
+  private double[] copyPromoted(float[] src, double[] dest) {
+    if (dest == null || dest.length < size) {
+      dest = new double[size];
+    }
+    for (int i = 0; i < size; i++) {
+      dest[i] = src[i];
+    }
+    return dest;
+  }
+
+  /**
+   * Makes an exactly-sized deep copy of this spectrum that will not be affected by subsequent iteration.
+   * @return A copy of this spectrum.
+   */
+  public PrimitiveLCMSSpectrum copy() {
+    PrimitiveLCMSSpectrum s = new PrimitiveLCMSSpectrum(Math.max(size, 1));
+    s.reset(index, timeVal, timeUnit, totalIntensity, size);
+    System.arraycopy(mzs, 0, s.mzs, 0, size);
+    System.arraycopy(intensities, 0, s.intensities, 0, size);
+    return s;
+  }
+
+  /**
+   * Converts this spectrum into a boxed LCMSSpectrum, for use with existing consumers of the LCMSSpectrum API.  The
+   * values are identical to those that {@link LCMSNetCDFParser#getIterator(String)} has always produced.
+   * @return A new LCMSSpectrum containing the readings in this object.
+   */
+  public LCMSSpectrum toLCMSSpectrum() {
+    List<Pair<Double, Double>> mzIntPairs = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      mzIntPairs.add(Pair.of(getMZ(i), getIntensity(i)));
+    }
+    return new LCMSSpectrum(index, timeVal, timeUnit, mzIntPairs, null, null, null, index, totalIntensity);
+  }
+}
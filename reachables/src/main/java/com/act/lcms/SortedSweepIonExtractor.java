@@ -0,0 +1,174 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.lcms;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Extracts the summed intensities for many target ion m/z values from a spectrum in one pass.
+ *
+ * {@link MS1#extractMZ(double, java.util.List)} scans every reading in a spectrum once per ion, which costs
+ * O(ions x readings) per time point.  Since every ion window has the same width, sorting the ions by m/z also sorts
+ * their windows' lower and upper bounds; and since LCMS spectra are stored in m/z order, we can sweep both lists
+ * together, only ever moving forward through the spectrum.  This costs O(ions + readings + matches) per time point.
+ *
+ * Readings are summed in exactly the same order as {@link MS1#extractMZ(double, java.util.List)} would sum them, so
+ * the results are bit-for-bit identical to the baseline.  If a spectrum turns out not to be sorted by m/z, we fall back
+ * to the baseline's linear scan for that spectrum rather than produce subtly wrong results.
+ */
+public class SortedSweepIonExtractor {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(SortedSweepIonExtractor.class);
+
+  private final int maxDetectionsInWindow;
+
+  // The ion descriptions and these arrays are parallel, and are sorted by ion m/z.
+  private final List<String> ionDescs;
+  private final double[] ionMzs;
+  private final double[] lowBounds;
+  private final double[] highBounds;
+
+  private int unsortedSpectraCount = 0;
+
+  public SortedSweepIonExtractor(Map<String, Double> ionMasses, double mzTolerance, int maxDetectionsInWindow) {
+    this.maxDetectionsInWindow = maxDetectionsInWindow;
+
+    List<Map.Entry<String, Double>> sortedIons = new ArrayList<>(ionMasses.entrySet());
+    Collections.sort(sortedIons, (a, b) -> a.getValue().compareTo(b.getValue()));
+
+    this.ionDescs = new ArrayList<>(sortedIons.size());
+    this.ionMzs = new double[sortedIons.size()];
+    this.lowBounds = new double[sortedIons.size()];
+    this.highBounds = new double[sortedIons.size()];
+    for (int i = 0; i < sortedIons.size(); i++) {
+      ionDescs.add(sortedIons.get(i).getKey());
+      ionMzs[i] = sortedIons.get(i).getValue();
+      // Compute the bounds exactly as extractMZ does so that boundary readings are treated identically.
+      lowBounds[i] = ionMzs[i] - mzTolerance;
+      highBounds[i] = ionMzs[i] + mzTolerance;
+    }
+  }
+
+  /**
+   * @return The ion descriptions in the order that {@link #extract(PrimitiveLCMSSpectrum, double[])} reports them.
+   */
+  public List<String> getIonDescs() {
+    return Collections.unmodifiableList(ionDescs);
+  }
+
+  public int size() {
+    return ionDescs.size();
+  }
+
+  /**
+   * @return The number of spectra seen so far that were not sorted by m/z, and so needed a linear scan per ion.
+   */
+  public int getUnsortedSpectraCount() {
+    return unsortedSpectraCount;
+  }
+
+  /**
+   * Computes the total intensity within the tolerance window of each target ion for one spectrum.
+   * @param spectrum The spectrum from which to extract intensities.
+   * @param dest An array in which to store the results, or null to allocate one.  Will be reused if large enough.
+   * @return An array whose ith entry is the summed intensity of the ith ion in {@link #getIonDescs()}.
+   */
+  public double[] extract(PrimitiveLCMSSpectrum spectrum, double[] dest) {
+    if (dest == null || dest.length < ionMzs.length) {
+      dest = new double[ionMzs.length];
+    }
+
+    if (!isSortedByMZ(spectrum)) {
+      unsortedSpectraCount++;
+      extractLinear(spectrum, dest);
+      return dest;
+    }
+
+    int n = spectrum.size();
+    int start = 0; // The first reading that could fall into the current or any subsequent window.
+    for (int i = 0; i < ionMzs.length; i++) {
+      double mzLowRange = lowBounds[i];
+      double mzHighRange = highBounds[i];
+
+      // Windows' low bounds are non-decreasing, so readings below this one's are below all subsequent ones too.
+      while (start < n && spectrum.getMZ(start) < mzLowRange) {
+        start++;
+      }
+
+      double intensityFound = 0;
+      int numWithinPrecision = 0;
+      for (int j = start; j < n; j++) {
+        double mz = spectrum.getMZ(j);
+        if (mz > mzHighRange) {
+          break;
+        }
+        intensityFound += spectrum.getIntensity(j);
+        numWithinPrecision++;
+      }
+
+      warnIfTooManyDetections(numWithinPrecision, mzLowRange, mzHighRange);
+      dest[i] = intensityFound;
+    }
+    return dest;
+  }
+
+  private void extractLinear(PrimitiveLCMSSpectrum spectrum, double[] dest) {
+    for (int i = 0; i < ionMzs.length; i++) {
+      double mzLowRange = lowBounds[i];
+      double mzHighRange = highBounds[i];
+      double intensityFound = 0;
+      int numWithinPrecision = 0;
+      for (int j = 0; j < spectrum.size(); j++) {
+        double mz = spectrum.getMZ(j);
+        if (mz >= mzLowRange && mz <= mzHighRange) {
+          intensityFound += spectrum.getIntensity(j);
+          numWithinPrecision++;
+        }
+      }
+      warnIfTooManyDetections(numWithinPrecision, mzLowRange, mzHighRange);
+      dest[i] = intensityFound;
+    }
+  }
+
+  private void warnIfTooManyDetections(int numWithinPrecision, double mzLowRange, double mzHighRange) {
+    if (numWithinPrecision > maxDetectionsInWindow) {
+      LOGGER.warn("Only expected %d, but found %d in the mz range [%f, %f]",
+          maxDetectionsInWindow, numWithinPrecision, mzLowRange, mzHighRange);
+    }
+  }
+
+  private static boolean isSortedByMZ(PrimitiveLCMSSpectrum spectrum) {
+    for (int i = 1; i < spectrum.size(); i++) {
+      if (spectrum.getMZ(i) < spectrum.getMZ(i - 1)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -26,6 +26,7 @@ package com.act.lcms.v2.fullindex;
 import com.act.lcms.LCMSNetCDFParser;
 import com.act.lcms.LCMSSpectrum;
 import com.act.lcms.MS1;
+import com.act.lcms.PrimitiveLCMSSpectrum;
 import com.act.utils.CLIUtil;
 import com.act.utils.rocksdb.DBUtil;
 import com.act.utils.rocksdb.RocksDBAndHandles;
@@ -48,12 +49,20 @@ import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class Builder {
   private static final Logger LOGGER = LogManager.getFormatterLogger(Builder.class);
@@ -65,6 +74,27 @@ public class Builder {
    * maintain this one copy in the index and reconstruct the XZ pairs as we read trace intensity arrays. */
   // All of these are intentionally package private.
   static final byte[] TIMEPOINTS_KEY = "timepoints".getBytes(UTF8);
+  /* FORMAT_KEY lives alongside TIMEPOINTS_KEY and records the layout of the index:
+   *   1: id lists are raw 8-byte longs, with one list per window.  Indexes built before this key existed have no
+   *      entry, and use this layout.
+   *   2: id lists are delta+varint PostingLists, with one list per window.
+   *   3: like 2, but each window's list is split into buckets of consecutive time points keyed by (window id, bucket).
+   *      The first triple id of every time point is stored under TIMEPOINT_ID_OFFSETS_KEY, so a time range maps to a
+   *      range of triple ids and a handful of buckets without reading any of the time point -> triple lists. */
+  static final byte[] FORMAT_KEY = "format".getBytes(UTF8);
+  static final int INDEX_FORMAT_RAW_LONGS = 1;
+  static final int INDEX_FORMAT_DELTA_VARINT = 2;
+  static final int INDEX_FORMAT_TIME_BUCKETED = 3;
+  static final int INDEX_FORMAT = INDEX_FORMAT_TIME_BUCKETED;
+  /* Only formats 1 and 2 are searched through the TIMEPOINT_TO_TRIPLES lists; format 3 maps a time range straight to a
+   * range of triple ids, so writing those lists would only cost time and disk. */
+  static final boolean WRITE_TIMEPOINT_TRIPLE_LISTS = INDEX_FORMAT < INDEX_FORMAT_TIME_BUCKETED;
+  /* TIMEPOINT_ID_OFFSETS_KEY holds (# time points + 1) longs: entry i is the id of the first triple at time point i,
+   * and the last entry is the total number of triples.  TIMEPOINTS_PER_BUCKET_KEY holds the bucket size as an int. */
+  static final byte[] TIMEPOINT_ID_OFFSETS_KEY = "timepoint_id_offsets".getBytes(UTF8);
+  static final byte[] TIMEPOINTS_PER_BUCKET_KEY = "timepoints_per_bucket".getBytes(UTF8);
+  // ~20 buckets for a typical 1200-spectrum scan, which keeps narrow time queries cheap without bloating the key count.
+  static final int DEFAULT_TIMEPOINTS_PER_BUCKET = 64;
 
   static final Double WINDOW_WIDTH_FROM_CENTER = MS1.MS1_MZ_TOLERANCE_DEFAULT;
   /* This step size should make it impossible for us to miss any readings in the index due to FP error.
@@ -75,10 +105,21 @@ public class Builder {
 
   public static final String OPTION_INDEX_PATH = "x";
   public static final String OPTION_SCAN_FILE = "i";
+  public static final String OPTION_SCAN_DIRECTORY = "d";
+  public static final String OPTION_THREADS = "j";
+
+  public static final String NETCDF_EXTENSION = ".nc";
+  public static final Integer DEFAULT_THREADS = 2;
+
+  /* The maximum number of spectra/write batches that can be waiting between pipeline stages.  This keeps a fast parser
+   * from racing ahead of a slow writer and filling up the heap with parsed spectra. */
+  static final int PIPELINE_QUEUE_CAPACITY = 64;
+  private static final long QUEUE_OFFER_TIMEOUT_MS = 1000L;
 
   public static final String HELP_MESSAGE = StringUtils.join(new String[]{
       "This class extracts and indexes readings from an LCMS scan files, ",
-      "and writes them to an on-disk index for later processing."
+      "and writes them to an on-disk index for later processing.  When given a directory of scan files, ",
+      "builds one index per scan file (in a sub-directory of the index path), several at a time."
   }, "");
 
   public static final List<Option.Builder> OPTION_BUILDERS = new ArrayList<Option.Builder>() {{
@@ -91,9 +132,22 @@ public class Builder {
     add(Option.builder(OPTION_SCAN_FILE)
         .argName("scan file")
         .desc("A path to the LCMS NetCDF scan file to read")
-        .hasArg().required()
+        .hasArg()
         .longOpt("input")
     );
+    add(Option.builder(OPTION_SCAN_DIRECTORY)
+        .argName("scan directory")
+        .desc("A path to a directory of LCMS NetCDF scan files to index, one index per file")
+        .hasArg()
+        .longOpt("input-dir")
+    );
+    add(Option.builder(OPTION_THREADS)
+        .argName("threads")
+        .desc(String.format("The number of scan files to index concurrently in directory mode (default %d); " +
+            "each file uses two additional threads for its parse and write stages", DEFAULT_THREADS))
+        .hasArg()
+        .longOpt("threads")
+    );
     add(Option.builder("h")
         .argName("help")
         .desc("Prints this help message")
@@ -111,18 +165,61 @@ public class Builder {
   }
 
   private RocksDBAndHandles<ColumnFamilies> dbAndHandles;
+  private StageStats parseStats = new StageStats("parse");
+  private StageStats sweepStats = new StageStats("sweep");
+  private StageStats writeStats = new StageStats("write");
+  // Track how many ids we write in posting lists and how much space they take, to compare against raw longs.
+  private long postingListIds = 0L;
+  private long postingListBytes = 0L;
+  private int timepointsPerBucket;
 
   Builder(RocksDBAndHandles<ColumnFamilies> dbAndHandles) {
+    this(dbAndHandles, DEFAULT_TIMEPOINTS_PER_BUCKET);
+  }
+
+  Builder(RocksDBAndHandles<ColumnFamilies> dbAndHandles, int timepointsPerBucket) {
+    if (timepointsPerBucket <= 0) {
+      throw new IllegalArgumentException(
+          String.format("Time points per bucket must be positive, but got %d", timepointsPerBucket));
+    }
     this.dbAndHandles = dbAndHandles;
+    this.timepointsPerBucket = timepointsPerBucket;
+  }
+
+  /**
+   * Maps an index format to the encoding of its id lists.
+   * @param indexFormat The index format, as stored under FORMAT_KEY.
+   * @return The PostingList format of the index's id lists.
+   */
+  static int listFormatForIndexFormat(int indexFormat) {
+    switch (indexFormat) {
+      case INDEX_FORMAT_RAW_LONGS:
+        return PostingList.FORMAT_RAW_LONGS;
+      case INDEX_FORMAT_DELTA_VARINT:
+      case INDEX_FORMAT_TIME_BUCKETED:
+        return PostingList.FORMAT_DELTA_VARINT;
+      default:
+        throw new RuntimeException(String.format("Unknown index format %d", indexFormat));
+    }
+  }
+
+  /**
+   * Builds the WINDOW_ID_TO_TRIPLES key for one time bucket of one window in a time-bucketed index.
+   * @param windowId The window's index.
+   * @param bucket The bucket number, i.e. the time point index divided by the bucket size.
+   * @return The key bytes: the window id followed by the bucket, both as big-endian ints.
+   */
+  static byte[] windowBucketKey(int windowId, int bucket) {
+    return ByteBuffer.allocate(Integer.BYTES * 2).putInt(windowId).putInt(bucket).array();
   }
 
   public static void main(String[] args) throws Exception {
     CLIUtil cliUtil = new CLIUtil(Builder.class, HELP_MESSAGE, OPTION_BUILDERS);
     CommandLine cl = cliUtil.parseCommandLine(args);
 
-    File inputFile = new File(cl.getOptionValue(OPTION_SCAN_FILE));
-    if (!inputFile.exists()) {
-      cliUtil.failWithMessage("Cannot find input scan file at %s", inputFile.getAbsolutePath());
+    if (cl.hasOption(OPTION_SCAN_FILE) == cl.hasOption(OPTION_SCAN_DIRECTORY)) {
+      cliUtil.failWithMessage("Specify exactly one of a scan file (-%s) or a scan directory (-%s)",
+          OPTION_SCAN_FILE, OPTION_SCAN_DIRECTORY);
     }
 
     File indexDir = new File(cl.getOptionValue(OPTION_INDEX_PATH));
@@ -130,6 +227,25 @@ public class Builder {
       cliUtil.failWithMessage("Index file at %s already exists--remove and retry", indexDir.getAbsolutePath());
     }
 
+    if (cl.hasOption(OPTION_SCAN_DIRECTORY)) {
+      File scanDir = new File(cl.getOptionValue(OPTION_SCAN_DIRECTORY));
+      if (!scanDir.isDirectory()) {
+        cliUtil.failWithMessage("Cannot find input scan directory at %s", scanDir.getAbsolutePath());
+      }
+      int threads = Integer.parseInt(cl.getOptionValue(OPTION_THREADS, DEFAULT_THREADS.toString()));
+      if (threads < 1) {
+        cliUtil.failWithMessage("Thread count must be at least 1, but got %s", String.valueOf(threads));
+      }
+      processScanDirectory(scanDir, indexDir, threads);
+      LOGGER.info("Done");
+      return;
+    }
+
+    File inputFile = new File(cl.getOptionValue(OPTION_SCAN_FILE));
+    if (!inputFile.exists()) {
+      cliUtil.failWithMessage("Cannot find input scan file at %s", inputFile.getAbsolutePath());
+    }
+
     Builder indexBuilder = Factory.makeBuilder(indexDir);
     try {
       indexBuilder.processScan(indexBuilder.makeTargetMasses(), inputFile);
@@ -142,6 +258,95 @@ public class Builder {
     LOGGER.info("Done");
   }
 
+  /**
+   * Builds one index per NetCDF scan file in a directory, indexing up to maxConcurrentScans files at a time.  Each
+   * scan's index is written to a sub-directory of indexParentDir named after the scan file.
+   *
+   * Each scan gets its own index rather than sharing one: triple ids and time point keys are only unique within a
+   * scan, so combining scans would require renumbering everything (and would make per-scan queries slower).
+   *
+   * @param scanDir A directory containing NetCDF scan files.
+   * @param indexParentDir A directory in which to create the indexes; will be created if it does not exist.
+   * @param maxConcurrentScans The maximum number of files to index at the same time.
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  public static void processScanDirectory(File scanDir, File indexParentDir, int maxConcurrentScans)
+      throws IOException, InterruptedException {
+    File[] scanFiles = scanDir.listFiles((dir, name) -> name.endsWith(NETCDF_EXTENSION));
+    if (scanFiles == null || scanFiles.length == 0) {
+      LOGGER.warn("Found no scan files in %s, nothing to do", scanDir.getAbsolutePath());
+      return;
+    }
+    Arrays.sort(scanFiles); // Make the build order predictable.
+
+    if (!indexParentDir.exists() && !indexParentDir.mkdirs()) {
+      throw new IOException(String.format("Unable to create index directory at %s", indexParentDir.getAbsolutePath()));
+    }
+
+    LOGGER.info("Indexing %d scan files from %s, %d at a time",
+        scanFiles.length, scanDir.getAbsolutePath(), maxConcurrentScans);
+    DateTime start = DateTime.now();
+
+    StageStats totalParseStats = new StageStats("parse");
+    StageStats totalSweepStats = new StageStats("sweep");
+    StageStats totalWriteStats = new StageStats("write");
+
+    ExecutorService executor = Executors.newFixedThreadPool(maxConcurrentScans);
+    List<Pair<File, Future<Void>>> results = new ArrayList<>(scanFiles.length);
+    try {
+      for (File scanFile : scanFiles) {
+        File indexDir = new File(indexParentDir, StringUtils.removeEnd(scanFile.getName(), NETCDF_EXTENSION));
+        Future<Void> future = executor.submit(() -> {
+          if (indexDir.exists()) {
+            throw new IOException(String.format("Index at %s already exists--remove and retry",
+                indexDir.getAbsolutePath()));
+          }
+          Builder builder = Factory.makeBuilder(indexDir);
+          try {
+            builder.processScan(builder.makeTargetMasses(), scanFile);
+          } finally {
+            builder.close();
+          }
+          totalParseStats.merge(builder.parseStats);
+          totalSweepStats.merge(builder.sweepStats);
+          totalWriteStats.merge(builder.writeStats);
+          return null;
+        });
+        results.add(Pair.of(scanFile, future));
+      }
+      executor.shutdown();
+
+      // Wait for everything to finish before reporting, so one bad file doesn't cut short the rest of the batch.
+      List<File> failures = new ArrayList<>();
+      for (Pair<File, Future<Void>> result : results) {
+        try {
+          result.getRight().get();
+        } catch (ExecutionException e) {
+          LOGGER.error("Unable to index scan file %s: %s",
+              result.getLeft().getAbsolutePath(), e.getCause().getMessage());
+          failures.add(result.getLeft());
+        }
+      }
+
+      DateTime end = DateTime.now();
+      LOGGER.info("Indexed %d of %d scan files in %dms", scanFiles.length - failures.size(), scanFiles.length,
+          end.getMillis() - start.getMillis());
+      totalParseStats.log();
+      totalSweepStats.log();
+      totalWriteStats.log();
+
+      if (failures.size() > 0) {
+        String msg = String.format("Failed to index %d scan files: %s",
+            failures.size(), StringUtils.join(failures, ", "));
+        LOGGER.error(msg);
+        throw new RuntimeException(msg);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   public void close() throws RocksDBException {
     dbAndHandles.close();
   }
@@ -159,7 +364,7 @@ public class Builder {
     DateTime start = DateTime.now();
     LOGGER.info("Accessing scan file at %s", scanFile.getAbsolutePath());
     LCMSNetCDFParser parser = new LCMSNetCDFParser();
-    Iterator<LCMSSpectrum> spectrumIterator = parser.getIterator(scanFile.getAbsolutePath());
+    Iterator<PrimitiveLCMSSpectrum> spectrumIterator = parser.getPrimitiveIterator(scanFile.getAbsolutePath());
 
     WriteOptions writeOptions = new WriteOptions();
     /* The write-ahead log and disk synchronization features are useful when we need our writes to be durable (i.e. to
@@ -175,13 +380,16 @@ public class Builder {
 
     LOGGER.info("Extracting traces");
     List<MZWindow> windows = targetsToWindows(targetMZs);
-    extractTriples(spectrumIterator, windows);
+    extractTriplesPipelined(readingsFromPrimitiveSpectra(spectrumIterator), windows);
 
     LOGGER.info("Writing search targets to on-disk index");
     writeWindowsToDB(windows);
 
     DateTime end = DateTime.now();
     LOGGER.info("Index construction completed in %dms", end.getMillis() - start.getMillis());
+    parseStats.log();
+    sweepStats.log();
+    writeStats.log();
   }
 
   private List<MZWindow> targetsToWindows(List<Double> targetMZs) {
@@ -202,10 +410,106 @@ public class Builder {
     return windows;
   }
 
+  /**
+   * A single time point's readings, detached from any reused parser buffers so that it can be handed from the parse
+   * stage to the sweep stage of the index construction pipeline.
+   */
+  static class TimepointReadings {
+    static final TimepointReadings END_OF_STREAM = new TimepointReadings(0.0f, new double[0], new float[0]);
+
+    final float time;
+    final double[] mzs;
+    final float[] intensities;
+
+    TimepointReadings(float time, double[] mzs, float[] intensities) {
+      this.time = time;
+      this.mzs = mzs;
+      this.intensities = intensities;
+    }
+  }
+
+  /**
+   * A write batch for one time point, waiting to be written to the DB by the write stage.
+   */
+  private static class PendingWrite {
+    static final PendingWrite END_OF_STREAM = new PendingWrite(null, 0);
+
+    final RocksDBAndHandles.RocksDBWriteBatch<ColumnFamilies> batch;
+    final int points;
+
+    PendingWrite(RocksDBAndHandles.RocksDBWriteBatch<ColumnFamilies> batch, int points) {
+      this.batch = batch;
+      this.points = points;
+    }
+  }
+
+  static Iterator<TimepointReadings> readingsFromSpectra(Iterator<LCMSSpectrum> iter) {
+    return new Iterator<TimepointReadings>() {
+      @Override
+      public boolean hasNext() {
+        return iter.hasNext();
+      }
+
+      @Override
+      public TimepointReadings next() {
+        LCMSSpectrum spectrum = iter.next();
+        List<Pair<Double, Double>> mzIntensities = spectrum.getIntensities();
+        double[] mzs = new double[mzIntensities.size()];
+        float[] intensities = new float[mzIntensities.size()];
+        int i = 0;
+        for (Pair<Double, Double> mzIntensity : mzIntensities) {
+          mzs[i] = mzIntensity.getLeft();
+          intensities[i] = mzIntensity.getRight().floatValue();
+          i++;
+        }
+        return new TimepointReadings(spectrum.getTimeVal().floatValue(), mzs, intensities);
+      }
+    };
+  }
+
+  static Iterator<TimepointReadings> readingsFromPrimitiveSpectra(Iterator<PrimitiveLCMSSpectrum> iter) {
+    return new Iterator<TimepointReadings>() {
+      @Override
+      public boolean hasNext() {
+        return iter.hasNext();
+      }
+
+      @Override
+      public TimepointReadings next() {
+        // The parser reuses its spectrum object, so we must copy the readings out before handing them off.
+        PrimitiveLCMSSpectrum spectrum = iter.next();
+        return new TimepointReadings((float) spectrum.getTimeVal(),
+            spectrum.copyMZs(new double[spectrum.size()]),
+            Arrays.copyOf(spectrum.getIntensityBuffer(), spectrum.size()));
+      }
+    };
+  }
+
   protected void extractTriples(
       Iterator<LCMSSpectrum> iter,
       List<MZWindow> windows)
       throws RocksDBException, IOException {
+    extractTriplesPipelined(readingsFromSpectra(iter), windows);
+  }
+
+  /**
+   * Extracts (time, m/z, intensity) triples from a stream of spectra and writes them to the index, along with the
+   * m/z window -> triple id and time point -> triple id mappings.
+   *
+   * This work is split into a three stage pipeline, each stage running on its own thread and connected by bounded
+   * queues: parse (read spectra from disk) -> sweep (assign ids and bucket triples into m/z windows) -> write (send
+   * write batches to RocksDB).  The sweep stage runs on the calling thread, as it owns the per-window id buffers that
+   * need to be written once all the spectra have been consumed.  Per-stage timings are collected in the stage stats.
+   *
+   * @param iter An iterator over time point readings.
+   * @param windows The m/z windows into which to bucket the triples.
+   * @throws RocksDBException
+   * @throws IOException
+   */
+  protected void extractTriplesPipelined(
+      Iterator<TimepointReadings> iter,
+      List<MZWindow> windows)
+      throws RocksDBException, IOException {
     /* Warning: this method makes heavy use of ByteBuffers to perform memory efficient collection of values and
      * conversion of those values into byte arrays that RocksDB can consume.  If you haven't already, go read this
      * tutorial on ByteBuffers: http://mindprod.com/jgloss/bytebuffer.html
@@ -250,15 +554,105 @@ public class Builder {
      * corrupting the structure of the index. */
     ensureUniqueMZWindowIndices(windows);
 
-    // For every mz window, allocate a buffer to hold the indices of the triples that fall in that window.
-    ByteBuffer[] mzWindowTripleBuffers = new ByteBuffer[windows.size()];
-    for (int i = 0; i < mzWindowTripleBuffers.length; i++) {
-      /* Note: the mapping between these buffers and their respective mzWindows is purely positional.  Specifically,
-       * mzWindows.get(i).getIndex() != i, but mzWindowTripleBuffers[i] belongs to mzWindows.get(i).  We'll map windows
-       * indices to the contents of mzWindowTripleBuffers at the very end of this function. */
-      mzWindowTripleBuffers[i] = ByteBuffer.allocate(Long.BYTES * 4096); // Start with 4096 longs = 8 pages per window.
+    BlockingQueue<TimepointReadings> parsedQueue = new ArrayBlockingQueue<>(PIPELINE_QUEUE_CAPACITY);
+    BlockingQueue<PendingWrite> writeQueue = new ArrayBlockingQueue<>(PIPELINE_QUEUE_CAPACITY);
+    ExecutorService stageExecutor = Executors.newFixedThreadPool(2); // One each for the parse and write stages.
+    try {
+      Future<Void> parseFuture = stageExecutor.submit(() -> {
+        runParseStage(iter, parsedQueue);
+        return null;
+      });
+      Future<Void> writeFuture = stageExecutor.submit(() -> {
+        runWriteStage(writeQueue);
+        return null;
+      });
+
+      /* For every mz window, allocate a posting list to hold the indices of the triples that fall in that window
+       * during the current time bucket.  Lists are indexed by window index (which ensureUniqueMZWindowIndices has
+       * checked is in range), and are flushed to the DB and reset every time the sweep crosses a bucket boundary. */
+      PostingList.Writer[] mzWindowTripleLists = new PostingList.Writer[windows.size()];
+      for (int i = 0; i < mzWindowTripleLists.length; i++) {
+        mzWindowTripleLists[i] = new PostingList.Writer(256); // Buckets are small, so start small and let them grow.
+      }
+      List<Float> timepoints = new ArrayList<>(2000); // We can be sloppy here, as the count is small.
+      List<Long> timepointIdOffsets = new ArrayList<>(2000);
+
+      runSweepStage(
+          parsedQueue, writeQueue, writeFuture, windows, mzWindowTripleLists, timepoints, timepointIdOffsets);
+
+      // Surface any errors from the other stages before we write anything else.
+      awaitStage(parseFuture);
+      awaitStage(writeFuture);
+
+      dbAndHandles.put(ColumnFamilies.TIMEPOINTS, TIMEPOINTS_KEY, Utils.floatListToByteArray(timepoints));
+      ByteBuffer offsetsBuffer = ByteBuffer.allocate(Long.BYTES * timepointIdOffsets.size());
+      for (Long offset : timepointIdOffsets) {
+        offsetsBuffer.putLong(offset);
+      }
+      dbAndHandles.put(ColumnFamilies.TIMEPOINTS, TIMEPOINT_ID_OFFSETS_KEY, offsetsBuffer.array());
+      dbAndHandles.put(ColumnFamilies.TIMEPOINTS, TIMEPOINTS_PER_BUCKET_KEY,
+          ByteBuffer.allocate(Integer.BYTES).putInt(timepointsPerBucket).array());
+      dbAndHandles.put(ColumnFamilies.TIMEPOINTS, FORMAT_KEY,
+          ByteBuffer.allocate(Integer.BYTES).putInt(INDEX_FORMAT).array());
+      dbAndHandles.flush(true);
+
+      LOGGER.info("Wrote %d posting list ids in %d bytes (%.3f bytes/id); raw longs would have used %d bytes",
+          postingListIds, postingListBytes, postingListIds == 0L ? 0.0 : postingListBytes / (double) postingListIds,
+          postingListIds * Long.BYTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while extracting triples", e);
+    } finally {
+      // Make sure no stage threads outlive this call, even if some stage failed.
+      stageExecutor.shutdownNow();
     }
+  }
 
+  private void runParseStage(Iterator<TimepointReadings> iter, BlockingQueue<TimepointReadings> parsedQueue)
+      throws InterruptedException {
+    boolean cancelled = false;
+    try {
+      while (true) {
+        long start = System.nanoTime();
+        if (!iter.hasNext()) {
+          break;
+        }
+        TimepointReadings readings = iter.next();
+        parseStats.record(1L, readings.mzs.length, System.nanoTime() - start);
+        parsedQueue.put(readings);
+      }
+    } catch (InterruptedException e) {
+      // We've been cancelled because some other stage failed, so nobody is waiting for the end of the stream.
+      cancelled = true;
+      throw e;
+    } finally {
+      // Otherwise, always signal the end of the stream so the sweep stage doesn't wait forever if parsing fails.
+      if (!cancelled) {
+        parsedQueue.put(TimepointReadings.END_OF_STREAM);
+      }
+    }
+  }
+
+  private void runWriteStage(BlockingQueue<PendingWrite> writeQueue) throws InterruptedException, RocksDBException {
+    while (true) {
+      PendingWrite pendingWrite = writeQueue.take();
+      if (pendingWrite == PendingWrite.END_OF_STREAM) {
+        break;
+      }
+      long start = System.nanoTime();
+      pendingWrite.batch.write();
+      writeStats.record(1L, pendingWrite.points, System.nanoTime() - start);
+    }
+  }
+
+  private void runSweepStage(BlockingQueue<TimepointReadings> parsedQueue,
+                             BlockingQueue<PendingWrite> writeQueue,
+                             Future<Void> writeFuture,
+                             List<MZWindow> windows,
+                             PostingList.Writer[] mzWindowTripleLists,
+                             List<Float> timepoints,
+                             List<Long> timepointIdOffsets)
+      throws InterruptedException, RocksDBException, IOException {
     // Every TMzI gets an index which we'll use later when we're querying by m/z and time.
     long counter = -1; // We increment at the top of the loop.
     // Note: we could also write to an mmapped file and just track pointers, but then we might lose out on compression.
@@ -266,7 +660,6 @@ public class Builder {
     // We allocate all the buffers strictly here, as we know how many bytes a long and a triple will take.  Then reuse!
     ByteBuffer counterBuffer = ByteBuffer.allocate(Long.BYTES);
     ByteBuffer valBuffer = ByteBuffer.allocate(TMzI.BYTES);
-    List<Float> timepoints = new ArrayList<>(2000); // We can be sloppy here, as the count is small.
 
     /* We use a sweep-line approach to scanning through the m/z windows so that we can aggregate all intensities in
      * one pass over the current LCMSSpectrum (this saves us one inner loop in our extraction process).  The m/z
@@ -277,12 +670,23 @@ public class Builder {
     LinkedList<MZWindow> tbdQueueTemplate = new LinkedList<>(windows); // We can reuse this template to init the sweep.
 
     int spectrumCounter = 0;
-    while (iter.hasNext()) {
-      LCMSSpectrum spectrum = iter.next();
-      float time = spectrum.getTimeVal().floatValue();
+    while (true) {
+      TimepointReadings readings = parsedQueue.take();
+      if (readings == TimepointReadings.END_OF_STREAM) {
+        break;
+      }
+      if (spectrumCounter > 0 && spectrumCounter % timepointsPerBucket == 0) {
+        // We've just crossed into a new bucket, so write out the previous one before adding anything to it.
+        flushWindowBuckets(mzWindowTripleLists, spectrumCounter / timepointsPerBucket - 1, writeQueue, writeFuture);
+      }
+      long start = System.nanoTime();
+      float time = readings.time;
+      int pointCount = readings.mzs.length;
+      timepointIdOffsets.add(counter + 1); // The counter is incremented before use, so this is the next triple's id.
 
-      // This will record all the m/z + intensity readings that correspond to this timepoint.  Exactly sized too!
-      ByteBuffer triplesForThisTime = ByteBuffer.allocate(Long.BYTES * spectrum.getIntensities().size());
+      /* This will record all the m/z + intensity readings that correspond to this timepoint.  These ids are
+       * consecutive, so they should take one byte each. */
+      PostingList.Writer triplesForThisTime = WRITE_TIMEPOINT_TRIPLE_LISTS ? new PostingList.Writer(pointCount) : null;
 
       // Batch up all the triple writes to reduce the number of times we hit the disk in this loop.
       // Note: huge success!
@@ -291,13 +695,13 @@ public class Builder {
       // Initialize the sweep line lists.  Windows go follow: tbd -> working -> done (nowhere).
       LinkedList<MZWindow> workingQueue = new LinkedList<>();
       LinkedList<MZWindow> tbdQueue = (LinkedList<MZWindow>) tbdQueueTemplate.clone(); // clone is in the docs, so okay!
-      for (Pair<Double, Double> mzIntensity : spectrum.getIntensities()) {
+      for (int p = 0; p < pointCount; p++) {
         // Very important: increment the counter for every triple.  Otherwise we'll overwrite triples = Very Bad (tm).
         counter++;
 
         // Brevity = soul of wit!
-        Double mz = mzIntensity.getLeft();
-        Double intensity = mzIntensity.getRight();
+        double mz = readings.mzs[p];
+        float intensity = readings.intensities[p];
 
         // Reset the buffers so we end up re-using the few bytes we've allocated.
         counterBuffer.clear(); // Empty (virtually).
@@ -305,7 +709,7 @@ public class Builder {
         counterBuffer.flip(); // Prep for reading.
 
         valBuffer.clear(); // Empty (virtually).
-        TMzI.writeToByteBuffer(valBuffer, time, mz, intensity.floatValue());
+        TMzI.writeToByteBuffer(valBuffer, time, mz, intensity);
         valBuffer.flip(); // Prep for reading.
 
         // First, shift any applicable ranges onto the working queue based on their minimum mz.
@@ -324,14 +728,12 @@ public class Builder {
 
         // The working queue should now hold only ranges that include this m/z value.  Sweep line swept!
 
-        /* Now add this intensity to the buffers of all the windows in the working queue.  Note that since we're only
-         * storing the *index* of the triple, these buffers are going to consume less space than they would if we
+        /* Now add this intensity to the posting lists of all the windows in the working queue.  Note that since we're
+         * only storing the *index* of the triple, these lists are going to consume less space than they would if we
          * stored everything together. */
         for (MZWindow window : workingQueue) {
           // TODO: count the number of times we add intensities to each window's accumulator for MS1-style warnings.
-          counterBuffer.rewind(); // Already flipped.
-          mzWindowTripleBuffers[window.getIndex()] = // Must assign when calling appendOrRealloc.
-              Utils.appendOrRealloc(mzWindowTripleBuffers[window.getIndex()], counterBuffer);
+          mzWindowTripleLists[window.getIndex()].add(counter);
         }
 
         // We flipped after reading, so we should be good to rewind (to be safe) and write here.
@@ -339,22 +741,27 @@ public class Builder {
         valBuffer.rewind();
         writeBatch.put(ColumnFamilies.ID_TO_TRIPLE, Utils.toCompactArray(counterBuffer), Utils.toCompactArray(valBuffer));
 
-        // Rewind again for another read.
-        counterBuffer.rewind();
-        triplesForThisTime.put(counterBuffer);
+        if (triplesForThisTime != null) {
+          triplesForThisTime.add(counter);
+        }
       }
 
-      writeBatch.write();
+      if (triplesForThisTime != null) {
+        assert(triplesForThisTime.getCount() == pointCount);
 
-      assert(triplesForThisTime.position() == triplesForThisTime.capacity());
-
-      ByteBuffer timeBuffer = ByteBuffer.allocate(Float.BYTES).putFloat(time);
-      timeBuffer.flip(); // Prep both bufers for reading so they can be written to the DB.
-      triplesForThisTime.flip();
-      dbAndHandles.put(ColumnFamilies.TIMEPOINT_TO_TRIPLES,
-          Utils.toCompactArray(timeBuffer), Utils.toCompactArray(triplesForThisTime));
+        ByteBuffer timeBuffer = ByteBuffer.allocate(Float.BYTES).putFloat(time);
+        timeBuffer.flip(); // Prep for reading so it can be written to the DB.
+        byte[] timeTripleIds = triplesForThisTime.toByteArray();
+        postingListIds += pointCount;
+        postingListBytes += timeTripleIds.length;
+        // Write the time point's triple list in the same batch, so the write stage does all the writing.
+        writeBatch.put(ColumnFamilies.TIMEPOINT_TO_TRIPLES, Utils.toCompactArray(timeBuffer), timeTripleIds);
+      }
 
       timepoints.add(time);
+      sweepStats.record(1L, pointCount, System.nanoTime() - start);
+
+      handOffToStage(writeQueue, new PendingWrite(writeBatch, pointCount), writeFuture);
 
       spectrumCounter++;
       if (spectrumCounter % 1000 == 0) {
@@ -362,29 +769,79 @@ public class Builder {
       }
     }
     LOGGER.info("Extracted %d total time spectra", spectrumCounter);
+    if (spectrumCounter > 0) {
+      flushWindowBuckets(mzWindowTripleLists, (spectrumCounter - 1) / timepointsPerBucket, writeQueue, writeFuture);
+    }
+    timepointIdOffsets.add(counter + 1); // Cap the offsets with the total triple count to make range lookups easy.
 
-    // Now write all the mzWindow to triple indexes.
-    RocksDBAndHandles.RocksDBWriteBatch<ColumnFamilies> writeBatch = dbAndHandles.makeWriteBatch();
-    ByteBuffer idBuffer = ByteBuffer.allocate(Integer.BYTES);
-    for (int i = 0; i < mzWindowTripleBuffers.length; i++) {
-      idBuffer.clear();
-      idBuffer.putInt(windows.get(i).getIndex());
-      idBuffer.flip();
+    handOffToStage(writeQueue, PendingWrite.END_OF_STREAM, writeFuture);
+  }
 
-      ByteBuffer triplesBuffer = mzWindowTripleBuffers[i];
-      triplesBuffer.flip(); // Prep for read.
+  /**
+   * Puts an item on a queue that feeds another pipeline stage, checking periodically that the consuming stage is still
+   * alive.  If the consumer has failed, its exception is thrown here rather than leaving the producer blocked forever.
+   */
+  private static <T> void handOffToStage(BlockingQueue<T> queue, T item, Future<Void> consumer)
+      throws InterruptedException, RocksDBException, IOException {
+    while (!queue.offer(item, QUEUE_OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+      if (consumer.isDone()) {
+        // Consumers only exit early on failure, so this should throw.
+        awaitStage(consumer);
+        throw new RuntimeException("Index construction pipeline stage exited before the end of its input");
+      }
+    }
+  }
 
-      writeBatch.put(ColumnFamilies.WINDOW_ID_TO_TRIPLES, Utils.toCompactArray(idBuffer), Utils.toCompactArray(triplesBuffer));
+  /**
+   * Waits for a pipeline stage to complete, rethrowing any exception it threw in terms the caller can handle.
+   */
+  private static void awaitStage(Future<Void> stage) throws InterruptedException, RocksDBException, IOException {
+    try {
+      stage.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RocksDBException) {
+        throw (RocksDBException) cause;
+      } else if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new RuntimeException(cause);
     }
-    writeBatch.write();
+  }
 
-    dbAndHandles.put(ColumnFamilies.TIMEPOINTS, TIMEPOINTS_KEY, Utils.floatListToByteArray(timepoints));
-    dbAndHandles.flush(true);
+  /**
+   * Writes one time bucket's worth of window posting lists to the DB via the write stage, and resets the lists so they
+   * can accumulate the next bucket.  Empty lists are skipped, and readers treat missing buckets as empty.
+   */
+  private void flushWindowBuckets(PostingList.Writer[] mzWindowTripleLists, int bucket,
+                                  BlockingQueue<PendingWrite> writeQueue, Future<Void> writeFuture)
+      throws InterruptedException, RocksDBException, IOException {
+    RocksDBAndHandles.RocksDBWriteBatch<ColumnFamilies> writeBatch = dbAndHandles.makeWriteBatch();
+    for (int i = 0; i < mzWindowTripleLists.length; i++) {
+      PostingList.Writer list = mzWindowTripleLists[i];
+      if (list.getCount() == 0) {
+        continue;
+      }
+      byte[] tripleIds = list.toByteArray();
+      postingListIds += list.getCount();
+      postingListBytes += tripleIds.length;
+      writeBatch.put(ColumnFamilies.WINDOW_ID_TO_TRIPLES, windowBucketKey(i, bucket), tripleIds);
+      list.reset();
+    }
+    handOffToStage(writeQueue, new PendingWrite(writeBatch, 0), writeFuture);
   }
 
   private void ensureUniqueMZWindowIndices(List<MZWindow> windows) {
     Set<Integer> ids = new HashSet<>(windows.size());
     for (MZWindow window : windows) {
+      if (window.getIndex() < 0 || window.getIndex() >= windows.size()) {
+        String msg = String.format("Assumption violation: found mzWindow index %d outside of [0, %d)",
+            window.getIndex(), windows.size());
+        LOGGER.error(msg);
+        throw new RuntimeException(msg);
+      }
       if (ids.contains(window.getIndex())) {
         String msg = String.format("Assumption violation: found duplicate mzWindow index when all should be unique: %d",
             window.getIndex());
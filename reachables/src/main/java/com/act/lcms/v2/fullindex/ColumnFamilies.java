@@ -36,6 +36,8 @@ enum ColumnFamilies implements ColumnFamilyEnumeration<ColumnFamilies> {
   TARGET_TO_WINDOW("target_mz_to_window_obj"),
   /* This just maps a single fixed key to a list of timepoint `floats` (as raw bytes).  This gives us a one-step means
    * of recovering the full list of time points without having to iterate over all the keys/values in an index.
+   * Other fixed keys hold the index format `int`, which tells readers how the id lists below are laid out, and (for
+   * time-bucketed indexes) the first triple id of every time point and the number of time points per bucket.
    * TODO: consider making the timepoints and window_obj CF's symmetrical. */
   TIMEPOINTS("timepoints"),
   /* This is where the data lives.  This CF maps `long` ids to the TMzI triples (as raw bytes).  When we want to recover
@@ -43,18 +45,21 @@ enum ColumnFamilies implements ColumnFamilyEnumeration<ColumnFamilies> {
    */
   ID_TO_TRIPLE("id_to_triple"),
   /* This maps time points (by time point value, since they're guaranteed to be from a closed universe) to lists of
-   * `long` ids (as raw bytes) that correspond to the TMzI triples that occurred at that time.  We don't have to worry
-   * about FP error here, as we're just marshalling data back and forth from primitive floats to bytes. */
+   * `long` ids (as PostingList-encoded bytes) that correspond to the TMzI triples that occurred at that time.  We don't
+   * have to worry about FP error here, as we're just marshalling data back and forth from primitive floats to bytes.
+   * Time-bucketed (format 3) indexes leave this empty; see Builder.WRITE_TIMEPOINT_TRIPLE_LISTS. */
   TIMEPOINT_TO_TRIPLES("timepoints_to_triples"),
-  /* This maps MZWindow index (aka id) to lists of `long` ids (as raw bytes) that correspond to the TMzI triples that
-   * fall within that window.  We could maybe use the MZWindow's target as a key, but given that the definition (as I
-   * stole it from the TraceIndexExtractor) already had an index field, I figured a MZWindow -> id -> triples list
-   * structure would be easier to reason about/debug. */
+  /* This maps MZWindow index (aka id) to lists of `long` ids (as PostingList-encoded bytes) that correspond to the
+   * TMzI triples that fall within that window.  We could maybe use the MZWindow's target as a key, but given that the
+   * definition (as I stole it from the TraceIndexExtractor) already had an index field, I figured a MZWindow -> id ->
+   * triples list structure would be easier to reason about/debug.  In time-bucketed indexes, the key is the window id
+   * followed by an `int` bucket number, and each list only holds the ids from that bucket's time points. */
   WINDOW_ID_TO_TRIPLES("windows_to_triples"),
   ;
 
   /* Query patterns supported by these columns:
    * * MZWindow -> TMzI id list
+   * * (MZWindow, time bucket) -> TMzI id list, for time-bucketed indexes
    * * Time (exact) -> TMzI id list
    * * TMzI id -> TMzI values
    * * Target m/z (exact) -> MZWindow (note: use iterator, could condense into a fix-keyed list like timepoints)
@@ -0,0 +1,405 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.lcms.v2.fullindex;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encoding, decoding, and set operations over sorted lists of TMzI ids (aka posting lists).
+ *
+ * Index format 1 stored these lists as raw 8-byte longs.  Since the ids in every list are strictly increasing (the
+ * Builder assigns them in scan order), the gaps between consecutive ids are small: a time point's ids are consecutive,
+ * and an m/z window's ids are spaced by roughly one spectrum's worth of readings.  Format 2 stores the number of ids
+ * followed by the gaps between them, each as an unsigned LEB128-style varint (7 bits per byte, high bit = "more bytes
+ * follow").  This takes one byte per id for time point lists and two or three per id for m/z window lists.
+ *
+ * All the read-side operations stream over the encoded bytes via {@link IdCursor}s rather than decoding whole lists
+ * into boxed collections.
+ */
+public class PostingList {
+  public static final int FORMAT_RAW_LONGS = 1;
+  public static final int FORMAT_DELTA_VARINT = 2;
+
+  private static final long[] EMPTY = new long[0];
+
+  /**
+   * Accumulates a strictly increasing sequence of ids in delta+varint form.
+   */
+  public static class Writer {
+    private byte[] bytes;
+    private int size = 0;
+    private long count = 0L;
+    private long last = 0L;
+
+    public Writer() {
+      this(64);
+    }
+
+    public Writer(int initialCapacity) {
+      this.bytes = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    public void add(long id) {
+      if (id < 0L || (count > 0L && id <= last)) {
+        throw new IllegalArgumentException(String.format(
+            "Posting list ids must be non-negative and strictly increasing, but got %d after %d", id, last));
+      }
+      writeVarLong(count == 0L ? id : id - last);
+      last = id;
+      count++;
+    }
+
+    private void writeVarLong(long v) {
+      // A long needs at most ten 7-bit groups.
+      if (bytes.length - size < 10) {
+        bytes = Arrays.copyOf(bytes, bytes.length << 1);
+      }
+      size = putVarLong(bytes, size, v);
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    /**
+     * Empties this writer so it can be reused for another list without reallocating its buffer.
+     */
+    public void reset() {
+      size = 0;
+      count = 0L;
+      last = 0L;
+    }
+
+    /**
+     * @return The number of bytes {@link #toByteArray()} will return.
+     */
+    public int sizeInBytes() {
+      return varLongSize(count) + size;
+    }
+
+    /**
+     * @return A compact byte array containing the id count followed by the encoded ids.
+     */
+    public byte[] toByteArray() {
+      byte[] result = new byte[sizeInBytes()];
+      int pos = putVarLong(result, 0, count);
+      System.arraycopy(bytes, 0, result, pos, size);
+      return result;
+    }
+  }
+
+  /**
+   * A forward-only cursor over a sorted list of ids.  Unlike Iterator<Long>, this doesn't box.
+   */
+  public interface IdCursor {
+    boolean hasNext();
+    long next();
+  }
+
+  private static class DeltaVarintCursor implements IdCursor {
+    private final byte[] bytes;
+    private int pos;
+    private long remaining;
+    private long last = 0L;
+    private boolean first = true;
+
+    DeltaVarintCursor(byte[] bytes) {
+      this.bytes = bytes;
+      this.pos = 0;
+      this.remaining = bytes.length == 0 ? 0L : readVarLong();
+    }
+
+    private long readVarLong() {
+      long result = 0L;
+      int shift = 0;
+      byte b;
+      do {
+        b = bytes[pos++];
+        result |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return result;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return remaining > 0L;
+    }
+
+    @Override
+    public long next() {
+      long delta = readVarLong();
+      last = first ? delta : last + delta;
+      first = false;
+      remaining--;
+      return last;
+    }
+  }
+
+  private static class RawLongCursor implements IdCursor {
+    private final ByteBuffer buffer;
+
+    RawLongCursor(byte[] bytes) {
+      this.buffer = ByteBuffer.wrap(bytes);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return buffer.remaining() >= Long.BYTES;
+    }
+
+    @Override
+    public long next() {
+      return buffer.getLong();
+    }
+  }
+
+  /**
+   * Restricts another cursor to ids in [minId, maxIdExclusive).  Since the underlying ids are sorted, this just skips
+   * the prefix below minId and stops at the first id at or above maxIdExclusive.
+   */
+  private static class RangeCursor implements IdCursor {
+    private final IdCursor cursor;
+    private final long maxIdExclusive;
+    private long lookahead;
+    private boolean hasLookahead = false;
+
+    RangeCursor(IdCursor cursor, long minId, long maxIdExclusive) {
+      this.cursor = cursor;
+      this.maxIdExclusive = maxIdExclusive;
+      while (cursor.hasNext()) {
+        long id = cursor.next();
+        if (id >= minId) {
+          lookahead = id;
+          hasLookahead = id < maxIdExclusive;
+          break;
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return hasLookahead;
+    }
+
+    @Override
+    public long next() {
+      long id = lookahead;
+      if (cursor.hasNext()) {
+        lookahead = cursor.next();
+        hasLookahead = lookahead < maxIdExclusive;
+      } else {
+        hasLookahead = false;
+      }
+      return id;
+    }
+  }
+
+  /**
+   * Opens a cursor over an encoded posting list.
+   * @param bytes The encoded list, as read from the index.
+   * @param format The index format with which the list was written.
+   * @return A cursor over the ids in the list, in ascending order.
+   */
+  public static IdCursor cursor(byte[] bytes, int format) {
+    switch (format) {
+      case FORMAT_RAW_LONGS:
+        return new RawLongCursor(bytes);
+      case FORMAT_DELTA_VARINT:
+        return new DeltaVarintCursor(bytes);
+      default:
+        throw new IllegalArgumentException(String.format("Unrecognized posting list format %d", format));
+    }
+  }
+
+  /**
+   * Returns the number of ids in an encoded list without decoding it.
+   */
+  public static long count(byte[] bytes, int format) {
+    switch (format) {
+      case FORMAT_RAW_LONGS:
+        return bytes.length / Long.BYTES;
+      case FORMAT_DELTA_VARINT:
+        return bytes.length == 0 ? 0L : new DeltaVarintCursor(bytes).remaining;
+      default:
+        throw new IllegalArgumentException(String.format("Unrecognized posting list format %d", format));
+    }
+  }
+
+  /**
+   * Decodes a single list into an array of ids.
+   */
+  public static long[] decode(byte[] bytes, int format) {
+    long[] ids = new long[(int) count(bytes, format)];
+    IdCursor cursor = cursor(bytes, format);
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = cursor.next();
+    }
+    return ids;
+  }
+
+  /**
+   * Computes the sorted, de-duplicated union of many posting lists with a k-way merge.  Overlapping m/z windows mean
+   * most ids appear in two lists, which this handles without hashing anything.
+   * @param lists The encoded lists to union.
+   * @param format The index format with which the lists were written.
+   * @return A sorted array of the distinct ids that appear in any list.
+   */
+  public static long[] union(List<byte[]> lists, int format) {
+    return union(lists, format, 0L, Long.MAX_VALUE);
+  }
+
+  /**
+   * Computes the sorted, de-duplicated union of many posting lists, keeping only ids in [minId, maxIdExclusive).
+   * @param lists The encoded lists to union.
+   * @param format The index format with which the lists were written.
+   * @param minId The smallest id to include.
+   * @param maxIdExclusive One more than the largest id to include.
+   * @return A sorted array of the distinct ids in range that appear in any list.
+   */
+  public static long[] union(List<byte[]> lists, int format, long minId, long maxIdExclusive) {
+    long upperBound = 0L;
+    for (byte[] list : lists) {
+      upperBound += count(list, format);
+    }
+    // Ids are distinct within the range, so the range's width also bounds the size of the union.
+    upperBound = Math.max(0L, Math.min(upperBound, maxIdExclusive - minId));
+    if (upperBound == 0L) {
+      return EMPTY;
+    }
+    if (upperBound > Integer.MAX_VALUE) {
+      throw new RuntimeException(String.format("Posting list union of %d ids is too large to materialize", upperBound));
+    }
+
+    // A binary min-heap of cursor indices, ordered by each cursor's current head value.
+    IdCursor[] cursors = new IdCursor[lists.size()];
+    long[] heads = new long[lists.size()];
+    int[] heap = new int[lists.size()];
+    int heapSize = 0;
+    for (int i = 0; i < lists.size(); i++) {
+      cursors[i] = new RangeCursor(cursor(lists.get(i), format), minId, maxIdExclusive);
+      if (cursors[i].hasNext()) {
+        heads[i] = cursors[i].next();
+        heap[heapSize] = i;
+        siftUp(heap, heads, heapSize);
+        heapSize++;
+      }
+    }
+
+    long[] result = new long[(int) upperBound];
+    int resultSize = 0;
+    while (heapSize > 0) {
+      int top = heap[0];
+      long id = heads[top];
+      if (resultSize == 0 || result[resultSize - 1] != id) {
+        result[resultSize++] = id;
+      }
+      if (cursors[top].hasNext()) {
+        heads[top] = cursors[top].next();
+      } else {
+        heapSize--;
+        heap[0] = heap[heapSize];
+      }
+      siftDown(heap, heads, heapSize);
+    }
+    return resultSize == result.length ? result : Arrays.copyOf(result, resultSize);
+  }
+
+  /**
+   * Intersects two sorted, de-duplicated id arrays with a linear merge.
+   */
+  public static long[] intersect(long[] a, long[] b) {
+    long[] result = new long[Math.min(a.length, b.length)];
+    int i = 0, j = 0, k = 0;
+    while (i < a.length && j < b.length) {
+      if (a[i] < b[j]) {
+        i++;
+      } else if (a[i] > b[j]) {
+        j++;
+      } else {
+        result[k++] = a[i];
+        i++;
+        j++;
+      }
+    }
+    return k == result.length ? result : Arrays.copyOf(result, k);
+  }
+
+  private static void siftUp(int[] heap, long[] heads, int pos) {
+    while (pos > 0) {
+      int parent = (pos - 1) >>> 1;
+      if (heads[heap[parent]] <= heads[heap[pos]]) {
+        break;
+      }
+      swap(heap, parent, pos);
+      pos = parent;
+    }
+  }
+
+  private static void siftDown(int[] heap, long[] heads, int heapSize) {
+    int pos = 0;
+    while (true) {
+      int left = (pos << 1) + 1;
+      if (left >= heapSize) {
+        break;
+      }
+      int smallest = left;
+      int right = left + 1;
+      if (right < heapSize && heads[heap[right]] < heads[heap[left]]) {
+        smallest = right;
+      }
+      if (heads[heap[pos]] <= heads[heap[smallest]]) {
+        break;
+      }
+      swap(heap, pos, smallest);
+      pos = smallest;
+    }
+  }
+
+  private static void swap(int[] heap, int i, int j) {
+    int tmp = heap[i];
+    heap[i] = heap[j];
+    heap[j] = tmp;
+  }
+
+  private static int varLongSize(long v) {
+    int size = 1;
+    while ((v & ~0x7FL) != 0L) {
+      v >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  private static int putVarLong(byte[] dest, int pos, long v) {
+    while ((v & ~0x7FL) != 0L) {
+      dest[pos++] = (byte) ((v & 0x7F) | 0x80);
+      v >>>= 7;
+    }
+    dest[pos++] = (byte) v;
+    return pos;
+  }
+}
@@ -0,0 +1,431 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.lcms.v2.fullindex;
+
+import com.act.utils.CLIUtil;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.server.NCSARequestLog;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A long-running HTTP service that answers (m/z, time) range queries against a directory of scan indexes, like the
+ * one Builder produces in batch mode.  Running a Searcher from the command line re-opens the index and reloads all of
+ * its windows and time points for every query, which dominates latency for small queries; this service keeps recently
+ * used indexes open (up to a fixed number), along with a bounded cache of their hot posting lists.
+ *
+ * Endpoints:
+ *   GET /search?index=&lt;index name&gt;&amp;mz=&lt;min&gt;:&lt;max&gt;&amp;time=&lt;min&gt;:&lt;max&gt;
+ *     Returns the matching readings as JSON, along with the time spent opening the index and searching it.
+ *   GET /metrics
+ *     Returns per-index query counts and latencies, and posting list cache hit rates, as JSON.
+ */
+public class QueryService {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(QueryService.class);
+
+  public static final String OPTION_INDEX_ROOT = "d";
+  public static final String OPTION_PORT = "p";
+  public static final String OPTION_MAX_OPEN_INDEXES = "n";
+  public static final String OPTION_CACHE_MB = "c";
+  public static final String OPTION_RETRIEVAL_THREADS = "j";
+
+  public static final Integer DEFAULT_PORT = 8080;
+  public static final Integer DEFAULT_MAX_OPEN_INDEXES = 8;
+  public static final Integer DEFAULT_CACHE_MB = 256;
+  public static final Integer DEFAULT_RETRIEVAL_THREADS = 4;
+
+  public static final String HELP_MESSAGE = StringUtils.join(new String[]{
+      "Runs a web server that answers m/z and time range queries against a directory of triple indexes built by ",
+      "Builder, keeping recently used indexes open between queries."
+  }, "");
+
+  public static final List<Option.Builder> OPTION_BUILDERS = new ArrayList<Option.Builder>() {{
+    add(Option.builder(OPTION_INDEX_ROOT)
+        .argName("index root")
+        .desc("A directory whose subdirectories are indexes; queries name indexes by subdirectory")
+        .hasArg().required()
+        .longOpt("index-root")
+    );
+    add(Option.builder(OPTION_PORT)
+        .argName("port")
+        .desc(String.format("The port on which to listen (default %d)", DEFAULT_PORT))
+        .hasArg()
+        .longOpt("port")
+    );
+    add(Option.builder(OPTION_MAX_OPEN_INDEXES)
+        .argName("count")
+        .desc(String.format("The maximum number of indexes to keep open at once (default %d)",
+            DEFAULT_MAX_OPEN_INDEXES))
+        .hasArg()
+        .longOpt("max-open-indexes")
+    );
+    add(Option.builder(OPTION_CACHE_MB)
+        .argName("megabytes")
+        .desc(String.format("The size of each open index's posting list cache in MB (default %d)", DEFAULT_CACHE_MB))
+        .hasArg()
+        .longOpt("cache-mb")
+    );
+    add(Option.builder(OPTION_RETRIEVAL_THREADS)
+        .argName("threads")
+        .desc(String.format("The number of triple retrieval threads per open index (default %d)",
+            DEFAULT_RETRIEVAL_THREADS))
+        .hasArg()
+        .longOpt("threads")
+    );
+  }};
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private final File indexRoot;
+  private final IndexOpener indexOpener;
+  private final LoadingCache<String, OpenIndex> openIndexes;
+  // Stats outlive the open indexes, so an index's history survives eviction.
+  private final Map<String, QueryStats> queryStats = new ConcurrentHashMap<>();
+
+  // Opens a searcher over an index directory; this is a seam for testing.
+  interface IndexOpener {
+    Searcher open(File indexDir) throws Exception;
+  }
+
+  QueryService(File indexRoot, int maxOpenIndexes, long cacheBytesPerIndex, int retrievalThreads) {
+    this(indexRoot, maxOpenIndexes, indexDir -> {
+      Searcher searcher = Searcher.Factory.makeSearcher(indexDir, retrievalThreads);
+      searcher.enablePostingListCache(cacheBytesPerIndex);
+      return searcher;
+    });
+  }
+
+  QueryService(File indexRoot, int maxOpenIndexes, IndexOpener indexOpener) {
+    this(indexRoot, maxOpenIndexes, indexOpener, ForkJoinPool.commonPool());
+  }
+
+  // Caffeine evicts (and so closes indexes) on `cacheExecutor`; tests pass a direct executor to make that synchronous.
+  QueryService(File indexRoot, int maxOpenIndexes, IndexOpener indexOpener, Executor cacheExecutor) {
+    this.indexRoot = indexRoot;
+    this.indexOpener = indexOpener;
+    this.openIndexes = Caffeine.newBuilder()
+        .maximumSize(maxOpenIndexes)
+        .executor(cacheExecutor)
+        .removalListener((String name, OpenIndex index, RemovalCause cause) -> {
+          LOGGER.info("Closing index %s (%s)", name, cause);
+          if (index != null) {
+            index.close();
+          }
+        })
+        .build(this::openIndex);
+  }
+
+  public static void main(String[] args) throws Exception {
+    CLIUtil cliUtil = new CLIUtil(QueryService.class, HELP_MESSAGE, OPTION_BUILDERS);
+    CommandLine cl = cliUtil.parseCommandLine(args);
+
+    File indexRoot = new File(cl.getOptionValue(OPTION_INDEX_ROOT));
+    if (!indexRoot.exists() || !indexRoot.isDirectory()) {
+      cliUtil.failWithMessage("Unable to read index root directory at %s", indexRoot.getAbsolutePath());
+    }
+
+    int port = Integer.parseInt(cl.getOptionValue(OPTION_PORT, DEFAULT_PORT.toString()));
+    int maxOpenIndexes = Integer.parseInt(
+        cl.getOptionValue(OPTION_MAX_OPEN_INDEXES, DEFAULT_MAX_OPEN_INDEXES.toString()));
+    long cacheBytes = Long.parseLong(cl.getOptionValue(OPTION_CACHE_MB, DEFAULT_CACHE_MB.toString())) << 20;
+    int retrievalThreads = Integer.parseInt(
+        cl.getOptionValue(OPTION_RETRIEVAL_THREADS, DEFAULT_RETRIEVAL_THREADS.toString()));
+    if (maxOpenIndexes <= 0 || retrievalThreads <= 0) {
+      cliUtil.failWithMessage("Open index and retrieval thread counts must be positive");
+    }
+
+    QueryService service = new QueryService(indexRoot, maxOpenIndexes, cacheBytes, retrievalThreads);
+    // Close every open index on the way out so RocksDB can shut down cleanly.
+    Runtime.getRuntime().addShutdownHook(new Thread(service::shutdown));
+
+    Server jettyServer = new Server(port);
+    jettyServer.setHandler(service.new Controller());
+    // Use Apache-style access logging, like our other services.
+    NCSARequestLog requestLog = new NCSARequestLog();
+    requestLog.setAppend(true);
+    jettyServer.setRequestLog(requestLog);
+
+    LOGGER.info("Starting server on port %d, serving indexes in %s", port, indexRoot.getAbsolutePath());
+    jettyServer.start();
+    jettyServer.join();
+  }
+
+  private OpenIndex openIndex(String name) throws Exception {
+    long start = System.nanoTime();
+    Searcher searcher = indexOpener.open(new File(indexRoot, name));
+    LOGGER.info("Opened index %s with %d windows in %dms",
+        name, searcher.getWindowCount(), (System.nanoTime() - start) / 1000000L);
+    return new OpenIndex(searcher);
+  }
+
+  /**
+   * Checks that an index name refers to an index directory directly under the index root, so that requests can't
+   * reach outside of it.
+   */
+  boolean isValidIndexName(String name) {
+    if (name == null || name.isEmpty() || name.startsWith(".") || name.contains(File.separator) ||
+        name.contains("/")) {
+      return false;
+    }
+    return new File(indexRoot, name).isDirectory();
+  }
+
+  /**
+   * Runs one query against a named index, opening it if necessary.
+   * @param indexName The name of an index directory under the index root.
+   * @param mzRange The m/z range to search.
+   * @param timeRange The time range to search.
+   * @return The search results along with timing information.
+   * @throws Exception
+   */
+  SearchResponse search(String indexName, Pair<Double, Double> mzRange, Pair<Double, Double> timeRange)
+      throws Exception {
+    long start = System.nanoTime();
+    while (true) {
+      OpenIndex index = openIndexes.get(indexName);
+      // Fresh loads count as index open time; cache hits cost nothing to open.
+      long openNanos = System.nanoTime() - start;
+      // Queries hold the read lock so that an evicted index isn't closed out from underneath them.
+      index.lock.readLock().lock();
+      try {
+        if (index.closed) {
+          // We raced with eviction; the next get() will reopen the index.
+          continue;
+        }
+        long searchStart = System.nanoTime();
+        List<TMzI> results = index.searcher.searchIndexInRange(mzRange, timeRange);
+        long searchNanos = System.nanoTime() - searchStart;
+        queryStats.computeIfAbsent(indexName, k -> new QueryStats()).record(results.size(), searchNanos);
+        return new SearchResponse(indexName, results, openNanos / 1000000L, searchNanos / 1000000L);
+      } finally {
+        index.lock.readLock().unlock();
+      }
+    }
+  }
+
+  Map<String, Map<String, Object>> metrics() {
+    Map<String, Map<String, Object>> metrics = new TreeMap<>();
+    for (Map.Entry<String, QueryStats> entry : queryStats.entrySet()) {
+      Map<String, Object> indexMetrics = entry.getValue().toMap();
+      OpenIndex index = openIndexes.getIfPresent(entry.getKey());
+      indexMetrics.put("open", index != null);
+      CacheStats cacheStats = index == null ? null : index.searcher.getPostingListCacheStats();
+      if (cacheStats != null) {
+        indexMetrics.put("posting_list_cache_hit_rate", cacheStats.hitRate());
+        indexMetrics.put("posting_list_cache_evictions", cacheStats.evictionCount());
+      }
+      metrics.put(entry.getKey(), indexMetrics);
+    }
+    return metrics;
+  }
+
+  void shutdown() {
+    openIndexes.invalidateAll();
+    openIndexes.cleanUp();
+  }
+
+  private static class OpenIndex {
+    final Searcher searcher;
+    final ReadWriteLock lock = new ReentrantReadWriteLock();
+    boolean closed = false; // Guarded by lock.
+
+    OpenIndex(Searcher searcher) {
+      this.searcher = searcher;
+    }
+
+    void close() {
+      // Wait for any in-flight queries to finish before releasing the DB.
+      lock.writeLock().lock();
+      try {
+        if (!closed) {
+          closed = true;
+          searcher.close();
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+  }
+
+  private static class QueryStats {
+    private final AtomicLong queries = new AtomicLong(0L);
+    private final AtomicLong results = new AtomicLong(0L);
+    private final AtomicLong totalNanos = new AtomicLong(0L);
+    private final AtomicLong maxNanos = new AtomicLong(0L);
+
+    void record(long resultCount, long nanos) {
+      queries.incrementAndGet();
+      results.addAndGet(resultCount);
+      totalNanos.addAndGet(nanos);
+      maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    Map<String, Object> toMap() {
+      long count = queries.get();
+      Map<String, Object> map = new TreeMap<>();
+      map.put("queries", count);
+      map.put("results", results.get());
+      map.put("mean_search_ms", count == 0L ? 0.0 : totalNanos.get() / (double) count / 1e6);
+      map.put("max_search_ms", maxNanos.get() / 1e6);
+      return map;
+    }
+  }
+
+  public class Controller extends AbstractHandler {
+    private static final String SEARCH_TARGET = "/search";
+    private static final String METRICS_TARGET = "/metrics";
+    private static final String PARAM_INDEX = "index";
+    private static final String PARAM_MZ_RANGE = "mz";
+    private static final String PARAM_TIME_RANGE = "time";
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+        throws IOException, ServletException {
+      if (!HttpMethod.GET.asString().equalsIgnoreCase(request.getMethod())) {
+        response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        baseRequest.setHandled(true);
+        return;
+      }
+
+      try {
+        if (SEARCH_TARGET.equals(target)) {
+          handleSearch(request, response);
+        } else if (METRICS_TARGET.equals(target)) {
+          writeJson(response, metrics());
+        } else {
+          response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        }
+      } catch (Exception e) {
+        LOGGER.error("Caught unexpected exception handling %s: %s", target, e.getMessage());
+        response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      }
+      baseRequest.setHandled(true);
+    }
+
+    private void handleSearch(HttpServletRequest request, HttpServletResponse response) throws Exception {
+      String indexName = request.getParameter(PARAM_INDEX);
+      if (!isValidIndexName(indexName)) {
+        response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        return;
+      }
+
+      Pair<Double, Double> mzRange, timeRange;
+      try {
+        mzRange = Searcher.extractRange(request.getParameter(PARAM_MZ_RANGE));
+        timeRange = Searcher.extractRange(request.getParameter(PARAM_TIME_RANGE));
+      } catch (RuntimeException e) {
+        // Covers both unparseable numbers and inverted ranges.
+        LOGGER.warn("Rejecting malformed range: %s", e.getMessage());
+        response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        return;
+      }
+      if (mzRange == null || timeRange == null) {
+        response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        return;
+      }
+
+      SearchResponse searchResponse = search(indexName, mzRange, timeRange);
+      LOGGER.info("Query on %s for m/z %.6f-%.6f, time %.3f-%.3f: %d results (open %dms, search %dms)",
+          indexName, mzRange.getLeft(), mzRange.getRight(), timeRange.getLeft(), timeRange.getRight(),
+          searchResponse.readings.size(), searchResponse.openMillis, searchResponse.searchMillis);
+      writeJson(response, searchResponse);
+    }
+
+    private void writeJson(HttpServletResponse response, Object value) throws IOException {
+      response.setStatus(HttpServletResponse.SC_OK);
+      response.addHeader("Content-type", "application/json");
+      OBJECT_MAPPER.writeValue(response.getWriter(), value);
+    }
+  }
+
+  static class SearchResponse {
+    @JsonProperty("index")
+    String index;
+
+    @JsonProperty("open_ms")
+    long openMillis;
+
+    @JsonProperty("search_ms")
+    long searchMillis;
+
+    @JsonProperty("readings")
+    List<Reading> readings;
+
+    SearchResponse(String index, List<TMzI> results, long openMillis, long searchMillis) {
+      this.index = index;
+      this.openMillis = openMillis;
+      this.searchMillis = searchMillis;
+      this.readings = new ArrayList<>(results.size());
+      for (TMzI tmzi : results) {
+        this.readings.add(new Reading(tmzi));
+      }
+    }
+  }
+
+  static class Reading {
+    @JsonProperty("time")
+    float time;
+
+    @JsonProperty("mz")
+    double mz;
+
+    @JsonProperty("intensity")
+    float intensity;
+
+    Reading(TMzI tmzi) {
+      this.time = tmzi.getTime();
+      this.mz = tmzi.getMz();
+      this.intensity = tmzi.getIntensity();
+    }
+  }
+}
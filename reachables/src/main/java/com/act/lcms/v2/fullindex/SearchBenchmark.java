@@ -0,0 +1,159 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.lcms.v2.fullindex;
+
+import com.act.utils.CLIUtil;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures Searcher latency over a grid of query shapes, from narrow m/z and time windows up to wide m/z windows over
+ * the entire run.  Each query in a cell is centered at a random point within the index's m/z and time bounds.  Like
+ * NetCDFParserBenchmark, this is a plain CLI rather than a microbenchmark: queries hit the disk, so JIT warm-up is
+ * handled by discarding a few queries before measuring.
+ */
+public class SearchBenchmark {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(SearchBenchmark.class);
+
+  public static final String OPTION_INDEX_PATH = "x";
+  public static final String OPTION_QUERIES = "n";
+  public static final String OPTION_SEED = "s";
+
+  public static final Integer DEFAULT_QUERIES = 20;
+  public static final Integer DEFAULT_SEED = 0;
+  public static final Integer WARM_UP_QUERIES = 5;
+
+  public static final double[] MZ_WIDTHS = { 0.01, 0.1, 1.0, 10.0 };
+  public static final double[] TIME_FRACTIONS = { 0.01, 0.1, 0.5, 1.0 };
+
+  public static final String HELP_MESSAGE = StringUtils.join(new String[]{
+      "Benchmarks searches over a triple index constructed by Builder, reporting median and 95th percentile ",
+      "latencies for a grid of m/z widths and fractions of the run's time range."
+  }, "");
+
+  public static final List<Option.Builder> OPTION_BUILDERS = new ArrayList<Option.Builder>() {{
+    add(Option.builder(OPTION_INDEX_PATH)
+        .argName("index path")
+        .desc("A path to the directory containing the index to search")
+        .hasArg().required()
+        .longOpt("index")
+    );
+    add(Option.builder(OPTION_QUERIES)
+        .argName("queries")
+        .desc(String.format("The number of queries to time for each query shape (default %d)", DEFAULT_QUERIES))
+        .hasArg()
+        .longOpt("queries")
+    );
+    add(Option.builder(OPTION_SEED)
+        .argName("seed")
+        .desc(String.format("A seed for the random query placement (default %d)", DEFAULT_SEED))
+        .hasArg()
+        .longOpt("seed")
+    );
+  }};
+
+  public static void main(String[] args) throws Exception {
+    CLIUtil cliUtil = new CLIUtil(SearchBenchmark.class, HELP_MESSAGE, OPTION_BUILDERS);
+    CommandLine cl = cliUtil.parseCommandLine(args);
+
+    File indexDir = new File(cl.getOptionValue(OPTION_INDEX_PATH));
+    if (!indexDir.exists() || !indexDir.isDirectory()) {
+      cliUtil.failWithMessage("Unable to read index directory at %s", indexDir.getAbsolutePath());
+    }
+    int queries = Integer.parseInt(cl.getOptionValue(OPTION_QUERIES, DEFAULT_QUERIES.toString()));
+    Random random = new Random(Long.parseLong(cl.getOptionValue(OPTION_SEED, DEFAULT_SEED.toString())));
+
+    Searcher searcher = Searcher.Factory.makeSearcher(indexDir);
+    List<Float> timepoints = searcher.getTimepoints();
+    if (timepoints.isEmpty()) {
+      cliUtil.failWithMessage("Index at %s contains no time points", indexDir.getAbsolutePath());
+    }
+    double minTime = Collections.min(timepoints), maxTime = Collections.max(timepoints);
+
+    // Warm up the JIT and the block cache a bit so the first cell isn't penalized.
+    for (int i = 0; i < WARM_UP_QUERIES; i++) {
+      searcher.searchIndexInRange(randomRange(random, Builder.MIN_MZ, Builder.MAX_MZ, MZ_WIDTHS[0]),
+          randomRange(random, minTime, maxTime, (maxTime - minTime) * TIME_FRACTIONS[0]));
+    }
+
+    List<String> report = new ArrayList<>(MZ_WIDTHS.length * TIME_FRACTIONS.length + 1);
+    report.add(StringUtils.join(new String[] {
+        "m/z width", "time fraction", "median ms", "p95 ms", "mean results"
+    }, "\t"));
+    for (double mzWidth : MZ_WIDTHS) {
+      for (double timeFraction : TIME_FRACTIONS) {
+        double timeWidth = (maxTime - minTime) * timeFraction;
+        long[] latencies = new long[queries];
+        long totalResults = 0L;
+        for (int i = 0; i < queries; i++) {
+          Pair<Double, Double> mzRange = randomRange(random, Builder.MIN_MZ, Builder.MAX_MZ, mzWidth);
+          Pair<Double, Double> timeRange = randomRange(random, minTime, maxTime, timeWidth);
+          long start = System.nanoTime();
+          totalResults += searcher.searchIndexInRange(mzRange, timeRange).size();
+          latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        report.add(String.format("%.2f\t%.2f\t%.3f\t%.3f\t%.1f", mzWidth, timeFraction,
+            percentile(latencies, 0.5) / 1e6, percentile(latencies, 0.95) / 1e6,
+            queries == 0 ? 0.0 : totalResults / (double) queries));
+      }
+    }
+
+    // Searcher logs a lot per query, so we collect the table and emit it all at the end.
+    for (String line : report) {
+      LOGGER.info(line);
+    }
+  }
+
+  /**
+   * Picks a range of a given width that lies entirely within [min, max], unless the width exceeds the bounds, in which
+   * case the entire bounds are returned.
+   */
+  private static Pair<Double, Double> randomRange(Random random, double min, double max, double width) {
+    if (width >= max - min) {
+      return Pair.of(min, max);
+    }
+    double lower = min + random.nextDouble() * (max - min - width);
+    return Pair.of(lower, lower + width);
+  }
+
+  private static long percentile(long[] sortedValues, double p) {
+    if (sortedValues.length == 0) {
+      return 0L;
+    }
+    int index = (int) Math.ceil(p * sortedValues.length) - 1;
+    return sortedValues[Math.max(0, Math.min(sortedValues.length - 1, index))];
+  }
+}
@@ -26,6 +26,9 @@ package com.act.lcms.v2.fullindex;
 import com.act.utils.CLIUtil;
 import com.act.utils.rocksdb.DBUtil;
 import com.act.utils.rocksdb.RocksDBAndHandles;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
 import org.apache.commons.lang3.StringUtils;
@@ -42,10 +45,13 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
@@ -63,6 +69,11 @@ public class Searcher {
   public static final String OPTION_MZ_RANGE   = "m";
   public static final String OPTION_TIME_RANGE = "t";
   public static final String OPTION_OUTPUT_FILE = "o";
+  public static final String OPTION_RETRIEVAL_THREADS = "j";
+
+  // Triples are fetched in batches of this many ids; each batch is one multiGet call, and one unit of parallel work.
+  static final int DEFAULT_RETRIEVAL_BATCH_SIZE = 1 << 12;
+  public static final Integer DEFAULT_RETRIEVAL_THREADS = 1;
 
   public static final String HELP_MESSAGE = StringUtils.join(new String[]{
       "Queries a triple index constructed by Builder for readings in some m/z and time window.",
@@ -93,14 +104,26 @@ public class Searcher {
         .hasArg()
         .longOpt("time-range")
     );
+    add(Option.builder(OPTION_RETRIEVAL_THREADS)
+        .argName("threads")
+        .desc(String.format("The number of threads to use when fetching matching triples (default %d)",
+            DEFAULT_RETRIEVAL_THREADS))
+        .hasArg()
+        .longOpt("threads")
+    );
   }};
 
   public static class Factory {
     public static Searcher makeSearcher(File indexDir)
         throws RocksDBException, ClassNotFoundException, IOException {
+      return makeSearcher(indexDir, DEFAULT_RETRIEVAL_THREADS);
+    }
+
+    public static Searcher makeSearcher(File indexDir, int retrievalThreads)
+        throws RocksDBException, ClassNotFoundException, IOException {
       RocksDBAndHandles<ColumnFamilies> dbAndHandles =
           DBUtil.openExistingRocksDB(indexDir, ColumnFamilies.values());
-      Searcher searcher = new Searcher(dbAndHandles);
+      Searcher searcher = new Searcher(dbAndHandles, retrievalThreads, DEFAULT_RETRIEVAL_BATCH_SIZE);
       searcher.init();
       return searcher;
     }
@@ -109,9 +132,39 @@ public class Searcher {
   private RocksDBAndHandles<ColumnFamilies> dbAndHandles;
   private List<MZWindow> mzWindows;
   private List<Float> timepoints;
+  private int indexFormat;
+  private int listFormat;
+  // Only populated for time-bucketed indexes.
+  private long[] timepointIdOffsets;
+  private int timepointsPerBucket;
+
+  private int retrievalBatchSize;
+  // Null when retrieving on the calling thread.
+  private ExecutorService retrievalExecutor;
+  /* Caches time bucket posting lists by (window index << 32 | bucket) for long-lived searchers; null when disabled.
+   * Buckets that don't exist in the index are cached as NO_POSTING_LIST so we don't keep looking for them. */
+  private Cache<Long, byte[]> postingListCache;
+  private static final byte[] NO_POSTING_LIST = new byte[0];
 
   Searcher(RocksDBAndHandles<ColumnFamilies> dbAndHandles) {
+    this(dbAndHandles, DEFAULT_RETRIEVAL_THREADS, DEFAULT_RETRIEVAL_BATCH_SIZE);
+  }
+
+  Searcher(RocksDBAndHandles<ColumnFamilies> dbAndHandles, int retrievalThreads, int retrievalBatchSize) {
+    if (retrievalThreads <= 0 || retrievalBatchSize <= 0) {
+      throw new IllegalArgumentException(String.format(
+          "Retrieval threads (%d) and batch size (%d) must be positive", retrievalThreads, retrievalBatchSize));
+    }
     this.dbAndHandles = dbAndHandles;
+    this.retrievalBatchSize = retrievalBatchSize;
+    if (retrievalThreads > 1) {
+      // Use daemon threads so an idle pool never keeps the JVM alive after a search.
+      this.retrievalExecutor = Executors.newFixedThreadPool(retrievalThreads, r -> {
+        Thread t = new Thread(r, "searcher-retrieval");
+        t.setDaemon(true);
+        return t;
+      });
+    }
   }
 
   public static void main(String args[]) throws Exception {
@@ -130,7 +183,14 @@ public class Searcher {
     Pair<Double, Double> mzRange = extractRange(cl.getOptionValue(OPTION_MZ_RANGE));
     Pair<Double, Double> timeRange = extractRange(cl.getOptionValue(OPTION_TIME_RANGE));
 
-    Searcher searcher = Factory.makeSearcher(indexDir);
+    int retrievalThreads = Integer.parseInt(
+        cl.getOptionValue(OPTION_RETRIEVAL_THREADS, DEFAULT_RETRIEVAL_THREADS.toString()));
+    if (retrievalThreads <= 0) {
+      cliUtil.failWithMessage("Retrieval thread count must be positive, but got %s",
+          cl.getOptionValue(OPTION_RETRIEVAL_THREADS));
+    }
+
+    Searcher searcher = Factory.makeSearcher(indexDir, retrievalThreads);
     List<TMzI> results = searcher.searchIndexInRange(mzRange, timeRange);
 
     if (cl.hasOption(OPTION_OUTPUT_FILE)) {
@@ -155,7 +215,7 @@ public class Searcher {
     writer.flush();
   }
 
-  private static Pair<Double, Double> extractRange(String rangeStr) {
+  static Pair<Double, Double> extractRange(String rangeStr) {
     // Skip empty ranges so we can just limit on time or m/z.
     if (rangeStr == null || rangeStr.isEmpty()) {
       return null;
@@ -192,6 +252,28 @@ public class Searcher {
         dbAndHandles.get(ColumnFamilies.TIMEPOINTS, Builder.TIMEPOINTS_KEY)
     );
     LOGGER.info("Loaded %d timepoints", timepoints.size());
+
+    byte[] formatBytes = dbAndHandles.get(ColumnFamilies.TIMEPOINTS, Builder.FORMAT_KEY);
+    // Indexes built before we started recording the format stored id lists as raw longs.
+    indexFormat = formatBytes == null ? Builder.INDEX_FORMAT_RAW_LONGS : ByteBuffer.wrap(formatBytes).getInt();
+    listFormat = Builder.listFormatForIndexFormat(indexFormat);
+    LOGGER.info("Index uses format %d with posting list format %d", indexFormat, listFormat);
+
+    if (indexFormat == Builder.INDEX_FORMAT_TIME_BUCKETED) {
+      ByteBuffer offsetsBuffer =
+          ByteBuffer.wrap(dbAndHandles.get(ColumnFamilies.TIMEPOINTS, Builder.TIMEPOINT_ID_OFFSETS_KEY));
+      timepointIdOffsets = new long[offsetsBuffer.remaining() / Long.BYTES];
+      offsetsBuffer.asLongBuffer().get(timepointIdOffsets);
+      if (timepointIdOffsets.length != timepoints.size() + 1) {
+        String msg = String.format("Found %d time point id offsets for %d time points, expected %d",
+            timepointIdOffsets.length, timepoints.size(), timepoints.size() + 1);
+        LOGGER.error(msg);
+        throw new RuntimeException(msg);
+      }
+      timepointsPerBucket =
+          ByteBuffer.wrap(dbAndHandles.get(ColumnFamilies.TIMEPOINTS, Builder.TIMEPOINTS_PER_BUCKET_KEY)).getInt();
+      LOGGER.info("Loaded time point id offsets, with %d time points per bucket", timepointsPerBucket);
+    }
     // Assumes timepoints are sorted.  TODO: check!
 
     mzWindows = new ArrayList<>();
@@ -241,6 +323,41 @@ public class Searcher {
         tRangeF.getLeft(), tRangeF.getRight(), mzRange.getLeft(), mzRange.getRight()
     );
 
+    long[] idsToFetch = indexFormat == Builder.INDEX_FORMAT_TIME_BUCKETED ?
+        findIdsInTimeBuckets(mzRange, tRangeF) : findIdsByIntersection(mzRange, tRangeF);
+
+    LOGGER.info("Collecting TMzI triples");
+    // Collect all the triples for the ids we extracted.
+    // TODO: don't manifest all the bytes: just create a stream of results from the cursor to reduce memory overhead.
+    List<TMzI> results = new ArrayList<>(idsToFetch.length);
+    byte[][] resultBytes = extractTripleBytes(idsToFetch);
+    for (byte[] tmziBytes : resultBytes) {
+      results.add(TMzI.readNextFromByteBuffer(ByteBuffer.wrap(tmziBytes)));
+    }
+
+    // TODO: do this filtering inline with the extraction.  We shouldn't have to load all the triples before filtering.
+    LOGGER.info("Performing final filtering");
+    int preFilterTMzICount = results.size();
+    results = results.stream().filter(tmzi ->
+        tmzi.getTime() >= tRangeF.getLeft() && tmzi.getTime() <= tRangeF.getRight() &&
+        tmzi.getMz() >= mzRange.getLeft() && tmzi.getMz() <= mzRange.getRight()
+    ).collect(Collectors.toList());
+    LOGGER.info("Precise filtering results: %d -> %d", preFilterTMzICount, results.size());
+
+    DateTime end = DateTime.now();
+    LOGGER.info("Search completed in %dms", end.getMillis() - start.getMillis());
+
+    // TODO: return a stream instead that can load the triples lazily.
+    return results;
+  }
+
+  /**
+   * Finds candidate triple ids in indexes without time buckets by unioning the id lists of all matching time points
+   * and all matching m/z windows, and then intersecting the two.  This reads every id in every matching window, no
+   * matter how narrow the time range is.
+   */
+  private long[] findIdsByIntersection(Pair<Double, Double> mzRange, Pair<Float, Float> tRangeF)
+      throws RocksDBException {
     // TODO: short circuit these filters.  The first failure after success => no more possible hits.
     List<Float> timesInRange = timepointsInRange(tRangeF);
 
@@ -269,51 +386,103 @@ public class Searcher {
     LOGGER.info("Found/loaded %d matching time ranges, %d matching m/z ranges",
         timesInRange.size(), mzWindowsInRange.size());
 
-    // TODO: there is no need to union the time indices since they are necessarily distinct.  Just concatenate instead.
-    Set<Long> unionTimeIds = unionIdBuffers(timeIndexBytes);
-    Set<Long> unionMzIds = unionIdBuffers(mzIndexBytes);
-    // TODO: handle the case where one of the sets is empty specially.  Either keep all in the other set or drop all.
-    // TODO: we might be able to do this faster by intersecting two sorted lists.
-    Set<Long> intersectionIds = new HashSet<>(unionTimeIds);
-    /* TODO: this is effectively a hash join, which isn't optimal for sets of wildly different cardinalities.
-     * Consider using sort-merge join instead, which will reduce the object overhead (by a lot) and allow us to pass
-     * over the union of the ids from each range just once when joining them.  Additionally, just skip this whole step
-     * and filter at the end if one of the set's sizes is less than 1k or so and the other is large. */
-    intersectionIds.retainAll(unionMzIds);
-    LOGGER.info("Id intersection results: t = %d, mz = %d, t ^ mz = %d",
-        unionTimeIds.size(), unionMzIds.size(), intersectionIds.size());
-
-    List<Long> idsToFetch = new ArrayList<>(intersectionIds);
-    Collections.sort(idsToFetch); // Sort ids so we retrieve them in an order that exploits index locality.
+    /* Every posting list is sorted, so we can union each side with a k-way merge and then intersect the two sides with
+     * a linear sort-merge join, all over primitive arrays.  The results come out sorted, so we retrieve triples in an
+     * order that exploits index locality.
+     * TODO: handle the case where one of the sets is empty specially.  Either keep all in the other set or drop all. */
+    long joinStart = System.nanoTime();
+    long[] unionTimeIds = PostingList.union(Arrays.asList(timeIndexBytes), listFormat);
+    long[] unionMzIds = PostingList.union(Arrays.asList(mzIndexBytes), listFormat);
+    long[] idsToFetch = PostingList.intersect(unionTimeIds, unionMzIds);
+    LOGGER.info("Id intersection results: t = %d, mz = %d, t ^ mz = %d in %dms",
+        unionTimeIds.length, unionMzIds.length, idsToFetch.length, (System.nanoTime() - joinStart) / 1000000L);
+    return idsToFetch;
 
-    LOGGER.info("Collecting TMzI triples");
-    // Collect all the triples for the ids we extracted.
-    // TODO: don't manifest all the bytes: just create a stream of results from the cursor to reduce memory overhead.
-    List<TMzI> results = new ArrayList<>(idsToFetch.size());
-    byte[][] resultBytes = extractValueBytes(
-        ColumnFamilies.ID_TO_TRIPLE,
-        idsToFetch,
-        Long.BYTES,
-        ByteBuffer::putLong
-    );
-    for (byte[] tmziBytes : resultBytes) {
-      results.add(TMzI.readNextFromByteBuffer(ByteBuffer.wrap(tmziBytes)));
+  }
+
+  /**
+   * Finds candidate triple ids in a time-bucketed index.  Triple ids are assigned in time order, so the matching time
+   * points map to one contiguous range of ids, which in turn only appears in a few buckets of each m/z window.  We
+   * read just those buckets and clip their ids to the range, and never touch the (large) time point id lists, so the
+   * amount of data read scales with the size of the query rather than the length of the run.
+   */
+  private long[] findIdsInTimeBuckets(Pair<Double, Double> mzRange, Pair<Float, Float> tRangeF)
+      throws RocksDBException {
+    Pair<Integer, Integer> timepointIndices = timepointIndexRange(tRangeF);
+    List<MZWindow> mzWindowsInRange = mzWindowsInRange(mzRange);
+    if (timepointIndices == null || mzWindowsInRange.size() == 0) {
+      return new long[0];
     }
 
-    // TODO: do this filtering inline with the extraction.  We shouldn't have to load all the triples before filtering.
-    LOGGER.info("Performing final filtering");
-    int preFilterTMzICount = results.size();
-    results = results.stream().filter(tmzi ->
-        tmzi.getTime() >= tRangeF.getLeft() && tmzi.getTime() <= tRangeF.getRight() &&
-        tmzi.getMz() >= mzRange.getLeft() && tmzi.getMz() <= mzRange.getRight()
-    ).collect(Collectors.toList());
-    LOGGER.info("Precise filtering results: %d -> %d", preFilterTMzICount, results.size());
+    long joinStart = System.nanoTime();
+    long minId = timepointIdOffsets[timepointIndices.getLeft()];
+    long maxIdExclusive = timepointIdOffsets[timepointIndices.getRight() + 1];
+    int firstBucket = timepointIndices.getLeft() / timepointsPerBucket;
+    int lastBucket = timepointIndices.getRight() / timepointsPerBucket;
+
+    int bucketCount = mzWindowsInRange.size() * (lastBucket - firstBucket + 1);
+    List<byte[]> bucketLists = new ArrayList<>(bucketCount);
+    // Look in the posting list cache first (if we have one), and only go to the DB for the buckets it's missing.
+    List<byte[]> missingKeys = new ArrayList<>(bucketCount);
+    List<Long> missingCacheKeys = new ArrayList<>(bucketCount);
+    for (MZWindow window : mzWindowsInRange) {
+      for (int bucket = firstBucket; bucket <= lastBucket; bucket++) {
+        long cacheKey = ((long) window.getIndex() << Integer.SIZE) | bucket;
+        byte[] cached = postingListCache == null ? null : postingListCache.getIfPresent(cacheKey);
+        if (cached == null) {
+          missingKeys.add(Builder.windowBucketKey(window.getIndex(), bucket));
+          missingCacheKeys.add(cacheKey);
+        } else if (cached != NO_POSTING_LIST) {
+          bucketLists.add(cached);
+        }
+      }
+    }
+    long bytesRead = 0L;
+    List<byte[]> missingLists = dbAndHandles.multiGet(ColumnFamilies.WINDOW_ID_TO_TRIPLES, missingKeys);
+    for (int i = 0; i < missingLists.size(); i++) {
+      byte[] bucketBytes = missingLists.get(i);
+      if (postingListCache != null) {
+        postingListCache.put(missingCacheKeys.get(i), bucketBytes == null ? NO_POSTING_LIST : bucketBytes);
+      }
+      // Windows with no readings in a bucket have no entry for it.
+      if (bucketBytes != null) {
+        bucketLists.add(bucketBytes);
+        bytesRead += bucketBytes.length;
+      }
+    }
 
-    DateTime end = DateTime.now();
-    LOGGER.info("Search completed in %dms", end.getMillis() - start.getMillis());
+    long[] idsToFetch = PostingList.union(bucketLists, listFormat, minId, maxIdExclusive);
+    LOGGER.info("Read %d of %d buckets (%d bytes) from the DB for %d m/z windows and time points [%d, %d]: " +
+            "%d ids in [%d, %d) in %dms",
+        missingKeys.size(), bucketCount, bytesRead, mzWindowsInRange.size(),
+        timepointIndices.getLeft(), timepointIndices.getRight(),
+        idsToFetch.length, minId, maxIdExclusive, (System.nanoTime() - joinStart) / 1000000L);
+    return idsToFetch;
+  }
 
-    // TODO: return a stream instead that can load the triples lazily.
-    return results;
+  /**
+   * Finds the indices of the first and last time points that fall within a time range.  This doesn't rely on the time
+   * points being sorted: if they're not, the index range may include some non-matching time points, but these will
+   * be dropped when the triples are filtered.
+   * @param tRange The time range to search for.
+   * @return A pair of the first and last (inclusive) matching time point indices, or null if none match.
+   */
+  private Pair<Integer, Integer> timepointIndexRange(Pair<Float, Float> tRange) {
+    int first = -1, last = -1;
+    for (int i = 0; i < timepoints.size(); i++) {
+      float t = timepoints.get(i);
+      if (t >= tRange.getLeft() && t <= tRange.getRight()) {
+        if (first == -1) {
+          first = i;
+        }
+        last = i;
+      }
+    }
+    if (first == -1) {
+      LOGGER.warn("Found zero times in range %.6f - %.6f", tRange.getLeft(), tRange.getRight());
+      return null;
+    }
+    return Pair.of(first, last);
   }
 
   private List<Float> timepointsInRange(Pair<Float, Float> tRange) {
@@ -351,36 +520,124 @@ public class Searcher {
   private <K> byte[][] extractValueBytes(
       ColumnFamilies cf, List<K> keys, int keyBytes, BiFunction<ByteBuffer, K, ByteBuffer> put)
       throws RocksDBException {
-    byte[][] valBytes = new byte[keys.size()][];
-    ByteBuffer keyBuffer = ByteBuffer.allocate(keyBytes);
-    for (int i = 0; i < keys.size(); i++) {
-      K k = keys.get(i);
-      keyBuffer.clear();
-      put.apply(keyBuffer, k).flip();
-      // TODO: try compacting the keyBuffer array to be safe?
-      valBytes[i] = dbAndHandles.get(cf, keyBuffer.array());
-      assert(valBytes[i] != null);
+    List<byte[]> keyArrays = new ArrayList<>(keys.size());
+    for (K k : keys) {
+      // multiGet holds onto every key at once, so each one needs its own buffer.
+      ByteBuffer keyBuffer = ByteBuffer.allocate(keyBytes);
+      put.apply(keyBuffer, k);
+      keyArrays.add(keyBuffer.array());
+    }
+    byte[][] valBytes = dbAndHandles.multiGet(cf, keyArrays).toArray(new byte[keys.size()][]);
+    for (byte[] val : valBytes) {
+      assert(val != null);
     }
     return valBytes;
   }
 
+  /**
+   * Extracts the TMzI bytes for a list of triple ids.  Ids are fetched in fixed-size batches with one multiGet per
+   * batch; if this searcher has more than one retrieval thread, the batches are spread across them.  Sorted ids make
+   * each batch cover a narrow range of keys, which keeps the reads for a batch within a few SST blocks.
+   * @param ids The ids whose triples to extract, preferably sorted.
+   * @return An array of arrays of bytes, one per id, containing the serialized triple for that id.
+   * @throws RocksDBException
+   */
+  private byte[][] extractTripleBytes(long[] ids) throws RocksDBException {
+    byte[][] valBytes = new byte[ids.length][];
+    int batches = (ids.length + retrievalBatchSize - 1) / retrievalBatchSize;
+    if (retrievalExecutor == null || batches <= 1) {
+      for (int b = 0; b < batches; b++) {
+        extractTripleBytesBatch(ids, valBytes, b * retrievalBatchSize);
+      }
+      return valBytes;
+    }
+
+    // Every batch writes to its own slice of valBytes, so no further synchronization is needed.
+    List<Future<Void>> futures = new ArrayList<>(batches);
+    for (int b = 0; b < batches; b++) {
+      final int batchStart = b * retrievalBatchSize;
+      futures.add(retrievalExecutor.submit(() -> {
+        extractTripleBytesBatch(ids, valBytes, batchStart);
+        return null;
+      }));
+    }
+    try {
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while fetching triples", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RocksDBException) {
+        throw (RocksDBException) cause;
+      }
+      throw new RuntimeException("Unable to fetch triples", cause);
+    } finally {
+      // Don't leave work running for an aborted search; this is a no-op if everything completed.
+      for (Future<Void> future : futures) {
+        future.cancel(true);
+      }
+    }
+    return valBytes;
+  }
+
+  private void extractTripleBytesBatch(long[] ids, byte[][] valBytes, int batchStart) throws RocksDBException {
+    int batchEnd = Math.min(ids.length, batchStart + retrievalBatchSize);
+    List<byte[]> keys = new ArrayList<>(batchEnd - batchStart);
+    for (int i = batchStart; i < batchEnd; i++) {
+      keys.add(ByteBuffer.allocate(Long.BYTES).putLong(ids[i]).array());
+    }
+    List<byte[]> vals = dbAndHandles.multiGet(ColumnFamilies.ID_TO_TRIPLE, keys);
+    for (int i = batchStart; i < batchEnd; i++) {
+      valBytes[i] = vals.get(i - batchStart);
+      assert(valBytes[i] != null);
+    }
+  }
+
+  /**
+   * Caches the time bucket posting lists this searcher reads, up to roughly some number of bytes.  This only pays off
+   * for searchers that stay open across many queries, and only applies to time-bucketed indexes.
+   * @param maxBytes The approximate maximum number of bytes of posting lists to keep in memory.
+   */
+  void enablePostingListCache(long maxBytes) {
+    postingListCache = Caffeine.newBuilder()
+        .maximumWeight(maxBytes)
+        .weigher((Long k, byte[] v) -> v.length + Long.BYTES) // Count the key too, so empty entries aren't free.
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Gets the statistics for this searcher's posting list cache.
+   * @return The cache's stats, or null if caching isn't enabled.
+   */
+  CacheStats getPostingListCacheStats() {
+    return postingListCache == null ? null : postingListCache.stats();
+  }
+
+  int getWindowCount() {
+    return mzWindows.size();
+  }
+
+  /**
+   * Releases the retrieval threads and closes the underlying index.  The searcher must not be used afterwards.
+   */
+  public void close() {
+    if (retrievalExecutor != null) {
+      retrievalExecutor.shutdownNow();
+    }
+    dbAndHandles.close();
+  }
+
+  List<Float> getTimepoints() {
+    return Collections.unmodifiableList(timepoints);
+  }
+
   private static boolean rangesOverlap(double aMin, double aMax, double bMin, double bMax) {
     /* You can push this through negation and De Morgan's Law to get
      * !(aMax < bMin || bMax < aMin) -> !(A to the left of B || B to the left of A) = intersection */
     return aMax >= bMin && bMax >= aMin;
   }
-
-  private static Set<Long> unionIdBuffers(byte[][] idBytes) {
-    /* TODO: this doesn't take advantage of the fact that all of the ids are in sorted order in every idBytes sub-array.
-     * We should be able to exploit that.  For now, we'll just start by hashing the ids. */
-    Set<Long> uniqueIds = new HashSet<>();
-    for (int i = 0; i < idBytes.length; i++) {
-      assert(idBytes[i] != null);
-      ByteBuffer idsBuffer = ByteBuffer.wrap(idBytes[i]);
-      while (idsBuffer.hasRemaining()) {
-        uniqueIds.add(idsBuffer.getLong());
-      }
-    }
-    return uniqueIds;
-  }
 }
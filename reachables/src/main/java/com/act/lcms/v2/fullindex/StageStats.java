@@ -0,0 +1,93 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.lcms.v2.fullindex;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accumulates timing and throughput counters for one stage of index construction (parsing, sweeping, writing) so we
+ * can see where the time goes.  Counters are atomic so that per-file stats can be merged into batch-wide totals from
+ * several threads at once.
+ */
+public class StageStats {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(StageStats.class);
+
+  private final String name;
+  private final AtomicLong spectra = new AtomicLong(0L);
+  private final AtomicLong points = new AtomicLong(0L);
+  private final AtomicLong busyNanos = new AtomicLong(0L);
+
+  public StageStats(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Records that this stage spent some time working on a number of spectra and their readings.
+   * @param spectraCount The number of spectra (time points) processed.
+   * @param pointCount The number of (m/z, intensity) readings processed.
+   * @param nanos The wall-clock time spent doing the work, excluding any time spent waiting on other stages.
+   */
+  public void record(long spectraCount, long pointCount, long nanos) {
+    spectra.addAndGet(spectraCount);
+    points.addAndGet(pointCount);
+    busyNanos.addAndGet(nanos);
+  }
+
+  /**
+   * Adds another stage's counters to this one's.  Useful for summarizing a stage across many files.
+   * @param other The stats to add to this object.
+   */
+  public void merge(StageStats other) {
+    record(other.getSpectra(), other.getPoints(), other.getBusyNanos());
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getSpectra() {
+    return spectra.get();
+  }
+
+  public long getPoints() {
+    return points.get();
+  }
+
+  public long getBusyNanos() {
+    return busyNanos.get();
+  }
+
+  public double getPointsPerSecond() {
+    long nanos = busyNanos.get();
+    return nanos == 0L ? 0.0 : points.get() / (nanos / 1e9);
+  }
+
+  public void log() {
+    LOGGER.info("Stage %-6s: %d spectra, %d points in %dms busy (%.0f points/sec)",
+        name, getSpectra(), getPoints(), getBusyNanos() / 1000000L, getPointsPerSecond());
+  }
+}
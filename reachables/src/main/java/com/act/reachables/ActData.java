@@ -26,19 +26,16 @@ package com.act.reachables;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class ActData implements Serializable {
@@ -62,19 +59,19 @@ public class ActData implements Serializable {
                                                    // they were not organically reachable
 
   HashMap<Long, Boolean> chemIdIsAbstraction;      // the chemicals that have R in inchis and therefore abstractions
-  HashMap<Long, String> chemId2Inchis;             // map chemid -> inchi
-  HashMap<Long, String> chemId2ReadableName;       // map chemid -> name
+  Map<Long, String> chemId2Inchis;                 // map chemid -> inchi
+  Map<Long, String> chemId2ReadableName;           // map chemid -> name
   HashMap<String, Long> chemInchis;                // reverse index of inchi -> chemid
   HashMap<Long, Set<Integer>> chemToxicity;        // If the chemical has xref.DRUGBANK.metadata.toxicity with LD50 [1]
   HashMap<Long, Node> chemsInAct;                  // map of chemicals seen in any rxn -> its node object in network
   HashMap<Pair<Long, Long>, Edge> rxnsInAct;       // map of rxns (exploded to all pairs bw sub x prod) to edge in network
-  HashMap<Long, Set<Long>> rxnSubstrates;          // rxnid -> non-cofactor substrates
-  HashMap<Long, Set<Long>> rxnSubstratesCofactors; // rxnid -> cofactor substrates
-  HashMap<Long, Set<Long>> rxnProducts;            // rxnid -> non-cofactor products
-  HashMap<Long, Set<Long>> rxnProductsCofactors;   // rxnid -> cofactor products
-  HashMap<Long, Set<Long>> rxnOrganisms;           // rxnid -> set of organism ids associated with rxn
-  HashMap<Long, Set<Long>> rxnsThatConsumeChem;    // non-cofactor chemicals -> rxns that have them as substrates
-  HashMap<Long, Set<Long>> rxnsThatProduceChem;    // non-cofactor chemicals -> rxns that have them as products
+  Map<Long, Set<Long>> rxnSubstrates;              // rxnid -> non-cofactor substrates
+  Map<Long, Set<Long>> rxnSubstratesCofactors;     // rxnid -> cofactor substrates
+  Map<Long, Set<Long>> rxnProducts;                // rxnid -> non-cofactor products
+  Map<Long, Set<Long>> rxnProductsCofactors;       // rxnid -> cofactor products
+  Map<Long, Set<Long>> rxnOrganisms;               // rxnid -> set of organism ids associated with rxn
+  Map<Long, Set<Long>> rxnsThatConsumeChem;        // non-cofactor chemicals -> rxns that have them as substrates
+  Map<Long, Set<Long>> rxnsThatProduceChem;        // non-cofactor chemicals -> rxns that have them as products
   HashMap<Long, Boolean> rxnHasSeq;                // do we know an enzyme catalyzing this rxn?
 
   // The raw dataset comes in with multiple reactions
@@ -94,13 +91,17 @@ public class ActData implements Serializable {
   // The first three below are used in LoadAct and WavefrontExpansion
   // and the remaining two are for when we are dumping out cascade
   // metadata in scala/reachables.scala
+  //
+  // All the Long -> Set<Long> and Long -> String maps are declared as Maps because
+  // once read back from a snapshot (see serialize/deserialize) they are the read-only,
+  // array-backed CompactLongSetMap and CompactLongStringMap rather than HashMaps.
 
-  HashMap<Long, Set<Long>> rxnClassesSubstrates;   // rxnid -> non-cofactor substrates (representative rxns that form classes)
-  HashMap<Long, Set<Long>> rxnClassesProducts;     // rxnid -> non-cofactor products (representative rxns that form classes)
+  Map<Long, Set<Long>> rxnClassesSubstrates;       // rxnid -> non-cofactor substrates (representative rxns that form classes)
+  Map<Long, Set<Long>> rxnClassesProducts;         // rxnid -> non-cofactor products (representative rxns that form classes)
   Set<Pair<Set<Long>, Set<Long>>> rxnClasses;      // set for classes (substrates, products)
 
-  HashMap<Long, Set<Long>> rxnClassesThatConsumeChem;    // non-cofactor chemicals -> rxns that have them as substrates
-  HashMap<Long, Set<Long>> rxnClassesThatProduceChem;    // non-cofactor chemicals -> rxns that have them as products
+  Map<Long, Set<Long>> rxnClassesThatConsumeChem;        // non-cofactor chemicals -> rxns that have them as substrates
+  Map<Long, Set<Long>> rxnClassesThatProduceChem;        // non-cofactor chemicals -> rxns that have them as products
 
   HashMap<Long, List<Long>> noSubstrateRxnsToProducts; // product rxns that only depend on cofactors
 
@@ -119,23 +120,29 @@ public class ActData implements Serializable {
     return ActData._instance;
   }
 
+  /**
+   * Writes the current ActData as a binary snapshot (see ActDataSnapshot), in which the reaction graph maps are
+   * packed into flat arrays that can be mapped back in quickly.
+   */
   public void serialize(String toFile) {
     try {
-      OutputStream file = new FileOutputStream(toFile);
-      OutputStream buffer = new BufferedOutputStream(file);
-      ObjectOutput output = new ObjectOutputStream(buffer);
-      try {
-        output.writeObject(_instance);
-      } finally {
-        output.close();
-      }
+      ActDataSnapshot.write(_instance, new File(toFile));
     } catch(IOException ex) {
       throw new RuntimeException("ActData serialize failed: " + ex);
     }
   }
 
+  /**
+   * Reads ActData from a binary snapshot, or from a plain Java serialized ActData as written by older versions.
+   * When read from a snapshot, the reaction graph maps are read-only CompactLongSetMap/CompactLongStringMaps.
+   */
   public void deserialize(String fromFile) {
     try {
+      if (ActDataSnapshot.isSnapshot(new File(fromFile))) {
+        ActData._instance = ActDataSnapshot.read(new File(fromFile));
+        return;
+      }
+
       InputStream file = new FileInputStream(fromFile);
       InputStream buffer = new BufferedInputStream(file);
       ObjectInput input = new ObjectInputStream (buffer);
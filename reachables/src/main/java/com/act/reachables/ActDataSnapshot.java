@@ -0,0 +1,417 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Reads and writes ActData as a versioned binary snapshot.
+ *
+ * The reaction graph maps (substrates, products, organisms, consumers/producers, and the InChI/name maps) are the
+ * bulk of ActData, and Java serialization of them as boxed HashMaps is both slow to load and heavy on heap.  In a
+ * snapshot they are instead written as the flat arrays of {@link CompactLongSetMap} and {@link CompactLongStringMap},
+ * and read back by memory mapping the file and bulk-copying each array, so loading costs little more than the I/O.
+ * The rest of ActData (the networks, node/edge caches, etc.) is Java serialized after the arrays, with the packed
+ * fields nulled out.
+ *
+ * Layout (all big-endian):
+ *   int magic, int format version
+ *   long[] id dictionary                                 (sorted, distinct ids used by every packed map)
+ *   for each SetMapField:    byte present, then int[] keys, int[] offsets, int[] values
+ *   for each StringMapField: byte present, then int[] keys, int[] offsets, byte[] utf8
+ *   Java serialized ActData with the above fields set to null
+ * where each array is an int element count followed by the elements.
+ */
+class ActDataSnapshot {
+  // "ACTD": chosen so it can never collide with Java serialization's 0xACED stream header.
+  static final int MAGIC = 0x41435444;
+  static final int FORMAT_VERSION = 1;
+
+  // Map at most this many bytes at a time, so arrays larger than a single MappedByteBuffer can still be read.
+  private static final int MAX_MAPPED_CHUNK = 1 << 30;
+  private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+  /* The order of these fields is part of the file format: bump FORMAT_VERSION when changing it. */
+  private enum SetMapField {
+    RXN_SUBSTRATES(d -> d.rxnSubstrates, (d, m) -> d.rxnSubstrates = m),
+    RXN_SUBSTRATES_COFACTORS(d -> d.rxnSubstratesCofactors, (d, m) -> d.rxnSubstratesCofactors = m),
+    RXN_PRODUCTS(d -> d.rxnProducts, (d, m) -> d.rxnProducts = m),
+    RXN_PRODUCTS_COFACTORS(d -> d.rxnProductsCofactors, (d, m) -> d.rxnProductsCofactors = m),
+    RXN_ORGANISMS(d -> d.rxnOrganisms, (d, m) -> d.rxnOrganisms = m),
+    RXNS_THAT_CONSUME_CHEM(d -> d.rxnsThatConsumeChem, (d, m) -> d.rxnsThatConsumeChem = m),
+    RXNS_THAT_PRODUCE_CHEM(d -> d.rxnsThatProduceChem, (d, m) -> d.rxnsThatProduceChem = m),
+    RXN_CLASSES_SUBSTRATES(d -> d.rxnClassesSubstrates, (d, m) -> d.rxnClassesSubstrates = m),
+    RXN_CLASSES_PRODUCTS(d -> d.rxnClassesProducts, (d, m) -> d.rxnClassesProducts = m),
+    RXN_CLASSES_THAT_CONSUME_CHEM(d -> d.rxnClassesThatConsumeChem, (d, m) -> d.rxnClassesThatConsumeChem = m),
+    RXN_CLASSES_THAT_PRODUCE_CHEM(d -> d.rxnClassesThatProduceChem, (d, m) -> d.rxnClassesThatProduceChem = m),
+    ;
+
+    private final Function<ActData, Map<Long, Set<Long>>> getter;
+    private final BiConsumer<ActData, Map<Long, Set<Long>>> setter;
+
+    SetMapField(Function<ActData, Map<Long, Set<Long>>> getter, BiConsumer<ActData, Map<Long, Set<Long>>> setter) {
+      this.getter = getter;
+      this.setter = setter;
+    }
+  }
+
+  private enum StringMapField {
+    CHEM_ID_2_INCHIS(d -> d.chemId2Inchis, (d, m) -> d.chemId2Inchis = m),
+    CHEM_ID_2_READABLE_NAME(d -> d.chemId2ReadableName, (d, m) -> d.chemId2ReadableName = m),
+    ;
+
+    private final Function<ActData, Map<Long, String>> getter;
+    private final BiConsumer<ActData, Map<Long, String>> setter;
+
+    StringMapField(Function<ActData, Map<Long, String>> getter, BiConsumer<ActData, Map<Long, String>> setter) {
+      this.getter = getter;
+      this.setter = setter;
+    }
+  }
+
+  private ActDataSnapshot() {
+  }
+
+  /**
+   * Checks whether a file starts with the snapshot header, as opposed to being a plain Java serialized ActData.
+   */
+  static boolean isSnapshot(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      return raf.length() >= Integer.BYTES && raf.readInt() == MAGIC;
+    }
+  }
+
+  static void write(ActData data, File file) throws IOException {
+    long[] dictionary = buildDictionary(data);
+
+    Map<Long, Set<Long>>[] setMaps = new Map[SetMapField.values().length];
+    Map<Long, String>[] stringMaps = new Map[StringMapField.values().length];
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(0);
+      FileChannel channel = raf.getChannel();
+      ArrayWriter writer = new ArrayWriter(channel);
+      writer.putInt(MAGIC);
+      writer.putInt(FORMAT_VERSION);
+      writer.putLongs(dictionary);
+
+      for (SetMapField field : SetMapField.values()) {
+        Map<Long, Set<Long>> map = field.getter.apply(data);
+        setMaps[field.ordinal()] = map;
+        writer.putByte(map == null ? (byte) 0 : (byte) 1);
+        if (map != null) {
+          CompactLongSetMap packed = CompactLongSetMap.fromMap(map, dictionary);
+          writer.putInts(packed.getKeys());
+          writer.putInts(packed.getOffsets());
+          writer.putInts(packed.getValues());
+        }
+      }
+
+      for (StringMapField field : StringMapField.values()) {
+        Map<Long, String> map = field.getter.apply(data);
+        stringMaps[field.ordinal()] = map;
+        writer.putByte(map == null ? (byte) 0 : (byte) 1);
+        if (map != null) {
+          CompactLongStringMap packed = CompactLongStringMap.fromMap(map, dictionary);
+          writer.putInts(packed.getKeys());
+          writer.putInts(packed.getOffsets());
+          writer.putBytes(packed.getBytes());
+        }
+      }
+      writer.flush();
+
+      // Everything else goes through Java serialization; null out what we've already written so it isn't repeated.
+      try {
+        for (SetMapField field : SetMapField.values()) {
+          field.setter.accept(data, null);
+        }
+        for (StringMapField field : StringMapField.values()) {
+          field.setter.accept(data, null);
+        }
+        ObjectOutputStream output = new ObjectOutputStream(
+            new BufferedOutputStream(Channels.newOutputStream(channel), WRITE_BUFFER_SIZE));
+        output.writeObject(data);
+        output.flush();
+      } finally {
+        for (SetMapField field : SetMapField.values()) {
+          field.setter.accept(data, setMaps[field.ordinal()]);
+        }
+        for (StringMapField field : StringMapField.values()) {
+          field.setter.accept(data, stringMaps[field.ordinal()]);
+        }
+      }
+    }
+  }
+
+  static ActData read(File file) throws IOException, ClassNotFoundException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      FileChannel channel = raf.getChannel();
+      ArrayReader reader = new ArrayReader(channel);
+
+      int magic = reader.getInt();
+      if (magic != MAGIC) {
+        throw new IOException(String.format("%s is not an ActData snapshot", file.getAbsolutePath()));
+      }
+      int version = reader.getInt();
+      if (version != FORMAT_VERSION) {
+        throw new IOException(String.format("Unsupported ActData snapshot version %d in %s (expected %d)",
+            version, file.getAbsolutePath(), FORMAT_VERSION));
+      }
+
+      long[] dictionary = reader.getLongs();
+
+      Map<Long, Set<Long>>[] setMaps = new Map[SetMapField.values().length];
+      for (SetMapField field : SetMapField.values()) {
+        if (reader.getByte() != 0) {
+          int[] keys = reader.getInts();
+          int[] offsets = reader.getInts();
+          int[] values = reader.getInts();
+          setMaps[field.ordinal()] = new CompactLongSetMap(dictionary, keys, offsets, values);
+        }
+      }
+
+      Map<Long, String>[] stringMaps = new Map[StringMapField.values().length];
+      for (StringMapField field : StringMapField.values()) {
+        if (reader.getByte() != 0) {
+          int[] keys = reader.getInts();
+          int[] offsets = reader.getInts();
+          byte[] bytes = reader.getBytes();
+          stringMaps[field.ordinal()] = new CompactLongStringMap(dictionary, keys, offsets, bytes);
+        }
+      }
+
+      channel.position(reader.position());
+      ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+      ActData data = (ActData) input.readObject();
+
+      for (SetMapField field : SetMapField.values()) {
+        field.setter.accept(data, setMaps[field.ordinal()]);
+      }
+      for (StringMapField field : StringMapField.values()) {
+        field.setter.accept(data, stringMaps[field.ordinal()]);
+      }
+      return data;
+    }
+  }
+
+  private static long[] buildDictionary(ActData data) {
+    long count = 0;
+    for (SetMapField field : SetMapField.values()) {
+      Map<Long, Set<Long>> map = field.getter.apply(data);
+      if (map == null) {
+        continue;
+      }
+      count += map.size();
+      for (Set<Long> members : map.values()) {
+        count += members == null ? 0 : members.size();
+      }
+    }
+    for (StringMapField field : StringMapField.values()) {
+      Map<Long, String> map = field.getter.apply(data);
+      count += map == null ? 0 : map.size();
+    }
+    if (count > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException(String.format("Too many ids (%d) to build a dictionary", count));
+    }
+
+    long[] ids = new long[(int) count];
+    int next = 0;
+    for (SetMapField field : SetMapField.values()) {
+      Map<Long, Set<Long>> map = field.getter.apply(data);
+      if (map == null) {
+        continue;
+      }
+      for (Map.Entry<Long, Set<Long>> entry : map.entrySet()) {
+        ids[next++] = entry.getKey();
+        if (entry.getValue() != null) {
+          for (Long member : entry.getValue()) {
+            ids[next++] = member;
+          }
+        }
+      }
+    }
+    for (StringMapField field : StringMapField.values()) {
+      Map<Long, String> map = field.getter.apply(data);
+      if (map != null) {
+        for (Long id : map.keySet()) {
+          ids[next++] = id;
+        }
+      }
+    }
+
+    Arrays.sort(ids);
+    int distinct = 0;
+    for (int i = 0; i < ids.length; i++) {
+      if (i == 0 || ids[i] != ids[i - 1]) {
+        ids[distinct++] = ids[i];
+      }
+    }
+    return Arrays.copyOf(ids, distinct);
+  }
+
+  /**
+   * Writes length-prefixed primitive arrays through a reusable buffer.
+   */
+  private static class ArrayWriter {
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+
+    ArrayWriter(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    private void ensureRemaining(int bytes) throws IOException {
+      if (buffer.remaining() < bytes) {
+        flush();
+      }
+    }
+
+    void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+
+    void putByte(byte b) throws IOException {
+      ensureRemaining(Byte.BYTES);
+      buffer.put(b);
+    }
+
+    void putInt(int i) throws IOException {
+      ensureRemaining(Integer.BYTES);
+      buffer.putInt(i);
+    }
+
+    void putInts(int[] array) throws IOException {
+      putInt(array.length);
+      int done = 0;
+      while (done < array.length) {
+        ensureRemaining(Integer.BYTES);
+        int n = Math.min(array.length - done, buffer.remaining() / Integer.BYTES);
+        buffer.asIntBuffer().put(array, done, n);
+        buffer.position(buffer.position() + n * Integer.BYTES);
+        done += n;
+      }
+    }
+
+    void putLongs(long[] array) throws IOException {
+      putInt(array.length);
+      int done = 0;
+      while (done < array.length) {
+        ensureRemaining(Long.BYTES);
+        int n = Math.min(array.length - done, buffer.remaining() / Long.BYTES);
+        buffer.asLongBuffer().put(array, done, n);
+        buffer.position(buffer.position() + n * Long.BYTES);
+        done += n;
+      }
+    }
+
+    void putBytes(byte[] array) throws IOException {
+      putInt(array.length);
+      int done = 0;
+      while (done < array.length) {
+        ensureRemaining(Byte.BYTES);
+        int n = Math.min(array.length - done, buffer.remaining());
+        buffer.put(array, done, n);
+        done += n;
+      }
+    }
+  }
+
+  /**
+   * Reads length-prefixed primitive arrays by mapping each one (in chunks) and bulk-copying it out.
+   */
+  private static class ArrayReader {
+    private final FileChannel channel;
+    private long position = 0;
+
+    ArrayReader(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    long position() {
+      return position;
+    }
+
+    private MappedByteBuffer map(long bytes) throws IOException {
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, bytes);
+      position += bytes;
+      return mapped;
+    }
+
+    byte getByte() throws IOException {
+      return map(Byte.BYTES).get();
+    }
+
+    int getInt() throws IOException {
+      return map(Integer.BYTES).getInt();
+    }
+
+    int[] getInts() throws IOException {
+      int[] array = new int[getInt()];
+      int perChunk = MAX_MAPPED_CHUNK / Integer.BYTES;
+      for (int done = 0; done < array.length; done += perChunk) {
+        int n = Math.min(array.length - done, perChunk);
+        map((long) n * Integer.BYTES).asIntBuffer().get(array, done, n);
+      }
+      return array;
+    }
+
+    long[] getLongs() throws IOException {
+      long[] array = new long[getInt()];
+      int perChunk = MAX_MAPPED_CHUNK / Long.BYTES;
+      for (int done = 0; done < array.length; done += perChunk) {
+        int n = Math.min(array.length - done, perChunk);
+        map((long) n * Long.BYTES).asLongBuffer().get(array, done, n);
+      }
+      return array;
+    }
+
+    byte[] getBytes() throws IOException {
+      byte[] array = new byte[getInt()];
+      for (int done = 0; done < array.length; done += MAX_MAPPED_CHUNK) {
+        int n = Math.min(array.length - done, MAX_MAPPED_CHUNK);
+        map(n).get(array, done, n);
+      }
+      return array;
+    }
+  }
+}
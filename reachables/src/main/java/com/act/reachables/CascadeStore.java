@@ -0,0 +1,230 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables;
+
+import com.act.utils.rocksdb.ColumnFamilyEnumeration;
+import com.act.utils.rocksdb.DBUtil;
+import com.act.utils.rocksdb.RocksDBAndHandles;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The cascade outputs of earlier `cascades` runs, so that a rerun only has to rebuild the reachables whose upstream
+ * reactions or cascade options changed.  Each reachable's entry records a hash of those (see Cascade.upstream_hash)
+ * alongside what was built from it: the waterfall JSON, the cascade network as DOT, its paths and its ReactionPath
+ * documents.  An entry is only handed back while the hash still matches.
+ *
+ * The store is a RocksDB, and is safe to read and write from several threads at once.
+ */
+public class CascadeStore implements AutoCloseable {
+  private static final Logger LOGGER = LogManager.getFormatterLogger(CascadeStore.class);
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  public enum COLUMN_FAMILIES implements ColumnFamilyEnumeration<COLUMN_FAMILIES> {
+    CASCADES("cascades"),
+    ;
+
+    private static final Map<String, COLUMN_FAMILIES> reverseNameMap =
+        new HashMap<String, COLUMN_FAMILIES>() {{
+          for (COLUMN_FAMILIES cf : COLUMN_FAMILIES.values()) {
+            put(cf.getName(), cf);
+          }
+        }};
+
+    private String name;
+
+    COLUMN_FAMILIES(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public COLUMN_FAMILIES getFamilyByName(String name) {
+      return reverseNameMap.get(name);
+    }
+  }
+
+  /**
+   * Everything `cascades` writes for one reachable, and the hash of the upstream subgraph it was built from.
+   */
+  public static class Entry {
+    @JsonProperty("upstream_hash")
+    private String upstreamHash;
+    @JsonProperty("waterfall")
+    private String waterfallJson;
+    @JsonProperty("cascade")
+    private String cascadeDot;
+    @JsonProperty("paths")
+    private String paths;
+    @JsonProperty("pathways")
+    private String pathwaysJson;
+
+    @JsonCreator
+    public Entry(@JsonProperty("upstream_hash") String upstreamHash,
+                 @JsonProperty("waterfall") String waterfallJson,
+                 @JsonProperty("cascade") String cascadeDot,
+                 @JsonProperty("paths") String paths,
+                 @JsonProperty("pathways") String pathwaysJson) {
+      this.upstreamHash = upstreamHash;
+      this.waterfallJson = waterfallJson;
+      this.cascadeDot = cascadeDot;
+      this.paths = paths;
+      this.pathwaysJson = pathwaysJson;
+    }
+
+    public String getUpstreamHash() {
+      return upstreamHash;
+    }
+
+    public String getWaterfallJson() {
+      return waterfallJson;
+    }
+
+    public String getCascadeDot() {
+      return cascadeDot;
+    }
+
+    public String getPaths() {
+      return paths;
+    }
+
+    public String getPathwaysJson() {
+      return pathwaysJson;
+    }
+  }
+
+  private final RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles;
+
+  private final AtomicLong reused = new AtomicLong();
+  private final AtomicLong recomputed = new AtomicLong();
+
+  /**
+   * Opens the store at a path on disk, creating it if it doesn't already exist.
+   * @param storeDir The directory in which the store's RocksDB lives.
+   * @return An open store.
+   * @throws IOException
+   */
+  public static CascadeStore open(File storeDir) throws IOException {
+    RocksDB.loadLibrary();
+    try {
+      RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles;
+      if (storeDir.exists()) {
+        LOGGER.info("Opening existing cascade store at %s", storeDir.getAbsolutePath());
+        dbAndHandles = DBUtil.openExistingRocksDB(storeDir, COLUMN_FAMILIES.values());
+      } else {
+        LOGGER.info("Creating new cascade store at %s", storeDir.getAbsolutePath());
+        dbAndHandles = DBUtil.createNewRocksDB(storeDir, COLUMN_FAMILIES.values());
+      }
+      return new CascadeStore(dbAndHandles);
+    } catch (RocksDBException e) {
+      throw new IOException(String.format("Unable to open cascade store at %s: %s",
+          storeDir.getAbsolutePath(), e.getMessage()), e);
+    }
+  }
+
+  CascadeStore(RocksDBAndHandles<COLUMN_FAMILIES> dbAndHandles) {
+    this.dbAndHandles = dbAndHandles;
+  }
+
+  static byte[] makeKey(Long reachableId) {
+    return reachableId.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Looks up the stored outputs for a reachable.  Every call counts the reachable as either reused (the entry is
+   * returned) or recomputed (the caller has to rebuild it).
+   * @param reachableId The reachable's chemical id.
+   * @param upstreamHash The hash of the reachable's current upstream subgraph.
+   * @return The stored entry, or null if there is none or it was built from a different upstream subgraph.
+   * @throws IOException
+   */
+  public Entry get(Long reachableId, String upstreamHash) throws IOException {
+    byte[] value;
+    try {
+      value = dbAndHandles.get(COLUMN_FAMILIES.CASCADES, makeKey(reachableId));
+    } catch (RocksDBException e) {
+      throw new IOException("Unable to read from cascade store", e);
+    }
+    Entry entry = value == null ? null : MAPPER.readValue(value, Entry.class);
+    if (entry == null || !upstreamHash.equals(entry.getUpstreamHash())) {
+      recomputed.incrementAndGet();
+      return null;
+    }
+    reused.incrementAndGet();
+    return entry;
+  }
+
+  /**
+   * Stores the outputs built for a reachable, replacing any earlier entry.
+   * @param reachableId The reachable's chemical id.
+   * @param entry The outputs, and the hash of the upstream subgraph they were built from.
+   * @throws IOException
+   */
+  public void put(Long reachableId, Entry entry) throws IOException {
+    try {
+      dbAndHandles.put(COLUMN_FAMILIES.CASCADES, makeKey(reachableId), MAPPER.writeValueAsBytes(entry));
+    } catch (RocksDBException e) {
+      throw new IOException("Unable to write to cascade store", e);
+    }
+  }
+
+  public long getReused() {
+    return reused.get();
+  }
+
+  public long getRecomputed() {
+    return recomputed.get();
+  }
+
+  public void logStats() {
+    LOGGER.info("Cascade store: %d cascades reused, %d recomputed", reused.get(), recomputed.get());
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      dbAndHandles.flush(true);
+    } catch (RocksDBException e) {
+      throw new IOException("Unable to flush cascade store", e);
+    } finally {
+      dbAndHandles.close();
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables;
+
+import act.server.MongoDB;
+import act.shared.Chemical;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The chemicals behind a fixed set of ids, fetched from the DB in bulk up front so that repeated passes over the same
+ * nodes (see ComputeReachablesTree) don't each re-fetch and re-parse every document.
+ *
+ * Keys are held in a sorted primitive array and looked up by binary search.  At most `capacity` chemicals are held;
+ * lookups of any other id fall through to a single-document fetch.
+ */
+public class ChemicalPrefetchCache {
+  private static final int BATCH_SIZE = 1000;
+
+  private final MongoDB db;
+  private final long[] ids;
+  private final Chemical[] chemicals;
+  private long hits = 0;
+  private long misses = 0;
+
+  public ChemicalPrefetchCache(MongoDB db, Collection<Long> chemicalIds, int capacity) {
+    this.db = db;
+
+    long[] sortedIds = chemicalIds.stream().filter(id -> id != null).mapToLong(Long::longValue).sorted().distinct()
+        .toArray();
+    this.ids = sortedIds.length > capacity ? Arrays.copyOf(sortedIds, capacity) : sortedIds;
+    this.chemicals = new Chemical[this.ids.length];
+
+    for (int start = 0; start < this.ids.length; start += BATCH_SIZE) {
+      int end = Math.min(start + BATCH_SIZE, this.ids.length);
+      List<Long> batch = new ArrayList<>(end - start);
+      for (int i = start; i < end; i++) {
+        batch.add(this.ids[i]);
+      }
+      Iterator<Chemical> fetched = db.getChemicalsbyIds(batch, true);
+      while (fetched.hasNext()) {
+        Chemical c = fetched.next();
+        int index = Arrays.binarySearch(this.ids, start, end, c.getUuid());
+        if (index >= 0) {
+          this.chemicals[index] = c;
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the chemical with this id, or null if there is no such chemical.
+   */
+  public Chemical get(Long id) {
+    int index = id == null ? -1 : Arrays.binarySearch(this.ids, id);
+    if (index >= 0) {
+      hits++;
+      return this.chemicals[index];
+    }
+    misses++;
+    return this.db.getChemicalFromChemicalUUID(id);
+  }
+
+  public int size() {
+    return this.ids.length;
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
+}
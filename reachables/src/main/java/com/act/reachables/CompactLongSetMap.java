@@ -0,0 +1,229 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A read-only Map<Long, Set<Long>> stored as adjacency arrays (CSR) instead of boxed HashMaps/HashSets.
+ *
+ * Every id is replaced by its position in a sorted id dictionary that is shared between all the maps of an ActData
+ * instance.  The keys are held in a sorted int[] of dictionary positions, and the set for the i-th key is the
+ * sorted slice values[offsets[i], offsets[i + 1]).  Lookups are binary searches and the sets returned by get() are
+ * views over that slice, so a reaction graph costs about four bytes per edge rather than a boxed Long and a hash
+ * entry.  Keys and set members iterate in ascending id order.
+ */
+public class CompactLongSetMap extends AbstractMap<Long, Set<Long>> implements Serializable {
+  private static final long serialVersionUID = 3412087261430932211L;
+
+  private final long[] dictionary;
+  private final int[] keys;
+  private final int[] offsets;
+  private final int[] values;
+
+  CompactLongSetMap(long[] dictionary, int[] keys, int[] offsets, int[] values) {
+    if (offsets.length != keys.length + 1) {
+      throw new IllegalArgumentException(String.format(
+          "Expected %d offsets for %d keys, but got %d", keys.length + 1, keys.length, offsets.length));
+    }
+    this.dictionary = dictionary;
+    this.keys = keys;
+    this.offsets = offsets;
+    this.values = values;
+  }
+
+  /**
+   * Packs a map into adjacency arrays.  Every key and set member must appear in the dictionary; null sets are stored
+   * as empty ones.
+   * @param map The map to pack.
+   * @param dictionary A sorted array of distinct ids covering the map's keys and values.
+   * @return A compact copy of the map.
+   */
+  public static CompactLongSetMap fromMap(Map<Long, Set<Long>> map, long[] dictionary) {
+    long[] sortedKeys = new long[map.size()];
+    int i = 0, numValues = 0;
+    for (Map.Entry<Long, Set<Long>> entry : map.entrySet()) {
+      sortedKeys[i++] = entry.getKey();
+      if (entry.getValue() != null) {
+        numValues += entry.getValue().size();
+      }
+    }
+    Arrays.sort(sortedKeys);
+
+    int[] keys = new int[sortedKeys.length];
+    int[] offsets = new int[sortedKeys.length + 1];
+    int[] values = new int[numValues];
+    int next = 0;
+    for (i = 0; i < sortedKeys.length; i++) {
+      keys[i] = dictionaryIndex(dictionary, sortedKeys[i]);
+      offsets[i] = next;
+      Set<Long> members = map.get(sortedKeys[i]);
+      if (members != null) {
+        int start = next;
+        for (Long member : members) {
+          values[next++] = dictionaryIndex(dictionary, member);
+        }
+        Arrays.sort(values, start, next);
+      }
+    }
+    offsets[sortedKeys.length] = next;
+
+    return new CompactLongSetMap(dictionary, keys, offsets, values);
+  }
+
+  static int dictionaryIndex(long[] dictionary, long id) {
+    int index = Arrays.binarySearch(dictionary, id);
+    if (index < 0) {
+      throw new IllegalArgumentException(String.format("Id %d is missing from the dictionary", id));
+    }
+    return index;
+  }
+
+  int[] getKeys() {
+    return keys;
+  }
+
+  int[] getOffsets() {
+    return offsets;
+  }
+
+  int[] getValues() {
+    return values;
+  }
+
+  private int rowOf(Object key) {
+    if (!(key instanceof Long)) {
+      return -1;
+    }
+    int index = Arrays.binarySearch(dictionary, (Long) key);
+    if (index < 0) {
+      return -1;
+    }
+    int row = Arrays.binarySearch(keys, index);
+    return row < 0 ? -1 : row;
+  }
+
+  @Override
+  public Set<Long> get(Object key) {
+    int row = rowOf(key);
+    return row < 0 ? null : new Row(offsets[row], offsets[row + 1]);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return rowOf(key) >= 0;
+  }
+
+  @Override
+  public int size() {
+    return keys.length;
+  }
+
+  @Override
+  public Set<Entry<Long, Set<Long>>> entrySet() {
+    return new AbstractSet<Entry<Long, Set<Long>>>() {
+      @Override
+      public Iterator<Entry<Long, Set<Long>>> iterator() {
+        return new Iterator<Entry<Long, Set<Long>>>() {
+          private int row = 0;
+
+          @Override
+          public boolean hasNext() {
+            return row < keys.length;
+          }
+
+          @Override
+          public Entry<Long, Set<Long>> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            Entry<Long, Set<Long>> entry = new SimpleImmutableEntry<>(
+                dictionary[keys[row]], new Row(offsets[row], offsets[row + 1]));
+            row++;
+            return entry;
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return keys.length;
+      }
+    };
+  }
+
+  /**
+   * A read-only view over one key's slice of the values array.
+   */
+  private class Row extends AbstractSet<Long> {
+    private final int from;
+    private final int to;
+
+    Row(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      if (!(o instanceof Long)) {
+        return false;
+      }
+      int index = Arrays.binarySearch(dictionary, (Long) o);
+      return index >= 0 && Arrays.binarySearch(values, from, to, index) >= 0;
+    }
+
+    @Override
+    public Iterator<Long> iterator() {
+      return new Iterator<Long>() {
+        private int next = from;
+
+        @Override
+        public boolean hasNext() {
+          return next < to;
+        }
+
+        @Override
+        public Long next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          return dictionary[values[next++]];
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return to - from;
+    }
+  }
+}
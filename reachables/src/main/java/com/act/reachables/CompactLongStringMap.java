@@ -0,0 +1,178 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A read-only Map<Long, String> that keeps all its strings as UTF-8 in one byte array, with keys stored as positions
+ * in the same shared id dictionary as {@link CompactLongSetMap}.  Strings are decoded on every get(), which is cheap
+ * next to holding millions of InChIs as UTF-16 String objects.  Null values are not stored, so a key mapped to null
+ * is simply absent.
+ */
+public class CompactLongStringMap extends AbstractMap<Long, String> implements Serializable {
+  private static final long serialVersionUID = -5702341187330125614L;
+
+  private final long[] dictionary;
+  private final int[] keys;
+  private final int[] offsets;
+  private final byte[] bytes;
+
+  CompactLongStringMap(long[] dictionary, int[] keys, int[] offsets, byte[] bytes) {
+    if (offsets.length != keys.length + 1) {
+      throw new IllegalArgumentException(String.format(
+          "Expected %d offsets for %d keys, but got %d", keys.length + 1, keys.length, offsets.length));
+    }
+    this.dictionary = dictionary;
+    this.keys = keys;
+    this.offsets = offsets;
+    this.bytes = bytes;
+  }
+
+  /**
+   * Packs a map into a single UTF-8 buffer.  Every key must appear in the dictionary.
+   * @param map The map to pack.
+   * @param dictionary A sorted array of distinct ids covering the map's keys.
+   * @return A compact copy of the map, without its null-valued entries.
+   */
+  public static CompactLongStringMap fromMap(Map<Long, String> map, long[] dictionary) {
+    long[] sortedKeys = new long[map.size()];
+    int numKeys = 0;
+    for (Map.Entry<Long, String> entry : map.entrySet()) {
+      if (entry.getValue() != null) {
+        sortedKeys[numKeys++] = entry.getKey();
+      }
+    }
+    sortedKeys = Arrays.copyOf(sortedKeys, numKeys);
+    Arrays.sort(sortedKeys);
+
+    byte[][] encoded = new byte[numKeys][];
+    long totalBytes = 0;
+    for (int i = 0; i < numKeys; i++) {
+      encoded[i] = map.get(sortedKeys[i]).getBytes(StandardCharsets.UTF_8);
+      totalBytes += encoded[i].length;
+    }
+    if (totalBytes > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException(String.format("%d bytes of strings is too many to pack", totalBytes));
+    }
+
+    int[] keys = new int[numKeys];
+    int[] offsets = new int[numKeys + 1];
+    byte[] bytes = new byte[(int) totalBytes];
+    int next = 0;
+    for (int i = 0; i < numKeys; i++) {
+      keys[i] = CompactLongSetMap.dictionaryIndex(dictionary, sortedKeys[i]);
+      offsets[i] = next;
+      System.arraycopy(encoded[i], 0, bytes, next, encoded[i].length);
+      next += encoded[i].length;
+    }
+    offsets[numKeys] = next;
+
+    return new CompactLongStringMap(dictionary, keys, offsets, bytes);
+  }
+
+  int[] getKeys() {
+    return keys;
+  }
+
+  int[] getOffsets() {
+    return offsets;
+  }
+
+  byte[] getBytes() {
+    return bytes;
+  }
+
+  private int rowOf(Object key) {
+    if (!(key instanceof Long)) {
+      return -1;
+    }
+    int index = Arrays.binarySearch(dictionary, (Long) key);
+    if (index < 0) {
+      return -1;
+    }
+    int row = Arrays.binarySearch(keys, index);
+    return row < 0 ? -1 : row;
+  }
+
+  private String decode(int row) {
+    return new String(bytes, offsets[row], offsets[row + 1] - offsets[row], StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public String get(Object key) {
+    int row = rowOf(key);
+    return row < 0 ? null : decode(row);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return rowOf(key) >= 0;
+  }
+
+  @Override
+  public int size() {
+    return keys.length;
+  }
+
+  @Override
+  public Set<Entry<Long, String>> entrySet() {
+    return new AbstractSet<Entry<Long, String>>() {
+      @Override
+      public Iterator<Entry<Long, String>> iterator() {
+        return new Iterator<Entry<Long, String>>() {
+          private int row = 0;
+
+          @Override
+          public boolean hasNext() {
+            return row < keys.length;
+          }
+
+          @Override
+          public Entry<Long, String> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            Entry<Long, String> entry = new SimpleImmutableEntry<>(dictionary[keys[row]], decode(row));
+            row++;
+            return entry;
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return keys.length;
+      }
+    };
+  }
+}
@@ -31,9 +31,12 @@ import act.shared.helpers.MongoDBToJSON;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -50,9 +53,12 @@ public class ComputeReachablesTree {
   Tree<Long> tree;
   private static final TargetSelection SUBSTRUCTURES = new TargetSelection();
   MongoDB db;
+  // the chemicals of all tree nodes, shared by the passes below that used to fetch them one by one
+  ChemicalPrefetchCache chemicals;
 
   ComputeReachablesTree(MongoDB db) {
     this.db = db;
+    long startTime = System.currentTimeMillis();
 
     this.importantAncestor = new HashMap<Long, Long>();
     this.functionalCategory = new HashMap<Long, String>();
@@ -64,6 +70,11 @@ public class ComputeReachablesTree {
 
     this.tree = new WavefrontExpansion().expandAndPickParents();
     this.tree.ensureForest();
+    startTime = logPhaseTime("Wavefront expansion", startTime);
+
+    logProgress("Initiating prefetch of %d tree chemicals\n", this.tree.allNodes().size());
+    this.chemicals = new ChemicalPrefetchCache(db, this.tree.allNodes(), GlobalParams.actTreeChemicalCacheCapacity);
+    startTime = logPhaseTime("Chemical prefetch", startTime);
 
     logProgress("Initiating initImportantClades");
     initImportantClades();
@@ -71,19 +82,15 @@ public class ComputeReachablesTree {
     logProgress("Initiating computeImportantAncestors");
     // each node TO closest ancestor that has > _significantFanout
     computeImportantAncestors();
+    startTime = logPhaseTime("Important ancestors", startTime);
 
-    logProgress("Initiating computeSubtreeValues Sigma prices");
-    // each node TO sum of the values of its children + its own value
-    computeSubtreeValues();
-
-    logProgress("Initiating computeSubtreeSizes");
-    // each node TO the size of the subtree rooted under it
-    computeSubtreeSizes();
-
-    logProgress("Initiating computeSubtreeVendorSizes");
+    logProgress("Initiating computeSubtreeAggregates");
+    // each node TO sum of the values (Sigma prices) of its children + its own value,
+    // each node TO the size of the subtree rooted under it, and
     // each node TO the size of the subtree, i.e.,
     // total # of unique (vendor, subtree chemical) pairs in the subtree
-    computeSubtreeVendorSizes();
+    computeSubtreeAggregates();
+    startTime = logPhaseTime("Subtree aggregates", startTime);
 
     boolean singleTree = false;
     if (singleTree) {
@@ -97,6 +104,9 @@ public class ComputeReachablesTree {
       // are one step from the natives
       addTreeNativeRoots();
     }
+    logPhaseTime("Tree construction", startTime);
+    logProgress("Tree chemical cache: %d prefetched, %d hits, %d misses\n",
+        this.chemicals.size(), this.chemicals.getHits(), this.chemicals.getMisses());
   }
 
   private static String _fileloc = "com.act.reachables.ComputeReachablesTree";
@@ -114,6 +124,12 @@ public class ComputeReachablesTree {
     System.err.println(_fileloc + ": " + msg);
   }
 
+  private static long logPhaseTime(String phase, long startTime) {
+    long now = System.currentTimeMillis();
+    logProgress("%s took %.1f s\n", phase, (now - startTime) / 1000.0);
+    return now;
+  }
+
   private void initImportantClades() {
     this.importantClades = new HashMap<Long, String>();
     for (String[] clade : Categories.InChI2CategoryName) {
@@ -201,65 +217,64 @@ public class ComputeReachablesTree {
     }
   }
 
-  class InorderTraverseCountSubtreeSz extends InorderTraverse<Long> {
-    InorderTraverseCountSubtreeSz(Tree<Long> t) { super(t); }
+  /**
+   * Computes subtreeVal, subtreeSz and subtreeVendorsSz in one iterative post-order pass over the forest.  Children are
+   * summed in the same order, and with the same grouping, as the separate per-aggregate traversals this replaces, so
+   * the results are identical.
+   */
+  private void computeSubtreeAggregates() {
+    HashMap<Long, Double> prices = getIndividualNodePrices();
+    HashMap<Long, Double> vendors = getIndividualNodeVendorCounts();
 
-    @Override
-    Double nodeValue(Double initVal, List<Double> childrenVals) {
-      Double sum = initVal;
-      for (Double s : childrenVals) sum += s;
-      return sum;
+    for (Long root : this.tree.roots()) {
+      // each stack entry is a node and the iterator over the children still to be visited
+      Deque<Long> nodes = new ArrayDeque<>();
+      Deque<Iterator<Long>> pendingChildren = new ArrayDeque<>();
+      nodes.push(root);
+      pendingChildren.push(childrenOf(root));
+      while (!nodes.isEmpty()) {
+        Iterator<Long> children = pendingChildren.peek();
+        if (children.hasNext()) {
+          Long child = children.next();
+          nodes.push(child);
+          pendingChildren.push(childrenOf(child));
+          continue;
+        }
+
+        Long node = nodes.pop();
+        pendingChildren.pop();
+        Double childValues = 0.0;
+        Double size = 1.0;
+        Double vendorSize = vendors.get(node);
+        if (this.tree.getChildren(node) != null) {
+          for (Long child : this.tree.getChildren(node)) {
+            childValues += this.subtreeVal.get(child);
+            size += this.subtreeSz.get(child);
+            vendorSize += this.subtreeVendorsSz.get(child);
+          }
+        }
+        this.subtreeVal.put(node, prices.get(node) + childValues);
+        this.subtreeSz.put(node, size);
+        this.subtreeVendorsSz.put(node, vendorSize);
+      }
     }
   }
 
-  private void computeSubtreeVendorSizes() {
+  private Iterator<Long> childrenOf(Long node) {
+    Set<Long> children = this.tree.getChildren(node);
+    return children == null ? new ArrayList<Long>().iterator() : children.iterator();
+  }
+
+  private HashMap<Long, Double> getIndividualNodeVendorCounts() {
     HashMap<Long, Double> vendors_val = new HashMap<Long, Double>();
     for (Long n : this.tree.allNodes()) {
-      Chemical c = this.db.getChemicalFromChemicalUUID(n);
+      Chemical c = this.chemicals.get(n);
       if (c == null)
         vendors_val.put(n, 0.0);
       else
         vendors_val.put(n, new Double(c.getChemSpiderNumUniqueVendors()));
     }
-    InorderTraverseCountSubtreeSz traversal = new InorderTraverseCountSubtreeSz(this.tree);
-    for (Long root : this.tree.roots()) {
-      traversal.exec(root,
-          vendors_val /* input values: node->#uniq_vendors */,
-          this.subtreeVendorsSz/* output values: node->subtree_value */);
-    }
-  }
-
-  private void computeSubtreeSizes() {
-    HashMap<Long, Double> ident = new HashMap<Long, Double>();
-    for (Long n : this.tree.allNodes()) ident.put(n, 1.0);
-    InorderTraverseCountSubtreeSz traversal = new InorderTraverseCountSubtreeSz(this.tree);
-    for (Long root : this.tree.roots()) {
-      traversal.exec(root,
-          ident /* input values: node->1 */,
-          this.subtreeSz/* output values: node->subtree_value */);
-    }
-  }
-
-  class InorderTraverseWithSubtreeSum extends InorderTraverse<Long> {
-    InorderTraverseWithSubtreeSum(Tree<Long> t) { super(t); }
-
-    @Override
-    Double nodeValue(Double initVal, List<Double> childrenVals) {
-      Double sum = 0.0;
-      for (Double s : childrenVals)
-        sum += s;
-      return initVal + sum;
-    }
-  }
-
-  private void computeSubtreeValues() {
-    HashMap<Long, Double> nodeValues = getIndividualNodePrices();
-    InorderTraverseWithSubtreeSum traversal = new InorderTraverseWithSubtreeSum(this.tree);
-    for (Long root : this.tree.roots()) {
-      traversal.exec(root,
-          nodeValues /* input values: node->node_value */,
-          this.subtreeVal/* output values: node->subtree_value */);
-    }
+    return vendors_val;
   }
 
   private HashMap<Long, Double> getIndividualNodePrices() {
@@ -267,7 +282,7 @@ public class ComputeReachablesTree {
     REFS which = GlobalParams.pullPricesFrom() == GlobalParams._PricesFrom[0] ? REFS.SIGMA : REFS.DRUGBANK;
     for (Long n : this.tree.allNodes()) {
       Double price = 0.0;
-      Chemical c = this.db.getChemicalFromChemicalUUID(n);
+      Chemical c = this.chemicals.get(n);
       if (c != null) {
         if (c.getRef(which) != null) { // else price stays 0.0
           price = c.getRefMetric(which);
@@ -281,7 +296,7 @@ public class ComputeReachablesTree {
   }
 
   private String getNames(Long n) {
-    Chemical c = this.db.getChemicalFromChemicalUUID(n);
+    Chemical c = this.chemicals.get(n);
     return c.getBrendaNames().toString() + ";" + c.getSynonyms().toString();
   }
 
@@ -388,7 +403,7 @@ public class ComputeReachablesTree {
   }
 
   private void setNodeAttributes(Node n, Long nid, HashMap<String, Integer> attributes, Long root) {
-    Chemical c = this.db.getChemicalFromChemicalUUID(nid);
+    Chemical c = this.chemicals.get(nid);
     String txt = null;
 
     for (String key : attributes.keySet())
@@ -39,7 +39,8 @@ public class Edge implements Serializable {
   public static Edge get(Node src, Node dst, Boolean create) {
     Edge e = new Edge(src, dst);
 
-    Edge got = ActData.instance().edgeCache.get(e);
+    HashMap<Edge, Edge> edgeCache = GraphScope.edgeCache();
+    Edge got = edgeCache.get(e);
     if (got != null) {
       return got;
     }
@@ -48,7 +49,7 @@ public class Edge implements Serializable {
       return null;
 
     // the edge cache does not contain edge. create one
-    ActData.instance().edgeCache.put(e, e);
+    edgeCache.put(e, e);
 
     return e;
   }
@@ -57,7 +58,7 @@ public class Edge implements Serializable {
   public Node getDst() { return this.dst; }
 
   public HashMap<String, Serializable> getAttr() {
-    return ActData.instance().edgeAttributes.get(this);
+    return GraphScope.edgeAttributes().get(this);
   }
 
   public Object getAttribute(String key) {
@@ -65,21 +66,23 @@ public class Edge implements Serializable {
   }
 
   public static void clearAttributeOnAllEdges(String key) {
-    for (HashMap<String, Serializable> attr: ActData.instance().edgeAttributes.values()) {
+    for (HashMap<String, Serializable> attr: GraphScope.edgeAttributes().values()) {
       attr.remove(key);
     }
   }
 
   public static void setAttribute(Edge e, String key, Serializable val) {
-    if (!ActData.instance().edgeAttributes.containsKey(e))
-      ActData.instance().edgeAttributes.put(e, new HashMap<>());
-    ActData.instance().edgeAttributes.get(e).put(key, val);
+    HashMap<Edge, HashMap<String, Serializable>> edgeAttributes = GraphScope.edgeAttributes();
+    if (!edgeAttributes.containsKey(e))
+      edgeAttributes.put(e, new HashMap<>());
+    edgeAttributes.get(e).put(key, val);
   }
 
   public static Object getAttribute(Edge e, String key) {
+    HashMap<Edge, HashMap<String, Serializable>> edgeAttributes = GraphScope.edgeAttributes();
     HashMap<String, Serializable> kval;
-    if (ActData.instance().edgeAttributes.containsKey(e) &&
-        (kval = ActData.instance().edgeAttributes.get(e)).containsKey(key))
+    if (edgeAttributes.containsKey(e) &&
+        (kval = edgeAttributes.get(e)).containsKey(key))
       return kval.get(key);
     else
       return null;
@@ -51,6 +51,9 @@ public class GlobalParams {
   public static long FAKE_RXN_ID = 999999999L;
   // do we write the waterfalls to the DB?
   public static boolean _writeWaterfallsToDB = false;
+  // how many parallel DB cursors LoadAct reads the graph on; 0 keeps the
+  // original single-cursor load of the full reaction documents
+  public static int _fastLoadThreads = 0;
 
   /*
    * TUNABLE PARAMETERS
@@ -77,6 +80,7 @@ public class GlobalParams {
   public static boolean actTreeDumpClades = false;
   public static boolean actTreeCreateUnreachableTrees = false;
   public static int actTreeCompressNodesWithChildrenLessThan = 0;
+  public static int actTreeChemicalCacheCapacity = 1000000; // tree chemicals prefetched in bulk, others fetched singly
 
   public static boolean _actTreeIgnoreReactionsWithNoSubstrates = true;
   public static boolean _actTreeOnlyIncludeRxnsWithSequences = true;
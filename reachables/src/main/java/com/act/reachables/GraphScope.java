@@ -0,0 +1,92 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Node and edge registries and attributes for one unit of work on one thread.
+ *
+ * Node and Edge normally keep these in the global maps in ActData.  While a thread is inside a scope they use the
+ * scope's maps instead, so that several cascades (see cascades.write_node_cascades) can be built at once, each on its
+ * own thread, without sharing or purging one another's attributes.  The rest of ActData is only read meanwhile.
+ */
+public class GraphScope {
+  private static final ThreadLocal<GraphScope> CURRENT = new ThreadLocal<>();
+
+  private final HashMap<Long, List<Node>> nodeCache = new HashMap<>();
+  private HashMap<Long, HashMap<String, Serializable>> nodeAttributes = new HashMap<>();
+  private final HashMap<Edge, Edge> edgeCache = new HashMap<>();
+  private final HashMap<Edge, HashMap<String, Serializable>> edgeAttributes = new HashMap<>();
+
+  private GraphScope() { }
+
+  /**
+   * Starts a new, empty scope on this thread.  Every call must be paired with a call to exit, in a finally block.
+   */
+  public static void enter() {
+    if (CURRENT.get() != null) {
+      throw new IllegalStateException("Graph scopes do not nest");
+    }
+    CURRENT.set(new GraphScope());
+  }
+
+  /**
+   * Ends this thread's scope, dropping all nodes, edges and attributes created within it.
+   */
+  public static void exit() {
+    CURRENT.remove();
+  }
+
+  static HashMap<Long, List<Node>> nodeCache() {
+    GraphScope scope = CURRENT.get();
+    return scope == null ? ActData.instance().nodeCache : scope.nodeCache;
+  }
+
+  static HashMap<Long, HashMap<String, Serializable>> nodeAttributes() {
+    GraphScope scope = CURRENT.get();
+    return scope == null ? ActData.instance().nodeAttributes : scope.nodeAttributes;
+  }
+
+  static void clearNodeAttributes() {
+    GraphScope scope = CURRENT.get();
+    if (scope == null) {
+      ActData.instance().nodeAttributes = new HashMap<>();
+    } else {
+      scope.nodeAttributes = new HashMap<>();
+    }
+  }
+
+  static HashMap<Edge, Edge> edgeCache() {
+    GraphScope scope = CURRENT.get();
+    return scope == null ? ActData.instance().edgeCache : scope.edgeCache;
+  }
+
+  static HashMap<Edge, HashMap<String, Serializable>> edgeAttributes() {
+    GraphScope scope = CURRENT.get();
+    return scope == null ? ActData.instance().edgeAttributes : scope.edgeAttributes;
+  }
+}
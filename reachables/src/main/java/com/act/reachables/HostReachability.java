@@ -0,0 +1,249 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * Computes the host-restricted reachables (the expansion WavefrontExpansion does for the host organism when
+ * actTreeCreateHostCentricMap is set) for many organisms at once.
+ *
+ * WavefrontExpansion mutates its rxn_needs and R while expanding, so hosts can only be done one after another.  Here
+ * the reaction graph is read once from ActData into immutable maps that all hosts share, and each host's expansion
+ * only keeps its own unmet-substrate counters and reachable set, so the hosts can be expanded in parallel on a
+ * ForkJoinPool.  The layers computed for a host are the same as WavefrontExpansion's in-host layers.
+ */
+public class HostReachability {
+  private static String _fileloc = "com.act.reachables.HostReachability";
+
+  // the natives and cofactors every host starts from
+  private final Set<Long> startingChems;
+  // rxn -> substrates it needs
+  private final Map<Long, Set<Long>> substrates;
+  // rxn -> its products that are not abstractions
+  private final Map<Long, Set<Long>> products;
+  // chem -> rxns (in the expansion universe) that consume it
+  private final Map<Long, Set<Long>> consumers;
+  // organism -> rxns that happen in it
+  private final Map<Long, Set<Long>> rxnsInOrganism;
+
+  /**
+   * Indexes the reaction graph currently loaded in ActData, which must not change while hosts are being expanded.
+   */
+  public HostReachability() {
+    ActData data = ActData.instance();
+    Map<Long, Set<Long>> substrates_dataset =
+        GlobalParams.USE_RXN_CLASSES ? data.rxnClassesSubstrates : data.rxnSubstrates;
+    Map<Long, Set<Long>> products_dataset =
+        GlobalParams.USE_RXN_CLASSES ? data.rxnClassesProducts : data.rxnProducts;
+
+    Set<Long> starting = new HashSet<>(data.natives);
+    starting.addAll(data.cofactors);
+
+    Map<Long, Set<Long>> subs = new HashMap<>();
+    Map<Long, Set<Long>> prods = new HashMap<>();
+    Map<Long, Set<Long>> cons = new HashMap<>();
+    Map<Long, Set<Long>> inOrg = new HashMap<>();
+    for (Long r : substrates_dataset.keySet()) {
+      // same universe of rxns as WavefrontExpansion.computeRxnNeeds
+      if (GlobalParams._actTreeOnlyIncludeRxnsWithSequences && !data.rxnHasSeq.get(r))
+        continue;
+
+      Set<Long> orgs = data.rxnOrganisms.get(r);
+      if (orgs == null || orgs.isEmpty())
+        continue; // can never fire inside any host
+
+      Set<Long> substrates = substrates_dataset.get(r);
+      subs.put(r, substrates);
+      for (Long s : substrates) {
+        if (!cons.containsKey(s))
+          cons.put(s, new HashSet<>());
+        cons.get(s).add(r);
+      }
+
+      Set<Long> nonAbstract = new HashSet<>();
+      for (Long p : products_dataset.get(r)) {
+        Boolean isAbstract = data.chemIdIsAbstraction.get(p);
+        if (isAbstract != null && !isAbstract)
+          nonAbstract.add(p);
+      }
+      prods.put(r, nonAbstract);
+
+      for (Long org : orgs) {
+        if (!inOrg.containsKey(org))
+          inOrg.put(org, new HashSet<>());
+        inOrg.get(org).add(r);
+      }
+    }
+
+    this.startingChems = Collections.unmodifiableSet(starting);
+    this.substrates = Collections.unmodifiableMap(subs);
+    this.products = Collections.unmodifiableMap(prods);
+    this.consumers = Collections.unmodifiableMap(cons);
+    this.rxnsInOrganism = Collections.unmodifiableMap(inOrg);
+  }
+
+  /**
+   * Expands each of the hosts in parallel.
+   * @param orgIDs The host organisms.
+   * @param parallelism The number of hosts to expand at once.
+   * @return The reachables of each host, in the order the hosts were given.
+   */
+  public Map<Long, HostReachables> computeForHosts(List<Long> orgIDs, int parallelism)
+      throws InterruptedException, ExecutionException {
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      List<HostReachables> results = pool.submit(() ->
+          orgIDs.parallelStream().map(this::computeForHost).collect(Collectors.toList())
+      ).get();
+
+      Map<Long, HostReachables> byHost = new LinkedHashMap<>();
+      for (HostReachables result : results)
+        byHost.put(result.getOrgID(), result);
+      return byHost;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Expands a single host.  Safe to call from many threads at once.
+   * @param orgID The host organism.
+   * @return The layers of chemicals reachable inside the host.
+   */
+  public HostReachables computeForHost(Long orgID) {
+    Set<Long> hostRxns = this.rxnsInOrganism.getOrDefault(orgID, Collections.emptySet());
+
+    Set<Long> R = new HashSet<>(this.startingChems);
+    Map<Long, Integer> unmet = new HashMap<>();
+    List<Long> enabled = new ArrayList<>();
+    for (Long r : hostRxns) {
+      int count = 0;
+      for (Long s : this.substrates.get(r))
+        if (!R.contains(s))
+          count++;
+      unmet.put(r, count);
+      if (count == 0)
+        enabled.add(r);
+    }
+
+    // like WavefrontExpansion.pushWaveFront: every rxn enabled so far fires together, their new products
+    // form the next layer, and then the rxns that consumed those products get closer to enabled
+    Map<Integer, Set<Long>> layers = new HashMap<>();
+    int layer = 0;
+    while (!enabled.isEmpty()) {
+      Set<Long> newReachables = new HashSet<>();
+      for (Long r : enabled)
+        for (Long p : this.products.get(r))
+          if (R.add(p))
+            newReachables.add(p);
+
+      enabled = new ArrayList<>();
+      for (Long c : newReachables) {
+        for (Long r : this.consumers.getOrDefault(c, Collections.emptySet())) {
+          Integer count = unmet.get(r);
+          if (count == null)
+            continue; // not a rxn of this host
+          unmet.put(r, count - 1);
+          if (count == 1)
+            enabled.add(r);
+        }
+      }
+
+      if (!newReachables.isEmpty())
+        layers.put(layer++, newReachables);
+    }
+
+    logProgress("Org: %d, %d rxns, %d layers, %d reachables\n", orgID, hostRxns.size(), layers.size(), R.size());
+    return new HostReachables(orgID, this.startingChems, layers);
+  }
+
+  private static void logProgress(String format, Object... args) {
+    if (!GlobalParams.LOG_PROGRESS)
+      return;
+
+    System.err.format(_fileloc + ": " + format, args);
+  }
+
+  /**
+   * What a single host can make: the natives and cofactors it starts from, and the layers of chemicals made by its
+   * own rxns, numbered like WavefrontExpansion's host layers.
+   */
+  public static class HostReachables {
+    private final Long orgID;
+    private final Set<Long> startingChems;
+    private final Map<Integer, Set<Long>> layers;
+    private final Map<Long, Integer> layerOf;
+
+    HostReachables(Long orgID, Set<Long> startingChems, Map<Integer, Set<Long>> layers) {
+      this.orgID = orgID;
+      this.startingChems = startingChems;
+      this.layers = Collections.unmodifiableMap(layers);
+      this.layerOf = new HashMap<>();
+      for (Map.Entry<Integer, Set<Long>> entry : layers.entrySet())
+        for (Long c : entry.getValue())
+          this.layerOf.put(c, entry.getKey());
+    }
+
+    public Long getOrgID() {
+      return orgID;
+    }
+
+    public Map<Integer, Set<Long>> getLayers() {
+      return layers;
+    }
+
+    public boolean isReachable(Long chemID) {
+      return this.startingChems.contains(chemID) || this.layerOf.containsKey(chemID);
+    }
+
+    /**
+     * @return The host layer of the chemical, -2 if it is a native or cofactor (as WavefrontExpansion reports
+     *         for its host layers) or -1 if it is not reachable in this host.
+     */
+    public int getHostLayer(Long chemID) {
+      Integer layer = this.layerOf.get(chemID);
+      if (layer != null)
+        return layer;
+      return this.startingChems.contains(chemID) ? -2 : -1;
+    }
+
+    /**
+     * @return The number of chemicals this host makes beyond the natives and cofactors.
+     */
+    public int getNumNewReachables() {
+      return this.layerOf.size();
+    }
+  }
+}
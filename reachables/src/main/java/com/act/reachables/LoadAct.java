@@ -34,15 +34,23 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -55,6 +63,26 @@ public class LoadAct extends SteppedTask {
   private static final String DEFAULT_DB_HOST = "localhost";
   private static final int DEFAULT_PORT = 27017;
 
+  // Fast-load mode (GlobalParams._fastLoadThreads > 0) splits the reactions into this many _id ranges per thread, and
+  // lets each thread read this many ranges ahead of the (single threaded) merge into ActData.
+  private static final int FAST_LOAD_RANGES_PER_THREAD = 8;
+  private static final int FAST_LOAD_IN_FLIGHT_PER_THREAD = 2;
+  // Chemicals fetched per query in fast-load mode.
+  private static final int FAST_LOAD_CHEMICAL_BATCH_SIZE = 1000;
+  // The only reaction fields that addToNw and Reaction.correctForReactionDirection read: the protein sequences and
+  // organisms feed rxnHasSeq and rxnOrganisms (BRENDA proteins name one "organism", METACYC ones list "organisms").
+  static final BasicDBObject FAST_LOAD_REACTION_FIELDS = new BasicDBObject()
+      .append("_id", true)
+      .append("is_abstract", true)
+      .append("datasource", true)
+      .append("conversion_direction", true)
+      .append("pathway_step_direction", true)
+      .append("enz_summary", true)
+      .append("proteins.catalysis_direction", true)
+      .append("proteins.sequences", true)
+      .append("proteins.organism", true)
+      .append("proteins.organisms", true);
+
   // Fields
   private MongoDB db;
   private Set<String> optional_universal_inchis;
@@ -201,6 +229,7 @@ public class LoadAct extends SteppedTask {
 
     // add to internal copy of network
     ActData.instance().rxnHasSeq.put(rxnid, rxn.hasProteinSeq());
+    ActData.instance().rxnOrganisms.put(rxnid, organismsOf(rxn));
 
 
     /* -------- Reaction Classes ------- */
@@ -216,6 +245,21 @@ public class LoadAct extends SteppedTask {
     }
   }
 
+  private static Set<Long> organismsOf(Reaction rxn) {
+    // BRENDA protein entries name a single "organism", METACYC ones list "organisms"
+    Set<Long> orgs = new HashSet<>();
+    for (JSONObject prt : rxn.getProteinData()) {
+      if (prt.has("organism"))
+        orgs.add(prt.getLong("organism"));
+      if (prt.has("organisms")) {
+        JSONArray orgIds = prt.getJSONArray("organisms");
+        for (int i = 0; i < orgIds.length(); i++)
+          orgs.add(orgIds.getLong(i));
+      }
+    }
+    return orgs;
+  }
+
   public static void annotateRxnEdges(Reaction rxn, HashSet<Edge> rxn_edges) {
     for (Edge e : rxn_edges) {
       Edge.setAttribute(e, "isRxn", true);
@@ -349,32 +393,119 @@ public class LoadAct extends SteppedTask {
     // Ignore reactions with "protein" in their description. This is only necessary because there are some problems in
     // data parsing where we don't always put the proteins into the data, so sometimes fake data looks real.
     BasicDBObject noFakeReactions = new BasicDBObject("easy_desc", new BasicDBObject("$regex", "^((?!protein).)*$"));
-    DBIterator iterator = this.db.getIteratorOverReactions(noFakeReactions, null);
-    Reaction r;
     Map<Reaction.RxnDataSource, Integer> counts = new HashMap<>();
     for (Reaction.RxnDataSource src : Reaction.RxnDataSource.values())
       counts.put(src, 0);
-    // since we are iterating until the end,
-    // the getNextReaction call will close the DB cursor...
 
-    while ((r = this.db.getNextReaction(iterator)) != null) {
-      // this rxn comes from a datasource, METACYC, BRENDA or KEGG.
-      // ensure the configuration tells us to include this datasource...
-      Reaction.RxnDataSource src = r.getDataSource();
-      Set<Reaction> reactionsWithAccurateDirections = r.correctForReactionDirection();
-      counts.put(src, counts.get(src) + reactionsWithAccurateDirections.size());
-
-      // Correct for right-to-left and reversible actions, adding all appropriate directions to the graph.
-      for (Reaction directedRxn : reactionsWithAccurateDirections) {
-        addToNw(directedRxn);
+    if (GlobalParams._fastLoadThreads > 0) {
+      addReactionsToNetworkInParallel(noFakeReactions, counts);
+    } else {
+      DBIterator iterator = this.db.getIteratorOverReactions(noFakeReactions, null);
+      Reaction r;
+      // since we are iterating until the end,
+      // the getNextReaction call will close the DB cursor...
+      while ((r = this.db.getNextReaction(iterator)) != null) {
+        addReactionToNetwork(r, counts);
       }
-
     }
     logProgress("");
 
     logProgress("Rxn aggregate into %d classes.\n", ActData.instance().rxnClasses.size());
   }
 
+  static void addReactionToNetwork(Reaction r, Map<Reaction.RxnDataSource, Integer> counts) {
+    // this rxn comes from a datasource, METACYC, BRENDA or KEGG.
+    // ensure the configuration tells us to include this datasource...
+    Reaction.RxnDataSource src = r.getDataSource();
+    Set<Reaction> reactionsWithAccurateDirections = r.correctForReactionDirection();
+    counts.put(src, counts.get(src) + reactionsWithAccurateDirections.size());
+
+    // Correct for right-to-left and reversible actions, adding all appropriate directions to the graph.
+    for (Reaction directedRxn : reactionsWithAccurateDirections) {
+      addToNw(directedRxn);
+    }
+  }
+
+  /**
+   * Fast-load version of the reaction loop: splits the reaction ids into ranges, reads the ranges on parallel cursors
+   * that fetch only the fields the graph needs, and merges each range into ActData on this thread in id order.  The
+   * serial loop visits reactions in the collection's natural order instead, which usually is id order too; the order
+   * only matters for which reaction represents each reaction class.
+   */
+  private void addReactionsToNetworkInParallel(BasicDBObject filter, Map<Reaction.RxnDataSource, Integer> counts) {
+    List<Long> ids = ActData.instance().allrxnids;
+    if (ids.isEmpty()) {
+      return;
+    }
+    int threads = GlobalParams._fastLoadThreads;
+    int rangeCount = Math.min(ids.size(), threads * FAST_LOAD_RANGES_PER_THREAD);
+    List<Callable<List<Reaction>>> fetches = new ArrayList<>(rangeCount);
+    for (int range = 0; range < rangeCount; range++) {
+      Long low = ids.get((int) ((long) range * ids.size() / rangeCount));
+      Long high = ids.get((int) ((long) (range + 1) * ids.size() / rangeCount) - 1);
+      fetches.add(() -> fetchGraphReactions(filter, low, high));
+    }
+    runInOrder(fetches, threads, reactions -> {
+      for (Reaction r : reactions) {
+        addReactionToNetwork(r, counts);
+      }
+    });
+  }
+
+  private List<Reaction> fetchGraphReactions(BasicDBObject filter, Long lowId, Long highId) {
+    BasicDBObject criteria = this.db.getRangeUUIDRestriction(lowId, highId);
+    criteria.putAll(filter.toMap());
+    BasicDBObject query = new BasicDBObject("$query", criteria).append("$orderby", new BasicDBObject("_id", 1));
+    DBIterator iterator = this.db.getIteratorOverReactions(query, FAST_LOAD_REACTION_FIELDS);
+    List<Reaction> reactions = new ArrayList<>();
+    Reaction r;
+    while ((r = this.db.getNextReaction(iterator)) != null) {
+      reactions.add(r);
+    }
+    return reactions;
+  }
+
+  private interface Merger<T> {
+    void merge(T result);
+  }
+
+  /**
+   * Runs tasks on a pool of threads, keeping a bounded number of them ahead of the merge, and merges their results on
+   * this thread in task order.
+   */
+  private static <T> void runInOrder(List<Callable<T>> tasks, int threads, Merger<T> merger) {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      Deque<Future<T>> inFlight = new ArrayDeque<>();
+      for (Callable<T> task : tasks) {
+        inFlight.add(pool.submit(task));
+        if (inFlight.size() >= threads * FAST_LOAD_IN_FLIGHT_PER_THREAD) {
+          merger.merge(waitFor(inFlight.poll()));
+        }
+      }
+      while (!inFlight.isEmpty()) {
+        merger.merge(waitFor(inFlight.poll()));
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private static <T> T waitFor(Future<T> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while loading from the DB", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Failed to load from the DB", e.getCause());
+    }
+  }
+
+  private static void logPhaseTime(String phase, long startTime) {
+    logProgress("%s took %.1f s\n", phase, (System.currentTimeMillis() - startTime) / 1000.0);
+  }
+
   @Override
   public double percentDone() {
     return 100.0 * ((double) this.loaded / this.total);
@@ -382,13 +513,16 @@ public class LoadAct extends SteppedTask {
 
   @Override
   public void doMoreWork() {
+    long startTime = System.currentTimeMillis();
     logProgress("Pulling %d reactions from MongoDB:\n", this.total);
     addReactionsToNetwork();
     this.loaded = this.total;
+    logPhaseTime("Loading reactions", startTime);
   }
 
   @Override
   public void init() {
+    long startTime = System.currentTimeMillis();
     ActData.instance().allrxnids = getAllIDsSorted();
     total = ActData.instance().allrxnids.size();
 
@@ -419,6 +553,7 @@ public class LoadAct extends SteppedTask {
 
     ActData.instance().noSubstrateRxnsToProducts = new HashMap<>();
     logProgress("Initialization complete.");
+    logPhaseTime("Initialization", startTime);
   }
 
   @Override
@@ -430,7 +565,9 @@ public class LoadAct extends SteppedTask {
     ActData.instance().chemId2ReadableName = new HashMap<Long, String>();
     ActData.instance().chemIdIsAbstraction = new HashMap<Long, Boolean>();
 
+    long startTime = System.currentTimeMillis();
     pullChemicalsReferencedInRxns();
+    logPhaseTime("Loading chemicals", startTime);
 
     ActData.instance().chemsReferencedInRxns.addAll(ActData.instance().cofactors);
     ActData.instance().chemsReferencedInRxns.addAll(ActData.instance().natives);
@@ -439,77 +576,116 @@ public class LoadAct extends SteppedTask {
       ActData.instance().chemsReferencedInRxns.addAll(ActData.instance().chemicalsWithUserField.get(f));
 
     // computes reachables tree and writes it into ActData.instance().ActTree
+    startTime = System.currentTimeMillis();
     new ComputeReachablesTree(this.db);
+    logPhaseTime("Computing the reachables tree", startTime);
   }
 
   private void pullChemicalsReferencedInRxns() {
     int N = ActData.instance().chemsReferencedInRxns.size();
-    int count = 0;
     logProgress("Extracting metadata from chemicals.");
+    if (GlobalParams._fastLoadThreads > 0) {
+      pullChemicalsReferencedInRxnsInBatches();
+      return;
+    }
+    int count = 0;
     for (Long id : ActData.instance().chemsReferencedInRxns) {
       logProgress("\t pullChemicalsReferencedInRxns: %d\r", count++);
-      Chemical c = this.db.getChemicalFromChemicalUUID(id);
-      ActData.instance().chemInchis.put(c.getInChI(), id);
-      ActData.instance().chemId2Inchis.put(id, c.getInChI());
-      ActData.instance().chemIdIsAbstraction.put(id, isAbstractInChI(c.getInChI()));
-      String name = c.getShortestBRENDAName();
-      if (name == null) {
-        // see if there is a metacyc name:
-        Object meta = c.getRef(Chemical.REFS.METACYC, new String[] { "meta" });
-        if (meta != null) {
-          // if we are here, the entry was referenced in metacyc, so must
-          // have some name association there. see if we can pull that out.
-
-          // the xref.METACYC.meta field should *always* be a JSONArray
-          // (even if its an array with a single JSONObject within it)
-          // sanity check that, and abort if the type does not match
-          if (!(meta instanceof JSONArray)) {
-            throw new RuntimeException("Expect only Arrays in db.chemicals.{xref.METACYC.meta}, but found: " + meta.getClass());
-          }
-
-          name = ((JSONObject) ((JSONArray)meta).get(0) ).getString("sname");
-
-          // if failed to pull out a name from metacyc, report it
-          if (name == null)
-            System.out.println("ERROR: Looks like a metacyc entry chemical, but no metacyc name: " + id);
+      addChemicalMetadata(id, this.db.getChemicalFromChemicalUUID(id));
+    }
+    logProgress("");
+  }
+
+  /**
+   * Fast-load version of pullChemicalsReferencedInRxns: fetches the chemicals in batches on parallel cursors, but still
+   * records them in the same order as the serial loop, since chemInchis keeps the last id seen for each InChI.
+   */
+  private void pullChemicalsReferencedInRxnsInBatches() {
+    List<Long> ids = new ArrayList<>(ActData.instance().chemsReferencedInRxns);
+    List<Callable<Map<Long, Chemical>>> fetches = new ArrayList<>();
+    for (int start = 0; start < ids.size(); start += FAST_LOAD_CHEMICAL_BATCH_SIZE) {
+      List<Long> batch = ids.subList(start, Math.min(start + FAST_LOAD_CHEMICAL_BATCH_SIZE, ids.size()));
+      fetches.add(() -> {
+        Map<Long, Chemical> chemicals = new HashMap<>(batch.size());
+        Iterator<Chemical> iterator = this.db.getChemicalsbyIds(batch, true);
+        while (iterator.hasNext()) {
+          Chemical c = iterator.next();
+          chemicals.put(c.getUuid(), c);
         }
+        return chemicals;
+      });
+    }
+    int[] count = {0};
+    runInOrder(fetches, GlobalParams._fastLoadThreads, chemicals -> {
+      for (int i = count[0]; i < Math.min(count[0] + FAST_LOAD_CHEMICAL_BATCH_SIZE, ids.size()); i++) {
+        addChemicalMetadata(ids.get(i), chemicals.get(ids.get(i)));
       }
-      if (name == null) {
-        // Try to use wikipedia
-        Object meta = c.getRef(Chemical.REFS.WIKIPEDIA, new String[] { "metadata" });
-        if (meta != null) {
-          if (!(meta instanceof JSONObject)) {
-            throw new RuntimeException("Unable to parse Wikipedia metadata.");
-          }
-          name = (String) ((JSONObject) meta).get("article");
+      count[0] = Math.min(count[0] + FAST_LOAD_CHEMICAL_BATCH_SIZE, ids.size());
+      logProgress("\t pullChemicalsReferencedInRxns: %d\r", count[0]);
+    });
+    logProgress("");
+  }
+
+  private void addChemicalMetadata(Long id, Chemical c) {
+    ActData.instance().chemInchis.put(c.getInChI(), id);
+    ActData.instance().chemId2Inchis.put(id, c.getInChI());
+    ActData.instance().chemIdIsAbstraction.put(id, isAbstractInChI(c.getInChI()));
+    String name = c.getShortestBRENDAName();
+    if (name == null) {
+      // see if there is a metacyc name:
+      Object meta = c.getRef(Chemical.REFS.METACYC, new String[] { "meta" });
+      if (meta != null) {
+        // if we are here, the entry was referenced in metacyc, so must
+        // have some name association there. see if we can pull that out.
+
+        // the xref.METACYC.meta field should *always* be a JSONArray
+        // (even if its an array with a single JSONObject within it)
+        // sanity check that, and abort if the type does not match
+        if (!(meta instanceof JSONArray)) {
+          throw new RuntimeException("Expect only Arrays in db.chemicals.{xref.METACYC.meta}, but found: " + meta.getClass());
         }
+
+        name = ((JSONObject) ((JSONArray)meta).get(0) ).getString("sname");
+
+        // if failed to pull out a name from metacyc, report it
+        if (name == null)
+          System.out.println("ERROR: Looks like a metacyc entry chemical, but no metacyc name: " + id);
       }
-      if (name == null) {
-        // stuff the inchi into the name
-        name = c.getInChI();
+    }
+    if (name == null) {
+      // Try to use wikipedia
+      Object meta = c.getRef(Chemical.REFS.WIKIPEDIA, new String[] { "metadata" });
+      if (meta != null) {
+        if (!(meta instanceof JSONObject)) {
+          throw new RuntimeException("Unable to parse Wikipedia metadata.");
+        }
+        name = (String) ((JSONObject) meta).get("article");
       }
-      ActData.instance().chemId2ReadableName.put(id, name);
+    }
+    if (name == null) {
+      // stuff the inchi into the name
+      name = c.getInChI();
+    }
+    ActData.instance().chemId2ReadableName.put(id, name);
 
-      if (SET_METADATA_ON_NW_NODES) {
-        String[] xpath = { "metadata", "toxicity" };
-        Object o = c.getRef(REFS.DRUGBANK, xpath);
-        if (o == null || !(o instanceof String))
-          continue;
-        Set<Integer> ld50s = extractLD50vals((String)o);
-        ActData.instance().chemToxicity.put(id, ld50s);
+    if (SET_METADATA_ON_NW_NODES) {
+      String[] xpath = { "metadata", "toxicity" };
+      Object o = c.getRef(REFS.DRUGBANK, xpath);
+      if (o == null || !(o instanceof String))
+        return;
+      Set<Integer> ld50s = extractLD50vals((String)o);
+      ActData.instance().chemToxicity.put(id, ld50s);
 
-        // set chemical attributes
-        String txt = null; // D MongoDB.chemicalAsString(c, id);
-        Set<Integer> tox = ActData.instance().chemToxicity.get(id);
-        Long n1 = ActData.instance().chemsInAct.get(id).getIdentifier();
-        int fanout = ActData.instance().rxnsThatConsumeChem.containsKey(id) ? ActData.instance().rxnsThatConsumeChem.get(id).size() : -1;
-        int fanin = ActData.instance().rxnsThatProduceChem.containsKey(id) ? ActData.instance().rxnsThatProduceChem.get(id).size() : -1;
+      // set chemical attributes
+      String txt = null; // D MongoDB.chemicalAsString(c, id);
+      Set<Integer> tox = ActData.instance().chemToxicity.get(id);
+      Long n1 = ActData.instance().chemsInAct.get(id).getIdentifier();
+      int fanout = ActData.instance().rxnsThatConsumeChem.containsKey(id) ? ActData.instance().rxnsThatConsumeChem.get(id).size() : -1;
+      int fanin = ActData.instance().rxnsThatProduceChem.containsKey(id) ? ActData.instance().rxnsThatProduceChem.get(id).size() : -1;
 
-        setMetadata(n1, tox, c, txt, fanout, fanin);
+      setMetadata(n1, tox, c, txt, fanout, fanin);
 
-      }
     }
-    logProgress("");
   }
 
   private boolean isAbstractInChI(String inchi) {
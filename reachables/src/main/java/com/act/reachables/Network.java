@@ -27,7 +27,6 @@ package com.act.reachables;
 import act.server.MongoDB;
 import act.shared.Chemical;
 import act.shared.Reaction;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -35,6 +34,7 @@ import org.json.JSONObject;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -45,7 +45,8 @@ import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -98,6 +99,21 @@ public class Network implements Serializable {
                                     this.parents, this.toParentEdge);
   }
 
+  /**
+   * Writes disjointGraphs(db) to a file without building it in memory; see StreamingNetworkWriter.
+   */
+  public void writeDisjointGraphs(MongoDB db, File out) throws IOException {
+    StreamingNetworkWriter.writeDisjointGraphs(db, new HashSet<>(this.nodeMapping.values()), this.edges, out);
+  }
+
+  /**
+   * Writes disjointTrees(db) to a file without building it in memory; see StreamingNetworkWriter.
+   */
+  public void writeDisjointTrees(MongoDB db, File out) throws IOException {
+    StreamingNetworkWriter.writeDisjointTrees(db, new HashSet<>(this.nodeMapping.values()), this.parents,
+        this.toParentEdge, out);
+  }
+
   void addNode(Node n, Long nid) {
     if (this.nodeMapping.containsKey(n)) {
       if (!Boolean.valueOf((String)Node.getAttribute(n.id, "isrxn"))) {
@@ -200,11 +216,23 @@ public class Network implements Serializable {
     }
   }
   public String toDOT() {
-    List<String> lines = new ArrayList<String>();
+    StringWriter out = new StringWriter();
+    try {
+      writeDOT(out);
+    } catch (IOException e) {
+      // StringWriter does not throw
+      throw new RuntimeException(e);
+    }
+    return out.toString();
+  }
 
-    lines.add("digraph " + this.name + " {");
+  /**
+   * Writes the DOT rendering of this network line by line, rather than building it as one string as toDOT does.
+   */
+  public void writeDOT(Writer out) throws IOException {
+    out.write("digraph " + this.name + " {");
 
-    for (Node n : new ArrayList<Node>(this.nodeMapping.values())) {
+    for (Node n : this.nodeMapping.values()) {
       String id;
       String label;
       String tooltip;
@@ -273,11 +301,12 @@ public class Network implements Serializable {
         + " URL=" + url + ","
         + " color=" + color + ","
         + "];";
-      lines.add(node_line);
+      out.write("\n");
+      out.write(node_line);
     }
 
 
-    for (Edge e : new ArrayList<Edge>(this.edges)) {
+    for (Edge e : this.edges) {
       // create a line for nodeMapping like so:
       // id -> id;
       Long src_id = e.getSrc().getIdentifier();
@@ -290,14 +319,13 @@ public class Network implements Serializable {
         edge_line = src_id + " -> " + dst_id + ";";
       }
 
-      lines.add(edge_line);
+      out.write("\n");
+      out.write(edge_line);
 
       Edge.setAttribute(e, "color", null);
     }
 
-    lines.add("}");
-
-    return StringUtils.join(lines.toArray(new String[0]), "\n");
+    out.write("\n}");
   }
 
   void addNodeTreeSpecific(Node n, Long nid, Integer atDepth, Long parentid) {
@@ -38,8 +38,9 @@ public class Node implements Serializable {
   }
 
   public static Node get(Long id, Boolean create) {
-    if (ActData.instance().nodeCache.containsKey(id))
-      return (Node)ActData.instance().nodeCache.get(id).get(0);
+    HashMap<Long, List<Node>> nodeCache = GraphScope.nodeCache();
+    if (nodeCache.containsKey(id))
+      return (Node)nodeCache.get(id).get(0);
 
     if (!create)
       return null;
@@ -48,7 +49,7 @@ public class Node implements Serializable {
     Node n = new Node(id);
     List<Node> nset = new ArrayList<Node>();
     nset.add(n);
-    ActData.instance().nodeCache.put(id, nset);
+    nodeCache.put(id, nset);
 
     return n;
   }
@@ -58,7 +59,7 @@ public class Node implements Serializable {
   }
 
   public HashMap<String, Serializable> getAttr() {
-    return ActData.instance().nodeAttributes.get(this.id);
+    return GraphScope.nodeAttributes().get(this.id);
   }
 
   public Object getAttribute(String key) {
@@ -66,22 +67,24 @@ public class Node implements Serializable {
   }
 
   public static void setAttribute(Long id, String key, Serializable val) {
-    if (!ActData.instance().nodeAttributes.containsKey(id))
-      ActData.instance().nodeAttributes.put(id, new HashMap<String, Serializable>());
-    ActData.instance().nodeAttributes.get(id).put(key, val);
+    HashMap<Long, HashMap<String, Serializable>> nodeAttributes = GraphScope.nodeAttributes();
+    if (!nodeAttributes.containsKey(id))
+      nodeAttributes.put(id, new HashMap<String, Serializable>());
+    nodeAttributes.get(id).put(key, val);
   }
 
   public static Object getAttribute(Long id, String key) {
+    HashMap<Long, HashMap<String, Serializable>> nodeAttributes = GraphScope.nodeAttributes();
     HashMap<String, Serializable> kval;
-    if (ActData.instance().nodeAttributes.containsKey(id) &&
-        (kval = ActData.instance().nodeAttributes.get(id)).containsKey(key))
+    if (nodeAttributes.containsKey(id) &&
+        (kval = nodeAttributes.get(id)).containsKey(key))
       return kval.get(key);
     else
       return null;
   }
 
   public static void clearAttributeData(){
-    ActData.instance().nodeAttributes = new HashMap<Long, HashMap<String, Serializable>>();
+    GraphScope.clearNodeAttributes();
   }
 
   @Override
@@ -0,0 +1,356 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables;
+
+import act.server.MongoDB;
+import act.shared.Chemical;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the JSON forms of a Network (see JSONDisjointTrees and JSONDisjointGraphs) straight to a file.
+ *
+ * The in-memory exporters hold a JSONObject for every node, fetch each node's chemical with its own DB query and only
+ * then serialize.  Here each node's object is written as soon as it is visited and then dropped, and chemicals are
+ * fetched in batches of CHEMICAL_BATCH_SIZE in the order their nodes are written.  The only per-node state kept is
+ * the tree/graph structure as ids and Node references.  The output has the same content as the in-memory exporters.
+ */
+class StreamingNetworkWriter {
+  private static final int CHEMICAL_BATCH_SIZE = 10000;
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  /**
+   * Writes the same tree as Network.disjointTrees to `out`.
+   */
+  static void writeDisjointTrees(MongoDB db, Set<Node> nodes, HashMap<Long, Long> parentIds,
+                                 HashMap<Long, Edge> toParentEdges, File out) throws IOException {
+    HashMap<Long, Node> nodeById = new HashMap<>();
+    for (Node n : nodes)
+      nodeById.put(n.id, n);
+
+    // children are listed in the order JSONDisjointTrees appends them, and roots are whatever has no parent in the tree
+    HashMap<Long, List<Long>> children = new HashMap<>();
+    HashSet<Long> unAssignedToParent = new HashSet<>(parentIds.keySet());
+    for (Long nid : parentIds.keySet()) {
+      Long parent = parentIds.get(nid);
+      if (parent != null && parentIds.containsKey(parent)) {
+        children.computeIfAbsent(parent, k -> new ArrayList<>()).add(nid);
+        unAssignedToParent.remove(nid);
+      }
+    }
+
+    if (unAssignedToParent.size() == 0) {
+      throw new RuntimeException("All nodeMapping have parents! Where is the root? Abort.");
+    }
+
+    List<Long> roots = new ArrayList<>(unAssignedToParent);
+    long[] preorder = preorder(roots, children, parentIds.size());
+    ChemicalWindow chemicals = new ChemicalWindow(db, preorder);
+
+    try (JsonGenerator json = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+      json.useDefaultPrettyPrinter();
+
+      boolean proxyRoot = roots.size() > 1;
+      if (proxyRoot) {
+        json.writeStartObject();
+        json.writeStringField("name", "root");
+        json.writeArrayFieldStart("children");
+      }
+
+      // iterative depth first walk, in the same order as `preorder`; each stack entry holds a node's remaining children
+      int visited = 0;
+      Deque<Iterator<Long>> stack = new ArrayDeque<>();
+      stack.push(roots.iterator());
+      while (!stack.isEmpty()) {
+        Iterator<Long> siblings = stack.peek();
+        if (!siblings.hasNext()) {
+          stack.pop();
+          if (!stack.isEmpty()) {
+            // all children of the node that owns this list are written; close its children array and the node itself
+            json.writeEndArray();
+            json.writeEndObject();
+          }
+          continue;
+        }
+
+        Long nid = siblings.next();
+        Node n = nodeById.get(nid);
+        Map<String, Object> fields = nodeFields(chemicals.get(visited++, nid), n);
+        fields.put("name", nid);
+        Edge toParent = toParentEdges.get(nid);
+        if (toParent != null) {
+          fields.put("edge_up", edgeFields(toParent, null));
+        }
+
+        json.writeStartObject();
+        writeFields(json, fields);
+        List<Long> kids = children.get(nid);
+        if (kids == null) {
+          json.writeEndObject();
+        } else {
+          json.writeArrayFieldStart("children");
+          stack.push(kids.iterator());
+        }
+      }
+
+      if (proxyRoot) {
+        json.writeEndArray();
+        json.writeEndObject();
+      }
+    }
+  }
+
+  /**
+   * Writes the same graphs as Network.disjointGraphs to `out`.
+   */
+  static void writeDisjointGraphs(MongoDB db, Set<Node> nodes, Set<Edge> edges, File out) throws IOException {
+    HashMap<Long, Set<Node>> treenodes = new HashMap<>();
+    HashMap<Long, Set<Edge>> treeedges = new HashMap<>();
+    for (Node n : nodes) {
+      Long k = (Long) n.getAttribute("under_root");
+      if (!treenodes.containsKey(k)) {
+        treenodes.put(k, new HashSet<>());
+        treeedges.put(k, new HashSet<>());
+      }
+      treenodes.get(k).add(n);
+    }
+
+    for (Edge e : edges) {
+      Long k = (Long) e.getAttribute("under_root");
+      if (!treeedges.containsKey(k)) {
+        throw new RuntimeException("Fatal: Edge found rooted under a tree (under_root) that has no node!");
+      }
+      treeedges.get(k).add(e);
+    }
+
+    try (JsonGenerator json = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+      json.useDefaultPrettyPrinter();
+      json.writeStartArray();
+
+      for (Long root : treenodes.keySet()) {
+        Node[] nodesAr = treenodes.get(root).toArray(new Node[0]);
+        long[] ids = new long[nodesAr.length];
+        for (int i = 0; i < nodesAr.length; i++) {
+          ids[i] = nodesAr[i].id;
+        }
+        ChemicalWindow chemicals = new ChemicalWindow(db, ids);
+
+        // edges reference their endpoints by the index those have in this tree's node array
+        HashMap<Node, Integer> nodeOrder = new HashMap<>();
+        json.writeStartObject();
+        json.writeArrayFieldStart("nodeMapping");
+        for (int i = 0; i < nodesAr.length; i++) {
+          writeFields(json, nodeFields(chemicals.get(i, ids[i]), nodesAr[i]), true);
+          nodeOrder.put(nodesAr[i], i);
+        }
+        json.writeEndArray();
+
+        json.writeArrayFieldStart("links");
+        for (Edge e : treeedges.get(root)) {
+          writeFields(json, edgeFields(e, nodeOrder), true);
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+      }
+
+      json.writeEndArray();
+    }
+  }
+
+  private static long[] preorder(List<Long> roots, HashMap<Long, List<Long>> children, int size) {
+    long[] order = new long[size];
+    int next = 0;
+    Deque<Long> stack = new ArrayDeque<>();
+    for (int i = roots.size() - 1; i >= 0; i--) {
+      stack.push(roots.get(i));
+    }
+    while (!stack.isEmpty()) {
+      Long nid = stack.pop();
+      order[next++] = nid;
+      List<Long> kids = children.get(nid);
+      if (kids != null) {
+        for (int i = kids.size() - 1; i >= 0; i--) {
+          stack.push(kids.get(i));
+        }
+      }
+    }
+    return order;
+  }
+
+  // The fields of JSONHelper.nodeObj, in the order they are put there so that later ones override earlier ones
+  private static Map<String, Object> nodeFields(Chemical chemical, Node n) {
+    Map<String, Object> fields = new LinkedHashMap<>();
+    if (chemical != null) {
+      fields.putAll(ComputeReachablesTree.getExtendedChemicalInformationJSON(chemical));
+    }
+    fields.put("id", n.id);
+    HashMap<String, Serializable> attr = n.getAttr();
+    if (attr != null) {
+      for (Map.Entry<String, Serializable> kv : attr.entrySet()) {
+        String k = kv.getKey();
+        // only output the fields relevants to the reachables tree structure
+        if (k.equals("NameOfLen20") ||
+            k.equals("ReadableName") ||
+            k.equals("Synonyms") ||
+            k.equals("InChI") ||
+            k.equals("InChiKEY") ||
+            k.equals("parent") ||
+            k.equals("under_root") ||
+            k.equals("num_children") ||
+            k.equals("subtreeVendorsSz") ||
+            k.equals("subtreeSz") ||
+            k.equals("SMILES"))
+          fields.put(k, kv.getValue().toString());
+
+        if (k.equals("has"))
+          fields.put(k, kv.getValue());
+      }
+    }
+    return fields;
+  }
+
+  // The fields of JSONHelper.edgeObj
+  private static Map<String, Object> edgeFields(Edge e, HashMap<Node, Integer> order) {
+    Map<String, Object> fields = new LinkedHashMap<>();
+    if (order != null) {
+      fields.put("source", order.get(e.src));
+      fields.put("target", order.get(e.dst));
+    }
+    HashMap<String, Serializable> attr = e.getAttr();
+    if (attr != null) {
+      for (Map.Entry<String, Serializable> kv : attr.entrySet()) {
+        String k = kv.getKey();
+        // only output the fields relevant to the reachables tree structures
+        if (k.equals("under_root") ||
+            k.equals("functionalCategory") ||
+            k.equals("importantAncestor"))
+          fields.put(k, kv.getValue().toString());
+      }
+    }
+    return fields;
+  }
+
+  private static void writeFields(JsonGenerator json, Map<String, Object> fields, boolean asObject)
+      throws IOException {
+    if (asObject) {
+      json.writeStartObject();
+    }
+    writeFields(json, fields);
+    if (asObject) {
+      json.writeEndObject();
+    }
+  }
+
+  private static void writeFields(JsonGenerator json, Map<?, ?> fields) throws IOException {
+    for (Map.Entry<?, ?> kv : fields.entrySet()) {
+      // like org.json, drop fields without a value
+      if (kv.getValue() != null && kv.getValue() != JSONObject.NULL) {
+        json.writeFieldName(kv.getKey().toString());
+        writeValue(json, kv.getValue());
+      }
+    }
+  }
+
+  private static void writeValue(JsonGenerator json, Object value) throws IOException {
+    if (value == null || value == JSONObject.NULL) {
+      json.writeNull();
+    } else if (value instanceof String) {
+      json.writeString((String) value);
+    } else if (value instanceof Number || value instanceof Boolean) {
+      json.writeObject(value);
+    } else if (value instanceof JSONObject) {
+      JSONObject o = (JSONObject) value;
+      json.writeStartObject();
+      for (Iterator<?> keys = o.keys(); keys.hasNext(); ) {
+        String k = keys.next().toString();
+        json.writeFieldName(k);
+        writeValue(json, o.opt(k));
+      }
+      json.writeEndObject();
+    } else if (value instanceof JSONArray) {
+      JSONArray a = (JSONArray) value;
+      json.writeStartArray();
+      for (int i = 0; i < a.length(); i++) {
+        writeValue(json, a.opt(i));
+      }
+      json.writeEndArray();
+    } else if (value instanceof Map) {
+      writeFields(json, (Map<?, ?>) value, true);
+    } else if (value instanceof Collection) {
+      json.writeStartArray();
+      for (Object o : (Collection<?>) value) {
+        writeValue(json, o);
+      }
+      json.writeEndArray();
+    } else {
+      json.writeString(value.toString());
+    }
+  }
+
+  /**
+   * The chemicals of a sequence of node ids that is visited in order, fetched CHEMICAL_BATCH_SIZE at a time.
+   */
+  private static class ChemicalWindow {
+    private final MongoDB db;
+    private final long[] ids;
+    private int windowEnd = 0;
+    private ChemicalPrefetchCache window;
+
+    ChemicalWindow(MongoDB db, long[] ids) {
+      this.db = db;
+      this.ids = ids;
+    }
+
+    Chemical get(int position, Long id) {
+      if (position >= windowEnd) {
+        int end = Math.min(position + CHEMICAL_BATCH_SIZE, ids.length);
+        List<Long> batch = new ArrayList<>(end - position);
+        for (int i = position; i < end; i++) {
+          batch.add(ids[i]);
+        }
+        window = new ChemicalPrefetchCache(db, batch, batch.size());
+        windowEnd = end;
+      }
+      return window.get(id);
+    }
+  }
+}
@@ -32,6 +32,7 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -51,6 +52,16 @@ public class WavefrontExpansion {
   HashMap<Long, Set<Long>> R_owned_children; // final set of children owned by parent (key)
   HashMap<Long, Set<Long>> R_parent_candidates; // list of candidates in layer i-1 that could be parents for layer i chem
   HashMap<Long, List<Long>> rxn_needs; // list of precondition chemicals for each chem
+  // rxns still in rxn_needs whose needs have all been met; kept in sync by updateEnabled so that
+  // finding the enabled rxns in a layer does not require a scan over every rxn in rxn_needs
+  Set<Long> enabled;
+  // position of each rxn in the iteration order of the current rxn_needs map; the enabled rxns of a
+  // layer are handed out in this order so that the tree matches the one built by scanning rxn_needs
+  HashMap<Long, Integer> rxn_needs_order;
+  // chem -> rxns in the expansion universe that consume it
+  Map<Long, Set<Long>> consumers;
+  // when false, fall back to rescanning all of rxn_needs each layer (the original implementation)
+  boolean incremental;
   Set<Long> roots; // under "CreateUnreachableTrees" we also compute conditionally reachable trees rooted at important assumed nodeMapping
   int currentLayer;
   // when computing reachables, we log the sequences
@@ -66,8 +77,14 @@ public class WavefrontExpansion {
   Set<Long> R_assumed_reachable;
   Set<Long> R_saved;
   HashMap<Long, List<Long>> rxn_needs_saved;
+  Set<Long> enabled_saved;
 
   WavefrontExpansion () {
+    this(true);
+  }
+
+  WavefrontExpansion(boolean incremental) {
+    this.incremental = incremental;
     this.R = new HashSet<Long>();
     this.R_by_layers = new HashMap<Integer, Set<Long>>();
     this.R_by_layers_in_host = new HashMap<Integer, Set<Long>>();
@@ -76,6 +93,11 @@ public class WavefrontExpansion {
     this.R_parent_candidates = new HashMap<Long, Set<Long>>();
     this.R_owned_children = new HashMap<Long, Set<Long>>();
     this.rxn_needs = computeRxnNeeds();
+    if (this.incremental) {
+      this.consumers = computeConsumers();
+      this.enabled = computeEnabled();
+      this.rxn_needs_order = computeRxnNeedsOrder();
+    }
     this.currentLayer = 0;
     this.isAncestorAndNotDirectParent = new HashSet<Long>();
     this.seqWithReachableSubstrates = new HashSet<Long>();
@@ -123,6 +145,7 @@ public class WavefrontExpansion {
   }
 
   public Tree<Long> expandAndPickParents() {
+    long startTime = System.currentTimeMillis();
     ActData.instance().natives.forEach(this::addToReachablesAndCofactorNatives);
     ActData.instance().cofactors.forEach(this::addToReachablesAndCofactorNatives);
 
@@ -172,6 +195,9 @@ public class WavefrontExpansion {
 
     addNodesThatHaveUserSpecifiedFields();
 
+    System.out.format("Expansion (%s) took %d ms\n",
+        this.incremental ? "incremental" : "full scan", System.currentTimeMillis() - startTime);
+
     Set<Long> still_unreach = new HashSet<Long>(ActData.instance().chemsReferencedInRxns);
     still_unreach.removeAll(this.R);
     still_unreach.removeAll(this.R_assumed_reachable);
@@ -355,11 +381,18 @@ public class WavefrontExpansion {
   private void saveState() {
     this.R_saved = deepCopy(this.R);
     this.rxn_needs_saved = deepCopy(this.rxn_needs);
+    if (this.incremental)
+      this.enabled_saved = deepCopy(this.enabled);
   }
 
   private void restoreState() {
     this.R = deepCopy(this.R_saved);
     this.rxn_needs = deepCopy(this.rxn_needs_saved);
+    if (this.incremental) {
+      this.enabled = deepCopy(this.enabled_saved);
+      // the copy of rxn_needs is a fresh map, and so can iterate in a different order than the saved one
+      this.rxn_needs_order = computeRxnNeedsOrder();
+    }
   }
 
   private <T,S> HashMap<T, List<S>> deepCopy(HashMap<T, List<S>> map) {
@@ -428,7 +461,7 @@ public class WavefrontExpansion {
   private HashMap<Long, List<Long>> computeRxnNeeds() {
 
     // use the following as the universe of reactions to enumerate over
-    HashMap<Long, Set<Long>> substrates_dataset = GlobalParams.USE_RXN_CLASSES ? ActData.instance().rxnClassesSubstrates : ActData.instance().rxnSubstrates;
+    Map<Long, Set<Long>> substrates_dataset = GlobalParams.USE_RXN_CLASSES ? ActData.instance().rxnClassesSubstrates : ActData.instance().rxnSubstrates;
 
     HashMap<Long, List<Long>> needs = new HashMap<>();
     int ignored_noseq = 0, total = 0;
@@ -452,10 +485,41 @@ public class WavefrontExpansion {
     return needs;
   }
 
+  private Map<Long, Set<Long>> computeConsumers() {
+    if (!GlobalParams.USE_RXN_CLASSES)
+      return ActData.instance().rxnsThatConsumeChem;
+
+    // LoadAct does not fill in rxnClassesThatConsumeChem, so build the class consumers from the needs
+    HashMap<Long, Set<Long>> consumers = new HashMap<>();
+    for (Long r : this.rxn_needs.keySet()) {
+      for (Long c : this.rxn_needs.get(r)) {
+        if (!consumers.containsKey(c))
+          consumers.put(c, new HashSet<>());
+        consumers.get(c).add(r);
+      }
+    }
+    return consumers;
+  }
+
+  private Set<Long> computeEnabled() {
+    Set<Long> enabled = new HashSet<>();
+    for (Long r : this.rxn_needs.keySet())
+      if (this.rxn_needs.get(r).isEmpty())
+        enabled.add(r);
+    return enabled;
+  }
+
+  private HashMap<Long, Integer> computeRxnNeedsOrder() {
+    HashMap<Long, Integer> order = new HashMap<>();
+    for (Long r : this.rxn_needs.keySet())
+      order.put(r, order.size());
+    return order;
+  }
+
   protected Set<Long> productsOf(Set<Long> enabledRxns) {
     // use the following as the universe of reactions to enumerate over
-    HashMap<Long, Set<Long>> substrates_dataset = GlobalParams.USE_RXN_CLASSES ? ActData.instance().rxnClassesSubstrates : ActData.instance().rxnSubstrates;
-    HashMap<Long, Set<Long>> products_dataset = GlobalParams.USE_RXN_CLASSES ? ActData.instance().rxnClassesProducts : ActData.instance().rxnProducts;
+    Map<Long, Set<Long>> substrates_dataset = GlobalParams.USE_RXN_CLASSES ? ActData.instance().rxnClassesSubstrates : ActData.instance().rxnSubstrates;
+    Map<Long, Set<Long>> products_dataset = GlobalParams.USE_RXN_CLASSES ? ActData.instance().rxnClassesProducts : ActData.instance().rxnProducts;
 
     Set<Long> P = new HashSet<Long>();
     for (Long r : enabledRxns) {
@@ -567,6 +631,60 @@ public class WavefrontExpansion {
   }
 
   protected boolean anyEnabledReactions(Long orgID) {
+    if (!this.incremental)
+      return anyEnabledReactionsByScan(orgID);
+
+    for (Long r : this.enabled) {
+      if (orgID == null || ActData.instance().rxnOrganisms.get(r).contains(orgID))
+        return true;
+    }
+    return false;
+  }
+
+  protected Set<Long> extractEnabledRxns(Long orgID) {
+    if (!this.incremental)
+      return extractEnabledRxnsByScan(orgID);
+
+    List<Long> inOrg = new ArrayList<Long>();
+    for (Long r : this.enabled) {
+      // same as the scan below: if orgID is specified, only rxns that happen in the org
+      if (orgID == null || ActData.instance().rxnOrganisms.get(r).contains(orgID))
+        inOrg.add(r);
+    }
+    // hand them out in the order the scan would have found them, as that order
+    // decides the iteration order of the product and parent candidate sets
+    inOrg.sort(Comparator.comparing(this.rxn_needs_order::get));
+
+    Set<Long> enabledRxns = new HashSet<Long>();
+    for (Long r : inOrg) {
+      enabledRxns.add(r);
+      this.enabled.remove(r);
+      this.rxn_needs.remove(r);
+    }
+    return enabledRxns;
+  }
+
+  protected void updateEnabled(Set<Long> newReachables) {
+    if (!this.incremental) {
+      updateEnabledByScan(newReachables);
+      return;
+    }
+
+    // only the rxns that consume a new reachable can change; each loses that chem from its needs
+    for (Long c : newReachables) {
+      Set<Long> consumedBy = this.consumers.get(c);
+      if (consumedBy == null)
+        continue;
+      for (Long r : consumedBy) {
+        List<Long> needs = this.rxn_needs.get(r);
+        // removing in place keeps the remaining needs in their original order
+        if (needs != null && needs.remove(c) && needs.isEmpty())
+          this.enabled.add(r);
+      }
+    }
+  }
+
+  private boolean anyEnabledReactionsByScan(Long orgID) {
     for (Long r : this.rxn_needs.keySet()) {
       if (orgID == null || ActData.instance().rxnOrganisms.get(r).contains(orgID))
         if (this.rxn_needs.get(r).isEmpty())
@@ -575,7 +693,7 @@ public class WavefrontExpansion {
     return false;
   }
 
-  protected Set<Long> extractEnabledRxns(Long orgID) {
+  private Set<Long> extractEnabledRxnsByScan(Long orgID) {
     Set<Long> enabled = new HashSet<Long>();
     for (Long r : this.rxn_needs.keySet()) {
       if (this.rxn_needs.get(r).isEmpty()) {
@@ -590,7 +708,7 @@ public class WavefrontExpansion {
     return enabled;
   }
 
-  protected void updateEnabled(Set<Long> newReachables) {
+  private void updateEnabledByScan(Set<Long> newReachables) {
     for (Long r : this.rxn_needs.keySet()) {
       List<Long> needs = new ArrayList<Long>();
       for (Long l : this.rxn_needs.get(r)) {
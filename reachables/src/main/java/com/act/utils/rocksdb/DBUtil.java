@@ -104,6 +104,20 @@ public class DBUtil {
    */
   public static <T extends ColumnFamilyEnumeration<T>> RocksDBAndHandles<T> openExistingRocksDB(
       File pathToIndex, T[] columnFamilies) throws RocksDBException {
+    return openExistingRocksDB(pathToIndex, columnFamilies, false);
+  }
+
+  /**
+   * Open an existing RocksDB index, optionally read-only.  Any number of processes can open an index read-only at
+   * once, even while another process has it open for writing (though they won't see that process's later writes).
+   * @param pathToIndex A path to the RocksDB index directory to use.
+   * @param columnFamilies A list of column familities to open.  Must be exhaustive, non-empty, and non-null.
+   * @param readOnly Open the index without taking its write lock; writes to the returned DB will fail.
+   * @return A DB and map of column family labels (as T) to enums.
+   * @throws RocksDBException
+   */
+  public static <T extends ColumnFamilyEnumeration<T>> RocksDBAndHandles<T> openExistingRocksDB(
+      File pathToIndex, T[] columnFamilies, boolean readOnly) throws RocksDBException {
     if (columnFamilies == null || columnFamilies.length == 0) {
       throw new RuntimeException("Cannot open a RocksDB with an empty list of column families.");
     }
@@ -118,8 +132,9 @@ public class DBUtil {
 
     DBOptions dbOptions = ROCKS_DB_OPEN_OPTIONS;
     dbOptions.setCreateIfMissing(false);
-    RocksDB db = RocksDB.open(dbOptions, pathToIndex.getAbsolutePath(),
-        columnFamilyDescriptors, columnFamilyHandles);
+    RocksDB db = readOnly ?
+        RocksDB.openReadOnly(dbOptions, pathToIndex.getAbsolutePath(), columnFamilyDescriptors, columnFamilyHandles) :
+        RocksDB.open(dbOptions, pathToIndex.getAbsolutePath(), columnFamilyDescriptors, columnFamilyHandles);
     Map<T, ColumnFamilyHandle> columnFamilyHandleMap = new HashMap<>(columnFamilies.length);
     // TODO: can we zip these together more easily w/ Java 8?
 
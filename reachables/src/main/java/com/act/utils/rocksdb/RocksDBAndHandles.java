@@ -31,6 +31,9 @@ import org.rocksdb.RocksIterator;
 import org.rocksdb.WriteBatch;
 import org.rocksdb.WriteOptions;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 public class RocksDBAndHandles<T extends ColumnFamilyEnumeration<T>> {
@@ -90,6 +93,25 @@ public class RocksDBAndHandles<T extends ColumnFamilyEnumeration<T>> {
     return this.db.get(getHandle(columnFamily), key);
   }
 
+  /**
+   * Looks up many keys in one column family with a single call into RocksDB, which avoids paying the JNI overhead of
+   * get() for every key.
+   * @param columnFamily The column family from which to read.
+   * @param keys The keys to look up.
+   * @return The values of the keys, in the same order as the keys; keys with no value map to null.
+   * @throws RocksDBException
+   */
+  public List<byte[]> multiGet(T columnFamily, List<byte[]> keys) throws RocksDBException {
+    List<ColumnFamilyHandle> handles = Collections.nCopies(keys.size(), getHandle(columnFamily));
+    // The results are keyed by the very arrays we pass in, so identity-based lookups on byte[] are safe here.
+    Map<byte[], byte[]> results = this.db.multiGet(handles, keys);
+    List<byte[]> values = new ArrayList<>(keys.size());
+    for (byte[] key : keys) {
+      values.add(results.get(key));
+    }
+    return values;
+  }
+
   public void flush(boolean waitForFlush) throws RocksDBException {
     FlushOptions options = new FlushOptions();
     options.setWaitForFlush(waitForFlush);
@@ -44,7 +44,7 @@ public class CodonIndexer {
         
     }
     
-    public static CodonIndexer initiate() throws Exception {
+    public static synchronized CodonIndexer initiate() throws Exception {
         if(singleton!=null) {
             return singleton;
         }
@@ -0,0 +1,135 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package org.twentyn.proteintodna;
+
+import java.util.Random;
+
+/**
+ * Times the per-window work of SlidingWindowOptimizer.optimizeORF: hairpin scoring and forbidden site checks of
+ * preamble + 18 bp options, with the original String based code and with the packed code, and checks that they
+ * agree on every window.
+ *
+ * Usage: HairpinBenchmark [number of windows] [options per window]
+ */
+public class HairpinBenchmark {
+    private static final String BASES = "ACGT";
+    private static final int RBS_LENGTH = 35;
+    private static final int CODON_PREAMBLE_LENGTH = 9;
+    private static final int OPTION_LENGTH = 18;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int windows = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int optionsPerWindow = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+        Random random = new Random(20);
+        String[] preambles = new String[windows];
+        String[][] options = new String[windows][optionsPerWindow];
+        for (int w = 0; w < windows; w++) {
+            // Like optimizeORF, the first window of an ORF follows the RBS and the others the previous 3 codons
+            preambles[w] = randomSequence(random, w % 20 == 0 ? RBS_LENGTH : CODON_PREAMBLE_LENGTH);
+            for (int o = 0; o < optionsPerWindow; o++) {
+                options[w][o] = randomSequence(random, OPTION_LENGTH);
+            }
+        }
+
+        HairpinCounter counter = new HairpinCounter();
+        SequenceChecker checker = new SequenceChecker();
+        for (int w = 0; w < windows; w++) {
+            HairpinCounter.PrefixScorer scorer = counter.prefixScorer(preambles[w]);
+            for (String option : options[w]) {
+                String seq = preambles[w] + option;
+                double expected = counter.scoreUnpacked(seq);
+                if (counter.score(seq) != expected || scorer.score(option) != expected) {
+                    throw new RuntimeException("Packed hairpin score differs from the original for " + seq);
+                }
+                if (checker.check(seq) != checker.checkByString(seq)) {
+                    throw new RuntimeException("Automaton check differs from the original for " + seq);
+                }
+            }
+        }
+
+        long windowCount = (long) windows * optionsPerWindow;
+        for (int round = 1; round <= ROUNDS; round++) {
+            double sink = 0.0;
+
+            long start = System.nanoTime();
+            for (int w = 0; w < windows; w++) {
+                for (String option : options[w]) {
+                    sink += counter.scoreUnpacked(preambles[w] + option);
+                }
+            }
+            long unpacked = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int w = 0; w < windows; w++) {
+                for (String option : options[w]) {
+                    sink += counter.score(preambles[w] + option);
+                }
+            }
+            long packed = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int w = 0; w < windows; w++) {
+                HairpinCounter.PrefixScorer scorer = counter.prefixScorer(preambles[w]);
+                for (String option : options[w]) {
+                    sink += scorer.score(option);
+                }
+            }
+            long incremental = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int w = 0; w < windows; w++) {
+                for (String option : options[w]) {
+                    sink += checker.checkByString(preambles[w] + option) ? 1 : 0;
+                }
+            }
+            long checkByString = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int w = 0; w < windows; w++) {
+                for (String option : options[w]) {
+                    sink += checker.check(preambles[w] + option) ? 1 : 0;
+                }
+            }
+            long checkAutomaton = System.nanoTime() - start;
+
+            // The early rounds are JIT warmup; the later ones are the numbers to look at
+            System.out.format("round %d (checksum %.0f), ns per window:%n", round, sink);
+            System.out.format("  hairpins, original:    %8.1f%n", (double) unpacked / windowCount);
+            System.out.format("  hairpins, packed:      %8.1f%n", (double) packed / windowCount);
+            System.out.format("  hairpins, incremental: %8.1f%n", (double) incremental / windowCount);
+            System.out.format("  sites, String.contains: %7.1f%n", (double) checkByString / windowCount);
+            System.out.format("  sites, Aho-Corasick:    %7.1f%n", (double) checkAutomaton / windowCount);
+        }
+    }
+
+    private static String randomSequence(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(BASES.charAt(random.nextInt(BASES.length())));
+        }
+        return sb.toString();
+    }
+}
@@ -46,7 +46,133 @@ public class HairpinCounter {
         System.out.println("score: " + d);
     }
 
-    public double score(String seq) throws Exception {
+    private static final int MIN_SPACER = 4;
+    private static final int MAX_SPACER = 9;
+    private static final int ARM = 6;
+    private static final int NO_MISMATCH = 1 << (2 * ARM);
+
+    // REVERSE_COMPLEMENT_6[kmer] is the reverse complement of a packed 6-mer (see PackedSequence).
+    private static final int[] REVERSE_COMPLEMENT_6 = new int[1 << (2 * ARM)];
+    // HAIRPIN_SCORES[revComp << 3 | matched] is what one hairpin adds to the score when its prefix arm has the
+    // reverse complement revComp and the first `matched` bases of its suffix arm agree with it. This is exactly
+    // Math.pow(2, countHbonds(...)), so the packed scores add up to the same doubles as scoreUnpacked.
+    private static final double[] HAIRPIN_SCORES = new double[(1 << (2 * ARM)) << 3];
+
+    static {
+        for (int kmer = 0; kmer < REVERSE_COMPLEMENT_6.length; kmer++) {
+            int revComp = 0;
+            for (int i = 0; i < ARM; i++) {
+                int base = (kmer >>> (2 * (ARM - 1 - i))) & 3;
+                revComp |= (PackedSequence.T - base) << (2 * i);
+            }
+            REVERSE_COMPLEMENT_6[kmer] = revComp;
+        }
+        for (int revComp = 0; revComp < REVERSE_COMPLEMENT_6.length; revComp++) {
+            for (int matched = 0; matched <= ARM; matched++) {
+                // countHbonds records the index of the last match rather than the number of matches
+                int matchlength = matched == 0 ? 0 : matched - 1;
+                int hbonds = 0;
+                if (matchlength >= 3) {
+                    for (int i = 0; i < matchlength; i++) {
+                        int base = (revComp >>> (2 * i)) & 3;
+                        hbonds += base == PackedSequence.C || base == PackedSequence.G ? 3 : 2;
+                    }
+                }
+                HAIRPIN_SCORES[revComp << 3 | matched] = Math.pow(2, hbonds);
+            }
+        }
+    }
+
+    public double score(String seq) {
+        PackedSequence packed = PackedSequence.pack(seq);
+        return packed == null ? scoreUnpacked(seq) : score(packed);
+    }
+
+    public double score(PackedSequence seq) {
+        return sumHairpins(kmers(seq, new int[0]), 0, seq.length() - 1);
+    }
+
+    /**
+     * Returns a scorer for sequences that all start with prefix, e.g. the preamble shared by every codon option in
+     * a window of SlidingWindowOptimizer. The 6-mers and hairpins that lie entirely inside the prefix are computed
+     * once, so scoring prefix + suffix only has to look at the hairpins that reach into the suffix.
+     */
+    public PrefixScorer prefixScorer(String prefix) {
+        return new PrefixScorer(prefix);
+    }
+
+    public class PrefixScorer {
+        private final String prefix;
+        private final PackedSequence packedPrefix;
+        private final int[] prefixKmers;
+        private final double prefixScore;
+
+        private PrefixScorer(String prefix) {
+            this.prefix = prefix;
+            this.packedPrefix = PackedSequence.pack(prefix);
+            if (packedPrefix == null) {
+                this.prefixKmers = null;
+                this.prefixScore = 0.0;
+            } else {
+                this.prefixKmers = kmers(packedPrefix, new int[0]);
+                this.prefixScore = sumHairpins(prefixKmers, 0, prefix.length());
+            }
+        }
+
+        public double score(String suffix) {
+            // score() leaves out hairpins that end on the last base, so the prefix ones only all count if the
+            // sequence goes on past the prefix
+            if (packedPrefix == null || suffix.isEmpty()) {
+                return HairpinCounter.this.score(prefix + suffix);
+            }
+            PackedSequence seq = packedPrefix.append(suffix);
+            if (seq == null) {
+                return scoreUnpacked(prefix + suffix);
+            }
+            return prefixScore + sumHairpins(kmers(seq, prefixKmers), prefix.length(), seq.length() - 1);
+        }
+    }
+
+    /**
+     * Returns the packed 6-mer starting at every position of seq, rolling one base at a time. The first
+     * known.length 6-mers are taken from known, which must come from a prefix of seq.
+     */
+    private static int[] kmers(PackedSequence seq, int[] known) {
+        int[] kmers = new int[Math.max(0, seq.length() - ARM + 1)];
+        System.arraycopy(known, 0, kmers, 0, known.length);
+        for (int j = known.length; j < kmers.length; j++) {
+            if (j == 0) {
+                kmers[j] = (int) seq.kmer(0, ARM);
+            } else {
+                kmers[j] = kmers[j - 1] >>> 2 | seq.base(j + ARM - 1) << (2 * (ARM - 1));
+            }
+        }
+        return kmers;
+    }
+
+    /**
+     * Sums the scores of all hairpins whose (exclusive) end lies in (minEndExcl, maxEndExcl].
+     */
+    private static double sumHairpins(int[] kmers, int minEndExcl, int maxEndExcl) {
+        double out = 0.0;
+        for (int spaces = MIN_SPACER; spaces <= MAX_SPACER; spaces++) {
+            int span = spaces + 2 * ARM;
+            for (int i = Math.max(0, minEndExcl - span + 1); i + span <= maxEndExcl; i++) {
+                int revComp = REVERSE_COMPLEMENT_6[kmers[i]];
+                // bases of the suffix arm that agree with revComp xor to zero, so the trailing zero pairs are
+                // the leading matches
+                int mismatches = kmers[i + spaces + ARM] ^ revComp;
+                int matched = Integer.numberOfTrailingZeros(mismatches | NO_MISMATCH) >>> 1;
+                out += HAIRPIN_SCORES[revComp << 3 | matched];
+            }
+        }
+        return out;
+    }
+
+    /**
+     * The original char based scoring, used for sequences that cannot be packed (e.g. IUPAC codes).
+     */
+    double scoreUnpacked(String seq) {
         seq = seq.toUpperCase();
         char[] seqRevC = SequenceUtils.reverseComplement(seq).toCharArray();
         char[] s = seq.toCharArray();
@@ -56,11 +182,7 @@ public class HairpinCounter {
         for(int spaces = 4; spaces <= 9; spaces++) {
             //scan through the sequence and test each potential hairpin
             for(int i=0; i<len-spaces-12; i++) {
-                // String hairpin = seq.substring(i, i+spaces+12);
                 int hbonds = countHbonds(s, i, i+spaces+12, seqRevC, len);
-                // int hbondsInefficient = countHbonds(hairpin);
-                // if (hbondsInefficient != hbonds)
-                //   throw new Exception("not equal: " + hbonds + " <> " + hbondsInefficient);
                 out+= Math.pow(2, hbonds);
             }
             
@@ -0,0 +1,131 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package org.twentyn.proteintodna;
+
+import java.util.Arrays;
+
+/**
+ * An immutable nucleotide sequence packed at 2 bits per base (A=0, C=1, G=2, T=3), 32 bases to a long.
+ * Base i lives in the bits [2*(i%32), 2*(i%32)+2) of words[i/32], so the complement of a base is just 3 - base
+ * and k-mers read off the packed words come out with the first base in the lowest bits.
+ *
+ * Only plain A, C, G and T (either case) can be packed; pack returns null for anything else so callers can fall
+ * back to their String based code for IUPAC or otherwise unusual input.
+ */
+public class PackedSequence {
+    public static final int A = 0;
+    public static final int C = 1;
+    public static final int G = 2;
+    public static final int T = 3;
+
+    private static final int BASES_PER_WORD = 32;
+    private static final int[] CODES = new int[128];
+
+    static {
+        Arrays.fill(CODES, -1);
+        CODES['A'] = A;
+        CODES['a'] = A;
+        CODES['C'] = C;
+        CODES['c'] = C;
+        CODES['G'] = G;
+        CODES['g'] = G;
+        CODES['T'] = T;
+        CODES['t'] = T;
+    }
+
+    private final long[] words;
+    private final int length;
+
+    private PackedSequence(long[] words, int length) {
+        this.words = words;
+        this.length = length;
+    }
+
+    /**
+     * Returns the 2 bit code of a nucleotide, or -1 if it is not one of A, C, G or T.
+     */
+    public static int code(char achar) {
+        return achar < CODES.length ? CODES[achar] : -1;
+    }
+
+    /**
+     * Packs seq, or returns null if it contains anything but A, C, G and T.
+     */
+    public static PackedSequence pack(String seq) {
+        return empty(seq.length()).append(seq);
+    }
+
+    private static PackedSequence empty(int capacity) {
+        return new PackedSequence(new long[(capacity + BASES_PER_WORD - 1) / BASES_PER_WORD], 0);
+    }
+
+    /**
+     * Returns this sequence followed by suffix, or null if suffix contains anything but A, C, G and T.
+     * This sequence is not modified, so a shared prefix can be extended with many different suffixes.
+     */
+    public PackedSequence append(String suffix) {
+        int newLength = length + suffix.length();
+        long[] newWords = new long[(newLength + BASES_PER_WORD - 1) / BASES_PER_WORD];
+        System.arraycopy(words, 0, newWords, 0, Math.min(words.length, newWords.length));
+        for (int i = 0; i < suffix.length(); i++) {
+            int base = code(suffix.charAt(i));
+            if (base < 0) {
+                return null;
+            }
+            int pos = length + i;
+            newWords[pos / BASES_PER_WORD] |= (long) base << (2 * (pos % BASES_PER_WORD));
+        }
+        return new PackedSequence(newWords, newLength);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public int base(int i) {
+        return (int) (words[i / BASES_PER_WORD] >>> (2 * (i % BASES_PER_WORD))) & 3;
+    }
+
+    /**
+     * Returns the k bases starting at start (k <= 32) packed into the low 2*k bits, first base lowest.
+     */
+    public long kmer(int start, int k) {
+        int word = start / BASES_PER_WORD;
+        int shift = 2 * (start % BASES_PER_WORD);
+        long bits = words[word] >>> shift;
+        if (shift != 0 && word + 1 < words.length) {
+            bits |= words[word + 1] << (64 - shift);
+        }
+        return k == BASES_PER_WORD ? bits : bits & ((1L << (2 * k)) - 1);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append("ACGT".charAt(base(i)));
+        }
+        return sb.toString();
+    }
+}
@@ -43,21 +43,27 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.bson.types.ObjectId;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.mongojack.DBCursor;
 import org.mongojack.DBQuery;
 import org.mongojack.JacksonDBCollection;
-import org.mongojack.WriteResult;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -81,6 +87,11 @@ public class ProteinToDNADriver {
   private static final String OPTION_OUTPUT_PATHWAY_COLLECTION_NAME = "d";
   private static final String OPTION_OUTPUT_DNA_SEQ_COLLECTION_NAME = "e";
   private static final String OPTION_DESIGN_SOME = "m";
+  private static final String OPTION_THREADS = "t";
+  private static final String OPTION_INSERT_BATCH_SIZE = "b";
+  private static final String DEFAULT_THREADS = "1";
+  private static final String DEFAULT_INSERT_BATCH_SIZE = "50";
+  private static final int IN_FLIGHT_PATHWAYS_PER_THREAD = 2;
   private static final Integer HIGHEST_SCORING_INFERRED_SEQ_INDEX = 0;
   private static final Set<String> BLACKLISTED_WORDS_IN_INFERRED_SEQ = new HashSet<>(Arrays.asList("Fragment"));
 
@@ -143,6 +154,19 @@ public class ProteinToDNADriver {
         .hasArgs().valueSeparator('|')
         .longOpt("design-this")
     );
+    add(Option.builder(OPTION_THREADS)
+        .argName("threads")
+        .desc(String.format("The number of threads on which to design DNA for pathways (default: %s)", DEFAULT_THREADS))
+        .hasArg()
+        .longOpt("threads")
+    );
+    add(Option.builder(OPTION_INSERT_BATCH_SIZE)
+        .argName("batch size")
+        .desc(String.format("The number of pathways whose designs to insert per DB call (default: %s)",
+            DEFAULT_INSERT_BATCH_SIZE))
+        .hasArg()
+        .longOpt("insert-batch-size")
+    );
   }};
 
   public static final String HELP_MESSAGE =
@@ -220,156 +244,253 @@ public class ProteinToDNADriver {
       pathwayIds.add(cursor.next().getId());
     }
     
-    for (String pathwayId : pathwayIds) {
-      ReactionPath reactionPath = inputPathwayCollection.findOne(DBQuery.is("_id", pathwayId));
-
-      List<List<Pair<ProteinMetadata, Integer>>> processedP = RankPathway.processSinglePathAsJava(reactionPath, reactionDbName, outDB);
-      if (processedP == null) {
-        LOGGER.info(String.format("Process pathway was filtered out possibly because there were more than %s seqs for a given pathway",
-            RankPathway.MAX_PROTEINS_PER_PATH()));
-        outputPathwayCollection.insert(reactionPath);
-        continue;
-      }
+    int threads = Integer.parseInt(cl.getOptionValue(OPTION_THREADS, DEFAULT_THREADS));
+    int insertBatchSize = Integer.parseInt(cl.getOptionValue(OPTION_INSERT_BATCH_SIZE, DEFAULT_INSERT_BATCH_SIZE));
+    if (threads < 1 || insertBatchSize < 1) {
+      CLI_UTIL.failWithMessage("Thread count and insert batch size must be positive");
+    }
 
-      Boolean atleastOneSeqMissingInPathway = false;
-      List<Set<String>> proteinPaths = new ArrayList<>();
+    /* Pathways are read and their protein sequences extracted one at a time on this thread, in order, since that
+     * mostly waits on the DB and proteinSeqToOrgInfo accumulates as it goes.  The expensive part, designing DNA for
+     * every permutation of a pathway's proteins, runs on the worker pool, and results are written back in pathway
+     * order.  Each design takes a snapshot of its proteins' metadata at submission time, which is exactly what the
+     * design would have seen had the pathways been processed strictly one after another. */
+    ExecutorService workers = Executors.newFixedThreadPool(threads);
+    int maxInFlightPathways = threads * IN_FLIGHT_PATHWAYS_PER_THREAD;
+    Deque<PendingPathway> inFlight = new ArrayDeque<>(maxInFlightPathways + 1);
+    List<PendingPathway> designedPathways = new ArrayList<>(insertBatchSize);
+    try {
+      for (String pathwayId : pathwayIds) {
+        ReactionPath reactionPath = inputPathwayCollection.findOne(DBQuery.is("_id", pathwayId));
+        PendingPathway pending = new PendingPathway(reactionPath);
+
+        List<Set<String>> proteinPaths =
+            extractProteinPaths(reactionPath, reactionDB, reactionDbName, outDB, proteinSeqToOrgInfo);
+        if (proteinPaths != null) {
+          // We only compute the dna design if we can find at least one sequence for each reaction in the pathway.
+          pending.designs = new ArrayList<>();
+          for (List<String> proteinsInPathway : makePermutations(proteinPaths)) {
+            List<Set<ProteinInformation>> seqMetadata = new ArrayList<>();
+            for (String protein : proteinsInPathway) {
+              seqMetadata.add(new HashSet<>(proteinSeqToOrgInfo.get(protein)));
+            }
+            pending.designs.add(workers.submit(() -> new DNAOrgECNum(
+                p2d.computeDNA(proteinsInPathway, Host.Ecoli).toSeq(), seqMetadata, proteinsInPathway.size())));
+          }
+        }
+        inFlight.addLast(pending);
 
-      for (Cascade.NodeInformation nodeInformation :
-          reactionPath.getPath().stream().filter(nodeInfo -> nodeInfo.getIsReaction()).collect(Collectors.toList())) {
+        while (inFlight.size() > maxInFlightPathways) {
+          designedPathways.add(finishPathway(inFlight.removeFirst()));
+          if (designedPathways.size() >= insertBatchSize) {
+            writePathways(designedPathways, dnaDesignCollection, outputPathwayCollection);
+          }
+        }
+      }
 
-        Set<String> proteinSeqs = new HashSet<>();
+      while (!inFlight.isEmpty()) {
+        designedPathways.add(finishPathway(inFlight.removeFirst()));
+      }
+      writePathways(designedPathways, dnaDesignCollection, outputPathwayCollection);
+    } finally {
+      workers.shutdownNow();
+    }
+  }
 
-        for (Long id : nodeInformation.getReactionIds()) {
+  /**
+   * Gathers candidate protein sequences for each reaction in a pathway, recording each sequence's organism and EC
+   * number info in proteinSeqToOrgInfo.
+   * @return A list with a set of one or two representative sequences for each reaction in the pathway, or null if the
+   * pathway can't be designed, either because RankPathway filtered it out or because some reaction has no sequences.
+   */
+  private static List<Set<String>> extractProteinPaths(ReactionPath reactionPath, MongoDB reactionDB,
+                                                       String reactionDbName, String outDB,
+                                                       Map<String, Set<ProteinInformation>> proteinSeqToOrgInfo) {
+    List<List<Pair<ProteinMetadata, Integer>>> processedP = RankPathway.processSinglePathAsJava(reactionPath, reactionDbName, outDB);
+    if (processedP == null) {
+      LOGGER.info(String.format("Process pathway was filtered out possibly because there were more than %s seqs for a given pathway",
+          RankPathway.MAX_PROTEINS_PER_PATH()));
+      return null;
+    }
 
-          // If the id is negative, it is a reaction in the reverse direction. Moreover, the enzyme for this reverse
-          // reaction is the same, so can use the actual positive reaction id's protein seq reference.
-          // TODO: Add a preference for the positive forward direction compared to the negative backward direction seq.
-          if (id < 0) {
-            LOGGER.info("Found a negative reaction id", id);
-            id = Reaction.reverseID(id);
-          }
+    Boolean atleastOneSeqMissingInPathway = false;
+    List<Set<String>> proteinPaths = new ArrayList<>();
 
-          Reaction reaction = reactionDB.getReactionFromUUID(id);
+    for (Cascade.NodeInformation nodeInformation :
+        reactionPath.getPath().stream().filter(nodeInfo -> nodeInfo.getIsReaction()).collect(Collectors.toList())) {
 
-          for (JSONObject data : reaction.getProteinData()) {
-            // Get the sequences
-            if (data.has("sequences")) {
-              JSONArray seqs = data.getJSONArray("sequences");
+      Set<String> proteinSeqs = new HashSet<>();
 
-              for (int i = 0; i < seqs.length(); i++) {
-                Long s = seqs.getLong(i);
+      for (Long id : nodeInformation.getReactionIds()) {
 
-                if (s != null) {
-                  Seq sequenceInfo = reactionDB.getSeqFromID(s);
-                  String dnaSeq = sequenceInfo.getSequence();
+        // If the id is negative, it is a reaction in the reverse direction. Moreover, the enzyme for this reverse
+        // reaction is the same, so can use the actual positive reaction id's protein seq reference.
+        // TODO: Add a preference for the positive forward direction compared to the negative backward direction seq.
+        if (id < 0) {
+          LOGGER.info("Found a negative reaction id", id);
+          id = Reaction.reverseID(id);
+        }
 
-                  if (dnaSeq == null) {
-                    LOGGER.info(String.format("Sequence string for seq id %d, reaction id %d and reaction path %s is null",
-                        s, id, reactionPath.getId()));
-                    continue;
-                  }
+        Reaction reaction = reactionDB.getReactionFromUUID(id);
 
-                  // odd sequence
-                  if (dnaSeq.length() <= 80 || dnaSeq.charAt(0) != 'M') {
-                    JSONObject metadata = sequenceInfo.getMetadata();
+        for (JSONObject data : reaction.getProteinData()) {
+          // Get the sequences
+          if (data.has("sequences")) {
+            JSONArray seqs = data.getJSONArray("sequences");
 
-                    if (!metadata.has("inferred_sequences") || metadata.getJSONArray("inferred_sequences").length() == 0) {
-                      continue;
-                    }
+            for (int i = 0; i < seqs.length(); i++) {
+              Long s = seqs.getLong(i);
 
-                    JSONArray inferredSequences = metadata.getJSONArray("inferred_sequences");
+              if (s != null) {
+                Seq sequenceInfo = reactionDB.getSeqFromID(s);
+                String dnaSeq = sequenceInfo.getSequence();
 
-                    // get the first inferred sequence since it has the highest hmmer score
-                    JSONObject object = inferredSequences.getJSONObject(HIGHEST_SCORING_INFERRED_SEQ_INDEX);
+                if (dnaSeq == null) {
+                  LOGGER.info(String.format("Sequence string for seq id %d, reaction id %d and reaction path %s is null",
+                      s, id, reactionPath.getId()));
+                  continue;
+                }
 
-                    for (String blacklistWord : BLACKLISTED_WORDS_IN_INFERRED_SEQ) {
-                      if (object.getString("fasta_header").contains(blacklistWord)) {
-                        continue;
-                      }
-                    }
+                // odd sequence
+                if (dnaSeq.length() <= 80 || dnaSeq.charAt(0) != 'M') {
+                  JSONObject metadata = sequenceInfo.getMetadata();
 
-                    dnaSeq = object.getString("sequence");
+                  if (!metadata.has("inferred_sequences") || metadata.getJSONArray("inferred_sequences").length() == 0) {
+                    continue;
                   }
 
-                  proteinSeqs.add(dnaSeq);
-                  ProteinInformation proteinInformation = new ProteinInformation(sequenceInfo.getOrgName(), sequenceInfo.getEc(),
-                      sequenceInfo.getSequence(), reaction.getReactionName());
+                  JSONArray inferredSequences = metadata.getJSONArray("inferred_sequences");
+
+                  // get the first inferred sequence since it has the highest hmmer score
+                  JSONObject object = inferredSequences.getJSONObject(HIGHEST_SCORING_INFERRED_SEQ_INDEX);
 
-                  if (!proteinSeqToOrgInfo.containsKey(dnaSeq)) {
-                    proteinSeqToOrgInfo.put(dnaSeq, new HashSet<>());
+                  for (String blacklistWord : BLACKLISTED_WORDS_IN_INFERRED_SEQ) {
+                    if (object.getString("fasta_header").contains(blacklistWord)) {
+                      continue;
+                    }
                   }
-                  proteinSeqToOrgInfo.get(dnaSeq).add(proteinInformation);
+
+                  dnaSeq = object.getString("sequence");
+                }
+
+                proteinSeqs.add(dnaSeq);
+                ProteinInformation proteinInformation = new ProteinInformation(sequenceInfo.getOrgName(), sequenceInfo.getEc(),
+                    sequenceInfo.getSequence(), reaction.getReactionName());
+
+                if (!proteinSeqToOrgInfo.containsKey(dnaSeq)) {
+                  proteinSeqToOrgInfo.put(dnaSeq, new HashSet<>());
                 }
+                proteinSeqToOrgInfo.get(dnaSeq).add(proteinInformation);
               }
             }
           }
         }
+      }
 
-        if (proteinSeqs.size() == 0) {
-          LOGGER.info("The reaction does not have any viable protein sequences");
-          atleastOneSeqMissingInPathway = true;
-          break;
-        }
-
-        // Now we select two representative protein seqs from the reaction. In order to do this deterministically,
-        // we sort and pick the first and middle index protein seqs.
-        List<String> proteinSeqArray = new ArrayList<>(proteinSeqs);
-        Collections.sort(proteinSeqArray);
+      if (proteinSeqs.size() == 0) {
+        LOGGER.info("The reaction does not have any viable protein sequences");
+        atleastOneSeqMissingInPathway = true;
+        break;
+      }
 
-        int firstIndex = 0;
-        int middleIndex = proteinSeqs.size() / 2;
+      // Now we select two representative protein seqs from the reaction. In order to do this deterministically,
+      // we sort and pick the first and middle index protein seqs.
+      List<String> proteinSeqArray = new ArrayList<>(proteinSeqs);
+      Collections.sort(proteinSeqArray);
 
-        // get first seq
-        Set<String> combination = new HashSet<>();
-        combination.add(proteinSeqArray.get(firstIndex));
+      int firstIndex = 0;
+      int middleIndex = proteinSeqs.size() / 2;
 
-        // get middle index of the protein seq array
-        if (proteinSeqs.size() > 1) {
-          combination.add(proteinSeqArray.get(middleIndex));
-        }
+      // get first seq
+      Set<String> combination = new HashSet<>();
+      combination.add(proteinSeqArray.get(firstIndex));
 
-        proteinPaths.add(combination);
+      // get middle index of the protein seq array
+      if (proteinSeqs.size() > 1) {
+        combination.add(proteinSeqArray.get(middleIndex));
       }
 
-      if (atleastOneSeqMissingInPathway) {
-        LOGGER.info(String.format("There is at least one reaction with no sequence in reaction path id: %s", reactionPath.getId()));
-      } else {
-        LOGGER.info(String.format("All reactions in reaction path have at least one viable seq: %s", reactionPath.getId()));
+      proteinPaths.add(combination);
+    }
 
-        // We only compute the dna design if we can find at least one sequence for each reaction in the pathway.
-        Set<List<String>> pathwayProteinCombinations = makePermutations(proteinPaths);
-        Set<DNAOrgECNum> dnaDesigns = new HashSet<>();
+    if (atleastOneSeqMissingInPathway) {
+      LOGGER.info(String.format("There is at least one reaction with no sequence in reaction path id: %s", reactionPath.getId()));
+      return null;
+    }
 
-        for (List<String> proteinsInPathway : pathwayProteinCombinations) {
-          try {
-            Construct dna = p2d.computeDNA(proteinsInPathway, Host.Ecoli);
+    LOGGER.info(String.format("All reactions in reaction path have at least one viable seq: %s", reactionPath.getId()));
+    return proteinPaths;
+  }
 
-            List<Set<ProteinInformation>> seqMetadata = new ArrayList<>();
-            for (String protein : proteinsInPathway) {
-              seqMetadata.add(proteinSeqToOrgInfo.get(protein));
-            }
+  /**
+   * Waits for all of a pathway's designs to finish, and bundles up the successful ones.
+   */
+  private static PendingPathway finishPathway(PendingPathway pending) throws InterruptedException {
+    if (pending.designs != null) {
+      Set<DNAOrgECNum> dnaDesigns = new HashSet<>();
+      for (Future<DNAOrgECNum> design : pending.designs) {
+        try {
+          dnaDesigns.add(design.get());
+        } catch (ExecutionException ex) {
+          LOGGER.error("The error thrown while trying to call computeDNA: %s", ex.getCause().getMessage());
+        }
+      }
+      pending.dnaDesign = new DNADesign(dnaDesigns);
+    }
+    return pending;
+  }
 
-            DNAOrgECNum instance = new DNAOrgECNum(dna.toSeq(), seqMetadata, proteinsInPathway.size());
-            dnaDesigns.add(instance);
-          } catch (Exception ex) {
-            LOGGER.error("The error thrown while trying to call computeDNA", ex.getMessage());
+  /**
+   * Inserts a batch of finished pathways' designs with one DB call, links each pathway to its design, and then inserts
+   * the pathways in order.  Clears the batch.
+   */
+  private static void writePathways(List<PendingPathway> batch,
+                                    JacksonDBCollection<DNADesign, String> dnaDesignCollection,
+                                    JacksonDBCollection<ReactionPath, String> outputPathwayCollection) {
+    if (batch.isEmpty()) {
+      return;
+    }
+
+    List<PendingPathway> designed = batch.stream().filter(p -> p.dnaDesign != null).collect(Collectors.toList());
+    if (!designed.isEmpty()) {
+      // Assign ids up front so we can tell which designs made it in if the batch insert fails part way through.
+      for (PendingPathway pending : designed) {
+        pending.dnaDesign.setId(new ObjectId().toString());
+      }
+
+      try {
+        dnaDesignCollection.insert(designed.stream().map(p -> p.dnaDesign).collect(Collectors.toList()));
+        designed.forEach(p -> p.reactionPath.setDnaDesignRef(p.dnaDesign.getId()));
+      } catch (MongoInternalException e) {
+        // Some design was too big to insert.  Retry one at a time so that only the designs that are too big get lost.
+        for (PendingPathway pending : designed) {
+          if (dnaDesignCollection.findOneById(pending.dnaDesign.getId()) == null) {
+            try {
+              dnaDesignCollection.insert(pending.dnaDesign);
+            } catch (MongoInternalException ex) {
+              // This condition happens whent the protein designs are too big and cannot be inserted in to the JSON object.
+              // TODO: Handle this case without dropping the record
+              LOGGER.error(String.format("Mongo internal exception caught while inserting dna design: %s", ex.getMessage()));
+              continue;
+            }
           }
+          pending.reactionPath.setDnaDesignRef(pending.dnaDesign.getId());
         }
+      }
+    }
 
-        DNADesign dnaDesignSeq = new DNADesign(dnaDesigns);
-        try {
-          WriteResult<DNADesign, String> result = dnaDesignCollection.insert(dnaDesignSeq);
-          String id = result.getSavedId();
-          reactionPath.setDnaDesignRef(id);
-        } catch (MongoInternalException e) {
-          // This condition happens whent the protein designs are too big and cannot be inserted in to the JSON object.
-          // TODO: Handle this case without dropping the record
-          LOGGER.error(String.format("Mongo internal exception caught while inserting dna design: %s", e.getMessage()));
-        }
+    outputPathwayCollection.insert(batch.stream().map(p -> p.reactionPath).collect(Collectors.toList()));
+    batch.clear();
+  }
 
-      }
+  private static class PendingPathway {
+    final ReactionPath reactionPath;
+    // Null if no design should be made for this pathway.
+    List<Future<DNAOrgECNum>> designs = null;
+    DNADesign dnaDesign = null;
 
-      outputPathwayCollection.insert(reactionPath);
+    PendingPathway(ReactionPath reactionPath) {
+      this.reactionPath = reactionPath;
     }
   }
 
@@ -23,7 +23,9 @@
 
 package org.twentyn.proteintodna;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -47,89 +49,121 @@ public class SequenceChecker {
         }
     }
     
+    // Forbidden sites and the message to report for each, in the order check() reports them
+    private static final String[][] FORBIDDEN_SITES = {
+        {"AAAAAAAA", "Sequence has poly(A)"},
+        {"TTTTTTTT", "Sequence has poly(T)"},
+        {"CCCCCCCC", "Sequence has poly(C)"},
+        {"GGGGGGGG", "Sequence has poly(G)"},
+        {"CAATTG", "Sequence has MfeI"},
+        {"GAATTC", "Sequence has EcoRI"},
+        {"GGATCC", "Sequence has BamHI"},
+        {"AGATCT", "Sequence has BglII"},
+        {"ACTAGT", "Sequence has SpeI"},
+        {"TCTAGA", "Sequence has XbaI"},
+        {"GGTCTC", "Sequence has BsaI"},
+        {"GAGGAG", "Sequence has BseRI"},
+        {"CGTCTC", "Sequence has BsmBI"},
+        {"CACCTGC", "Sequence has AarI"},
+        {"CTGCAG", "Sequence has PstI"},
+        {"CTCGAG", "Sequence has XhoI"},
+        {"GCATGC", "Sequence has SphI"},
+        {"GTCGAC", "Sequence has SalI"},
+        {"GCGGCCGC", "Sequence has NotI"},
+        {"AAGCTT", "Sequence has HindIII"},
+    };
+
+    // Aho-Corasick automaton over A, C, G, T (PackedSequence codes) matching every forbidden site and its reverse
+    // complement, so one pass over the forward strand finds sites on either strand
+    private static final int[][] TRANSITIONS;
+    private static final boolean[] MATCHES;
+
+    static {
+        List<int[]> gotos = new ArrayList<>();
+        List<Boolean> terminal = new ArrayList<>();
+        gotos.add(new int[] {-1, -1, -1, -1});
+        terminal.add(false);
+        for (String[] site : FORBIDDEN_SITES) {
+            for (String pattern : new String[] {site[0], SequenceUtils.reverseComplement(site[0])}) {
+                int state = 0;
+                for (int i = 0; i < pattern.length(); i++) {
+                    int base = PackedSequence.code(pattern.charAt(i));
+                    if (gotos.get(state)[base] < 0) {
+                        gotos.get(state)[base] = gotos.size();
+                        gotos.add(new int[] {-1, -1, -1, -1});
+                        terminal.add(false);
+                    }
+                    state = gotos.get(state)[base];
+                }
+                terminal.set(state, true);
+            }
+        }
+
+        // Breadth first, fill in the failure transitions so every state has a move on every base
+        int[][] transitions = gotos.toArray(new int[gotos.size()][]);
+        boolean[] matches = new boolean[transitions.length];
+        int[] failure = new int[transitions.length];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int base = 0; base < 4; base++) {
+            if (transitions[0][base] < 0) {
+                transitions[0][base] = 0;
+            } else {
+                queue.add(transitions[0][base]);
+            }
+        }
+        for (int state = 0; state < transitions.length; state++) {
+            matches[state] = terminal.get(state);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            matches[state] |= matches[failure[state]];
+            for (int base = 0; base < 4; base++) {
+                int next = transitions[state][base];
+                if (next < 0) {
+                    transitions[state][base] = transitions[failure[state]][base];
+                } else {
+                    failure[next] = transitions[failure[state]][base];
+                    queue.add(next);
+                }
+            }
+        }
+        TRANSITIONS = transitions;
+        MATCHES = matches;
+    }
+
     public boolean check(String dnaseq) {
+        // Verbose runs want to know which site failed, so they take the slow path
+        if (verbose) {
+            return checkByString(dnaseq);
+        }
+        int state = 0;
+        for (int i = 0; i < dnaseq.length(); i++) {
+            int base = PackedSequence.code(dnaseq.charAt(i));
+            if (base < 0) {
+                // reverseComplement drops or maps anything that is not a plain base, which the automaton does
+                // not model, so leave those sequences to the original check
+                return checkByString(dnaseq);
+            }
+            state = TRANSITIONS[state][base];
+            if (MATCHES[state]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The original String based check, which looks for each site in turn on both strands.
+     */
+    boolean checkByString(String dnaseq) {
         String revcomp = SequenceUtils.reverseComplement(dnaseq);
         String combined = dnaseq + "x" + revcomp;
         combined = combined.toUpperCase();
-        if(combined.contains("AAAAAAAA")) {
-            printIfVerbose("Sequence has poly(A)");
-            return false;
-        }
-        if(combined.contains("TTTTTTTT")) {
-            printIfVerbose("Sequence has poly(T)");
-            return false;
-        }
-        if(combined.contains("CCCCCCCC")) {
-            printIfVerbose("Sequence has poly(C)");
-            return false;
-        }
-        if(combined.contains("GGGGGGGG")) {
-            printIfVerbose("Sequence has poly(G)");
-            return false;
-        }
-        if(combined.contains("CAATTG")) {
-            printIfVerbose("Sequence has MfeI");
-            return false;
-        }
-        if(combined.contains("GAATTC")) {
-            printIfVerbose("Sequence has EcoRI");
-            return false;
-        }
-        if(combined.contains("GGATCC")) {
-            printIfVerbose("Sequence has BamHI");
-            return false;
-        }
-        if(combined.contains("AGATCT")) {
-            printIfVerbose("Sequence has BglII");
-            return false;
-        }
-        if(combined.contains("ACTAGT")) {
-            printIfVerbose("Sequence has SpeI");
-            return false;
-        }
-        if(combined.contains("TCTAGA")) {
-            printIfVerbose("Sequence has XbaI");
-            return false;
-        }
-        if(combined.contains("GGTCTC")) {
-            printIfVerbose("Sequence has BsaI");
-            return false;
-        }
-        if(combined.contains("GAGGAG")) {
-            printIfVerbose("Sequence has BseRI");
-            return false;
-        }
-        if(combined.contains("CGTCTC")) {
-            printIfVerbose("Sequence has BsmBI");
-            return false;
-        }
-        if(combined.contains("CACCTGC")) {
-            printIfVerbose("Sequence has AarI");
-            return false;
-        }
-        if(combined.contains("CTGCAG")) {
-            printIfVerbose("Sequence has PstI");
-            return false;
-        }
-        if(combined.contains("CTCGAG")) {
-            printIfVerbose("Sequence has XhoI");
-            return false;
-        }
-        if(combined.contains("GCATGC")) {
-            printIfVerbose("Sequence has SphI");
-            return false;
-        }
-        if(combined.contains("GTCGAC")) {
-            printIfVerbose("Sequence has SalI");
-            return false;
-        }
-        if(combined.contains("GCGGCCGC")) {
-            printIfVerbose("Sequence has NotI");
-            return false;
-        }
-        if(combined.contains("AAGCTT")) {
-            printIfVerbose("Sequence has HindIII");
-            return false;
+        for (String[] site : FORBIDDEN_SITES) {
+            if (combined.contains(site[0])) {
+                printIfVerbose(site[1]);
+                return false;
+            }
         }
         
         return true;
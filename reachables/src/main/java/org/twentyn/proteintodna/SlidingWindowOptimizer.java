@@ -29,6 +29,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This is in concept similar to GeneOptimizer, but a fresh re-write.  It considers
@@ -46,6 +47,9 @@ public class SlidingWindowOptimizer {
     private RBSChooser3 rbsChooser;
     private HairpinCounter haircounter;
     
+    //Codons chosen by optimizeORF, keyed by RBS sequence and peptide (see mRNAconstruct)
+    private final Map<String, int[]> optimizedCodons = new ConcurrentHashMap<>();
+    
     private SlidingWindowOptimizer() {}
     
     public static SlidingWindowOptimizer initiate() throws Exception {
@@ -70,8 +74,18 @@ public class SlidingWindowOptimizer {
         //Choose the least edit distance RBS
         out.rbs = rbsChooser.choose(peptide, ignores);
         
-        //Optimize while eliminating secondary structure and removing forbidden sites
-        optimizeORF(out);
+        //Optimize while eliminating secondary structure and removing forbidden sites.
+        //The result only depends on the peptide and the RBS in front of it, and pathway
+        //permutations ask for the same proteins over and over, so only optimize each pair once.
+        //Everything else here is read-only after initiate(), so this is safe to share across threads.
+        String key = out.rbs.rbs + "|" + peptide;
+        int[] codons = optimizedCodons.get(key);
+        if(codons == null) {
+            optimizeORF(out);
+            optimizedCodons.put(key, out.codons.clone());
+        } else {
+            out.codons = codons.clone();
+        }
 
         return out;
     }
@@ -175,23 +189,27 @@ public class SlidingWindowOptimizer {
             Integer[] bestOption = null;
             double bestscore = 99999999;
             
+            //Every option shares the preamble, so only score the hairpins that reach into the new codons
+            HairpinCounter.PrefixScorer hairpins = haircounter.prefixScorer(preamble);
+            
             for(Integer[] option : encodingOptions) {
                 //Construct the sequence for the option
-                String sequence = preamble;
+                String window = "";
                 
                 for(int x=0; x<6; x++) {
                     char aa = aas6[x];
                     List<String> codons = indexer.aminoAcidToBestCodons.get(aa);
                     String codon = codons.get(option[x]);
-                    sequence += codon;
+                    window += codon;
                 }
+                String sequence = preamble + window;
                 
                 //Apply sequenceChecker to the sequence, abort if it is forbidden
                 boolean checked = checker.check(sequence);
 
                 if(checked) {
                   //See if it is better with hairpins than the previous, if so update
-                  double score = haircounter.score(sequence);
+                  double score = hairpins.score(window);
 
                   if(score < bestscore) {
                       bestscore = score;
@@ -27,6 +27,7 @@ import chemaxon.formats.MolExporter
 import chemaxon.marvin.io.MolExportException
 import chemaxon.struc.Molecule
 import com.act.analysis.chemicals.molecules.MoleculeFormat.MoleculeFormatType
+import com.github.benmanes.caffeine.cache.stats.CacheStats
 import com.github.benmanes.caffeine.cache.{Cache, Caffeine}
 import org.apache.logging.log4j.LogManager
 
@@ -42,12 +43,34 @@ object MoleculeExporter {
   private var maxCacheSize = 10000L
   // By hashing also on the format we can support a molecule being converted to multiple formats in a given JVM
   private val moleculeCache = TrieMap[MoleculeFormat.MoleculeFormatType, Cache[Molecule, String]]()
+  // Stats of caches that have since been cleared, so that getCacheStats covers the whole run.
+  private val clearedCacheStats = TrieMap[MoleculeFormat.MoleculeFormatType, CacheStats]()
 
   // Defaults to inchi which has aux information.
   private var defaultFormat: List[MoleculeFormat.MoleculeFormatType] = List(MoleculeFormat.inchi)
 
   def clearCache(): Unit ={
-    moleculeCache.keySet.foreach(key => moleculeCache.put(key, buildCache(key)))
+    moleculeCache.keySet.foreach(key => {
+      moleculeCache.put(key, buildCache(key)).foreach(cleared =>
+        clearedCacheStats.put(key, (cleared.stats() :: clearedCacheStats.get(key).toList).reduce(_.plus(_))))
+    })
+  }
+
+  /**
+    * Stats for the in-memory cache of each format, accumulated across clearCache calls.
+    */
+  def getCacheStats: Map[MoleculeFormat.MoleculeFormatType, CacheStats] = {
+    (moleculeCache.keySet ++ clearedCacheStats.keySet).map(format => {
+      val stats = moleculeCache.get(format).map(_.stats()).toList ::: clearedCacheStats.get(format).toList
+      format -> stats.reduce(_.plus(_))
+    }).toMap
+  }
+
+  def logCacheStats(): Unit = {
+    getCacheStats.foreach { case (format, stats) =>
+      LOGGER.info(s"${getClass.getCanonicalName} cache for $format: ${stats.hitCount} hits / ${stats.requestCount} " +
+        f"requests (${100.0 * stats.hitRate}%.1f%% hit rate), ${stats.evictionCount} evictions")
+    }
   }
 
   /**
@@ -23,10 +23,13 @@
 
 package com.act.analysis.chemicals.molecules
 
+import java.io.{File, IOException}
+
 import act.shared.Chemical
 import chemaxon.formats.{MolFormatException, MolImporter}
 import chemaxon.struc.Molecule
 import com.act.analysis.chemicals.molecules.MoleculeFormat.MoleculeFormatType
+import com.github.benmanes.caffeine.cache.stats.CacheStats
 import com.github.benmanes.caffeine.cache.{Cache, Caffeine}
 import org.apache.logging.log4j.LogManager
 
@@ -38,9 +41,92 @@ object MoleculeImporter {
   private var maxCacheSize = 10000L
   // Have a cache for each format.
   private val moleculeCache = TrieMap[MoleculeFormat.MoleculeFormatType, Cache[String, Molecule]]()
+  // Stats of caches that have since been cleared, so that getCacheStats covers the whole run.
+  private val clearedCacheStats = TrieMap[MoleculeFormat.MoleculeFormatType, CacheStats]()
+
+  /**
+    * Setting this system property to a directory puts a persistent MoleculeStore there behind the in-memory caches,
+    * e.g. -Dact.moleculeStore=/mnt/data/molecule_store on every Spark executor or Loader run that should share it.
+    */
+  val PERSISTENT_STORE_PROPERTY = "act.moleculeStore"
+  @volatile private var persistentStore: Option[MoleculeStore] = None
+  @volatile private var persistentStorePropertyChecked = false
 
   def clearCache(): Unit = {
-    moleculeCache.keySet.foreach(key => moleculeCache.put(key, buildCache(key)))
+    moleculeCache.keySet.foreach(key => {
+      moleculeCache.put(key, buildCache(key)).foreach(cleared =>
+        clearedCacheStats.put(key, (cleared.stats() :: clearedCacheStats.get(key).toList).reduce(_.plus(_))))
+    })
+  }
+
+  /**
+    * Stats for the in-memory cache of each format, accumulated across clearCache calls.
+    */
+  def getCacheStats: Map[MoleculeFormat.MoleculeFormatType, CacheStats] = {
+    (moleculeCache.keySet ++ clearedCacheStats.keySet).map(format => {
+      val stats = moleculeCache.get(format).map(_.stats()).toList ::: clearedCacheStats.get(format).toList
+      format -> stats.reduce(_.plus(_))
+    }).toMap
+  }
+
+  def logCacheStats(): Unit = {
+    getCacheStats.foreach { case (format, stats) =>
+      LOGGER.info(s"${getClass.getCanonicalName} cache for $format: ${stats.hitCount} hits / ${stats.requestCount} " +
+        f"requests (${100.0 * stats.hitRate}%.1f%% hit rate), ${stats.evictionCount} evictions")
+    }
+    persistentStore.foreach(_.logStats())
+  }
+
+  /**
+    * Puts a persistent store of imported molecules behind the in-memory caches.  Misses in memory are looked up in the
+    * store before being parsed, and newly parsed molecules are added to it, so they survive clearCache and are shared
+    * by every JVM using the same store.  Only InChI imports are stored, as they are by far the most expensive to parse.
+    *
+    * @param storeDir Directory of the store; it is created if needed.
+    * @param readOnly Only read from the store.  If false but another process is writing to the store, it is opened
+    *                 read-only anyway.
+    */
+  @throws[IOException]
+  def usePersistentStore(storeDir: File, readOnly: Boolean): Unit = synchronized {
+    closePersistentStore()
+    persistentStore = Option(if (readOnly) MoleculeStore.open(storeDir, true) else MoleculeStore.openShared(storeDir))
+    persistentStorePropertyChecked = true
+  }
+
+  @throws[IOException]
+  def closePersistentStore(): Unit = synchronized {
+    persistentStore.foreach(store => {
+      store.logStats()
+      store.close()
+    })
+    persistentStore = None
+  }
+
+  private def getPersistentStore: Option[MoleculeStore] = {
+    if (!persistentStorePropertyChecked) {
+      synchronized {
+        if (!persistentStorePropertyChecked) {
+          try {
+            Option(System.getProperty(PERSISTENT_STORE_PROPERTY)).foreach(dir => {
+              usePersistentStore(new File(dir), readOnly = false)
+              sys.addShutdownHook(closePersistentStore())
+            })
+          } catch {
+            // The store is only an optimization, so carry on parsing everything if it can't be opened.
+            case e: IOException =>
+              LOGGER.error(s"Unable to open molecule store at ${System.getProperty(PERSISTENT_STORE_PROPERTY)}, " +
+                "continuing without it", e)
+          } finally {
+            persistentStorePropertyChecked = true
+          }
+        }
+      }
+    }
+    persistentStore
+  }
+
+  private def isPersisted(format: MoleculeFormatType): Boolean = {
+    MoleculeFormat.getImportString(format).equals(MoleculeFormat.getImportString(MoleculeFormat.inchi))
   }
 
   /**
@@ -114,12 +200,34 @@ object MoleculeImporter {
     val molecule: Option[Molecule] = Option(moleculeCache(format).getIfPresent(mol))
 
     if (molecule.isEmpty) {
+      val store = if (isPersisted(format)) getPersistentStore else None
+      val storedMolecule = store.flatMap(s => {
+        try {
+          Option(s.get(format.toString, mol))
+        } catch {
+          case e: IOException =>
+            LOGGER.warn(s"Unable to read $mol from the molecule store, importing it instead", e)
+            None
+        }
+      })
+      if (storedMolecule.isDefined) {
+        moleculeCache(format).put(mol, storedMolecule.get)
+        return storedMolecule.get
+      }
+
       val newMolecule = MolImporter.importMol(mol, MoleculeFormat.getImportString(format))
 
       // Note: All these functions work in place on the molecule...
       val cleaningApplyFunction = MoleculeFormat.Cleaning.applyCleaningOnMolecule(newMolecule)_
       format.cleaningOptions.foreach(cleaningApplyFunction)
 
+      store.foreach(s => {
+        try {
+          s.put(format.toString, mol, newMolecule)
+        } catch {
+          case e: IOException => LOGGER.warn(s"Unable to write $mol to the molecule store", e)
+        }
+      })
       moleculeCache(format).put(mol, newMolecule)
       return newMolecule
     }
@@ -23,7 +23,7 @@
 
 package com.act.reachables
 
-import java.io.File
+import java.io.{BufferedWriter, File, FileWriter, Serializable}
 import java.lang.Long
 import java.util
 import java.util.NoSuchElementException
@@ -34,7 +34,6 @@ import com.act.analysis.proteome.scripts.OddSequencesToProteinPredictionFlow
 import com.act.reachables.Cascade.NodeInformation
 import com.act.workflow.tool_manager.workflow.workflow_mixins.mongo.{MongoKeywords, SequenceKeywords}
 import com.fasterxml.jackson.annotation._
-import com.github.benmanes.caffeine.cache.Caffeine
 import com.mongodb.{BasicDBList, BasicDBObject, DB, MongoClient, ServerAddress}
 import org.apache.commons.codec.digest.DigestUtils
 import org.apache.logging.log4j.LogManager
@@ -70,10 +69,10 @@ object Cascade extends Falls {
     DO_HMMER_SEQ = enable
   }
 
-  var RUN_LONGER_BUT_USE_LESS_MEM = true
-  def doFrequentCachePurges(enable: Boolean) {
-    println("Frequent cache purges to save memory (but run longer): " + (if (enable) "ON" else "OFF"))
-    RUN_LONGER_BUT_USE_LESS_MEM = enable
+  var CACHE_SIZE = 10000
+  def setCacheSize(size: Int) {
+    println("Cascade cache size set to: " + size)
+    CACHE_SIZE = size
   }
 
   var VERBOSITY = 2
@@ -90,37 +89,103 @@ object Cascade extends Falls {
 
   case class SubProductPair(substrates: List[Long], products: List[Long])
 
-  var nodeMerger: mutable.HashMap[SubProductPair, Node] = new mutable.HashMap()
+  // The reaction nodes created so far for the target being built on this thread (see inTargetScope)
+  private val nodeMergers = new ThreadLocal[mutable.HashMap[SubProductPair, Node]] {
+    override def initialValue() = new mutable.HashMap[SubProductPair, Node]()
+  }
+  def nodeMerger: mutable.HashMap[SubProductPair, Node] = nodeMergers.get
 
   // depth upto which to generate cascade data
   var max_cascade_depth = GlobalParams.MAX_CASCADE_DEPTH
 
-  val cacheBnd = Cascade.RUN_LONGER_BUT_USE_LESS_MEM match {
-    case true => Some(1000)
-    case false => None
-  }
+  // A cascade cached for reuse by other targets, together with the attributes of its nodes.  Those live in the
+  // GraphScope of the target that computed the cascade, so each target that reuses it gets its own copy of them.
+  case class CachedCascade(network: Network, nodeAttributes: Map[Long, util.HashMap[String, Serializable]])
+
+  // The caches are shared by all worker threads, so they are only created once the cache size is set
+
   // the best precursor reaction
-  var cache_bestpre_rxn = getCaffeineCache[Long, Map[SubProductPair, List[ReachRxn]]](cacheBnd)
+  lazy val cache_bestpre_rxn = getCaffeineCache[Long, Map[SubProductPair, List[ReachRxn]]](Some(CACHE_SIZE))
 
   // the cache of the cascade if it has been previously computed
-  var cache_nw = getCaffeineCache[Long, Option[Network]](cacheBnd)
+  lazy val cache_nw = getCaffeineCache[Long, CachedCascade](Some(CACHE_SIZE))
 
-  def getCaffeineCache[T, S](optBound: Option[Int]) = {
-    val caffeine = Caffeine.newBuilder().asInstanceOf[Caffeine[T, S]]
-    if (optBound.isDefined)
-      caffeine.maximumSize(optBound.get)
-    caffeine.recordStats()
-    val cache = caffeine.build[T, S]()
-    cache
+  /**
+    * Builds the cascade (and waterfall) of one target.  Nodes, edges and their attributes, and the reaction node
+    * merges, are private to the call, so calls for different targets can run at once on different threads.
+    */
+  def inTargetScope[T](work: => T): T = {
+    GraphScope.enter()
+    nodeMergers.remove()
+    try {
+      work
+    } finally {
+      nodeMergers.remove()
+      GraphScope.exit()
+    }
   }
-  
-  def clearAndRecreateCaches(): Unit = {
-    cache_bestpre_rxn = getCaffeineCache[Long, Map[SubProductPair, List[ReachRxn]]](cacheBnd)
-    cache_nw = getCaffeineCache[Long, Option[Network]](cacheBnd)
-    
-    // Making nodeMerger into a caffeine cache may fix the memory issues 
-    // that cause us to need to do this recreation in the first place.
-    nodeMerger = new mutable.HashMap()
+
+  private def copyAttributes(attributes: util.HashMap[String, Serializable]): util.HashMap[String, Serializable] = {
+    val copy = new util.HashMap[String, Serializable]()
+    attributes.foreach({
+      // reaction nodes accumulate reaction ids, organisms, etc. in place, so sets must not be shared
+      case (key, set: util.HashSet[_]) => copy.put(key, set.clone().asInstanceOf[Serializable])
+      case (key, value) => copy.put(key, value)
+    })
+    copy
+  }
+
+  private def cacheCascade(m: Long, network: Network): Unit = {
+    val attributes = network.nodeMapping.values().toList.
+      flatMap(n => Option(n.getAttr).map(attr => n.id -> copyAttributes(attr))).toMap
+    cache_nw.put(m, CachedCascade(network, attributes))
+  }
+
+  private def reuseCascade(cached: CachedCascade): Option[Network] = {
+    cached.nodeAttributes.foreach({ case (id, attributes) =>
+      if (Node.getAttribute(id, "isrxn") == null)
+        copyAttributes(attributes).foreach({ case (key, value) => Node.setAttribute(id, key, value) })
+    })
+    Some(cached.network)
+  }
+
+  /**
+    * A hash of the upstream graph structure that `target`'s cascade and waterfall are built from, and of the run options
+    * that shape them (max depth, whether cascades are cached, whether HMMER sequences are searched).  The graph part
+    * covers every reachable reaction (with substrates) on the way back from `target` to the natives, with its
+    * substrates, products, organisms, whether it has a sequence and the ids of its sequences, and the tree depth,
+    * native/cofactor status, InChI and readable name of every molecule those reactions touch.
+    *
+    * It does not cover anything else read from the DB while writing the outputs: reaction names, EC numbers, data
+    * sources, PMIDs, organism names and spontaneity through ReachRxnDescs, and the sequence records that the HMMER
+    * search (if enabled) checks and infers sequences from.  Stored outputs can be stale if only those changed.
+    */
+  def upstream_hash(target: Long): String = {
+    val molecules = mutable.HashSet[Long](target)
+    val reactions = mutable.HashMap[scala.Long, ReachRxn]()
+    val worklist = mutable.Stack[Long](target)
+    while (worklist.nonEmpty) {
+      val m = worklist.pop()
+      if (!is_universal(m)) {
+        for (r <- upR.getOrElse(m, Set()) if r.isreachable && has_substrates(r) && !reactions.contains(r.rxnid)) {
+          reactions.put(r.rxnid, r)
+          for (s <- r.substrates if molecules.add(s)) worklist.push(s)
+        }
+      }
+    }
+
+    def sorted(ids: util.Collection[Long]): String =
+      if (ids == null) "" else ids.toList.map(_.longValue).sorted.mkString(",")
+    val subgraph = new StringBuilder(
+      s"hmmer=$DO_HMMER_SEQ:max_depth=$max_cascade_depth:cache_cascades=$CACHE_CASCADES\n")
+    for (m <- molecules.toList.map(_.longValue).sorted)
+      subgraph.append(s"m$m:${ActData.instance.ActTree.tree_depth.get(m)}:${is_universal(m)}:" +
+        s"${ActData.instance.chemId2Inchis.get(m)}:${ActData.instance.chemId2ReadableName.get(m)}\n")
+    for ((id, r) <- reactions.toList.sortBy(_._1))
+      subgraph.append(s"r$id:${sorted(r.substrates)}:${sorted(r.products)}:" +
+        s"${sorted(ActData.instance.rxnOrganisms.get(id))}:${ActData.instance.rxnHasSeq.get(id)}:" +
+        s"${ReachRxnDescs.rxnSequence(id).map(_.toList.sorted.mkString(",")).getOrElse("")}\n")
+    DigestUtils.sha256Hex(subgraph.toString)
   }
 
   // We only pick rxns that lead monotonically backwards in the tree.
@@ -128,8 +193,10 @@ object Cascade extends Falls {
   // fwd in the tree, if the rxn is really good, but we risk infinite loops then)
 
   def pre_rxns(m: Long, higherInTree: Boolean = true): Map[SubProductPair, List[ReachRxn]] = {
-    if (higherInTree && cache_bestpre_rxn.asMap.containsKey(m)) {
-      return cache_bestpre_rxn.asMap.get(m)
+    if (higherInTree) {
+      val cached = cache_bestpre_rxn.getIfPresent(m)
+      if (cached != null)
+        return cached
     }
 
     // incoming unreachable rxns ignored
@@ -318,7 +385,9 @@ object Cascade extends Falls {
     max_cascade_depth = depth
   }
 
-  def addValid(m: Long, depth: Int, source: Option[Long], seen: Set[Long], network: Network, candidate: (SubProductPair, List[ReachRxn])) = {
+  // Returns whether the candidate is valid, and the molecules of the context (`source` and `seen`) that were pruned
+  // while deciding that.
+  def addValid(m: Long, depth: Int, source: Option[Long], seen: Set[Long], network: Network, candidate: (SubProductPair, List[ReachRxn])): (Boolean, Set[Long]) = {
     val oneValid = candidate match {
       case (subProduct, reactions) => {
         val substrates = subProduct.substrates
@@ -326,20 +395,22 @@ object Cascade extends Falls {
 
         if (substrates.exists(seen.contains(_))) {
           // this is not a valid candidate as it leads back to descendent (in `seen`) and will create cycle
-          false
+          (false, substrates.filter(seen.contains(_)).toSet)
         } else {
           // True for only cofactors and empty ist.
           if (substrates.forall(cofactors.contains)) {
             // Let this node be activated as it is activated by a coefficient only rxn
-            true
+            (true, Set[Long]())
           } else {
             val reactionsNode = rxn_node(reactions.map(r => Long.valueOf(r.rxnid)), subProduct)
 
             def recurse(s: Long) = {
               val src = if (depth == 0) Option(m) else source
-              (s, get_cascade(s, depth+1, src, seen + m))
+              val (subNetwork, pruned) = cascade(s, depth+1, src, seen + m)
+              ((s, subNetwork), pruned)
             }
-            val subProductNetworks = substrates.map(recurse)
+            val (subProductNetworks, pruned) = substrates.map(recurse).unzip
+            val prunedContext = pruned.flatten.toSet
             if (subProductNetworks.forall(_._2.isDefined)) {
               subProductNetworks.foreach(s => {
                 network.addNode(reactionsNode, rxn_node_ident(reactions.head.rxnid))
@@ -350,11 +421,11 @@ object Cascade extends Falls {
               })
 
               // this is a valid up-edge in the cascade
-              true
+              (true, prunedContext)
             } else {
               // at last one substrate cannot be traversed all the way back to cofactors
               // so this edge cannot be a valid edge going upwards in cascade
-              false
+              (false, prunedContext)
             }
           }
         }
@@ -364,16 +435,31 @@ object Cascade extends Falls {
     oneValid
   }
 
-  def get_cascade(m: Long, depth: Int = 0, source: Option[Long] = None, seen: Set[Long] = Set()): Option[Network] = 
-  if (CACHE_CASCADES && depth > 0 && cache_nw.asMap.containsKey(m)) cache_nw.asMap.get(m) else 
-  {
+  def get_cascade(m: Long, depth: Int = 0, source: Option[Long] = None, seen: Set[Long] = Set()): Option[Network] = {
+    cascade(m, depth, source, seen)._1
+  }
+
+  // The cascade of `m`, and the molecules of its context (`source` and `seen`) that were pruned while building it.
+  private def cascade(m: Long, depth: Int, source: Option[Long], seen: Set[Long]): (Option[Network], Set[Long]) = {
+    val cached = if (CACHE_CASCADES && depth > 0) Option(cache_nw.getIfPresent(m)) else None
+    // Only cascades that pruned nothing from their context are cached, so a cached cascade is exactly what we would
+    // build here, unless this context prunes one of its molecules.  That keeps the result independent of which target
+    // happened to build the cached cascade first, which matters when several targets are built at once.
+    if (cached.isDefined && !(seen ++ source).exists(c => cached.get.network.getNodeById(c) != null))
+      (reuseCascade(cached.get), Set())
+    else
+      build_cascade(m, depth, source, seen)
+  }
+
+  private def build_cascade(m: Long, depth: Int, source: Option[Long], seen: Set[Long]): (Option[Network], Set[Long]) = {
     // first check if we are "re-getting" the cascade for the main target,
     // and if so return empty. this allows us to break cycles around the target
-    if (source.isDefined && source.get == m) return None
+    if (source.isDefined && source.get == m) return (None, Set(m))
 
     val network = new Network("cascade_" + m)
     network.addNode(mol_node(m), m)
 
+    var prunedContext = Set[Long]()
     val optUpwardsCascade = if (is_universal(m)) {
       // do nothing, base case
       Some(network)
@@ -382,7 +468,9 @@ object Cascade extends Falls {
       // reactions producing this product are shown on the graph.
       val grouped: List[(SubProductPair, List[ReachRxn])] = pre_rxns(m, higherInTree = depth != 0).toList
 
-      val validNodes: List[Boolean] = grouped.map(x => addValid(m, depth, source, seen, network, x))
+      val (validNodes, pruned) = grouped.map(x => addValid(m, depth, source, seen, network, x)).unzip
+      // `m` itself is not part of the context of its own cascade
+      prunedContext = pruned.flatten.toSet - m
       // find if there was a single node that was valid (take OR of all valid's)
       val oneValid = validNodes.exists(_ == true)
 
@@ -403,13 +491,17 @@ object Cascade extends Falls {
     //    natives). In that case, we usually do want to exclude it. But there are times when 
     //    bidirectional edges exist in the cycle, and so there is a way to use the edges in it
     //    to actually break out of it. To allow for that case, we don't cache when the computation
-    //    evaluates to None. Every other case, good to go.
-    if (depth > 0 && optUpwardsCascade.isDefined) {
+    //    evaluates to None.
+    // 3) when building it pruned molecules of its context (the target, or the molecules between the target and it).
+    //    Another target would build a different network for this node, so caching it would make the result depend
+    //    on which target got here first.
+    // Every other case, good to go.
+    if (depth > 0 && optUpwardsCascade.isDefined && prunedContext.isEmpty) {
       // cache the network so we don't recompute it
-      cache_nw.put(m, optUpwardsCascade)
+      cacheCascade(m, optUpwardsCascade.get)
     }
 
-    optUpwardsCascade
+    (optUpwardsCascade, prunedContext)
   }
 
   def getAllPaths(network: Network, target: Long): Option[List[Path]] = {
@@ -903,6 +995,15 @@ class Cascade(target: Long) {
 
   def dot(): String = nw.toDOT
 
+  def writeDot(file: File): Unit = {
+    val writer = new BufferedWriter(new FileWriter(file))
+    try {
+      nw.writeDOT(writer)
+    } finally {
+      writer.close()
+    }
+  }
+
   def getPaths: List[String] = allStringPaths
 
 }
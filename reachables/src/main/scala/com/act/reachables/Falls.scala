@@ -23,6 +23,8 @@
 
 package com.act.reachables
 
+import com.github.benmanes.caffeine.cache.{Cache, Caffeine}
+
 import scala.collection.JavaConversions._
 
 trait Falls {
@@ -45,6 +47,16 @@ trait Falls {
     cofactors = ActData.instance.cofactors.map(Long.unbox(_)).toList
   }
 
+  // Caches shared by the worker threads that build cascades and waterfalls for different targets
+  def getCaffeineCache[T, S](optBound: Option[Int]): Cache[T, S] = {
+    val caffeine = Caffeine.newBuilder().asInstanceOf[Caffeine[T, S]]
+    if (optBound.isDefined)
+      caffeine.maximumSize(optBound.get)
+    caffeine.recordStats()
+    val cache = caffeine.build[T, S]()
+    cache
+  }
+
   def is_universal(m: Long) = natives.contains(m) || cofactors.contains(m)
 
   def has_substrates(r: ReachRxn) = ! r.substrates.isEmpty
@@ -23,6 +23,8 @@
 
 package com.act.reachables
 
+import java.util.concurrent.ConcurrentHashMap
+
 import act.server.MongoDB
 import act.shared.Reaction
 import act.shared.Reaction.RxnDataSource
@@ -33,7 +35,6 @@ import org.json.{JSONArray, JSONObject}
 import scala.collection.JavaConversions._
 import scala.collection.JavaConverters._
 import scala.collection.mutable.ListBuffer
-import scalaz.Memo
 
 object ReachRxnDescs {
   // Only needed during cascades information dump So load post-reachables
@@ -43,9 +44,25 @@ object ReachRxnDescs {
 
   lazy val db: MongoDB = new MongoDB(cascades.DEFAULT_DB._1, cascades.DEFAULT_DB._2, cascades.DEFAULT_DB._3)
 
-  val meta = Memo.mutableHashMapMemo[Long, Option[Reaction]] { rid => Option(cascades.get_reaction_by_UUID(db, rid)) }
+  // Cascades for different targets look these up from several threads at once.  Two threads may both compute a value
+  // that is missing; only the first one stored is kept.
+  private def concurrentMemo[K, V](f: K => V): K => V = {
+    val memo = new ConcurrentHashMap[K, V]()
+    key => {
+      val known = memo.get(key)
+      if (known != null) {
+        known
+      } else {
+        val computed = f(key)
+        val raced = memo.putIfAbsent(key, computed)
+        if (raced == null) computed else raced
+      }
+    }
+  }
+
+  val meta = concurrentMemo[Long, Option[Reaction]] { rid => Option(cascades.get_reaction_by_UUID(db, rid)) }
 
-  val rxnEasyDesc = Memo.mutableHashMapMemo[Long, Option[String]] { rid =>
+  val rxnEasyDesc = concurrentMemo[Long, Option[String]] { rid =>
     if (meta(rid).isDefined) {
       Option(meta(rid).get.getReactionName)
     } else {
@@ -53,7 +70,7 @@ object ReachRxnDescs {
     }
   }
 
-  val rxnECNumber = Memo.mutableHashMapMemo[Long, Option[String]] { rid =>
+  val rxnECNumber = concurrentMemo[Long, Option[String]] { rid =>
     if (meta(rid).isDefined) {
       Option(meta(rid).get.getECNum)
     } else {
@@ -61,7 +78,7 @@ object ReachRxnDescs {
     }
   }
 
-  val rxnDataSource = Memo.mutableHashMapMemo[Long, Option[RxnDataSource]] { rid =>
+  val rxnDataSource = concurrentMemo[Long, Option[RxnDataSource]] { rid =>
     if (meta(rid).isDefined) {
       Option(meta(rid).get.getDataSource)
     } else {
@@ -69,7 +86,7 @@ object ReachRxnDescs {
     }
   }
 
-  val rxnIsSpontaneous = Memo.mutableHashMapMemo[Long, Option[Boolean]] { rid =>
+  val rxnIsSpontaneous = concurrentMemo[Long, Option[Boolean]] { rid =>
     if (meta(rid).isDefined) {
       val referenceOrganisms: Boolean = meta(rid).get.getReferences.toList.
         flatMap(x => Option(x.snd())).exists(_.equals("isSpontaneous"))
@@ -80,7 +97,7 @@ object ReachRxnDescs {
   }
 
   // TODO: cache organism names instead of looking them up in the DB every time.  Use caffeine after a rebase.
-  val rxnOrganismNames = Memo.mutableHashMapMemo[Long, Option[Set[String]]] { rid =>
+  val rxnOrganismNames = concurrentMemo[Long, Option[Set[String]]] { rid =>
     if (meta(rid).isDefined) {
       // The entry looks like as follows:
       // OrganismId:<Number>
@@ -101,7 +118,7 @@ object ReachRxnDescs {
     }
   }
 
-  val rxnLiteratureReference = Memo.mutableHashMapMemo[Long, Option[Set[String]]] { rid =>
+  val rxnLiteratureReference = concurrentMemo[Long, Option[Set[String]]] { rid =>
     if (meta(rid).isDefined) {
       Option(meta(rid).get.getReferences(Reaction.RefDataSource.PMID).toSet)
     } else {
@@ -109,7 +126,7 @@ object ReachRxnDescs {
     }
   }
 
-  val rxnSequence = Memo.mutableHashMapMemo[Long, Option[Set[Long]]] { rid =>
+  val rxnSequence = concurrentMemo[Long, Option[Set[Long]]] { rid =>
     if (meta(rid).isDefined) {
       val sequences: Set[JSONArray] = meta(rid).get.getProteinData.
         map(x => if (x.has("sequences")) Option(x.getJSONArray("sequences")) else None).
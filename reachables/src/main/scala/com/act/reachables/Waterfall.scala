@@ -28,24 +28,25 @@ import org.json.{JSONArray, JSONObject}
 
 object Waterfall extends Falls {
   // cache of computed best precusors from a node
+  // (shared by the worker threads, and so only created once the cache size is set)
 
   // the best precursor reaction
   // : given a mol that is a product of many rxns
   //   which one is the best `precursing` rxns
-  var cache_bestpre_rxn = Map[Long, ReachRxn]()
+  lazy val cache_bestpre_rxn = getCaffeineCache[Long, ReachRxn](Some(Cascade.CACHE_SIZE))
 
   // the best precursor substrates
   // : given a reaction and one of its products
   //   which one of the substrates best matches the product
-  var cache_bestpre_substr = Map[(ReachRxn, Long), List[Long]]()
+  lazy val cache_bestpre_substr = getCaffeineCache[(ReachRxn, Long), List[Long]](Some(Cascade.CACHE_SIZE))
 
   // the best path backwards from a node
   // : given a mol what is the full single string of
   //   molecules that goes all the way back to natives
-  var cache_bestpath = Map[Long, Path]()
+  lazy val cache_bestpath = getCaffeineCache[Long, Path](Some(Cascade.CACHE_SIZE))
 
   def bestprecursor(rxn: ReachRxn, prod: Long): List[Long] =
-    if (cache_bestpre_substr contains (rxn, prod)) cache_bestpre_substr((rxn, prod)) else {
+    Option(cache_bestpre_substr.getIfPresent((rxn, prod))).getOrElse {
       // picks the substrates of the rxn that are most similar to prod
       // if the rxn is "join" (CoA + acetyl) | "exchange" (transaminase)
       // then it is allowed to return multiple substrates as needed for the rxn
@@ -54,7 +55,7 @@ object Waterfall extends Falls {
       val precursors = cascades.get_set(rxn.substrates).toList
       // val precursors = filter_by_edit_dist(subtrates, prod)
 
-      cache_bestpre_substr = cache_bestpre_substr + ((rxn, prod) -> precursors)
+      cache_bestpre_substr.put((rxn, prod), precursors)
 
       precursors
     }
@@ -63,7 +64,7 @@ object Waterfall extends Falls {
   // This is conservative to avoid cycles (we could be optimistic and jump
   // fwd in the tree, if the rxn is really good, but we risk infinite loops then)
 
-  def bestprecursor(m: Long): ReachRxn = if (cache_bestpre_rxn contains m) cache_bestpre_rxn(m) else {
+  def bestprecursor(m: Long): ReachRxn = Option(cache_bestpre_rxn.getIfPresent(m)).getOrElse {
     // incoming unreachable rxns ignored
     val upReach = upR(m).filter(_.isreachable)
 
@@ -193,7 +194,7 @@ object Waterfall extends Falls {
     // pick the most prominent reaction in the sort above
     val precursor_rxn = sorted.head._2.r
 
-    cache_bestpre_rxn = cache_bestpre_rxn + (m -> precursor_rxn)
+    cache_bestpre_rxn.put(m, precursor_rxn)
 
     // output. ------
     precursor_rxn
@@ -201,10 +202,11 @@ object Waterfall extends Falls {
 
   def bestpath(m: Long): Path = {
 
-    if (cache_bestpath contains m) {
+    val cached = cache_bestpath.getIfPresent(m)
+    if (cached != null) {
 
       // our cache has the path, return it
-      cache_bestpath(m)
+      cached
 
     } else {
       // construct a path all the way back to natives, starting with step 0
@@ -238,7 +240,7 @@ object Waterfall extends Falls {
       }
 
       // add to cache
-      cache_bestpath = cache_bestpath + (m -> path_built)
+      cache_bestpath.put(m, path_built)
 
       // return this new path
       path_built
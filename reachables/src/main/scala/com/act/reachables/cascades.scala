@@ -24,11 +24,16 @@
 package com.act.reachables
 
 import java.io.{File, FileOutputStream, FileWriter, PrintWriter}
+import java.util
 import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{ExecutionException, Executors}
 
 import act.server.MongoDB
 import act.shared.helpers.MongoDBToJSON
 import act.shared.{Chemical, Reaction}
+import com.fasterxml.jackson.core.`type`.TypeReference
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.mongodb.BasicDBObject
 import org.json.{JSONArray, JSONObject}
 
 import scala.collection.JavaConversions._
@@ -37,6 +42,12 @@ object cascades {
   private var DB_HOST: String = "localhost"
   private var DB_PORT: Int = 27017
   private var DB_NAME: String = "SHOULD_BE_PROVIDED_ON_CMDLINE" // "jarvis_2016-12-09"
+  private var THREADS: Int = 1
+
+  // outputs of earlier runs, reused for reachables whose upstream subgraph hasn't changed since
+  private var cascadeStore: Option[CascadeStore] = None
+  // (de)serializes the ReactionPath documents kept in the cascade store
+  private[reachables] val pathwayMapper = new ObjectMapper()
 
   lazy val DEFAULT_DB: (String, Int, String) = getDefaultDb
 
@@ -59,7 +70,9 @@ object cascades {
                   | --db-port=INT 
                   | --db-name=STRING
                   | --do-hmmer=BOOLEAN
-                  | --regularly-purge-cache=BOOLEAN
+                  | --cache-size=INT
+                  | --threads=INT
+                  | --cascade-store=DIR
                   | --verbosity=BOOLEAN
               """.stripMargin)
       System.exit(-1)
@@ -91,11 +104,21 @@ object cascades {
       case None => // let the default hold
     }
 
-    params.get("regularly-purge-cache") match {
-      case Some(x) => Cascade.doFrequentCachePurges(x.toBoolean)
+    params.get("cache-size") match {
+      case Some(x) => Cascade.setCacheSize(x.toInt)
+      case None => // let the default hold
+    }
+
+    params.get("threads") match {
+      case Some(x) => THREADS = x.toInt
       case None => // let the default hold
     }
 
+    params.get("cascade-store") match {
+      case Some(x) => cascadeStore = Some(CascadeStore.open(new File(x)))
+      case None => // recompute every cascade whose output files are missing
+    }
+
     params.get("verbosity") match {
       case Some(x) => Cascade.setVerbosity(x.toInt)
       case None => // let the default hold
@@ -212,24 +235,37 @@ object cascades {
     // These reachables are ordered such that common biosynthesizable molecules are done first.
     val reach = reachables
     
-    reach.distinct.foreach(reachid => {
-      val msg = f"id=$reachid%6d\tcount=${counter.getAndIncrement()}%5d\tCACHE: {cascades=${Cascade.cache_nw.stats.hitCount}%4d, pre_rxns=${Cascade.cache_bestpre_rxn.stats.hitCount}%4d, nodeMerger=${Cascade.nodeMerger.size}%5d}"
-      Cascade.time(msg) {
-        if (Cascade.VERBOSITY > 0)
-          print(f"\n\nReachable ID: $reachid%6d: ")
-
-        // constructInformationForReachable modifies global scope variables, so can't run in parallel.
-        constructInformationForReachable(reachid, dir)
+    // Each reachable is built in its own scope (nodes, edges and their attributes), over the read-only ActData graph
+    // and the shared, size-bounded cascade caches, so they can be built on a pool of workers.
+    val workers = Executors.newFixedThreadPool(THREADS)
+    val builds = reach.distinct.map(reachid => workers.submit(new Runnable {
+      override def run(): Unit = {
+        val msg = f"id=$reachid%6d\tcount=${counter.getAndIncrement()}%5d\tCACHE: {cascades=${Cascade.cache_nw.stats.hitCount}%4d, pre_rxns=${Cascade.cache_bestpre_rxn.stats.hitCount}%4d}"
+        Cascade.time(msg) {
+          if (Cascade.VERBOSITY > 0)
+            print(f"\n\nReachable ID: $reachid%6d: ")
+
+          Cascade.inTargetScope {
+            constructInformationForReachable(reachid, dir)
+          }
+        }
       }
-      
-      if (counter.get() % 1000 == 0) {
-        // Clear every 1000 to keep mem usage low so we don't slow down too much.
-        Cascade.clearAndRecreateCaches()
-        Node.clearAttributeData()
-      }
-    })
+    }))
+    workers.shutdown()
+    try {
+      builds.foreach(_.get)
+    } catch {
+      case e: ExecutionException =>
+        workers.shutdownNow()
+        throw e.getCause
+    }
 
     println("Done: Written node cascades/waterfalls.")
+    cascadeStore.foreach(store => {
+      println(s"Cascades reused from store: ${store.getReused}, recomputed: ${store.getRecomputed}")
+      store.logStats()
+      store.close()
+    })
 
     def merge_lset(a:Set[Long], b:Set[Long]) = a ++ b
     val rxnids = rxnsThatProduce.reduce(merge_lset) ++ rxnsThatConsume.reduce(merge_lset)
@@ -286,6 +322,11 @@ object cascades {
   }
 
   def constructInformationForReachable(reachid: Long, dir: String): Unit = {
+    if (cascadeStore.isDefined) {
+      constructInformationForReachableIncrementally(cascadeStore.get, reachid, dir)
+      return
+    }
+
     // write to disk; JS front end uses json
     val waterfallFile = new File(dir, s"p$reachid.json")
     if (!waterfallFile.exists()) {
@@ -299,8 +340,7 @@ object cascades {
     val cascadesFile = new File(dir, s"cscd$reachid.dot")
     if (!cascadesFile.exists()) {
       val cascade = new Cascade(reachid)
-      val dot = cascade.dot()
-      write_to(cascadesFile.getAbsolutePath, dot)
+      cascade.writeDot(cascadesFile)
       val writer = new FileWriter(new File(dir, s"paths$reachid.txt"))
       writer.write(cascade.allStringPaths.mkString("\n"))
       writer.close()
@@ -308,9 +348,41 @@ object cascades {
 
     // color attributes are cascade specific. so we clear them after each
     // cascade run. otherwise because we cache nodes, colors bleed across cascades
+    // (only matters when not run in its own Cascade.inTargetScope)
     Edge.clearAttributeOnAllEdges("color")
   }
 
+  // Like constructInformationForReachable, but reuses the outputs stored by an earlier run when the reachable's
+  // upstream subgraph is unchanged, and otherwise rebuilds them (whether or not output files exist) and stores them.
+  def constructInformationForReachableIncrementally(store: CascadeStore, reachid: Long, dir: String): Unit = {
+    val upstreamHash = Cascade.upstream_hash(reachid)
+    val stored = Option(store.get(reachid, upstreamHash))
+
+    // drop the pathways of any earlier run for this target; a new cascade may have fewer of them
+    Cascade.get_pathway_collection.remove(new BasicDBObject("target", reachid))
+
+    val entry = stored match {
+      case Some(e) =>
+        val pathways: util.List[ReactionPath] =
+          pathwayMapper.readValue(e.getPathwaysJson, new TypeReference[util.List[ReactionPath]] {})
+        if (!pathways.isEmpty)
+          Cascade.get_pathway_collection.insert(pathways)
+        e
+      case None =>
+        val waterfall = new Waterfall(reachid)
+        // inserts this cascade's pathways into the pathway collection
+        val cascade = new Cascade(reachid)
+        val e = new CascadeStore.Entry(upstreamHash, waterfall.json().toString(2), cascade.dot(),
+          cascade.allStringPaths.mkString("\n"), pathwayMapper.writeValueAsString(seqAsJavaList(cascade.sortedPaths)))
+        store.put(reachid, e)
+        e
+    }
+
+    write_to(new File(dir, s"p$reachid.json").getAbsolutePath, entry.getWaterfallJson)
+    write_to(new File(dir, s"cscd$reachid.dot").getAbsolutePath, entry.getCascadeDot)
+    write_to(new File(dir, s"paths$reachid.txt").getAbsolutePath, entry.getPaths)
+  }
+
   def rxn_json(r: Reaction) = {
     val id = r.getUUID()
     val mongo_json = MongoDB.createReactionDoc(r, id)
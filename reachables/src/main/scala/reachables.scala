@@ -47,6 +47,7 @@ object reachables {
       |           [--hasSeq=true|false]
       |           [--regressionSuiteDir=path]
       |           [--extra=semicolon-sep db.chemical fields]
+      |           [--load-threads=N]
       |
       |Example: run --prefix=r
       | will create reachables tree with prefix r and by default with only enzymes that have seq
@@ -63,6 +64,7 @@ object reachables {
   private val OPTION_EXTRA_INFORMATION = "e"
   private val OPTION_OUTPUT_DIRECTORY = "o"
   private val OPTION_DATABASE = "d"
+  private val OPTION_LOAD_THREADS = "t"
 
   private def getCommandLineOptions: Options = {
     val options = List[CliOption.Builder](
@@ -111,6 +113,12 @@ object reachables {
         desc("The database that the reachables collection will use.").
         required(true),
 
+      CliOption.builder(OPTION_LOAD_THREADS).
+        hasArg.
+        longOpt("load-threads").
+        desc("Load the graph on this many parallel DB cursors, fetching only the fields the graph needs.  " +
+          "The default (0) loads it on a single cursor."),
+
 
       CliOption.builder("h").argName("help").desc("Prints this help message").longOpt("help")
     )
@@ -159,6 +167,8 @@ object reachables {
     
     val currentDatabase = params.getOptionValue(OPTION_DATABASE)
 
+    GlobalParams._fastLoadThreads = params.getOptionValue(OPTION_LOAD_THREADS, "0").toInt
+
     writeReachableTree(prefix, currentDatabase, params.hasOption(OPTION_HAS_SEQ),
       Option(params.getOptionValues(OPTION_EXTRA_INFORMATION)),
       Option(params.getOptionValue(OPTION_REGRESSION_DIR)),
@@ -0,0 +1,80 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package act.server;
+
+import com.act.utils.MockRocksDBAndHandles;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ChemicalLookupIndexTest {
+  private static final String METHANE = "InChI=1S/CH4/h1H4";
+  private static final String WATER = "InChI=1S/H2O/h1H2";
+
+  private MockRocksDBAndHandles<ChemicalLookupIndex.COLUMN_FAMILIES> fakeDB;
+
+  @Before
+  public void setUp() throws Exception {
+    fakeDB = new MockRocksDBAndHandles<>(ChemicalLookupIndex.COLUMN_FAMILIES.values());
+  }
+
+  @Test
+  public void testLookupsMatchIndexedDocuments() throws Exception {
+    BasicDBList brendaNames = new BasicDBList();
+    brendaNames.add("methane");
+    DBObject methane = new BasicDBObject("_id", 3L).append("InChI", METHANE)
+        .append("names", new BasicDBObject("brenda", brendaNames));
+    DBObject water = new BasicDBObject("_id", 7L).append("InChI", WATER);
+    DBObject noInchi = new BasicDBObject("_id", 5L);
+
+    assertEquals("All chemicals are written", 3L,
+        ChemicalLookupIndex.writeChemicals(fakeDB, Arrays.asList(methane, water, noInchi).iterator(), "test"));
+
+    ChemicalLookupIndex index = new ChemicalLookupIndex(fakeDB);
+    assertEquals("Chemical count is recorded", 3L, index.getChemicalCount());
+    assertEquals("Largest id is recorded", 7L, index.getMaxId());
+
+    assertEquals("InChIs map to ids", Long.valueOf(3L), index.getIdForInChI(METHANE));
+    assertEquals("InChIs map to ids", Long.valueOf(7L), index.getIdForInChI(WATER));
+    assertNull("Unknown InChIs miss", index.getIdForInChI("InChI=1S/O2/c1-2"));
+
+    assertEquals("Documents round trip", methane, index.getChemicalDocument(3L));
+    assertEquals("Nested fields are DBObjects", brendaNames,
+        ((DBObject) index.getChemicalDocument(3L).get("names")).get("brenda"));
+    assertEquals("Chemicals without InChIs are still indexed by id", noInchi, index.getChemicalDocument(5L));
+    assertNull("Unknown ids miss", index.getChemicalDocument(4L));
+
+    assertEquals("Hits are counted", 2L, index.getIdHits());
+    assertEquals("Misses are counted", 1L, index.getIdMisses());
+    assertEquals("Hits are counted", 3L, index.getChemicalHits());
+    assertEquals("Misses are counted", 1L, index.getChemicalMisses());
+  }
+}
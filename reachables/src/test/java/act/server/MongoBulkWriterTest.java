@@ -0,0 +1,170 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package act.server;
+
+import act.shared.Chemical;
+import act.shared.Reaction;
+import com.mongodb.DBObject;
+import org.biopax.paxtools.model.level3.ConversionDirectionType;
+import org.biopax.paxtools.model.level3.StepDirection;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class MongoBulkWriterTest {
+  private static final String EXISTING_INCHI = "InChI=1S/CH4/h1H4";
+
+  private MongoDB mockDB;
+  private List<List<DBObject>> chemicalBatches;
+  private List<List<DBObject>> reactionBatches;
+
+  @Before
+  public void setUp() throws Exception {
+    mockDB = mock(MongoDB.class);
+    chemicalBatches = new ArrayList<>();
+    reactionBatches = new ArrayList<>();
+
+    Map<String, Long> existing = new HashMap<>();
+    existing.put(EXISTING_INCHI, 0L);
+    doReturn(existing).when(mockDB).getChemicalIdsByInChI();
+    doReturn(1L).when(mockDB).getNextAvailableChemicalDBid();
+    doReturn(10).when(mockDB).getNextAvailableReactionDBid();
+
+    // The writer clears its buffers after each write, so the captured batches must be copies.
+    doAnswer(new Answer() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        chemicalBatches.add(new ArrayList<>(invocation.getArgumentAt(0, Collection.class)));
+        return null;
+      }
+    }).when(mockDB).bulkInsertChemicalDocs(any(Collection.class));
+    doAnswer(new Answer() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        reactionBatches.add(new ArrayList<>(invocation.getArgumentAt(0, Collection.class)));
+        return null;
+      }
+    }).when(mockDB).bulkInsertReactionDocs(any(Collection.class));
+  }
+
+  private static Chemical makeChemical(String inchi) {
+    Chemical c = new Chemical(-1L);
+    c.setInchi(inchi);
+    return c;
+  }
+
+  private static Reaction makeReaction(String name) {
+    return makeReaction(-1L, name);
+  }
+
+  private static Reaction makeReaction(long id, String name) {
+    return new Reaction(id, new Long[]{1L}, new Long[]{2L}, new Long[0], new Long[0], new Long[0],
+        "1.1.1.1", ConversionDirectionType.LEFT_TO_RIGHT, StepDirection.LEFT_TO_RIGHT, name,
+        Reaction.RxnDetailType.CONCRETE);
+  }
+
+  @Test
+  public void testChemicalsAreBatchedAndDeduplicated() throws Exception {
+    MongoBulkWriter writer = new MongoBulkWriter(mockDB, 2);
+
+    assertEquals("New chemicals get ids from the pre-allocated range", 1L,
+        writer.submitChemical(makeChemical("InChI=1S/H2O/h1H2")));
+    assertEquals("Chemicals already in the DB are merged, not inserted", 0L,
+        writer.submitChemical(makeChemical(EXISTING_INCHI)));
+    verify(mockDB).submitToActChemicalDB(any(Chemical.class), eq(0L));
+    assertEquals("Nothing is written until the batch is full", 0, chemicalBatches.size());
+
+    assertEquals("Ids continue after merges", 2L, writer.submitChemical(makeChemical("InChI=1S/O2/c1-2")));
+    assertEquals("A full batch is written in one bulk insert", 1, chemicalBatches.size());
+    assertEquals("The batch contains both new chemicals", 2, chemicalBatches.get(0).size());
+    assertEquals("Batched documents carry their assigned ids", 1L, chemicalBatches.get(0).get(0).get("_id"));
+
+    // A chemical whose InChI was written through this writer must be deduplicated without touching the DB.
+    assertEquals("Chemicals written by this writer are deduplicated", 1L,
+        writer.submitChemical(makeChemical("InChI=1S/H2O/h1H2")));
+    verify(mockDB).submitToActChemicalDB(any(Chemical.class), eq(1L));
+
+    writer.close();
+    assertEquals("Closing with an empty buffer writes nothing more", 1, chemicalBatches.size());
+  }
+
+  @Test
+  public void testMergingIntoAPendingChemicalFlushesFirst() throws Exception {
+    MongoBulkWriter writer = new MongoBulkWriter(mockDB, 100);
+    writer.submitChemical(makeChemical("InChI=1S/H2O/h1H2"));
+    assertEquals("Chemical is still buffered", 0, chemicalBatches.size());
+
+    writer.submitChemical(makeChemical("InChI=1S/H2O/h1H2"));
+    assertEquals("Pending chemical is written before being merged into", 1, chemicalBatches.size());
+    verify(mockDB).submitToActChemicalDB(any(Chemical.class), eq(1L));
+  }
+
+  @Test
+  public void testReactionUpdatesReplacePendingDocuments() throws Exception {
+    MongoBulkWriter writer = new MongoBulkWriter(mockDB, 2);
+
+    int firstId = writer.submitReaction(makeReaction("first"));
+    assertEquals("Reaction ids start at the DB's next available id", 10, firstId);
+    Reaction updated = makeReaction("first, updated");
+    writer.updateReaction(updated, firstId);
+    verify(mockDB, never()).updateActReaction(any(Reaction.class), anyInt());
+
+    int secondId = writer.submitReaction(makeReaction("second"));
+    assertEquals("Reaction ids are sequential", 11, secondId);
+    assertEquals("A full batch is written in one bulk insert", 1, reactionBatches.size());
+    assertEquals("The pending document was replaced by the update", "first, updated",
+        reactionBatches.get(0).get(0).get("easy_desc"));
+
+    // Once flushed, updates go straight to the DB.
+    writer.updateReaction(updated, firstId);
+    verify(mockDB).updateActReaction(updated, firstId);
+    writer.close();
+    verify(mockDB, never()).submitToActReactionDB(any(Reaction.class));
+    verify(mockDB, never()).submitToActChemicalDB(any(Chemical.class), anyLong());
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testReactionsWithIdsAreRejected() throws Exception {
+    MongoBulkWriter writer = new MongoBulkWriter(mockDB);
+    writer.submitReaction(makeReaction(5L, "has an id"));
+  }
+}
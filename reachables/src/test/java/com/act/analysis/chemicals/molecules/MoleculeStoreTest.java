@@ -0,0 +1,73 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.analysis.chemicals.molecules;
+
+import chemaxon.formats.MolExporter;
+import chemaxon.formats.MolImporter;
+import chemaxon.struc.Molecule;
+import com.act.utils.MockRocksDBAndHandles;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+public class MoleculeStoreTest {
+  private static final String ACETIC_ACID = "InChI=1S/C2H4O2/c1-2(3)4/h1H3,(H,3,4)";
+  private static final String FORMAT = "inchi>";
+
+  private MockRocksDBAndHandles<MoleculeStore.COLUMN_FAMILIES> fakeDB;
+
+  @Before
+  public void setUp() throws Exception {
+    fakeDB = new MockRocksDBAndHandles<>(MoleculeStore.COLUMN_FAMILIES.values());
+  }
+
+  @Test
+  public void testMoleculesRoundTrip() throws Exception {
+    MoleculeStore store = new MoleculeStore(fakeDB, false);
+    Molecule imported = MolImporter.importMol(ACETIC_ACID, "inchi");
+
+    assertNull("Unseen molecules miss", store.get(FORMAT, ACETIC_ACID));
+    store.put(FORMAT, ACETIC_ACID, imported);
+
+    Molecule stored = store.get(FORMAT, ACETIC_ACID);
+    assertNotSame("Each lookup returns a new molecule", imported, stored);
+    assertEquals("Stored molecules export to the same InChI",
+        MolExporter.exportToFormat(imported, "inchi:AuxNone"), MolExporter.exportToFormat(stored, "inchi:AuxNone"));
+    assertNull("Formats are part of the key", store.get("inchi>aromatize", ACETIC_ACID));
+    assertEquals("Hits and misses are counted", 1L, store.getHits());
+    assertEquals("Hits and misses are counted", 2L, store.getMisses());
+    assertEquals("Writes are counted", 1L, store.getWrites());
+  }
+
+  @Test
+  public void testReadOnlyStoresIgnorePuts() throws Exception {
+    MoleculeStore store = new MoleculeStore(fakeDB, true);
+    store.put(FORMAT, ACETIC_ACID, MolImporter.importMol(ACETIC_ACID, "inchi"));
+    assertNull("Read-only stores don't write", store.get(FORMAT, ACETIC_ACID));
+    assertEquals("Nothing was written", 0L, store.getWrites());
+  }
+}
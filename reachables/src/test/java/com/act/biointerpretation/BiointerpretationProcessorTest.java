@@ -41,8 +41,10 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -174,4 +176,114 @@ public class BiointerpretationProcessorTest {
     assertEquals("Sequence refers to reaction correctly",
         Long.valueOf(r.getUUID()), seq.getReactionsCatalyzed().iterator().next());
   }
+
+  private MockedNoSQLAPI installManyReactions() {
+    Map<Long, String> inchiMap = new HashMap<>();
+    for (int i = 0; i < INCHIS.length; i++) {
+      inchiMap.put(i + 1L, INCHIS[i]);
+    }
+
+    // Every three consecutive reactions share a sequence, so sequence migration has to dedup across reactions.
+    List<Reaction> reactions = new ArrayList<>();
+    List<Seq> seqs = new ArrayList<>();
+    for (long i = 0; i < 100; i++) {
+      Reaction rxn = new Reaction(
+          100L + i, new Long[]{1L + i % 4}, new Long[]{1L + (i + 1) % 4}, new Long[0], new Long[0], new Long[0],
+          "1.1.1." + i, ConversionDirectionType.LEFT_TO_RIGHT, StepDirection.LEFT_TO_RIGHT, "Reaction " + i,
+          Reaction.RxnDetailType.CONCRETE);
+      if (i % 3 == 0) {
+        Seq seq = new Seq(1000L + i / 3, "1.1.1." + i, 10L, POTATO, "TATERISAWARE", new ArrayList<>(),
+            new BasicDBObject(), Seq.AccDB.trembl);
+        seq.setReactionsCatalyzed(new HashSet<>());
+        seqs.add(seq);
+      }
+      seqs.get(seqs.size() - 1).getReactionsCatalyzed().add(100L + i);
+      rxn.addProteinData(new JSONObject().
+          put("datasource", "FAKE!").
+          put("organisms", new JSONArray(Collections.singletonList(10L))).
+          put("sequences", new JSONArray(Collections.singletonList(1000L + i / 3)))
+      );
+      reactions.add(rxn);
+    }
+
+    MockedNoSQLAPI api = new MockedNoSQLAPI();
+    api.installMocks(reactions, seqs, Collections.singletonMap(10L, POTATO), inchiMap);
+    return api;
+  }
+
+  private BiointerpretationProcessor makeThreadSafeProcessor(MockedNoSQLAPI api, int threads) {
+    BiointerpretationProcessor processor = new BiointerpretationProcessor(api.getMockNoSQLAPI()) {
+      @Override
+      public String getName() {
+        return "testParallelProcessor";
+      }
+
+      @Override
+      public void init() throws Exception {
+        this.initCalled = true;
+      }
+
+      @Override
+      protected boolean isReactionProcessingThreadSafe() {
+        return true;
+      }
+
+      @Override
+      protected Reaction preProcessReaction(Reaction rxn) {
+        // Drop some reactions to make sure skipped reactions don't disturb the ordering.
+        return rxn.getUUID() % 7 == 0 ? null : rxn;
+      }
+
+      @Override
+      protected Reaction runSpecializedReactionProcessing(Reaction rxn, Long rxnId) {
+        // Finish in a scrambled order so the writer has to put the reactions back in sequence.
+        try {
+          Thread.sleep(new Random(rxnId).nextInt(5));
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        rxn.setMechanisticValidatorResult(new JSONObject().put("id", rxnId));
+        return rxn;
+      }
+    };
+    processor.setReactionProcessingThreads(threads);
+    return processor;
+  }
+
+  @Test
+  public void testParallelReactionProcessingMatchesSequential() throws Exception {
+    MockedNoSQLAPI sequentialAPI = installManyReactions();
+    BiointerpretationProcessor sequential = makeThreadSafeProcessor(sequentialAPI, 1);
+    sequential.init();
+    sequential.run();
+
+    MockedNoSQLAPI parallelAPI = installManyReactions();
+    BiointerpretationProcessor parallel = makeThreadSafeProcessor(parallelAPI, 4);
+    parallel.init();
+    parallel.run();
+
+    List<Reaction> expected = sequentialAPI.getWrittenReactions();
+    List<Reaction> actual = parallelAPI.getWrittenReactions();
+    assertEquals("Same number of reactions written", expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      Reaction e = expected.get(i);
+      Reaction a = actual.get(i);
+      assertEquals("Reaction ids match", e.getUUID(), a.getUUID());
+      assertEquals("EC numbers match", e.getECNum(), a.getECNum());
+      assertArrayEquals("Substrates match", e.getSubstrates(), a.getSubstrates());
+      assertArrayEquals("Products match", e.getProducts(), a.getProducts());
+      assertEquals("Specialized processing was applied and saved",
+          e.getMechanisticValidatorResult().toString(), a.getMechanisticValidatorResult().toString());
+      assertEquals("Protein data matches",
+          e.getProteinData().iterator().next().toString(), a.getProteinData().iterator().next().toString());
+    }
+
+    Map<Long, Seq> expectedSeqs = sequentialAPI.getWrittenSequences();
+    Map<Long, Seq> actualSeqs = parallelAPI.getWrittenSequences();
+    assertEquals("Same sequences written", expectedSeqs.keySet(), actualSeqs.keySet());
+    for (Long id : expectedSeqs.keySet()) {
+      assertEquals("Sequence reaction references migrated identically",
+          expectedSeqs.get(id).getReactionsCatalyzed(), actualSeqs.get(id).getReactionsCatalyzed());
+    }
+  }
 }
@@ -0,0 +1,113 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.biointerpretation.Utils;
+
+import chemaxon.formats.MolImporter;
+import chemaxon.reaction.Reactor;
+import chemaxon.struc.Molecule;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SubstructurePrefilterIndexTest {
+
+  private static final String AMINOPHENOL = "InChI=1S/C6H7NO/c7-5-1-3-6(8)4-2-5/h1-4,8H,7H2";
+  private static final String PHENOL = "InChI=1S/C6H6O/c7-6-4-2-1-3-5-6/h1-5,7H";
+  private static final String RO_STRING = "[H][#7:6]([H])-[#6:1]>>[H][#8]-[#6](=[#7:6]-[#6:1])C([H])([H])[H]";
+
+  private static long[] fingerprintInchi(String inchi) throws Exception {
+    return SubstructurePrefilterIndex.fingerprintMolecule(MolImporter.importMol(inchi));
+  }
+
+  private static long[] fingerprintSmarts(String smarts) throws Exception {
+    return SubstructurePrefilterIndex.fingerprintQuery(MolImporter.importMol(smarts, "smarts"));
+  }
+
+  @Test
+  public void testQueryIsScreenedByElementPaths() throws Exception {
+    long[] aminophenol = fingerprintInchi(AMINOPHENOL);
+    long[] phenol = fingerprintInchi(PHENOL);
+
+    long[] aromaticAmine = fingerprintSmarts("[#7]-[#6]:[#6]");
+    assertTrue("Aminophenol may contain an aromatic amine",
+        SubstructurePrefilterIndex.mayContain(aminophenol, aromaticAmine));
+    assertFalse("Phenol can't contain an amine", SubstructurePrefilterIndex.mayContain(phenol, aromaticAmine));
+
+    // Bond orders are ignored, since our searches treat ring bonds vaguely and allow tautomers.
+    assertTrue("Phenol may contain a C=O in some tautomer",
+        SubstructurePrefilterIndex.mayContain(phenol, fingerprintSmarts("[#6]=[#8]")));
+  }
+
+  @Test
+  public void testAtomListsDoNotRestrictQueries() throws Exception {
+    long[] phenol = fingerprintInchi(PHENOL);
+    assertTrue("Atom lists are left out of query paths",
+        SubstructurePrefilterIndex.mayContain(phenol, fingerprintSmarts("[#6]-[#7,#8]")));
+    assertFalse("Other atoms in the query still count",
+        SubstructurePrefilterIndex.mayContain(phenol, fingerprintSmarts("[#16]-[#7,#8]")));
+  }
+
+  @Test
+  public void testMayReactChecksEveryReactant() throws Exception {
+    Reactor reactor = new Reactor();
+    reactor.setReactionString(RO_STRING);
+    long[][] reactants = SubstructurePrefilterIndex.fingerprintReactants(reactor);
+
+    assertEquals("One reactant fingerprint per substrate", 1, reactants.length);
+    assertTrue("RO may react with aminophenol", SubstructurePrefilterIndex.mayReact(
+        Collections.singletonList(fingerprintInchi(AMINOPHENOL)), reactants));
+    assertFalse("RO can't react with phenol", SubstructurePrefilterIndex.mayReact(
+        Collections.singletonList(fingerprintInchi(PHENOL)), reactants));
+  }
+
+  @Test
+  public void testIndexRoundTripsThroughFile() throws Exception {
+    SubstructurePrefilterIndex index = new SubstructurePrefilterIndex();
+    index.add(AMINOPHENOL, MolImporter.importMol(AMINOPHENOL));
+    index.add(PHENOL, MolImporter.importMol(PHENOL));
+
+    File indexFile = File.createTempFile("prefilter-index", ".bin");
+    indexFile.deleteOnExit();
+    index.writeToFile(indexFile);
+    SubstructurePrefilterIndex readIndex = SubstructurePrefilterIndex.readFromFile(indexFile);
+
+    assertEquals("All fingerprints are read back", 2, readIndex.size());
+    assertArrayEquals("Fingerprints survive the round trip",
+        index.getFingerprint(AMINOPHENOL), readIndex.getFingerprint(AMINOPHENOL));
+    assertArrayEquals("Fingerprints survive the round trip",
+        index.getFingerprint(PHENOL), readIndex.getFingerprint(PHENOL));
+    assertNull("Unknown keys have no fingerprint", readIndex.getFingerprint("InChI=1S/CH4/h1H4"));
+
+    long[] amine = fingerprintSmarts("[#7]-[#6]");
+    assertFalse("Index screens molecules by key", readIndex.mayContain(PHENOL, amine));
+    assertTrue("Unknown keys are never screened out", readIndex.mayContain("InChI=1S/CH4/h1H4", amine));
+  }
+}
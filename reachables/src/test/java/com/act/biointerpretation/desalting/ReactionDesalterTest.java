@@ -38,6 +38,7 @@ import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 
 public class ReactionDesalterTest {
 
@@ -506,4 +507,44 @@ public class ReactionDesalterTest {
     assertEquals("Single product has expected coefficient", expectedProductCoefficients[0],
         rxn.getProductCoefficient(newProducts[0]));
   }
+
+  @Test
+  public void testPartialBatchesAreWrittenWhenBulkWritesAreEnabled() throws Exception {
+    Map<Long, String> idToInchi = new HashMap<>();
+    // 1 and 2 desalt to formic acid, so three distinct chemicals are written
+    idToInchi.put(1L, "InChI=1S/CH2O2.K/c2-1-3;/h1H,(H,2,3);/q;+1/p-1");
+    idToInchi.put(2L, "InChI=1S/CH2O2/c2-1-3/h1H,(H,2,3)/p-1");
+    idToInchi.put(3L, "InChI=1S/C2H4O2/c1-2(3)4/h1H3,(H,3,4)");
+    idToInchi.put(4L, "InChI=1S/CH4O/c1-2/h2H,1H3");
+
+    Long[] products = {4L};
+    Integer[] substrateCoefficients = {1};
+    Integer[] productCoefficients = {1};
+
+    List<Reaction> testReactions = new ArrayList<>();
+    for (long substrate = 1L; substrate <= 3L; substrate++) {
+      testReactions.add(utilsObject.makeTestReaction(
+          new Long[]{substrate}, products, substrateCoefficients, productCoefficients, true));
+    }
+
+    MockedNoSQLAPI mockAPI = new MockedNoSQLAPI();
+    mockAPI.installMocks(testReactions, utilsObject.SEQUENCES, utilsObject.ORGANISM_NAMES, idToInchi);
+    // Three reactions and three chemicals leave a partial batch of each behind.
+    mockAPI.enableBulkWrites(2);
+
+    ReactionDesalter testReactionDesalter = new ReactionDesalter(mockAPI.getMockNoSQLAPI());
+    testReactionDesalter.init();
+    testReactionDesalter.run();
+
+    assertEquals("All reactions, including the last partial batch, are written", 3,
+        mockAPI.getWrittenReactions().size());
+    assertEquals("All chemicals, including the last partial batch, are written", 3,
+        mockAPI.getWrittenChemicals().size());
+    for (Reaction rxn : mockAPI.getWrittenReactions()) {
+      assertNotNull("Written substrates resolve to written chemicals",
+          mockAPI.getWrittenChemicals().get(rxn.getSubstrates()[0]));
+      assertNotNull("Written products resolve to written chemicals",
+          mockAPI.getWrittenChemicals().get(rxn.getProducts()[0]));
+    }
+  }
 }
@@ -29,6 +29,7 @@ import com.act.biointerpretation.mechanisminspection.ErosCorpus;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -138,4 +139,40 @@ public class SingleSubstrateRoExpanderTest {
     // Assert
     assertEquals("No predictions made", 0, predictions.getCorpus().size());
   }
+
+  @Test
+  public void testL2ExpanderJsonlMatchesInMemoryPredictions() throws Exception {
+    // Arrange
+    List<String> metabolites = new ArrayList<>(validMetaboliteList);
+    metabolites.addAll(invalidMetaboliteList);
+    metabolites.addAll(validMetaboliteList);
+    L2InchiCorpus metaboliteCorpus = new L2InchiCorpus(metabolites);
+
+    SingleSubstrateRoExpander expander = new SingleSubstrateRoExpander(
+        new ErosCorpus(validRoList), metaboliteCorpus.getMolecules(), generator);
+    L2PredictionCorpus expected = expander.getPredictions();
+
+    SingleSubstrateRoExpander streamingExpander = new SingleSubstrateRoExpander(
+        new ErosCorpus(validRoList), metaboliteCorpus.getMolecules(), generator);
+    File outputFile = File.createTempFile("l2-predictions", ".jsonl");
+    outputFile.deleteOnExit();
+
+    // Execute
+    int written = streamingExpander.writePredictionsAsJsonl(outputFile, 2,
+        () -> new AllPredictionsGenerator(new ReactionProjector()));
+    L2PredictionCorpus actual = L2PredictionCorpus.readPredictionsFromJsonlFile(outputFile);
+
+    // Assert
+    assertEquals("Two predictions written", 2, written);
+    assertEquals("Same number of predictions read back as were written", written, actual.getCorpus().size());
+    for (int i = 0; i < expected.getCorpus().size(); i++) {
+      L2Prediction expectedPrediction = expected.getCorpus().get(i);
+      L2Prediction actualPrediction = actual.getCorpus().get(i);
+      assertEquals("Predictions are numbered in seed order", expectedPrediction.getId(), actualPrediction.getId());
+      assertEquals("Same substrates predicted",
+          expectedPrediction.getSubstrateInchis(), actualPrediction.getSubstrateInchis());
+      assertEquals("Same products predicted",
+          expectedPrediction.getProductInchis(), actualPrediction.getProductInchis());
+    }
+  }
 }
@@ -0,0 +1,97 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.biointerpretation.mechanisminspection;
+
+import com.act.utils.MockRocksDBAndHandles;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class EroProjectionCacheTest {
+  private static final String WATER = "InChI=1S/H2O/h1H2";
+  private static final String METHANOL = "InChI=1S/CH4O/c1-2/h2H,1H3";
+  private static final String FORMALDEHYDE = "InChI=1S/CH2O/c1-2/h1H2";
+
+  private MockRocksDBAndHandles<EroProjectionCache.COLUMN_FAMILIES> fakeDB;
+
+  @Before
+  public void setUp() throws Exception {
+    fakeDB = new MockRocksDBAndHandles<>(EroProjectionCache.COLUMN_FAMILIES.values());
+  }
+
+  @Test
+  public void testResultsRoundTripAndIgnoreOrder() throws Exception {
+    EroProjectionCache cache = new EroProjectionCache(fakeDB, "v1");
+    Map<Integer, Integer> scores = new HashMap<>();
+    scores.put(165, 4);
+    scores.put(12, 1);
+
+    assertNull("Unseen reactions miss",
+        cache.get(Arrays.asList(METHANOL, WATER), Collections.singletonList(FORMALDEHYDE)));
+    cache.put(Arrays.asList(METHANOL, WATER), Collections.singletonList(FORMALDEHYDE), scores);
+
+    assertEquals("Substrate order doesn't matter", scores,
+        cache.get(Arrays.asList(WATER, METHANOL), Collections.singletonList(FORMALDEHYDE)));
+    assertEquals("Duplicate products don't matter", scores,
+        cache.get(Arrays.asList(METHANOL, WATER), Arrays.asList(FORMALDEHYDE, FORMALDEHYDE)));
+    assertEquals("Hits and misses are counted", 2L, cache.getHits());
+    assertEquals("Hits and misses are counted", 1L, cache.getMisses());
+    assertEquals("Writes are counted", 1L, cache.getWrites());
+  }
+
+  @Test
+  public void testEmptyResultsAreCachedAsNoMatch() throws Exception {
+    EroProjectionCache cache = new EroProjectionCache(fakeDB, "v1");
+    List<String> substrates = Collections.singletonList(METHANOL);
+    cache.put(substrates, Collections.singletonList(FORMALDEHYDE), Collections.emptyMap());
+    assertEquals("A reaction no ERO matched is a hit with no scores", Collections.emptyMap(),
+        cache.get(substrates, Collections.singletonList(FORMALDEHYDE)));
+  }
+
+  @Test
+  public void testKeysDependOnCoefficientsAndVersion() throws Exception {
+    EroProjectionCache cache = new EroProjectionCache(fakeDB, "v1");
+    cache.put(Collections.singletonList(METHANOL), Collections.singletonList(FORMALDEHYDE),
+        Collections.singletonMap(1, 4));
+
+    assertNull("Substrate multiplicity is part of the key",
+        cache.get(Arrays.asList(METHANOL, METHANOL), Collections.singletonList(FORMALDEHYDE)));
+
+    // A cache opened over the same DB with a different corpus version must not see the old results.
+    EroProjectionCache newCorpusCache = new EroProjectionCache(fakeDB, "v2");
+    assertNull("Results from other corpus versions are ignored",
+        newCorpusCache.get(Collections.singletonList(METHANOL), Collections.singletonList(FORMALDEHYDE)));
+    assertEquals("Results persist for later users of the same version", Collections.singletonMap(1, 4),
+        new EroProjectionCache(fakeDB, "v1").get(
+            Collections.singletonList(METHANOL), Collections.singletonList(FORMALDEHYDE)));
+  }
+}
@@ -272,4 +272,57 @@ public class MechanisticValidatorTest {
     assertEquals("The mechanistic validator result should contain the correct score for that RO.",
         expectedScore, mockAPI.getWrittenReactions().get(0).getMechanisticValidatorResult().get(expectedRo));
   }
+
+  private MockedNoSQLAPI installReactionsForThreadingTest() {
+    Map<Long, String> idToInchi = new HashMap<>();
+    idToInchi.put(1L, "InChI=1S/p+1");
+    idToInchi.put(2L, "InChI=1S/C5H10O/c1-3-4-5(2)6/h3-4H2,1-2H3");
+    idToInchi.put(3L, "InChI=1S/C5H12O/c1-3-4-5(2)6/h5-6H,3-4H2,1-2H3/t5-/m1/s1");
+    idToInchi.put(4L, "InChI=1S/CH4O/c1-2/h2H,1H3");
+    idToInchi.put(5L, "InChI=1S/CH5O4P/c1-5-6(2,3)4/h1H3,(H2,2,3,4)");
+    idToInchi.put(6L, "InChI=1S/H2O/h1H2");
+
+    // Repeat each reaction a few times so that threads race on the result cache as well as on fresh projections.
+    List<Reaction> testReactions = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      testReactions.add(utilsObject.makeTestReaction(
+          new Long[]{3L}, new Long[]{1L, 2L}, new Integer[]{1}, new Integer[]{1, 1}, true));
+      testReactions.add(utilsObject.makeTestReaction(
+          new Long[]{4L, 5L}, new Long[]{4L, 5L}, new Integer[]{2, 1}, new Integer[]{1, 2}, true));
+      testReactions.add(utilsObject.makeTestReaction(
+          new Long[]{1L}, new Long[]{6L}, new Integer[]{1}, new Integer[]{1}, true));
+    }
+
+    MockedNoSQLAPI mockAPI = new MockedNoSQLAPI();
+    mockAPI.installMocks(testReactions, utilsObject.SEQUENCES, utilsObject.ORGANISM_NAMES, idToInchi);
+    return mockAPI;
+  }
+
+  @Test
+  public void testMultiThreadedScoringMatchesSingleThreadedScoring() throws Exception {
+    MockedNoSQLAPI sequentialAPI = installReactionsForThreadingTest();
+    MechanisticValidator sequentialValidator = new MechanisticValidator(sequentialAPI.getMockNoSQLAPI());
+    sequentialValidator.init();
+    sequentialValidator.run();
+
+    MockedNoSQLAPI parallelAPI = installReactionsForThreadingTest();
+    MechanisticValidator parallelValidator = new MechanisticValidator(parallelAPI.getMockNoSQLAPI());
+    parallelValidator.setReactionProcessingThreads(4);
+    parallelValidator.init();
+    parallelValidator.run();
+
+    List<Reaction> expected = sequentialAPI.getWrittenReactions();
+    List<Reaction> actual = parallelAPI.getWrittenReactions();
+    assertEquals("All reactions should be written to the DB", 12, actual.size());
+    assertEquals("The same reactions should be written to the DB", expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      JSONObject expectedResult = expected.get(i).getMechanisticValidatorResult();
+      JSONObject actualResult = actual.get(i).getMechanisticValidatorResult();
+      assertEquals(String.format("Validator results for reaction %d should match", i),
+          expectedResult == null ? null : expectedResult.toString(),
+          actualResult == null ? null : actualResult.toString());
+    }
+    assertTrue("The alcohol oxidation should match its EROs on every thread",
+        actual.get(9).getMechanisticValidatorResult().has("337"));
+  }
 }
@@ -119,6 +119,38 @@ public class MockedMongoDB {
 
   public MockedMongoDB() { }
 
+  /**
+   * Builds a mock DB that only serves chemicals by id, from the specified map.  Like the real DB (but unlike the mock
+   * built by installMocks), getChemicalsbyIds skips ids that have no chemical.
+   * @param chemicals The chemicals to serve, by id.
+   * @return A mock MongoDB.
+   */
+  public static MongoDB mockChemicalLookups(Map<Long, Chemical> chemicals) {
+    MongoDB mockMongoDB = mock(MongoDB.class);
+
+    doAnswer(new Answer<Iterator<Chemical>>() {
+      @Override
+      public Iterator<Chemical> answer(InvocationOnMock invocation) throws Throwable {
+        List<Chemical> found = new ArrayList<>();
+        for (Long id : (List<Long>) invocation.getArgumentAt(0, List.class)) {
+          if (chemicals.containsKey(id)) {
+            found.add(chemicals.get(id));
+          }
+        }
+        return found.iterator();
+      }
+    }).when(mockMongoDB).getChemicalsbyIds(any(List.class), any(boolean.class));
+
+    doAnswer(new Answer<Chemical>() {
+      @Override
+      public Chemical answer(InvocationOnMock invocation) throws Throwable {
+        return chemicals.get(invocation.getArgumentAt(0, Long.class));
+      }
+    }).when(mockMongoDB).getChemicalFromChemicalUUID(any(Long.class));
+
+    return mockMongoDB;
+  }
+
   public void installMocks(List<Reaction> testReactions, List<Seq> sequences, Map<Long, String> orgNames,
                            Map<Long, String> chemIdToInchi) {
     installMocks(testReactions, Collections.EMPTY_LIST, sequences, orgNames, chemIdToInchi);
@@ -69,6 +69,11 @@ public class MockedNoSQLAPI {
 
   final List<Reaction> writtenReactions = new ArrayList<>();
   final Map<Long, Chemical> writtenChemicals = new HashMap<>();
+
+  // Emulates NoSQLAPI.enableBulkWrites: when positive, writes are buffered here until a batch fills or is flushed.
+  int bulkBatchSize = 0;
+  final List<Reaction> pendingReactions = new ArrayList<>();
+  final Map<Long, Chemical> pendingChemicals = new HashMap<>();
   final Map<Long, String> writtenOrganismNames = new HashMap<>();
   final Map<Long, Seq> writtenSequences = new HashMap<>();
 
@@ -267,9 +272,16 @@ public class MockedNoSQLAPI {
       @Override
       public Integer answer(InvocationOnMock invocation) throws Throwable {
         Reaction r = invocation.getArgumentAt(0, Reaction.class);
-        Long id = writtenReactions.size() + 1L;
+        Long id = writtenReactions.size() + pendingReactions.size() + 1L;
         Reaction newR = copyReaction(r, id);
-        writtenReactions.add(newR);
+        if (bulkBatchSize > 0) {
+          pendingReactions.add(newR);
+          if (pendingReactions.size() >= bulkBatchSize) {
+            flushPendingReactions();
+          }
+        } else {
+          writtenReactions.add(newR);
+        }
         return id.intValue();
       }
     }).when(mockNoSQLAPI).writeToOutKnowlegeGraph(any(Reaction.class));
@@ -300,14 +312,49 @@ public class MockedNoSQLAPI {
       }
     }).when(mockWriteMongoDB).updateActReaction(any(Reaction.class), anyInt());
 
+    // Without bulk writes enabled, NoSQLAPI just forwards reaction updates to the write DB.  With them, updates to
+    // reactions that haven't been flushed yet replace the buffered copy.
+    doAnswer(new Answer() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        Reaction toBeUpdated = invocation.getArgumentAt(0, Reaction.class);
+        int id = invocation.getArgumentAt(1, Integer.class);
+        for (int i = 0; i < pendingReactions.size(); i++) {
+          if (pendingReactions.get(i).getUUID() == id) {
+            pendingReactions.set(i, copyReaction(toBeUpdated, Long.valueOf(id)));
+            return null;
+          }
+        }
+        mockWriteMongoDB.updateActReaction(
+            invocation.getArgumentAt(0, Reaction.class), invocation.getArgumentAt(1, Integer.class));
+        return null;
+      }
+    }).when(mockNoSQLAPI).updateReactionInOutKnowledgeGraph(any(Reaction.class), anyInt());
+
+    doAnswer(new Answer() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        flushPendingReactions();
+        flushPendingChemicals();
+        return null;
+      }
+    }).when(mockNoSQLAPI).flushWrites();
+
     doAnswer(new Answer<Long>() {
       @Override
       public Long answer(InvocationOnMock invocation) throws Throwable {
         Chemical chem = invocation.getArgumentAt(0, Chemical.class);
-        Long id = writtenChemicals.size() + 1L;
+        Long id = writtenChemicals.size() + pendingChemicals.size() + 1L;
         Chemical newChem = new Chemical(id);
         newChem.setInchi(chem.getInChI());
-        writtenChemicals.put(id, newChem);
+        if (bulkBatchSize > 0) {
+          pendingChemicals.put(id, newChem);
+          if (pendingChemicals.size() >= bulkBatchSize) {
+            flushPendingChemicals();
+          }
+        } else {
+          writtenChemicals.put(id, newChem);
+        }
         return id;
       }
     }).when(mockNoSQLAPI).writeToOutKnowlegeGraph(any(Chemical.class));
@@ -422,6 +469,27 @@ public class MockedNoSQLAPI {
 
   }
 
+  /**
+   * Makes the mocked NoSQLAPI buffer chemical and reaction writes like a bulk-enabled NoSQLAPI: written objects only
+   * show up in getWrittenReactions/getWrittenChemicals once `batchSize` of them are pending or flushWrites is called.
+   * @param batchSize The number of documents to buffer per collection.
+   */
+  public void enableBulkWrites(int batchSize) {
+    flushPendingReactions();
+    flushPendingChemicals();
+    this.bulkBatchSize = batchSize;
+  }
+
+  private void flushPendingReactions() {
+    writtenReactions.addAll(pendingReactions);
+    pendingReactions.clear();
+  }
+
+  private void flushPendingChemicals() {
+    writtenChemicals.putAll(pendingChemicals);
+    pendingChemicals.clear();
+  }
+
   public NoSQLAPI getMockNoSQLAPI() {
     return mockNoSQLAPI;
   }
@@ -0,0 +1,131 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.lcms;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LCMSNetCDFParserTest {
+  public static final double FP_TOLERANCE = 0.000001;
+
+  // Five scans over nine points; scans 1 and 4 are empty, and scan 3 straddles the boundaries of small chunks.
+  private static final int[] SCAN_STARTS = { 0, 3, 3, 5, 9 };
+  private static final int[] SCAN_COUNTS = { 3, 0, 2, 4, 0 };
+  private static final double[] SCAN_TIMES = { 1.0, 2.0, 3.0, 4.0, 5.0 };
+  private static final double[] TOTAL_INTENSITIES = { 60.0, 0.0, 90.0, 260.0, 0.0 };
+  private static final float[] MZS = { 100.1f, 100.2f, 100.3f, 200.1f, 200.2f, 300.1f, 300.2f, 300.3f, 300.4f };
+  private static final float[] INTENSITIES = { 10.0f, 20.0f, 30.0f, 40.0f, 50.0f, 55.0f, 60.0f, 65.0f, 80.0f };
+
+  private File netcdfFile;
+
+  @Before
+  public void setUp() throws Exception {
+    netcdfFile = File.createTempFile("lcms-netcdf-parser-test", ".nc");
+    NetcdfFileWriter writer =
+        NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, netcdfFile.getAbsolutePath());
+    writer.addDimension(null, "point_number", MZS.length);
+    writer.addDimension(null, "scan_number", SCAN_STARTS.length);
+    Variable mzs = writer.addVariable(null, LCMSNetCDFParser.MASS_VALUES, DataType.FLOAT, "point_number");
+    Variable intensities =
+        writer.addVariable(null, LCMSNetCDFParser.INTENSITY_VALUES, DataType.FLOAT, "point_number");
+    Variable times = writer.addVariable(null, LCMSNetCDFParser.SCAN_TIME, DataType.DOUBLE, "scan_number");
+    Variable starts = writer.addVariable(null, LCMSNetCDFParser.SCAN_POINTS_START, DataType.INT, "scan_number");
+    Variable counts = writer.addVariable(null, LCMSNetCDFParser.SCAN_POINTS_COUNT, DataType.INT, "scan_number");
+    Variable totals = writer.addVariable(null, LCMSNetCDFParser.TOTAL_INTENSITY, DataType.DOUBLE, "scan_number");
+    writer.create();
+    writer.write(mzs, Array.factory(MZS));
+    writer.write(intensities, Array.factory(INTENSITIES));
+    writer.write(times, Array.factory(SCAN_TIMES));
+    writer.write(starts, Array.factory(SCAN_STARTS));
+    writer.write(counts, Array.factory(SCAN_COUNTS));
+    writer.write(totals, Array.factory(TOTAL_INTENSITIES));
+    writer.close();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    netcdfFile.delete();
+  }
+
+  @Test
+  public void testChunkedReadsMatchTheFileScanForScan() throws Exception {
+    // Chunks of one point, smaller than a scan, exactly a scan, and the whole file.
+    for (int chunkPoints : new int[] { 1, 2, 4, LCMSNetCDFParser.DEFAULT_CHUNK_POINTS }) {
+      Iterator<PrimitiveLCMSSpectrum> spectra =
+          new LCMSNetCDFParser(chunkPoints).getPrimitiveIterator(netcdfFile.getAbsolutePath());
+      for (int scan = 0; scan < SCAN_STARTS.length; scan++) {
+        String prefix = String.format("Chunk size %d, scan %d: ", chunkPoints, scan);
+        assertTrue(prefix + "spectrum is available", spectra.hasNext());
+        PrimitiveLCMSSpectrum spectrum = spectra.next();
+        assertEquals(prefix + "index matches", scan, spectrum.getIndex());
+        assertEquals(prefix + "time matches", SCAN_TIMES[scan], spectrum.getTimeVal(), FP_TOLERANCE);
+        assertEquals(prefix + "total intensity matches",
+            TOTAL_INTENSITIES[scan], spectrum.getTotalIntensity(), FP_TOLERANCE);
+        assertEquals(prefix + "point count matches", SCAN_COUNTS[scan], spectrum.size());
+        for (int i = 0; i < SCAN_COUNTS[scan]; i++) {
+          assertEquals(prefix + "m/z matches", MZS[SCAN_STARTS[scan] + i], spectrum.getMZ(i), FP_TOLERANCE);
+          assertEquals(prefix + "intensity matches",
+              INTENSITIES[SCAN_STARTS[scan] + i], spectrum.getIntensity(i), FP_TOLERANCE);
+        }
+      }
+      assertFalse(String.format("Chunk size %d: no spectra remain", chunkPoints), spectra.hasNext());
+    }
+  }
+
+  @Test
+  public void testBoxedIteratorMatchesPrimitiveIterator() throws Exception {
+    LCMSNetCDFParser parser = new LCMSNetCDFParser(2);
+    Iterator<LCMSSpectrum> boxed = parser.getIterator(netcdfFile.getAbsolutePath());
+    Iterator<PrimitiveLCMSSpectrum> primitive = new LCMSNetCDFParser(2)
+        .getPrimitiveIterator(netcdfFile.getAbsolutePath());
+    while (primitive.hasNext()) {
+      assertTrue("Boxed iterator has as many spectra", boxed.hasNext());
+      PrimitiveLCMSSpectrum expected = primitive.next();
+      LCMSSpectrum actual = boxed.next();
+      assertEquals("Index matches", Integer.valueOf(expected.getIndex()), actual.getIndex());
+      assertEquals("Time matches", expected.getTimeVal(), actual.getTimeVal(), FP_TOLERANCE);
+      List<Pair<Double, Double>> points = actual.getIntensities();
+      assertEquals("Point count matches", expected.size(), points.size());
+      for (int i = 0; i < expected.size(); i++) {
+        assertEquals("m/z matches", expected.getMZ(i), points.get(i).getLeft(), FP_TOLERANCE);
+        assertEquals("Intensity matches", expected.getIntensity(i), points.get(i).getRight(), FP_TOLERANCE);
+      }
+    }
+    assertFalse("Boxed iterator has no extra spectra", boxed.hasNext());
+  }
+}
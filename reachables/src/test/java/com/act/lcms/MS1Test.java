@@ -0,0 +1,149 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.lcms;
+
+import com.act.lcms.db.model.MS1ScanForWellAndMassCharge;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class MS1Test {
+  private static final long SEED = 20170101L;
+  private static final int NUM_TIMEPOINTS = 200;
+  private static final int POINTS_PER_SPECTRUM = 500;
+  private static final double MIN_MZ = 100.0;
+  private static final double MAX_MZ = 110.0;
+
+  private List<LCMSSpectrum> makeSpectra(Random r, boolean shuffleOne) {
+    List<LCMSSpectrum> spectra = new ArrayList<>(NUM_TIMEPOINTS);
+    for (int t = 0; t < NUM_TIMEPOINTS; t++) {
+      List<Float> mzs = new ArrayList<>(POINTS_PER_SPECTRUM);
+      for (int i = 0; i < POINTS_PER_SPECTRUM; i++) {
+        mzs.add((float) (MIN_MZ + r.nextDouble() * (MAX_MZ - MIN_MZ)));
+      }
+      Collections.sort(mzs);
+      if (shuffleOne && t == NUM_TIMEPOINTS / 2) {
+        Collections.shuffle(mzs, r);
+      }
+
+      List<Pair<Double, Double>> mzIntensities = new ArrayList<>(POINTS_PER_SPECTRUM);
+      double totalIntensity = 0.0;
+      for (Float mz : mzs) {
+        // Add a big peak in the middle of the run so that some ions have non-trivial SNRs.
+        float intensity = (float) (r.nextDouble() * 100.0 * (Math.abs(t - NUM_TIMEPOINTS / 2) < 3 ? 1000.0 : 1.0));
+        mzIntensities.add(Pair.of(mz.doubleValue(), (double) intensity));
+        totalIntensity += intensity;
+      }
+      spectra.add(new LCMSSpectrum(t, t * 0.5, "s", mzIntensities, null, null, null, t, totalIntensity));
+    }
+    return spectra;
+  }
+
+  private Map<String, Double> makeIons(Random r, List<LCMSSpectrum> spectra) {
+    Map<String, Double> ions = new HashMap<>();
+    for (int i = 0; i < 50; i++) {
+      ions.put(String.format("random-%d", i), MIN_MZ + r.nextDouble() * (MAX_MZ - MIN_MZ));
+    }
+    // Ions whose windows fall exactly on readings exercise the window boundaries.
+    List<Pair<Double, Double>> readings = spectra.get(NUM_TIMEPOINTS / 2 + 1).getIntensities();
+    for (int i = 0; i < 10; i++) {
+      Double mz = readings.get(r.nextInt(readings.size())).getLeft();
+      ions.put(String.format("exact-%d", i), mz);
+      ions.put(String.format("edge-low-%d", i), mz + MS1.MS1_MZ_TOLERANCE_DEFAULT);
+      ions.put(String.format("edge-high-%d", i), mz - MS1.MS1_MZ_TOLERANCE_DEFAULT);
+    }
+    // Overlapping and out-of-range ions.
+    ions.put("duplicate", ions.get("exact-0"));
+    ions.put("below", MIN_MZ - 5.0);
+    ions.put("above", MAX_MZ + 5.0);
+    return ions;
+  }
+
+  private void assertSameResults(MS1ScanForWellAndMassCharge expected, MS1ScanForWellAndMassCharge actual) {
+    assertEquals("Same ions are extracted", expected.getIonsToSpectra().keySet(), actual.getIonsToSpectra().keySet());
+    for (Map.Entry<String, List<XZ>> entry : expected.getIonsToSpectra().entrySet()) {
+      String ion = entry.getKey();
+      List<XZ> expectedTrace = entry.getValue();
+      List<XZ> actualTrace = actual.getIonsToSpectra().get(ion);
+      assertEquals(String.format("Trace lengths match for %s", ion), expectedTrace.size(), actualTrace.size());
+      for (int i = 0; i < expectedTrace.size(); i++) {
+        // Exact equality is intentional: the sweep must sum readings in the same order as the baseline.
+        assertEquals(String.format("Times match for %s at %d", ion, i),
+            expectedTrace.get(i).getTime(), actualTrace.get(i).getTime());
+        assertEquals(String.format("Intensities match for %s at %d", ion, i),
+            expectedTrace.get(i).getIntensity(), actualTrace.get(i).getIntensity());
+      }
+    }
+    assertEquals("Integrals match", expected.getIonsToIntegral(), actual.getIonsToIntegral());
+    assertEquals("Maxima match", expected.getIonsToMax(), actual.getIonsToMax());
+    assertEquals("Log SNRs match", expected.getIonsToLogSNR(), actual.getIonsToLogSNR());
+    assertEquals("Signal averages match", expected.getIonsToAvgSignal(), actual.getIonsToAvgSignal());
+    assertEquals("Ambient averages match", expected.getIonsToAvgAmbient(), actual.getIonsToAvgAmbient());
+    assertEquals("Individual y-axis maxima match",
+        expected.getIndividualMaxIntensities(), actual.getIndividualMaxIntensities());
+    assertEquals("Global y-axis maxima match", expected.getMaxYAxis(), actual.getMaxYAxis());
+  }
+
+  private List<PrimitiveLCMSSpectrum> toPrimitive(List<LCMSSpectrum> spectra) {
+    List<PrimitiveLCMSSpectrum> primitiveSpectra = new ArrayList<>(spectra.size());
+    for (LCMSSpectrum spectrum : spectra) {
+      primitiveSpectra.add(PrimitiveLCMSSpectrum.fromLCMSSpectrum(spectrum));
+    }
+    return primitiveSpectra;
+  }
+
+  private void runComparison(boolean fineGrained, boolean useSNR, boolean shuffleOne) {
+    Random r = new Random(SEED);
+    List<LCMSSpectrum> spectra = makeSpectra(r, shuffleOne);
+    Map<String, Double> ions = makeIons(r, spectra);
+
+    MS1 ms1 = new MS1(fineGrained, useSNR);
+    MS1ScanForWellAndMassCharge expected = ms1.getMS1(ions, spectra.iterator());
+    MS1ScanForWellAndMassCharge actual = ms1.getMS1FromPrimitiveSpectra(ions, toPrimitive(spectra).iterator());
+    assertSameResults(expected, actual);
+  }
+
+  @Test
+  public void testSortedSweepMatchesBaselineCoarse() throws Exception {
+    runComparison(false, true, false);
+  }
+
+  @Test
+  public void testSortedSweepMatchesBaselineFine() throws Exception {
+    runComparison(true, false, false);
+  }
+
+  @Test
+  public void testSortedSweepMatchesBaselineWithUnsortedSpectrum() throws Exception {
+    runComparison(false, true, true);
+  }
+}
@@ -0,0 +1,88 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.lcms;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class PrimitiveLCMSSpectrumTest {
+  public static final double FP_TOLERANCE = 0.000001;
+
+  private static LCMSSpectrum makeSpectrum(float[] mzs, float[] intensities) {
+    List<Pair<Double, Double>> mzIntensities = new ArrayList<>(mzs.length);
+    for (int i = 0; i < mzs.length; i++) {
+      // Values are promoted from floats just as they are in the NetCDF parser.
+      mzIntensities.add(Pair.of((double) mzs[i], (double) intensities[i]));
+    }
+    return new LCMSSpectrum(3, 12.5, "s", mzIntensities, null, null, null, 3, 60.0);
+  }
+
+  @Test
+  public void testRoundTripMatchesBoxedSpectrum() throws Exception {
+    float[] mzs = { 100.001f, 100.002f, 250.125f };
+    float[] intensities = { 10.0f, 20.0f, 30.0f };
+    LCMSSpectrum expected = makeSpectrum(mzs, intensities);
+
+    PrimitiveLCMSSpectrum primitive = PrimitiveLCMSSpectrum.fromLCMSSpectrum(expected);
+    assertEquals("Primitive spectrum has the expected number of points", mzs.length, primitive.size());
+
+    LCMSSpectrum actual = primitive.toLCMSSpectrum();
+    assertEquals("Index is preserved", expected.getIndex(), actual.getIndex());
+    assertEquals("Scan is preserved", expected.getScan(), actual.getScan());
+    assertEquals("Time is preserved", expected.getTimeVal(), actual.getTimeVal(), FP_TOLERANCE);
+    assertEquals("Time unit is preserved", expected.getTimeUnit(), actual.getTimeUnit());
+    assertEquals("Total intensity is preserved",
+        expected.getTotalIntensity(), actual.getTotalIntensity(), FP_TOLERANCE);
+    // Exact equality is expected here, as the float -> double promotion is lossless.
+    assertEquals("Readings are identical", expected.getIntensities(), actual.getIntensities());
+  }
+
+  @Test
+  public void testResetGrowsBuffersAndCopyIsIndependent() throws Exception {
+    PrimitiveLCMSSpectrum spectrum = new PrimitiveLCMSSpectrum(1);
+    spectrum.reset(0, 1.0, "s", 3.0, 2);
+    assertEquals("Buffers grow to fit the requested size", 2, spectrum.getMZBuffer().length);
+    spectrum.getMZBuffer()[0] = 1.0f;
+    spectrum.getMZBuffer()[1] = 2.0f;
+    spectrum.getIntensityBuffer()[0] = 1.0f;
+    spectrum.getIntensityBuffer()[1] = 2.0f;
+
+    PrimitiveLCMSSpectrum copy = spectrum.copy();
+    spectrum.reset(1, 2.0, "s", 0.0, 1);
+    spectrum.getMZBuffer()[0] = 5.0f;
+
+    assertEquals("Reset shrinks the valid size without reallocating", 1, spectrum.size());
+    assertEquals("Copy retains its original size", 2, copy.size());
+    assertEquals("Copy is unaffected by writes to the original", 1.0, copy.getMZ(0), FP_TOLERANCE);
+
+    double[] promoted = copy.copyIntensities(null);
+    assertEquals("Promoted intensities have the expected length", 2, promoted.length);
+    assertEquals("Promoted intensities match", 2.0, promoted[1], FP_TOLERANCE);
+  }
+}
@@ -32,14 +32,17 @@ import org.junit.Test;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class BuilderTest {
   public static final double FP_TOLERANCE = 0.000001;
+  public static final int LIST_FORMAT = Builder.listFormatForIndexFormat(Builder.INDEX_FORMAT);
 
   public static final double[] TIMES = { 1.0, 2.0, 3.0 };
   public static final double[][] MZS = {
@@ -66,6 +69,10 @@ public class BuilderTest {
       }};
 
   public static MockRocksDBAndHandles<ColumnFamilies> populateTestDB() throws Exception {
+    return populateTestDB(Builder.DEFAULT_TIMEPOINTS_PER_BUCKET);
+  }
+
+  public static MockRocksDBAndHandles<ColumnFamilies> populateTestDB(int timepointsPerBucket) throws Exception {
     List<LCMSSpectrum> spectra = new ArrayList<> (TIMES.length);
     for (int i = 0; i < TIMES.length; i++) {
       List<Pair<Double, Double>> mzIntensities = new ArrayList<>();
@@ -79,7 +86,7 @@ public class BuilderTest {
 
     MockRocksDBAndHandles<ColumnFamilies> testDB =
         new MockRocksDBAndHandles<>(ColumnFamilies.values());
-    Builder builder = new Builder(testDB);
+    Builder builder = new Builder(testDB, timepointsPerBucket);
     builder.extractTriples(spectra.iterator(), MZ_WINDOWS);
     builder.writeWindowsToDB(MZ_WINDOWS);
     return testDB;
@@ -119,13 +126,9 @@ public class BuilderTest {
       int windowId = ByteBuffer.wrap(fakeDB.byteListToArray(entry.getKey())).getInt();
       MZWindow window = windowIdsToWindows.get(windowId);
 
-      List<Long> tmziIds = new ArrayList<>(entry.getValue().length / Long.BYTES);
-      ByteBuffer valBuffer = ByteBuffer.wrap(entry.getValue());
-      while (valBuffer.hasRemaining()) {
-        tmziIds.add(valBuffer.getLong());
-      }
+      long[] tmziIds = PostingList.decode(entry.getValue(), LIST_FORMAT);
 
-      for (Long tripleId : tmziIds) {
+      for (long tripleId : tmziIds) {
         TMzI triple = deserializedTriples.get(tripleId);
         assertTrue("Triple m/z falls within range of containing window",
             triple.getMz() >= window.getMin() && triple.getMz() <= window.getMax()
@@ -133,21 +136,85 @@ public class BuilderTest {
       }
     }
 
+    // Time points map to consecutive ranges of triple ids via the offsets list.
+    ByteBuffer offsets = ByteBuffer.wrap(fakeDB.get(ColumnFamilies.TIMEPOINTS, Builder.TIMEPOINT_ID_OFFSETS_KEY));
+    long rangeStart = offsets.getLong();
+    for (double time : TIMES) {
+      long rangeEnd = offsets.getLong();
+      for (long tripleId = rangeStart; tripleId < rangeEnd; tripleId++) {
+        TMzI triple = deserializedTriples.get(tripleId);
+        assertEquals("Triple time matches its time point", time, triple.getTime(), FP_TOLERANCE);
+      }
+      rangeStart = rangeEnd;
+    }
+  }
+
+  @Test
+  public void testIndexFormatIsRecorded() throws Exception {
+    byte[] formatBytes = fakeDB.get(ColumnFamilies.TIMEPOINTS, Builder.FORMAT_KEY);
+    assertEquals("Index format is written alongside the timepoints",
+        Builder.INDEX_FORMAT, ByteBuffer.wrap(formatBytes).getInt());
+
+    assertTrue("Time-bucketed indexes don't write time point -> triple lists",
+        fakeDB.getFakeDB().get(ColumnFamilies.TIMEPOINT_TO_TRIPLES).isEmpty());
+  }
+
+  @Test
+  public void testWindowListsAreSplitIntoTimeBuckets() throws Exception {
+    MockRocksDBAndHandles<ColumnFamilies> bucketedDB = populateTestDB(2);
+
+    ByteBuffer offsets = ByteBuffer.wrap(bucketedDB.get(ColumnFamilies.TIMEPOINTS, Builder.TIMEPOINT_ID_OFFSETS_KEY));
+    for (long expected : new long[] {0L, 3L, 6L, 9L}) {
+      assertEquals("Time point id offsets mark the first triple of each time point", expected, offsets.getLong());
+    }
+    assertEquals("Bucket size is recorded", 2,
+        ByteBuffer.wrap(bucketedDB.get(ColumnFamilies.TIMEPOINTS, Builder.TIMEPOINTS_PER_BUCKET_KEY)).getInt());
+
+    long totalIds = 0L;
     for (Map.Entry<List<Byte>, byte[]> entry :
-        fakeDB.getFakeDB().get(ColumnFamilies.TIMEPOINT_TO_TRIPLES).entrySet()) {
-      float time = ByteBuffer.wrap(fakeDB.byteListToArray(entry.getKey())).getFloat();
+        bucketedDB.getFakeDB().get(ColumnFamilies.WINDOW_ID_TO_TRIPLES).entrySet()) {
+      ByteBuffer key = ByteBuffer.wrap(bucketedDB.byteListToArray(entry.getKey()));
+      int windowId = key.getInt();
+      int bucket = key.getInt();
+      assertTrue("Window id is valid", windowIdsToWindows.containsKey(windowId));
+
+      for (long tripleId : PostingList.decode(entry.getValue(), LIST_FORMAT)) {
+        // Each time point has three triples, and each bucket holds two time points.
+        assertEquals("Triple falls in the bucket's time points", bucket, tripleId / 3 / 2);
+        totalIds++;
+      }
+    }
+    long unbucketedIds = 0L;
+    for (byte[] ids : fakeDB.getFakeDB().get(ColumnFamilies.WINDOW_ID_TO_TRIPLES).values()) {
+      unbucketedIds += PostingList.count(ids, LIST_FORMAT);
+    }
+    assertEquals("Bucketing doesn't drop or duplicate window ids", unbucketedIds, totalIds);
+  }
 
-      List<Long> tmziIds = new ArrayList<>(entry.getValue().length / Long.BYTES);
-      ByteBuffer valBuffer = ByteBuffer.wrap(entry.getValue());
-      while (valBuffer.hasRemaining()) {
-        tmziIds.add(valBuffer.getLong());
+  @Test
+  public void testExtractTriplesSurfacesParseFailures() throws Exception {
+    Iterator<LCMSSpectrum> failingIterator = new Iterator<LCMSSpectrum>() {
+      @Override
+      public boolean hasNext() {
+        return true;
       }
 
-      for (Long tripleId : tmziIds) {
-        TMzI triple = deserializedTriples.get(tripleId);
-        assertEquals("Triple time matches key time", time, triple.getTime(), FP_TOLERANCE);
+      @Override
+      public LCMSSpectrum next() {
+        throw new RuntimeException("Parse failure");
       }
+    };
+
+    MockRocksDBAndHandles<ColumnFamilies> testDB = new MockRocksDBAndHandles<>(ColumnFamilies.values());
+    Builder builder = new Builder(testDB);
+    try {
+      builder.extractTriples(failingIterator, MZ_WINDOWS);
+      fail("Parse stage exception should be thrown by extractTriples");
+    } catch (RuntimeException e) {
+      assertEquals("Parse stage exception is propagated", "Parse failure", e.getMessage());
     }
+    assertTrue("No window data is written after a failure",
+        testDB.getFakeDB().get(ColumnFamilies.WINDOW_ID_TO_TRIPLES).isEmpty());
   }
 
   @Test
@@ -0,0 +1,124 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.lcms.v2.fullindex;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PostingListTest {
+
+  private static byte[] encode(long... ids) {
+    PostingList.Writer writer = new PostingList.Writer(1);
+    for (long id : ids) {
+      writer.add(id);
+    }
+    byte[] bytes = writer.toByteArray();
+    assertEquals("Writer predicts its encoded size", writer.sizeInBytes(), bytes.length);
+    return bytes;
+  }
+
+  private static byte[] encodeRaw(long... ids) {
+    ByteBuffer buffer = ByteBuffer.allocate(ids.length * Long.BYTES);
+    for (long id : ids) {
+      buffer.putLong(id);
+    }
+    return buffer.array();
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    long[] ids = { 0L, 1L, 2L, 127L, 128L, 16384L, 1L << 40, Long.MAX_VALUE };
+    byte[] bytes = encode(ids);
+    assertEquals("Count is readable without decoding", ids.length,
+        PostingList.count(bytes, PostingList.FORMAT_DELTA_VARINT));
+    assertArrayEquals("Ids survive a round trip", ids, PostingList.decode(bytes, PostingList.FORMAT_DELTA_VARINT));
+
+    assertArrayEquals("Empty lists survive a round trip", new long[0],
+        PostingList.decode(encode(), PostingList.FORMAT_DELTA_VARINT));
+  }
+
+  @Test
+  public void testConsecutiveIdsTakeOneBytePerId() throws Exception {
+    long[] ids = new long[1000];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = 5000000L + i;
+    }
+    // 1000 fits in two varint bytes, 5000000 in four, and every subsequent delta of 1 takes one.
+    assertEquals("Consecutive ids are stored compactly", 2 + 4 + (ids.length - 1), encode(ids).length);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWriterRejectsUnsortedIds() throws Exception {
+    encode(5L, 3L);
+  }
+
+  @Test
+  public void testRawLongsAreStillReadable() throws Exception {
+    long[] ids = { 3L, 7L, 11L };
+    assertArrayEquals("Legacy raw long lists decode correctly", ids,
+        PostingList.decode(encodeRaw(ids), PostingList.FORMAT_RAW_LONGS));
+    assertArrayEquals("Legacy raw long lists can be unioned", new long[] { 1L, 3L, 7L, 11L },
+        PostingList.union(Arrays.asList(encodeRaw(ids), encodeRaw(1L, 7L)), PostingList.FORMAT_RAW_LONGS));
+  }
+
+  @Test
+  public void testUnionAndIntersectMatchSetOperations() throws Exception {
+    Random r = new Random(1234L);
+    List<byte[]> lists = new ArrayList<>();
+    TreeSet<Long> expectedUnion = new TreeSet<>();
+    for (int i = 0; i < 20; i++) {
+      TreeSet<Long> ids = new TreeSet<>();
+      int size = r.nextInt(200);
+      for (int j = 0; j < size; j++) {
+        ids.add((long) r.nextInt(5000));
+      }
+      expectedUnion.addAll(ids);
+      lists.add(encode(ids.stream().mapToLong(Long::longValue).toArray()));
+    }
+    lists.add(encode()); // Empty lists shouldn't trip up the merge.
+
+    long[] actualUnion = PostingList.union(lists, PostingList.FORMAT_DELTA_VARINT);
+    assertArrayEquals("K-way merge union matches set union",
+        expectedUnion.stream().mapToLong(Long::longValue).toArray(), actualUnion);
+
+    long[] other = { 1L, 2L, 3L, 100L, 2500L, 4999L };
+    TreeSet<Long> expectedIntersection = new TreeSet<>(expectedUnion);
+    expectedIntersection.retainAll(Arrays.asList(1L, 2L, 3L, 100L, 2500L, 4999L));
+    assertArrayEquals("Sort-merge intersection matches set intersection",
+        expectedIntersection.stream().mapToLong(Long::longValue).toArray(), PostingList.intersect(actualUnion, other));
+
+    assertTrue("Union of no lists is empty",
+        PostingList.union(new ArrayList<>(), PostingList.FORMAT_DELTA_VARINT).length == 0);
+  }
+}
@@ -0,0 +1,134 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.lcms.v2.fullindex;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QueryServiceTest {
+  private static final Pair<Double, Double> MZ_RANGE = Pair.of(100.004, 100.016);
+  private static final Pair<Double, Double> TIME_RANGE = Pair.of(1.5, 3.5);
+
+  private Path indexRoot;
+  private AtomicInteger opens = new AtomicInteger(0);
+
+  @Before
+  public void setUp() throws Exception {
+    indexRoot = Files.createTempDirectory(QueryServiceTest.class.getName());
+    Files.createDirectory(indexRoot.resolve("scan_a"));
+    Files.createDirectory(indexRoot.resolve("scan_b"));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    Files.delete(indexRoot.resolve("scan_a"));
+    Files.delete(indexRoot.resolve("scan_b"));
+    Files.delete(indexRoot);
+  }
+
+  private QueryService makeService(int maxOpenIndexes) {
+    // Evict on the calling thread, so that evictions have happened by the time each search returns.
+    return new QueryService(indexRoot.toFile(), maxOpenIndexes, indexDir -> {
+      opens.incrementAndGet();
+      Searcher searcher = new Searcher(BuilderTest.populateTestDB());
+      searcher.init();
+      searcher.enablePostingListCache(1 << 20);
+      return searcher;
+    }, Runnable::run);
+  }
+
+  @Test
+  public void testSearchKeepsIndexesOpen() throws Exception {
+    QueryService service = makeService(2);
+    QueryService.SearchResponse first = service.search("scan_a", MZ_RANGE, TIME_RANGE);
+    QueryService.SearchResponse second = service.search("scan_a", MZ_RANGE, TIME_RANGE);
+    assertEquals("First search finds all expected readings", 5, first.readings.size());
+    assertEquals("Repeated search finds the same readings", 5, second.readings.size());
+    assertEquals("Index is only opened once for repeated queries", 1, opens.get());
+
+    Map<String, Map<String, Object>> metrics = service.metrics();
+    assertEquals("Metrics count both queries", 2L, metrics.get("scan_a").get("queries"));
+    assertEquals("Metrics count all results", 10L, metrics.get("scan_a").get("results"));
+    assertTrue("Second query hits the posting list cache",
+        (Double) metrics.get("scan_a").get("posting_list_cache_hit_rate") > 0.0);
+    service.shutdown();
+  }
+
+  @Test
+  public void testEvictedIndexesAreReopened() throws Exception {
+    QueryService service = makeService(1);
+    assertEquals("Search on first index succeeds", 5, service.search("scan_a", MZ_RANGE, TIME_RANGE).readings.size());
+    assertEquals("Search on second index succeeds", 5, service.search("scan_b", MZ_RANGE, TIME_RANGE).readings.size());
+    assertEquals("Search on evicted index succeeds", 5, service.search("scan_a", MZ_RANGE, TIME_RANGE).readings.size());
+    assertEquals("Evicted index was reopened", 3, opens.get());
+    service.shutdown();
+  }
+
+  @Test
+  public void testConcurrentSearches() throws Exception {
+    QueryService service = makeService(1);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Integer>> futures = new ArrayList<>();
+      for (int i = 0; i < 40; i++) {
+        // Alternate indexes so that queries race with evictions.
+        String index = i % 2 == 0 ? "scan_a" : "scan_b";
+        futures.add(executor.submit(() -> service.search(index, MZ_RANGE, TIME_RANGE).readings.size()));
+      }
+      for (Future<Integer> future : futures) {
+        assertEquals("Concurrent search finds all expected readings", Integer.valueOf(5), future.get());
+      }
+    } finally {
+      executor.shutdownNow();
+      service.shutdown();
+    }
+  }
+
+  @Test
+  public void testIndexNamesAreConfinedToRoot() throws Exception {
+    QueryService service = makeService(1);
+    assertTrue("Index directories under the root are valid", service.isValidIndexName("scan_a"));
+    assertFalse("Missing indexes are invalid", service.isValidIndexName("scan_c"));
+    assertFalse("Parent directories are invalid", service.isValidIndexName(".."));
+    assertFalse("Nested paths are invalid", service.isValidIndexName("scan_a/../scan_b"));
+    assertFalse("Empty names are invalid", service.isValidIndexName(""));
+  }
+}
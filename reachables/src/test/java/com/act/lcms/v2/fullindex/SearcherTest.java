@@ -37,6 +37,14 @@ import static org.junit.Assert.assertEquals;
 public class SearcherTest {
   public static final double FP_TOLERANCE = 0.000001;
 
+  public static final List<Triple<Float, Double, Float>> EXPECTED_TRIPLES = Arrays.asList(
+      Triple.of(2.0F, 100.005, 10.0F),
+      Triple.of(2.0F, 100.010, 20.0F),
+      Triple.of(2.0F, 100.015, 30.0F),
+      Triple.of(3.0F, 100.010, 100.0F),
+      Triple.of(3.0F, 100.015, 200.0F)
+  );
+
   Searcher searcher;
 
   @Before
@@ -50,15 +58,34 @@ public class SearcherTest {
   @Test
   public void searchIndexInRange() throws Exception {
     List<TMzI> actual = searcher.searchIndexInRange(Pair.of(100.004, 100.016), Pair.of(1.5, 3.5));
+    assertTriplesMatch(EXPECTED_TRIPLES, actual);
+  }
+
+  @Test
+  public void searchIndexInRangeWithSmallTimeBuckets() throws Exception {
+    // One time point per bucket, so queries have to stitch together (and clip) lists from several buckets.
+    Searcher bucketedSearcher = new Searcher(BuilderTest.populateTestDB(1));
+    bucketedSearcher.init();
+    assertTriplesMatch(EXPECTED_TRIPLES,
+        bucketedSearcher.searchIndexInRange(Pair.of(100.004, 100.016), Pair.of(1.5, 3.5)));
+
+    assertTriplesMatch(EXPECTED_TRIPLES.subList(0, 3),
+        bucketedSearcher.searchIndexInRange(Pair.of(100.004, 100.016), Pair.of(2.0, 2.0)));
 
-    List<Triple<Float, Double, Float>> expected = Arrays.asList(
-        Triple.of(2.0F, 100.005, 10.0F),
-        Triple.of(2.0F, 100.010, 20.0F),
-        Triple.of(2.0F, 100.015, 30.0F),
-        Triple.of(3.0F, 100.010, 100.0F),
-        Triple.of(3.0F, 100.015, 200.0F)
-    );
+    assertEquals("Searching outside the run's times returns nothing", 0,
+        bucketedSearcher.searchIndexInRange(Pair.of(100.004, 100.016), Pair.of(5.0, 6.0)).size());
+  }
+
+  @Test
+  public void searchIndexInRangeWithParallelRetrieval() throws Exception {
+    // Two ids per batch forces the five matching triples to be fetched in three batches across the retrieval threads.
+    Searcher parallelSearcher = new Searcher(BuilderTest.populateTestDB(), 3, 2);
+    parallelSearcher.init();
+    assertTriplesMatch(EXPECTED_TRIPLES,
+        parallelSearcher.searchIndexInRange(Pair.of(100.004, 100.016), Pair.of(1.5, 3.5)));
+  }
 
+  private void assertTriplesMatch(List<Triple<Float, Double, Float>> expected, List<TMzI> actual) {
     assertEquals("Searcher returned expected number of TMzI tuples", expected.size(), actual.size());
     for (int i = 0; i < expected.size(); i++) {
       Triple<Float, Double, Float> e = expected.get(i);
@@ -0,0 +1,130 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ActDataSnapshotTest {
+  private File snapshotFile;
+
+  @Before
+  public void setUp() throws Exception {
+    snapshotFile = File.createTempFile("actdata-snapshot-test", ".actdata");
+
+    ActData data = ActData.instance();
+    data.natives = new HashSet<>(Arrays.asList(1L, 2L));
+    data.rxnSubstrates = new HashMap<>();
+    data.rxnSubstrates.put(100L, new HashSet<>(Arrays.asList(1L, 2L)));
+    data.rxnSubstrates.put(-7L, new HashSet<>(Arrays.asList(3L)));
+    data.rxnSubstrates.put(101L, new HashSet<>());
+    data.rxnProducts = new HashMap<>();
+    data.rxnProducts.put(100L, new HashSet<>(Arrays.asList(3L, 4000000000L)));
+    data.rxnsThatConsumeChem = new HashMap<>();
+    data.rxnsThatConsumeChem.put(1L, new HashSet<>(Arrays.asList(100L)));
+    data.rxnsThatConsumeChem.put(2L, new HashSet<>(Arrays.asList(100L)));
+    data.rxnsThatConsumeChem.put(3L, new HashSet<>(Arrays.asList(-7L)));
+    data.rxnClassesThatConsumeChem = null;
+    data.chemId2Inchis = new HashMap<>();
+    data.chemId2Inchis.put(1L, "InChI=1S/CH4/h1H4");
+    data.chemId2Inchis.put(3L, "InChI=1S/C2H6O/c1-2-3/h3H,2H2,1H3");
+    data.chemId2Inchis.put(5L, null);
+    data.chemId2ReadableName = new HashMap<>();
+    data.chemId2ReadableName.put(3L, "éthanol");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    snapshotFile.delete();
+  }
+
+  @Test
+  public void testSnapshotRoundTripsReactionGraph() throws Exception {
+    Map<Long, Set<Long>> expectedSubstrates = new HashMap<>(ActData.instance().rxnSubstrates);
+    Map<Long, Set<Long>> expectedProducts = new HashMap<>(ActData.instance().rxnProducts);
+    Map<Long, Set<Long>> expectedConsumers = new HashMap<>(ActData.instance().rxnsThatConsumeChem);
+
+    ActData.instance().serialize(snapshotFile.getAbsolutePath());
+    assertTrue("Serialized file should be a snapshot", ActDataSnapshot.isSnapshot(snapshotFile));
+
+    // The serialized instance must be left intact.
+    assertEquals(expectedSubstrates, ActData.instance().rxnSubstrates);
+
+    ActData.instance().deserialize(snapshotFile.getAbsolutePath());
+    ActData data = ActData.instance();
+
+    assertTrue(data.rxnSubstrates instanceof CompactLongSetMap);
+    assertEquals(expectedSubstrates, data.rxnSubstrates);
+    assertEquals(expectedProducts, data.rxnProducts);
+    assertEquals(expectedConsumers, data.rxnsThatConsumeChem);
+    assertNull("Absent maps should stay absent", data.rxnClassesThatConsumeChem);
+
+    assertTrue(data.rxnProducts.get(100L).contains(4000000000L));
+    assertFalse(data.rxnProducts.get(100L).contains(5L));
+    assertTrue(data.rxnSubstrates.get(101L).isEmpty());
+    assertNull(data.rxnSubstrates.get(102L));
+    assertFalse(data.rxnSubstrates.containsKey(3L));
+
+    assertEquals("InChI=1S/C2H6O/c1-2-3/h3H,2H2,1H3", data.chemId2Inchis.get(3L));
+    assertEquals("InChI=1S/CH4/h1H4", data.mapChemId2Inchis(1L));
+    assertNull(data.chemId2Inchis.get(5L));
+    assertEquals("éthanol", data.mapChemId2ReadableName(3L));
+
+    assertEquals("Fields outside the packed maps should survive", new HashSet<>(Arrays.asList(1L, 2L)), data.natives);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testSnapshotMapsAreReadOnly() throws Exception {
+    ActData.instance().serialize(snapshotFile.getAbsolutePath());
+    ActData.instance().deserialize(snapshotFile.getAbsolutePath());
+    ActData.instance().rxnSubstrates.get(100L).add(5L);
+  }
+
+  @Test
+  public void testJavaSerializedActDataCanStillBeRead() throws Exception {
+    try (ObjectOutputStream output = new ObjectOutputStream(new FileOutputStream(snapshotFile))) {
+      output.writeObject(ActData.instance());
+    }
+    assertFalse(ActDataSnapshot.isSnapshot(snapshotFile));
+
+    ActData.instance().deserialize(snapshotFile.getAbsolutePath());
+    assertTrue(ActData.instance().rxnSubstrates instanceof HashMap);
+    assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), ActData.instance().rxnSubstrates.get(100L));
+  }
+}
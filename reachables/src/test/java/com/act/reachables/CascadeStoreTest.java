@@ -0,0 +1,61 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables;
+
+import com.act.utils.MockRocksDBAndHandles;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CascadeStoreTest {
+  private MockRocksDBAndHandles<CascadeStore.COLUMN_FAMILIES> fakeDB;
+
+  @Before
+  public void setUp() throws Exception {
+    fakeDB = new MockRocksDBAndHandles<>(CascadeStore.COLUMN_FAMILIES.values());
+  }
+
+  @Test
+  public void testEntriesAreOnlyReusedForTheSameUpstreamHash() throws Exception {
+    CascadeStore store = new CascadeStore(fakeDB);
+
+    assertNull("Unseen reachables must be recomputed", store.get(42L, "hash1"));
+    store.put(42L, new CascadeStore.Entry("hash1", "{\"target\":42}", "digraph {}", "a, b", "[]"));
+
+    CascadeStore.Entry entry = store.get(42L, "hash1");
+    assertEquals("Stored hash round-trips", "hash1", entry.getUpstreamHash());
+    assertEquals("Stored waterfall round-trips", "{\"target\":42}", entry.getWaterfallJson());
+    assertEquals("Stored cascade round-trips", "digraph {}", entry.getCascadeDot());
+    assertEquals("Stored paths round-trip", "a, b", entry.getPaths());
+    assertEquals("Stored pathways round-trip", "[]", entry.getPathwaysJson());
+
+    assertNull("Entries built from a different upstream subgraph are not reused", store.get(42L, "hash2"));
+    assertNull("Entries are per reachable", store.get(43L, "hash1"));
+
+    assertEquals("Reuses are counted", 1L, store.getReused());
+    assertEquals("Recomputations are counted", 3L, store.getRecomputed());
+  }
+}
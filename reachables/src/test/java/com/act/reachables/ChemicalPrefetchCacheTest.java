@@ -0,0 +1,86 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables;
+
+import act.server.MongoDB;
+import act.shared.Chemical;
+import com.act.biointerpretation.test.util.MockedMongoDB;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class ChemicalPrefetchCacheTest {
+  private Map<Long, Chemical> chemicals;
+  private MongoDB db;
+
+  @Before
+  public void setUp() throws Exception {
+    chemicals = new HashMap<>();
+    for (long id = 1; id <= 3; id++) {
+      chemicals.put(id, new Chemical(id));
+    }
+
+    db = MockedMongoDB.mockChemicalLookups(chemicals);
+  }
+
+  @Test
+  public void testPrefetchedChemicalsAreServedWithoutSingleLookups() throws Exception {
+    ChemicalPrefetchCache cache = new ChemicalPrefetchCache(db, Arrays.asList(3L, 1L, 2L, 99L, 1L), 10);
+
+    assertEquals("All distinct ids are prefetched", 4, cache.size());
+    for (long id = 1; id <= 3; id++) {
+      assertSame("Prefetched chemical is returned", chemicals.get(id), cache.get(id));
+    }
+    assertNull("Ids without a chemical are cached as missing", cache.get(99L));
+
+    verify(db, never()).getChemicalFromChemicalUUID(anyLong());
+    assertEquals("Every lookup is a hit", 4L, cache.getHits());
+    assertEquals("No lookup is a miss", 0L, cache.getMisses());
+  }
+
+  @Test
+  public void testIdsBeyondCapacityFallThroughToTheDB() throws Exception {
+    ChemicalPrefetchCache cache = new ChemicalPrefetchCache(db, Arrays.asList(1L, 2L, 3L), 2);
+
+    assertEquals("Prefetch is capped at the capacity", 2, cache.size());
+    assertSame("Prefetched chemical is returned", chemicals.get(1L), cache.get(1L));
+    assertSame("Chemical beyond the capacity is fetched from the DB", chemicals.get(3L), cache.get(3L));
+
+    verify(db, times(1)).getChemicalFromChemicalUUID(eq(3L));
+    assertEquals("One lookup is a hit", 1L, cache.getHits());
+    assertEquals("One lookup is a miss", 1L, cache.getMisses());
+  }
+}
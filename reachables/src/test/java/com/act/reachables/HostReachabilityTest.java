@@ -0,0 +1,135 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HostReachabilityTest {
+  private boolean savedLogProgress;
+  private boolean savedOnlyWithSequences;
+  private boolean savedHostCentric;
+  private boolean savedUnreachableTrees;
+  private Long[] savedHostOrganismIDs;
+
+  @Before
+  public void setUp() throws Exception {
+    savedLogProgress = GlobalParams.LOG_PROGRESS;
+    savedOnlyWithSequences = GlobalParams._actTreeOnlyIncludeRxnsWithSequences;
+    savedHostCentric = GlobalParams.actTreeCreateHostCentricMap;
+    savedUnreachableTrees = GlobalParams.actTreeCreateUnreachableTrees;
+    savedHostOrganismIDs = GlobalParams._hostOrganismIDs;
+
+    GlobalParams.LOG_PROGRESS = false;
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    GlobalParams.LOG_PROGRESS = savedLogProgress;
+    GlobalParams._actTreeOnlyIncludeRxnsWithSequences = savedOnlyWithSequences;
+    GlobalParams.actTreeCreateHostCentricMap = savedHostCentric;
+    GlobalParams.actTreeCreateUnreachableTrees = savedUnreachableTrees;
+    GlobalParams._hostOrganismIDs = savedHostOrganismIDs;
+  }
+
+  private static Set<Long> setOf(Long... ids) {
+    return new HashSet<>(Arrays.asList(ids));
+  }
+
+  private static void addRxn(Long rxnId, Set<Long> substrates, Set<Long> products, Long orgId) {
+    ActData data = ActData.instance();
+    data.rxnSubstrates.put(rxnId, substrates);
+    data.rxnProducts.put(rxnId, products);
+    data.rxnOrganisms.put(rxnId, setOf(orgId));
+    data.rxnHasSeq.put(rxnId, true);
+    for (Long p : products)
+      data.chemIdIsAbstraction.put(p, false);
+  }
+
+  @Test
+  public void testHostLayersOnSmallNetwork() throws Exception {
+    ActData data = ActData.instance();
+    data.natives = setOf(1L);
+    data.cofactors = setOf(2L);
+    data.rxnSubstrates = new HashMap<>();
+    data.rxnProducts = new HashMap<>();
+    data.rxnOrganisms = new HashMap<>();
+    data.rxnHasSeq = new HashMap<>();
+    data.chemIdIsAbstraction = new HashMap<>();
+
+    addRxn(10L, setOf(1L), setOf(3L), 100L);     // 1 -> 3 in host 100
+    addRxn(11L, setOf(3L, 2L), setOf(4L), 100L); // 3 + 2 -> 4 in host 100
+    addRxn(12L, setOf(4L), setOf(5L), 200L);     // 4 -> 5, but only in host 200
+    addRxn(13L, setOf(1L), setOf(4L), 200L);     // 1 -> 4 in host 200
+
+    HostReachability reachability = new HostReachability();
+    HostReachability.HostReachables host100 = reachability.computeForHost(100L);
+    assertEquals(0, host100.getHostLayer(3L));
+    assertEquals(1, host100.getHostLayer(4L));
+    assertEquals(-1, host100.getHostLayer(5L));
+    assertEquals(-2, host100.getHostLayer(1L));
+    assertTrue(host100.isReachable(2L));
+    assertFalse(host100.isReachable(5L));
+    assertEquals(2, host100.getNumNewReachables());
+
+    HostReachability.HostReachables host200 = reachability.computeForHost(200L);
+    assertEquals(setOf(4L), host200.getLayers().get(0));
+    assertEquals(setOf(5L), host200.getLayers().get(1));
+    assertFalse(host200.isReachable(3L));
+
+    assertEquals(0, reachability.computeForHost(300L).getNumNewReachables());
+  }
+
+  @Test
+  public void testHostLayersMatchWavefrontExpansion() throws Exception {
+    GlobalParams.actTreeCreateHostCentricMap = true;
+    GlobalParams.actTreeCreateUnreachableTrees = false;
+    for (long seed = 0; seed < 5; seed++) {
+      IncrementalWavefrontExpansionTest.populateRandomNetwork(seed);
+
+      Map<Long, HostReachability.HostReachables> byHost =
+          new HostReachability().computeForHosts(Arrays.asList(1L, 2L, 3L), 3);
+      assertEquals(Arrays.asList(1L, 2L, 3L), Arrays.asList(byHost.keySet().toArray(new Long[0])));
+
+      for (Long host : byHost.keySet()) {
+        GlobalParams._hostOrganismIDs = new Long[] { host };
+        WavefrontExpansion expansion = new WavefrontExpansion();
+        expansion.expandAndPickParents();
+        assertEquals(String.format("Layers for host %d, seed %d", host, seed),
+            expansion.R_by_layers_in_host, byHost.get(host).getLayers());
+      }
+    }
+  }
+}
@@ -0,0 +1,172 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class IncrementalWavefrontExpansionTest {
+  private static final int NUM_CHEMS = 400;
+  private static final int NUM_NATIVES = 20;
+  private static final int NUM_RXNS = 900;
+  private static final Long HOST_ORG_ID = 1L;
+
+  private boolean savedLogProgress;
+  private boolean savedOnlyWithSequences;
+  private boolean savedHostCentric;
+  private boolean savedUnreachableTrees;
+  private boolean savedUseRxnClasses;
+  private Long[] savedHostOrganismIDs;
+
+  @Before
+  public void setUp() throws Exception {
+    savedLogProgress = GlobalParams.LOG_PROGRESS;
+    savedOnlyWithSequences = GlobalParams._actTreeOnlyIncludeRxnsWithSequences;
+    savedHostCentric = GlobalParams.actTreeCreateHostCentricMap;
+    savedUnreachableTrees = GlobalParams.actTreeCreateUnreachableTrees;
+    savedUseRxnClasses = GlobalParams.USE_RXN_CLASSES;
+    savedHostOrganismIDs = GlobalParams._hostOrganismIDs;
+
+    GlobalParams.LOG_PROGRESS = false;
+    GlobalParams._hostOrganismIDs = new Long[] { HOST_ORG_ID };
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    GlobalParams.LOG_PROGRESS = savedLogProgress;
+    GlobalParams._actTreeOnlyIncludeRxnsWithSequences = savedOnlyWithSequences;
+    GlobalParams.actTreeCreateHostCentricMap = savedHostCentric;
+    GlobalParams.actTreeCreateUnreachableTrees = savedUnreachableTrees;
+    GlobalParams.USE_RXN_CLASSES = savedUseRxnClasses;
+    GlobalParams._hostOrganismIDs = savedHostOrganismIDs;
+  }
+
+  static void populateRandomNetwork(long seed) {
+    Random random = new Random(seed);
+    ActData data = ActData.instance();
+
+    data.natives = new HashSet<>();
+    data.cofactors = new HashSet<>();
+    data.metaCycBigMolsOrRgrp = new HashSet<>();
+    data.chemsReferencedInRxns = new HashSet<>();
+    data.chemicalsWithUserField = new HashMap<>();
+    data.chemicalsWithUserField_treeOrganic = new HashSet<>();
+    data.chemicalsWithUserField_treeArtificial = new HashSet<>();
+    data.chemIdIsAbstraction = new HashMap<>();
+    data.chemId2Inchis = new HashMap<>();
+    data.rxnSubstrates = new HashMap<>();
+    data.rxnProducts = new HashMap<>();
+    data.rxnOrganisms = new HashMap<>();
+    data.rxnHasSeq = new HashMap<>();
+    data.rxnsThatConsumeChem = new HashMap<>();
+
+    for (long c = 0; c < NUM_CHEMS; c++) {
+      data.chemIdIsAbstraction.put(c, false);
+      data.chemId2Inchis.put(c, String.format("InChI=1S/C%dH4O/c", 1 + random.nextInt(12)));
+      if (c < NUM_NATIVES)
+        data.natives.add(c);
+    }
+
+    // Spread the rxn ids out so that they collide in the hash buckets of the enabled rxn sets.
+    for (int i = 0; i < NUM_RXNS; i++) {
+      Long rxnId = 1000L + i * 64L + random.nextInt(4);
+      Set<Long> substrates = new HashSet<>();
+      Set<Long> products = new HashSet<>();
+      int numSubstrates = 1 + random.nextInt(3);
+      while (substrates.size() < numSubstrates)
+        substrates.add((long) random.nextInt(NUM_CHEMS));
+      while (products.size() < 1 + random.nextInt(2))
+        products.add((long) random.nextInt(NUM_CHEMS));
+
+      Set<Long> orgs = new HashSet<>();
+      orgs.add(1L + random.nextInt(3));
+
+      data.rxnSubstrates.put(rxnId, substrates);
+      data.rxnProducts.put(rxnId, products);
+      data.rxnOrganisms.put(rxnId, orgs);
+      data.rxnHasSeq.put(rxnId, random.nextInt(10) != 0);
+      data.chemsReferencedInRxns.addAll(substrates);
+      data.chemsReferencedInRxns.addAll(products);
+      for (Long s : substrates) {
+        if (!data.rxnsThatConsumeChem.containsKey(s))
+          data.rxnsThatConsumeChem.put(s, new HashSet<>());
+        data.rxnsThatConsumeChem.get(s).add(rxnId);
+      }
+    }
+  }
+
+  private void assertSameTreeFromBothExpansions(long seed) {
+    populateRandomNetwork(seed);
+    Tree<Long> expected = new WavefrontExpansion(false).expandAndPickParents();
+    List<Long> expectedOrganic = new ArrayList<>(ActData.instance().chemicalsWithUserField_treeOrganic);
+
+    populateRandomNetwork(seed);
+    Tree<Long> actual = new WavefrontExpansion(true).expandAndPickParents();
+    List<Long> actualOrganic = new ArrayList<>(ActData.instance().chemicalsWithUserField_treeOrganic);
+
+    assertEquals("Roots should match for seed " + seed, expected.roots(), actual.roots());
+    assertEquals("Nodes should match for seed " + seed, expected.allNodes(), actual.allNodes());
+    for (Long n : expected.allNodes()) {
+      assertEquals("Parent should match for seed " + seed, expected.getParent(n), actual.getParent(n));
+      assertEquals("Children should match for seed " + seed, expected.getChildren(n), actual.getChildren(n));
+    }
+    assertEquals("Node attributes should match for seed " + seed,
+        expected.nodeAttributes.toString(), actual.nodeAttributes.toString());
+    assertEquals(expectedOrganic, actualOrganic);
+  }
+
+  @Test
+  public void testIncrementalExpansionMatchesFullScan() throws Exception {
+    GlobalParams.actTreeCreateHostCentricMap = false;
+    GlobalParams.actTreeCreateUnreachableTrees = false;
+    for (long seed = 0; seed < 5; seed++)
+      assertSameTreeFromBothExpansions(seed);
+  }
+
+  @Test
+  public void testIncrementalExpansionMatchesFullScanInHost() throws Exception {
+    GlobalParams.actTreeCreateHostCentricMap = true;
+    GlobalParams.actTreeCreateUnreachableTrees = false;
+    for (long seed = 0; seed < 5; seed++)
+      assertSameTreeFromBothExpansions(seed);
+  }
+
+  @Test
+  public void testIncrementalExpansionMatchesFullScanWithAssumedReachables() throws Exception {
+    GlobalParams.actTreeCreateHostCentricMap = false;
+    GlobalParams.actTreeCreateUnreachableTrees = true;
+    for (long seed = 0; seed < 5; seed++)
+      assertSameTreeFromBothExpansions(seed);
+  }
+}
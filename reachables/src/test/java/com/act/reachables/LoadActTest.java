@@ -0,0 +1,172 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables;
+
+import act.server.MongoDB;
+import act.shared.Reaction;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.biopax.paxtools.model.level3.ConversionDirectionType;
+import org.biopax.paxtools.model.level3.StepDirection;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class LoadActTest {
+  private MongoDB db;
+  private List<BasicDBObject> documents;
+
+  @Before
+  public void setUp() throws Exception {
+    // convertDBObjectToReaction doesn't touch the DB connection, so the real method can run on a mock
+    db = mock(MongoDB.class, Mockito.CALLS_REAL_METHODS);
+
+    Reaction brenda = makeReaction(1L, ConversionDirectionType.LEFT_TO_RIGHT, Reaction.RxnDataSource.BRENDA);
+    brenda.addProteinData(new JSONObject()
+        .put("organism", 4000006340L)
+        .put("sequences", new JSONArray(Arrays.asList(7L)))
+        .put("km", new JSONArray(Arrays.asList(new JSONObject().put("val", 0.01))))
+        .put("recommended_name", new JSONObject().put("recommended_name", "alcohol dehydrogenase")));
+
+    Reaction metacyc = makeReaction(2L, ConversionDirectionType.REVERSIBLE, Reaction.RxnDataSource.METACYC);
+    metacyc.addProteinData(new JSONObject()
+        .put("organisms", new JSONArray(Arrays.asList(198094L, 198095L)))
+        .put("sequences", new JSONArray(Arrays.asList(8033L))));
+
+    Reaction withoutSequence = makeReaction(3L, ConversionDirectionType.LEFT_TO_RIGHT, Reaction.RxnDataSource.BRENDA);
+    withoutSequence.addProteinData(new JSONObject()
+        .put("organism", 4000001234L)
+        .put("catalysis_direction", "LEFT_TO_RIGHT"));
+
+    documents = new ArrayList<>();
+    int id = 100;
+    for (Reaction r : Arrays.asList(brenda, metacyc, withoutSequence)) {
+      documents.add(MongoDB.createReactionDoc(r, id++));
+    }
+  }
+
+  private Reaction makeReaction(Long first, ConversionDirectionType direction, Reaction.RxnDataSource source) {
+    Reaction r = new Reaction(-1L, new Long[]{first, first + 10L}, new Long[]{first + 20L}, new Long[0], new Long[0],
+        new Long[0], "1.1.1.1", direction, StepDirection.LEFT_TO_RIGHT, "Reaction " + first,
+        Reaction.RxnDetailType.CONCRETE);
+    r.setDataSource(source);
+    return r;
+  }
+
+  @Test
+  public void testFastLoadProjectionKeepsEverythingTheGraphReads() throws Exception {
+    Map<String, Map<Long, ?>> serial = load(documents);
+
+    List<BasicDBObject> projected = new ArrayList<>();
+    for (BasicDBObject doc : documents) {
+      projected.add(project(doc, LoadAct.FAST_LOAD_REACTION_FIELDS));
+    }
+    Map<String, Map<Long, ?>> fast = load(projected);
+
+    assertTrue("Some reactions have sequences", ((Map<Long, Boolean>) serial.get("rxnHasSeq")).containsValue(true));
+    assertTrue("Some reactions have organisms",
+        ((Map<Long, Set<Long>>) serial.get("rxnOrganisms")).values().stream().anyMatch(orgs -> !orgs.isEmpty()));
+    for (String field : serial.keySet()) {
+      assertEquals(String.format("Fast and serial loads produce the same %s", field),
+          serial.get(field), fast.get(field));
+    }
+  }
+
+  private Map<String, Map<Long, ?>> load(List<BasicDBObject> docs) {
+    ActData data = ActData.instance();
+    data.Act = new Network("Act");
+    data.cofactors = new HashSet<>();
+    data.metaCycBigMolsOrRgrp = new HashSet<>();
+    data.chemsReferencedInRxns = new HashSet<>();
+    data.chemsInAct = new HashMap<>();
+    data.rxnSubstrates = new HashMap<>();
+    data.rxnProducts = new HashMap<>();
+    data.rxnsThatConsumeChem = new HashMap<>();
+    data.rxnsThatProduceChem = new HashMap<>();
+    data.rxnHasSeq = new HashMap<>();
+    data.rxnOrganisms = new HashMap<>();
+    data.rxnClassesSubstrates = new HashMap<>();
+    data.rxnClassesProducts = new HashMap<>();
+    data.rxnClasses = new HashSet<>();
+
+    Map<Reaction.RxnDataSource, Integer> counts = new HashMap<>();
+    for (Reaction.RxnDataSource src : Reaction.RxnDataSource.values()) {
+      counts.put(src, 0);
+    }
+    for (BasicDBObject doc : docs) {
+      LoadAct.addReactionToNetwork(db.convertDBObjectToReaction(doc), counts);
+    }
+
+    Map<String, Map<Long, ?>> loaded = new HashMap<>();
+    loaded.put("rxnHasSeq", data.rxnHasSeq);
+    loaded.put("rxnOrganisms", data.rxnOrganisms);
+    loaded.put("rxnSubstrates", data.rxnSubstrates);
+    loaded.put("rxnProducts", data.rxnProducts);
+    return loaded;
+  }
+
+  // Applies a Mongo inclusion projection, where "a.b" keeps field b of document a or of every document in array a.
+  private static BasicDBObject project(DBObject doc, BasicDBObject fields) {
+    Map<String, BasicDBObject> nested = new HashMap<>();
+    BasicDBObject result = new BasicDBObject();
+    for (String field : fields.keySet()) {
+      int dot = field.indexOf('.');
+      if (dot < 0) {
+        if (doc.containsField(field)) {
+          result.put(field, doc.get(field));
+        }
+      } else {
+        nested.computeIfAbsent(field.substring(0, dot), k -> new BasicDBObject()).put(field.substring(dot + 1), true);
+      }
+    }
+    for (Map.Entry<String, BasicDBObject> entry : nested.entrySet()) {
+      Object value = doc.get(entry.getKey());
+      if (value instanceof BasicDBList) {
+        BasicDBList projectedList = new BasicDBList();
+        for (Object element : (BasicDBList) value) {
+          projectedList.add(project((DBObject) element, entry.getValue()));
+        }
+        result.put(entry.getKey(), projectedList);
+      } else if (value instanceof DBObject) {
+        result.put(entry.getKey(), project((DBObject) value, entry.getValue()));
+      }
+    }
+    return result;
+  }
+}
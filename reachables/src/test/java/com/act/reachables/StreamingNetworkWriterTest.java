@@ -0,0 +1,126 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables;
+
+import act.server.MongoDB;
+import act.shared.Chemical;
+import com.act.biointerpretation.test.util.MockedMongoDB;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class StreamingNetworkWriterTest {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private Map<Long, Chemical> chemicals;
+  private MongoDB db;
+  private File outputFile;
+
+  @Before
+  public void setUp() throws Exception {
+    // keep the test's nodes, edges and attributes out of the global ones in ActData
+    GraphScope.enter();
+
+    // ids 4 and 10 deliberately have no chemical
+    chemicals = new HashMap<>();
+    for (long id = 1; id <= 3; id++) {
+      chemicals.put(id, new Chemical(id));
+    }
+
+    db = MockedMongoDB.mockChemicalLookups(chemicals);
+
+    outputFile = File.createTempFile("streaming-network-writer-test", ".json");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    GraphScope.exit();
+    outputFile.delete();
+  }
+
+  // Two trees, 1 -> {2 -> {4}, 3} and 10 on its own
+  private Network makeForest() {
+    Network tree = new Network("test");
+    addTreeNode(tree, 1L, 0, -1L, 1L);
+    addTreeNode(tree, 2L, 1, 1L, 1L);
+    addTreeNode(tree, 3L, 1, 1L, 1L);
+    addTreeNode(tree, 4L, 2, 2L, 1L);
+    addTreeNode(tree, 10L, 0, -1L, 10L);
+
+    Node.setAttribute(2L, "ReadableName", "overrides the chemical's name");
+    Node.setAttribute(4L, "subtreeSz", 1);
+    return tree;
+  }
+
+  private void addTreeNode(Network tree, Long id, Integer depth, Long parentId, Long root) {
+    Node n = Node.get(id, true);
+    Node.setAttribute(id, "under_root", root);
+    tree.addNodeTreeSpecific(n, id, depth, parentId);
+    if (tree.nodesAndIds().containsKey(Node.get(parentId, false))) {
+      Edge e = Edge.get(Node.get(parentId, false), n, true);
+      Edge.setAttribute(e, "under_root", root);
+      Edge.setAttribute(e, "functionalCategory", "test");
+      tree.addEdgeTreeSpecific(e, id);
+    }
+  }
+
+  @Test
+  public void testStreamedTreesMatchInMemoryTrees() throws Exception {
+    Network tree = makeForest();
+
+    String expected = tree.disjointTrees(db).toString(2);
+    tree.writeDisjointTrees(db, outputFile);
+
+    assertEquals("Streamed trees have the same content as the in-memory ones",
+        MAPPER.readTree(expected), MAPPER.readTree(outputFile));
+  }
+
+  @Test
+  public void testStreamedGraphsMatchInMemoryGraphs() throws Exception {
+    Network tree = makeForest();
+
+    String expected = tree.disjointGraphs(db).toString(2);
+    tree.writeDisjointGraphs(db, outputFile);
+
+    assertEquals("Streamed graphs have the same content as the in-memory ones",
+        MAPPER.readTree(expected), MAPPER.readTree(outputFile));
+  }
+
+  @Test
+  public void testChemicalsAreFetchedInBatches() throws Exception {
+    makeForest().writeDisjointTrees(db, outputFile);
+
+    verify(db, never()).getChemicalFromChemicalUUID(anyLong());
+  }
+}
@@ -84,6 +84,15 @@ public class MockRocksDBAndHandles<T extends ColumnFamilyEnumeration<T>> extends
     return fakeDB.get(columnFamily).get(byteArrayToList(key));
   }
 
+  @Override
+  public List<byte[]> multiGet(T columnFamily, List<byte[]> keys) throws RocksDBException {
+    List<byte[]> values = new ArrayList<>(keys.size());
+    for (byte[] key : keys) {
+      values.add(get(columnFamily, key));
+    }
+    return values;
+  }
+
   @Override
   public RocksDBIterator newIterator(T columnFamily) throws RocksDBException {
     return new MockRocksDBIterator(fakeDB.get(columnFamily));
@@ -94,6 +103,11 @@ public class MockRocksDBAndHandles<T extends ColumnFamilyEnumeration<T>> extends
 
   }
 
+  @Override
+  public void close() {
+
+  }
+
   @Override
   public RocksDBWriteBatch<T> makeWriteBatch() {
     return new MockRocksDBWriteBatch<T>(this, 0);
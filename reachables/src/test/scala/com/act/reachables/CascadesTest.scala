@@ -0,0 +1,88 @@
+/*************************************************************************
+*                                                                        *
+*  This file is part of the 20n/act project.                             *
+*  20n/act enables DNA prediction for synthetic biology/bioengineering.  *
+*  Copyright (C) 2017 20n Labs, Inc.                                     *
+*                                                                        *
+*  Please direct all queries to act@20n.com.                             *
+*                                                                        *
+*  This program is free software: you can redistribute it and/or modify  *
+*  it under the terms of the GNU General Public License as published by  *
+*  the Free Software Foundation, either version 3 of the License, or     *
+*  (at your option) any later version.                                   *
+*                                                                        *
+*  This program is distributed in the hope that it will be useful,       *
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+*  GNU General Public License for more details.                          *
+*                                                                        *
+*  You should have received a copy of the GNU General Public License     *
+*  along with this program.  If not, see <http://www.gnu.org/licenses/>. *
+*                                                                        *
+*************************************************************************/
+
+package com.act.reachables
+
+import java.util
+
+import com.act.reachables.Cascade.NodeInformation
+import com.fasterxml.jackson.core.`type`.TypeReference
+import org.scalatest.{FlatSpec, Matchers}
+
+import scala.collection.JavaConverters._
+
+class CascadesTest extends FlatSpec with Matchers {
+
+  private def longs(ids: Long*): util.HashSet[java.lang.Long] =
+    new util.HashSet[java.lang.Long](ids.map(id => java.lang.Long.valueOf(id)).asJava)
+
+  private def strings(values: String*): util.HashSet[String] = new util.HashSet[String](values.asJava)
+
+  "The pathway mapper" should "round trip stored ReactionPaths without losing any field" in {
+    val path = List(
+      new NodeInformation(false, false, longs(), strings(), longs(), 0, 42L, "product", strings()),
+      new NodeInformation(true, true, longs(7L, 8L), strings("Escherichia coli", "Homo sapiens"), longs(100L, 101L), 2,
+        9100L, "1.1.1.1,1.1.1.2", strings("12345", "67890")),
+      new NodeInformation(false, false, longs(), strings(), longs(), 0, 17L, "substrate", strings(), true)
+    )
+    val pathway = new ReactionPath("42w3", path.asJava)
+    pathway.setMostCommonOrganism(new util.ArrayList[String](List("Escherichia coli", "Homo sapiens").asJava))
+    pathway.setMostCommonOrganismCount(
+      new util.ArrayList[java.lang.Double](List(java.lang.Double.valueOf(1.0), java.lang.Double.valueOf(0.5)).asJava))
+    pathway.setMostNative(true)
+    pathway.setDnaDesignRef("design")
+
+    val json = cascades.pathwayMapper.writeValueAsString(util.Arrays.asList(pathway))
+    val read: util.List[ReactionPath] =
+      cascades.pathwayMapper.readValue(json, new TypeReference[util.List[ReactionPath]] {})
+
+    read.size shouldEqual 1
+    val readPathway = read.get(0)
+    readPathway.getId shouldEqual "42w3"
+    readPathway.getTarget shouldEqual pathway.getTarget
+    readPathway.getRank shouldEqual pathway.getRank
+    readPathway.getDegree shouldEqual pathway.getDegree
+    readPathway.getReactionSum shouldEqual pathway.getReactionSum
+    readPathway.getMostCommonOrganism shouldEqual pathway.getMostCommonOrganism
+    readPathway.getMostCommonOrganismCount shouldEqual pathway.getMostCommonOrganismCount
+    readPathway.getMostNative shouldEqual pathway.getMostNative
+    readPathway.getDnaDesignRef shouldEqual pathway.getDnaDesignRef
+
+    readPathway.getPath.size shouldEqual path.size
+    readPathway.getPath.asScala.zip(path).foreach {
+      case (readNode, node) =>
+        withClue(s"For node ${node.getId()}") {
+          readNode.getIsReaction() shouldEqual node.getIsReaction()
+          readNode.getisSpontaneous() shouldEqual node.getisSpontaneous()
+          readNode.getSequences() shouldEqual node.getSequences()
+          readNode.getOrganisms() shouldEqual node.getOrganisms()
+          readNode.getReactionIds() shouldEqual node.getReactionIds()
+          readNode.getReactionCount() shouldEqual node.getReactionCount()
+          readNode.getId() shouldEqual node.getId()
+          readNode.getLabel() shouldEqual node.getLabel()
+          readNode.getPmids() shouldEqual node.getPmids()
+          readNode.getMostNative() shouldEqual node.getMostNative()
+        }
+    }
+  }
+}